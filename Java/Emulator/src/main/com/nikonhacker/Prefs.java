@@ -7,6 +7,7 @@ import com.nikonhacker.disassembly.Register32;
 import com.nikonhacker.disassembly.WriteListenerRegister32;
 import com.nikonhacker.disassembly.tx.NullRegister32;
 import com.nikonhacker.emu.AddressRange;
+import com.nikonhacker.emu.CheckpointManager;
 import com.nikonhacker.emu.EmulationFramework;
 import com.nikonhacker.emu.trigger.BreakTrigger;
 import com.nikonhacker.gui.EmulatorUI;
@@ -51,6 +52,7 @@ public class Prefs {
     private boolean[]                    logPinMessages;
     private boolean[]                    logRegisterMessages;
     private boolean[]                    adValueFromList;
+    private boolean[]                    blockExecution;
     private Map<String, List<Integer>>[] adValueListMap;
     private Map<String, Integer>[]       adValueMap;
     private EepromInitMode               eepromInitMode;
@@ -58,6 +60,13 @@ public class Prefs {
     private String                       lastEepromFileName;
     private Map<String, Integer>[]       ioValueOverrideMap;
     private boolean syncPlay = true;
+    private boolean eventQueueScheduling = false;
+    private boolean multiThreadedClock = false;
+    private boolean eventDrivenTimers = false;
+    private int multiThreadQuantumUs;
+    private int checkpointIntervalMs;
+    private int maxCheckpoints;
+    private boolean hashStatePages = false;
     private int[]                              serialInterfaceFrameSelectedTab;
     private int[]                              genericSerialFrameSelectedTab;
     private int[]                              ioPortsFrameSelectedTab;
@@ -136,6 +145,8 @@ public class Prefs {
     public static XStream getPrefsXStreamIn() {
         XStream xStream = XStreamUtils.getBaseXStream();
         xStream.omitField(BreakTrigger.class, "function");
+        // Option of a removed feature, which may be present in existing preference files
+        xStream.omitField(Prefs.class, "compileHotBlocks");
         xStream.alias("wpos", WindowPosition.class);
         xStream.alias("r32", Register32.class);
         xStream.alias("nr32", NullRegister32.class);
@@ -452,6 +463,16 @@ public class Prefs {
         this.adValueFromList[chip] = isAdValueFromList;
     }
 
+    public boolean isBlockExecution(int chip) {
+        if (blockExecution == null || blockExecution.length != 2) blockExecution = new boolean[]{false, false};
+        return blockExecution[chip];
+    }
+
+    public void setBlockExecution(int chip, boolean isBlockExecution) {
+        if (blockExecution == null || blockExecution.length != 2) blockExecution = new boolean[]{false, false};
+        this.blockExecution[chip] = isBlockExecution;
+    }
+
     public int getSerialInterfaceFrameSelectedTab(int chip) {
         if (this.serialInterfaceFrameSelectedTab == null || this.serialInterfaceFrameSelectedTab.length != 2) this.serialInterfaceFrameSelectedTab = new int[]{0, 0};
         return serialInterfaceFrameSelectedTab[chip];
@@ -555,6 +576,90 @@ public class Prefs {
         this.syncPlay = syncPlay;
     }
 
+    public boolean isEventQueueScheduling() {
+        return eventQueueScheduling;
+    }
+
+    public void setEventQueueScheduling(boolean eventQueueScheduling) {
+        this.eventQueueScheduling = eventQueueScheduling;
+    }
+
+    public boolean isMultiThreadedClock() {
+        return multiThreadedClock;
+    }
+
+    public void setMultiThreadedClock(boolean multiThreadedClock) {
+        this.multiThreadedClock = multiThreadedClock;
+    }
+
+    public boolean isEventDrivenTimers() {
+        return eventDrivenTimers;
+    }
+
+    public void setEventDrivenTimers(boolean eventDrivenTimers) {
+        this.eventDrivenTimers = eventDrivenTimers;
+    }
+
+    public int getMultiThreadQuantumUs() {
+        // Constrain
+        if (multiThreadQuantumUs < 1 || multiThreadQuantumUs > 10000) {
+            multiThreadQuantumUs = 10;
+        }
+        return multiThreadQuantumUs;
+    }
+
+    public void setMultiThreadQuantumUs(int multiThreadQuantumUs) {
+        this.multiThreadQuantumUs = multiThreadQuantumUs;
+    }
+
+    /**
+     * @return the quantum to apply to the MasterClock, in picoseconds, or 0 if chips must not run in parallel
+     */
+    public long getMultiThreadQuantumPs() {
+        return multiThreadedClock ? getMultiThreadQuantumUs() * 1_000_000L : 0;
+    }
+
+
+    /**
+     * @return the emulated time between in-memory checkpoints, in ms, or 0 if checkpoints are disabled
+     */
+    public int getCheckpointIntervalMs() {
+        // Constrain
+        if (checkpointIntervalMs < 0 || checkpointIntervalMs > 60000) {
+            checkpointIntervalMs = 0;
+        }
+        return checkpointIntervalMs;
+    }
+
+    public void setCheckpointIntervalMs(int checkpointIntervalMs) {
+        this.checkpointIntervalMs = checkpointIntervalMs;
+    }
+
+    public int getMaxCheckpoints() {
+        // Constrain
+        if (maxCheckpoints < 1 || maxCheckpoints > 1000) {
+            maxCheckpoints = CheckpointManager.DEFAULT_MAX_CHECKPOINTS;
+        }
+        return maxCheckpoints;
+    }
+
+    public void setMaxCheckpoints(int maxCheckpoints) {
+        this.maxCheckpoints = maxCheckpoints;
+    }
+
+
+    /**
+     * @return true if memory pages must be hashed when a full state is saved or loaded, so that delta states only
+     * contain pages that really differ from it
+     */
+    public boolean isHashStatePages() {
+        return hashStatePages;
+    }
+
+    public void setHashStatePages(boolean hashStatePages) {
+        this.hashStatePages = hashStatePages;
+    }
+
 
     public EmulationFramework.ExecutionMode getAltExecutionModeForSyncedCpuUponDebug(int chip) {
         if (this.altExecutionModeForSyncedCpuUponDebug == null || this.altExecutionModeForSyncedCpuUponDebug.length != 2) {
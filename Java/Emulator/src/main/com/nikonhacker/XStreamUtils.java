@@ -1,6 +1,7 @@
 package com.nikonhacker;
 
 import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
 import com.thoughtworks.xstream.io.xml.StaxDriver;
 import com.thoughtworks.xstream.mapper.MapperWrapper;
 
@@ -38,7 +39,11 @@ public class XStreamUtils {
     }
 
     public static XStream getBaseXStream() {
-        return new XStream(new StaxDriver()) {
+        return getBaseXStream(new StaxDriver());
+    }
+
+    public static XStream getBaseXStream(HierarchicalStreamDriver driver) {
+        return new XStream(driver) {
             @Override
             protected MapperWrapper wrapMapper(MapperWrapper next) {
                 return new MapperWrapper(next) {
@@ -3,8 +3,7 @@ package com.nikonhacker.disassembly;
 import com.nikonhacker.ApplicationInfo;
 import com.nikonhacker.Format;
 import com.nikonhacker.Constants;
-import com.nikonhacker.emu.memory.FastMemory;
-import com.nikonhacker.emu.memory.FastMemoryLE;
+import com.nikonhacker.emu.memory.ByteBufferMemory;
 import com.nikonhacker.emu.memory.Memory;
 import com.nikonhacker.disassembly.fr.FrCodeAnalyzer;
 import com.nikonhacker.disassembly.tx.TxCodeAnalyzer;
@@ -12,6 +11,7 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.*;
+import java.nio.ByteOrder;
 import java.util.*;
 
 public abstract class Disassembler {
@@ -583,7 +583,7 @@ public abstract class Disassembler {
         }
 
         if (memory == null) {
-            memory = (chip==Constants.CHIP_ARM ? new FastMemoryLE() : new FastMemory());
+            memory = new ByteBufferMemory(chip==Constants.CHIP_ARM ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
             memory.loadFile(new File(inputFileName), fileRanges, true);
         }
     }
@@ -171,10 +171,12 @@ public class FrStatement extends Statement {
 
         int tmp;
         int pos;
+        int registerListOffset = c;
 
         boolean writeDirection = false; // for memory operations
 
         decodedImm = imm;
+        decodedImmBitWidth = immBitWidth;
         decodedRiRsFs = ri_rs_fs;
         decodedRjRtFt = rj_rt_ft;
 
@@ -216,11 +218,11 @@ public class FrStatement extends Statement {
                     break;
                 case '2':
                     decodedImm <<= 1;
-                    immBitWidth += 1;
+                    decodedImmBitWidth += 1;
                     break;
                 case '4':
                     decodedImm <<= 2;
-                    immBitWidth += 2;
+                    decodedImmBitWidth += 2;
                     break;
 
                 case 'A':
@@ -299,24 +301,24 @@ public class FrStatement extends Statement {
                     if (context.cpuState.isRegisterDefined(decodedRiRsFs))
                     {
                         decodedImm = context.cpuState.getReg(decodedRiRsFs);
-                        immBitWidth = 32;
+                        decodedImmBitWidth = 32;
                     }
                     else
                     {
                         decodedImm = 0;
-                        immBitWidth = 0;
+                        decodedImmBitWidth = 0;
                     }
                     break;
                 case 'J':
                     if (context.cpuState.isRegisterDefined(decodedRjRtFt))
                     {
                         decodedImm = context.cpuState.getReg(decodedRjRtFt);
-                        immBitWidth = 32;
+                        decodedImmBitWidth = 32;
                     }
                     else
                     {
                         decodedImm = 0;
-                        immBitWidth = 0;
+                        decodedImmBitWidth = 0;
                     }
                     break;
 
@@ -327,7 +329,7 @@ public class FrStatement extends Statement {
                 case 'Y':
                     throw new RuntimeException("no more X or Y : operand parsing is now done in decodeOperands()");
                 case 'a':
-                    pos = immBitWidth;
+                    pos = decodedImmBitWidth;
                     while (pos >= 8){
                         pos -= 8;
                         currentBuffer.append(Format.asAscii(decodedImm >> pos));
@@ -336,7 +338,7 @@ public class FrStatement extends Statement {
                 case 'b':
                     /* shift2 */
                     decodedImm += 16;
-                    immBitWidth += 1;
+                    decodedImmBitWidth += 1;
                     break;
                 case 'c':
                     /* coprocessor operation */
@@ -347,7 +349,7 @@ public class FrStatement extends Statement {
                     currentBuffer.append(decodedImm);
                     break;
                 case 'f':
-                    pos = immBitWidth >> 1;
+                    pos = decodedImmBitWidth >> 1;
 
                     tmp = (int)(((1L << pos) - 1) & (decodedImm >> pos));
                     int tmq = (int)(((1L << pos) - 1) & decodedImm);
@@ -381,45 +383,45 @@ public class FrStatement extends Statement {
                     break;
                 case 'n':
                     /* negative constant */
-                    currentBuffer.append(Format.asHexInBitsLength("-" + (outputOptions.contains(OutputOption.DOLLAR)?"$":"0x"), -BinaryArithmetics.negativeExtend(immBitWidth, decodedImm), immBitWidth + 1));
+                    currentBuffer.append(Format.asHexInBitsLength("-" + (outputOptions.contains(OutputOption.DOLLAR)?"$":"0x"), -BinaryArithmetics.negativeExtend(decodedImmBitWidth, decodedImm), decodedImmBitWidth + 1));
                     break;
                 case 'p':
                     /* pair */
-                    pos = immBitWidth >> 1;
+                    pos = decodedImmBitWidth >> 1;
                     currentBuffer.append(Format.asHexInBitsLength((outputOptions.contains(OutputOption.DOLLAR)?"$":"0x"), ((1 << pos) - 1) & (decodedImm >> pos), pos));
                     currentBuffer.append(fmt_nxt);
                     currentBuffer.append(Format.asHexInBitsLength((outputOptions.contains(OutputOption.DOLLAR)?"$":"0x"), ((1 << pos) - 1) & decodedImm, pos));
                     break;
                 case 'q':
                     /* rational */
-                    pos = immBitWidth >> 1;
+                    pos = decodedImmBitWidth >> 1;
                     currentBuffer.append(((1L << pos) - 1) & (decodedImm >> pos));
                     currentBuffer.append("/");
                     currentBuffer.append(((1L << pos) - 1) & decodedImm);
                     break;
                 case 'r':
                     /* relative */
-                    decodedImm = context.cpuState.pc + 2 + BinaryArithmetics.signExtend(immBitWidth, decodedImm);
-                    immBitWidth = 32;
+                    decodedImm = context.cpuState.pc + 2 + BinaryArithmetics.signExtend(decodedImmBitWidth, decodedImm);
+                    decodedImmBitWidth = 32;
                     break;
                 case 's':
                     /* signed constant */
-                    if (BinaryArithmetics.isNegative(immBitWidth, decodedImm))
+                    if (BinaryArithmetics.isNegative(decodedImmBitWidth, decodedImm))
                     {
                         /* avoid "a+-b" : remove the last "+" so that output is "a-b" */
                         if (outputOptions.contains(OutputOption.CSTYLE) && (currentBuffer.charAt(currentBuffer.length() - 1) == '+')) {
                             currentBuffer.delete(currentBuffer.length() - 1, currentBuffer.length() - 1);
                         }
-                        currentBuffer.append(Format.asHexInBitsLength("-" + (outputOptions.contains(OutputOption.DOLLAR)?"$":"0x"), BinaryArithmetics.neg(immBitWidth, decodedImm), immBitWidth));
+                        currentBuffer.append(Format.asHexInBitsLength("-" + (outputOptions.contains(OutputOption.DOLLAR)?"$":"0x"), BinaryArithmetics.neg(decodedImmBitWidth, decodedImm), decodedImmBitWidth));
                     }
                     else
                     {
-                        currentBuffer.append(Format.asHexInBitsLength((outputOptions.contains(OutputOption.DOLLAR)?"$":"0x"), decodedImm, immBitWidth - 1));
+                        currentBuffer.append(Format.asHexInBitsLength((outputOptions.contains(OutputOption.DOLLAR)?"$":"0x"), decodedImm, decodedImmBitWidth - 1));
                     }
                     break;
                 case 'u':
                     /* unsigned constant */
-                    currentBuffer.append(Format.asHexInBitsLength((outputOptions.contains(OutputOption.DOLLAR)?"$":"0x"), decodedImm, immBitWidth));
+                    currentBuffer.append(Format.asHexInBitsLength((outputOptions.contains(OutputOption.DOLLAR)?"$":"0x"), decodedImm, decodedImmBitWidth));
                     break;
                 case 'v':
                     /* vector */
@@ -429,7 +431,7 @@ public class FrStatement extends Statement {
                     decodedImm |= 0x100;
                     break;
                 case 'y':
-                    c += 8; // use high register list
+                    registerListOffset += 8; // use high register list
                     // continue with case 'z'
                 case 'z':
                     /* register list */
@@ -445,7 +447,7 @@ public class FrStatement extends Statement {
                                     first = false;
                                 else
                                     currentBuffer.append(",");
-                                currentBuffer.append(FrCPUState.registerLabels[c + 7 - i]);
+                                currentBuffer.append(FrCPUState.registerLabels[registerListOffset + 7 - i]);
                             }
                         }
                     } else {
@@ -457,7 +459,7 @@ public class FrStatement extends Statement {
                                     first = false;
                                 else
                                     currentBuffer.append(",");
-                                currentBuffer.append(FrCPUState.registerLabels[c + i]);
+                                currentBuffer.append(FrCPUState.registerLabels[registerListOffset + i]);
                             }
                         }
                     }
@@ -9,6 +9,9 @@ public class TxInstruction extends Instruction {
     private TxInstructionSet.InstructionFormat32 instructionFormat32;
     private TxInstructionSet.InstructionFormat16 instructionFormat16;
 
+    /** Number of CPU cycles this instruction takes to execute */
+    private int numCycles = 1;
+
     /**
      * Creates a new TxInstruction
      * @param name the symbolic name
@@ -63,6 +66,14 @@ public class TxInstruction extends Instruction {
         return instructionFormat16;
     }
 
+    public int getNumCycles() {
+        return numCycles;
+    }
+
+    public void setNumCycles(int numCycles) {
+        this.numCycles = numCycles;
+    }
+
     @Override
     public String toString() {
         return getName();
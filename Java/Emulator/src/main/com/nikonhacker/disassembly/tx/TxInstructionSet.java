@@ -5597,6 +5597,24 @@ public class TxInstructionSet
 
 
 
+    /**
+     * Execution cycles of instructions that do not complete in a single pipeline cycle.
+     * These are approximations based on the TX19A core manual, not taking memory wait states nor interlocks into account
+     */
+    public static final int CYCLES_MULT = 2;  /* Multiplier, including multiply-accumulate */
+    public static final int CYCLES_DIV  = 35; /* Divider (32-bit / 32-bit) */
+
+    static {
+        for (TxInstruction instruction : new TxInstruction[]{multInstruction, multuInstruction, mulInstruction,
+                madd32Instruction, maddu32Instruction, msubInstruction, msubuInstruction,
+                madd16Instruction, maddu16Instruction, multLightInstruction, multuLightInstruction}) {
+            instruction.setNumCycles(CYCLES_MULT);
+        }
+        for (TxInstruction instruction : new TxInstruction[]{divInstruction, divuInstruction, diveInstruction, diveuInstruction}) {
+            instruction.setNumCycles(CYCLES_DIV);
+        }
+    }
+
     /**
      * Default instruction decoding upon class loading
      */
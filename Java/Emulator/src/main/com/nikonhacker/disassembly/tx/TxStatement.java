@@ -396,6 +396,8 @@ public class TxStatement extends Statement {
         /* DISPLAY FORMAT processing */
         decodedImm = imm;
         decodedImmBitWidth = immBitWidth;
+        // may have been shifted by a previous formatting of the same statement
+        c = 0;
 
         setOperandString(format(context, outputOptions, instruction.getOperandFormat()));
 
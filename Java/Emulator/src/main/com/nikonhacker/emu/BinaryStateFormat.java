@@ -0,0 +1,67 @@
+package com.nikonhacker.emu;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.binary.BinaryStreamDriver;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This class reads and writes the state of an EmulationFramework (without memory) in a compact binary format.
+ *
+ * The object graph is walked by XStream, with the same configuration as XML state files (see
+ * EmulationFramework.getFrameworkXStream()), so that any field added to a peripheral is saved without
+ * maintaining a dedicated writer. But instead of XML text, XStream's binary token format is streamed directly
+ * to the output: element and attribute names are only written once, and no intermediate String is built.
+ * Registers, by far the most frequent objects, have an explicit converter (see Register32Converter). CPU states and
+ * MasterClock entries are still walked by reflection, as their fields differ by chip and scheduling mode, and a
+ * hand-written writer would silently drop the ones added later.
+ *
+ * Format: int MAGIC, short VERSION, then the XStream binary tokens.
+ * VERSION must be increased if a change to the framework classes prevents older states from being read.
+ * An instance can be shared by several threads.
+ */
+public class BinaryStateFormat {
+    public static final int   MAGIC   = 0x4E485354; // "NHST"
+    public static final short VERSION = 1;
+
+    private final BinaryStreamDriver driver = new BinaryStreamDriver();
+
+    /** Built once, as building an XStream instance is costly */
+    private final XStream xStream = EmulationFramework.getFrameworkXStream(driver);
+
+    /**
+     * Write the state of the given framework. The stream is flushed, not closed
+     */
+    public void write(EmulationFramework framework, OutputStream outputStream) throws IOException {
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.writeInt(MAGIC);
+        dataOutputStream.writeShort(VERSION);
+        dataOutputStream.flush();
+        HierarchicalStreamWriter writer = driver.createWriter(outputStream);
+        xStream.marshal(framework, writer);
+        writer.flush();
+    }
+
+    /**
+     * Read a framework state written by write(). Only what belongs to the state is consumed from the stream,
+     * which is not closed
+     */
+    public EmulationFramework read(InputStream inputStream) throws IOException {
+        DataInputStream dataInputStream = new DataInputStream(inputStream);
+        if (dataInputStream.readInt() != MAGIC) {
+            throw new IOException("Not a binary emulator state");
+        }
+        short version = dataInputStream.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary emulator state version " + version);
+        }
+        HierarchicalStreamReader reader = driver.createReader(inputStream);
+        return (EmulationFramework) xStream.unmarshal(reader);
+    }
+}
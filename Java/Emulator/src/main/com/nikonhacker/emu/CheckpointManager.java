@@ -0,0 +1,219 @@
+package com.nikonhacker.emu;
+
+import com.nikonhacker.Prefs;
+import com.nikonhacker.emu.memory.MemoryDelta;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class keeps in-memory checkpoints of a running emulation, so that it can be rewound to a recent state.
+ *
+ * A checkpoint is taken by the clock thread each time a given amount of emulated time has elapsed.
+ * Memory is not copied at each checkpoint: memories are switched to checkpoint tracking mode, in which a page is
+ * only copied before its first modification (see AbstractMemory.setCheckpointTracking()). Each checkpoint thus
+ * holds the pages modified between it and the next one, as they were when it was taken.
+ * The rest of the state (CPUs, peripherals, clock) is kept as a compressed serialization of the framework,
+ * without memory, in the format of state files (see BinaryStateFormat).
+ *
+ * Rewinding to a checkpoint writes back the pages of that checkpoint and of all later ones, from the most recent,
+ * then rebuilds a framework from the serialized state.
+ */
+public class CheckpointManager {
+
+    public static final int DEFAULT_MAX_CHECKPOINTS = 20;
+
+    private final int maxCheckpoints;
+
+    /** Checkpoints, oldest first */
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+
+    private EmulationFramework framework;
+
+    public CheckpointManager(int maxCheckpoints) {
+        this.maxCheckpoints = Math.max(1, maxCheckpoints);
+    }
+
+    /**
+     * Start taking checkpoints of the given framework. The current state becomes the first checkpoint
+     * @param intervalPs the emulated time between checkpoints
+     */
+    public synchronized void attach(EmulationFramework framework, long intervalPs) {
+        this.framework = framework;
+        checkpoints.clear();
+        for (int chip = 0; chip < 2; chip++) {
+            if (framework.getPlatform(chip) != null) {
+                framework.getPlatform(chip).getMemory().setCheckpointTracking(true);
+            }
+        }
+        takeSnapshot();
+        framework.getMasterClock().setPeriodicAction(new Runnable() {
+            @Override
+            public void run() {
+                takeCheckpoint();
+            }
+        }, intervalPs);
+    }
+
+    /**
+     * Stop taking checkpoints, and forget the existing ones
+     */
+    public synchronized void detach() {
+        if (framework != null) {
+            framework.getMasterClock().setPeriodicAction(null, 0);
+            for (int chip = 0; chip < 2; chip++) {
+                if (framework.getPlatform(chip) != null) {
+                    framework.getPlatform(chip).getMemory().setCheckpointTracking(false);
+                }
+            }
+            framework = null;
+        }
+        checkpoints.clear();
+    }
+
+    /**
+     * Take a checkpoint now. Must be called while the emulation is stopped, or from the clock thread
+     */
+    public synchronized void takeCheckpoint() {
+        if (framework == null) {
+            return;
+        }
+        Checkpoint last = checkpoints.get(checkpoints.size() - 1);
+        last.deltas = takeDeltas();
+        if (checkpoints.size() == maxCheckpoints) {
+            checkpoints.remove(0);
+        }
+        takeSnapshot();
+    }
+
+    private MemoryDelta[] takeDeltas() {
+        MemoryDelta[] deltas = new MemoryDelta[2];
+        for (int chip = 0; chip < 2; chip++) {
+            if (framework.getPlatform(chip) != null) {
+                deltas[chip] = framework.getPlatform(chip).getMemory().takeCheckpointDelta();
+            }
+        }
+        return deltas;
+    }
+
+    private void takeSnapshot() {
+        byte[] state = null;
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+            EmulationFramework.getBinaryStateFormat().write(framework, gzipOutputStream);
+            gzipOutputStream.close();
+            state = outputStream.toByteArray();
+        } catch (Exception e) {
+            // e.g. if a spy frame inserted a component that cannot be serialized. Memory is still tracked
+            System.err.println("Could not take checkpoint: " + e.getMessage());
+        }
+        checkpoints.add(new Checkpoint(framework.getMasterClock().getTotalElapsedTimePs(), state));
+    }
+
+    /**
+     * @return the number of checkpoints that can currently be rewound to
+     */
+    public synchronized int getNumCheckpoints() {
+        return checkpoints.size();
+    }
+
+    /**
+     * @return the emulated time of the given checkpoint, 0 being the oldest
+     */
+    public synchronized long getCheckpointTimePs(int index) {
+        return checkpoints.get(index).timePs;
+    }
+
+    /**
+     * @return the memory used by checkpoints, in bytes
+     */
+    public synchronized long getSizeInBytes() {
+        long size = 0;
+        for (Checkpoint checkpoint : checkpoints) {
+            if (checkpoint.state != null) {
+                size += checkpoint.state.length;
+            }
+            if (checkpoint.deltas != null) {
+                for (MemoryDelta delta : checkpoint.deltas) {
+                    if (delta != null) {
+                        size += delta.getSizeInBytes();
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Bring the emulation back to the given checkpoint. Later checkpoints are discarded, and checkpointing
+     * continues from there with the returned framework.
+     * Must only be called while the emulation is stopped.
+     * @param index the checkpoint to rewind to, 0 being the oldest
+     * @return a new framework, in the state of that checkpoint. The current framework must not be used anymore
+     */
+    public synchronized EmulationFramework rewind(int index, Prefs prefs) throws IOException {
+        Checkpoint target = checkpoints.get(index);
+        if (target.state == null) {
+            throw new IOException("Checkpoint at " + target.timePs + "ps could not be taken");
+        }
+        // Undo changes since last checkpoint, then those between checkpoints, most recent first
+        applyDeltas(takeDeltas());
+        for (int i = checkpoints.size() - 2; i >= index; i--) {
+            applyDeltas(checkpoints.get(i).deltas);
+        }
+        while (checkpoints.size() > index + 1) {
+            checkpoints.remove(checkpoints.size() - 1);
+        }
+        target.deltas = null;
+
+        for (int chip = 0; chip < 2; chip++) {
+            if (framework.getPlatform(chip) != null) {
+                // Writes of the deltas were not tracked. The target checkpoint is now the current state
+                framework.getPlatform(chip).getMemory().setCheckpointTracking(true);
+            }
+        }
+        long intervalPs = framework.getMasterClock().getPeriodicActionIntervalPs();
+        framework.getMasterClock().setPeriodicAction(null, 0);
+
+        EmulationFramework restoredFramework = EmulationFramework.getBinaryStateFormat().read(new GZIPInputStream(new ByteArrayInputStream(target.state)));
+        framework = EmulationFramework.restoreCheckpoint(restoredFramework, framework, prefs);
+        framework.setCheckpointManager(this);
+        framework.getMasterClock().setPeriodicAction(new Runnable() {
+            @Override
+            public void run() {
+                takeCheckpoint();
+            }
+        }, intervalPs);
+        return framework;
+    }
+
+    private void applyDeltas(MemoryDelta[] deltas) {
+        for (int chip = 0; chip < 2; chip++) {
+            if (deltas[chip] != null) {
+                framework.getPlatform(chip).getMemory().applyDelta(deltas[chip]);
+            }
+        }
+    }
+
+    private static class Checkpoint {
+        final long   timePs;
+        /** Compressed serialization of the framework, or null if it failed */
+        final byte[] state;
+        /**
+         * Per chip, pages modified between this checkpoint and the next one, as they were at this checkpoint.
+         * Null for the last checkpoint, as they are still being tracked by memories
+         */
+        MemoryDelta[] deltas;
+
+        Checkpoint(long timePs, byte[] state) {
+            this.timePs = timePs;
+            this.state = state;
+        }
+    }
+}
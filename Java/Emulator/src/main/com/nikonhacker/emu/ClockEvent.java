@@ -0,0 +1,64 @@
+package com.nikonhacker.emu;
+
+/**
+ * An action to be run once by the MasterClock, at a given emulated time.
+ * Unlike a Clockable, which is woken up at each of its ticks, an event only costs something when it runs, and
+ * scheduling or cancelling it never causes the MasterClock to recompute its schedule.
+ * An event can be scheduled again at any time, including from its own action.
+ * @see MasterClock#schedule(ClockEvent, long)
+ */
+public class ClockEvent implements Comparable<ClockEvent> {
+    /** The chip whose thread runs the action */
+    private final int chip;
+
+    private final Runnable action;
+
+    /** Emulated time at which the action must run */
+    long timePs;
+
+    /** Order of scheduling, so that events scheduled at the same time run in the order they were scheduled */
+    long sequence;
+
+    /** True while the event is waiting in a queue of the MasterClock */
+    boolean queued;
+
+    public ClockEvent(int chip, Runnable action) {
+        this.chip = chip;
+        this.action = action;
+    }
+
+    public int getChip() {
+        return chip;
+    }
+
+    /**
+     * @return the emulated time at which the event will run, or did run last
+     */
+    public long getTimePs() {
+        return timePs;
+    }
+
+    /**
+     * @return true if the event is waiting to run
+     */
+    public boolean isScheduled() {
+        return queued;
+    }
+
+    void run() {
+        action.run();
+    }
+
+    @Override
+    public int compareTo(ClockEvent other) {
+        if (timePs != other.timePs) {
+            return timePs < other.timePs ? -1 : 1;
+        }
+        return Long.compare(sequence, other.sequence);
+    }
+
+    @Override
+    public String toString() {
+        return "ClockEvent @" + timePs + "ps for " + action;
+    }
+}
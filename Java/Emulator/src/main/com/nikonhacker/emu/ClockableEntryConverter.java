@@ -0,0 +1,35 @@
+package com.nikonhacker.emu;
+
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.converters.reflection.ReflectionConverter;
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+import com.thoughtworks.xstream.mapper.Mapper;
+
+import java.lang.reflect.Field;
+
+/**
+ * Reads MasterClock entries like the default converter, except that entries of states saved when their object was
+ * still a Clockable get a null clockable instead of failing the load. MasterClock drops these entries when resolved.
+ * This is the case of serial interfaces, the mirror box and the lens prototype, which now schedule ClockEvents
+ */
+class ClockableEntryConverter extends ReflectionConverter {
+    private static final String CLOCKABLE_FIELD_NAME = "clockable";
+
+    ClockableEntryConverter(Mapper mapper, ReflectionProvider reflectionProvider) {
+        super(mapper, reflectionProvider);
+    }
+
+    @Override
+    public boolean canConvert(Class type) {
+        return type == MasterClock.ClockableEntry.class;
+    }
+
+    @Override
+    protected Object unmarshallField(UnmarshallingContext context, Object result, Class type, Field field) {
+        Object value = super.unmarshallField(context, result, type, field);
+        if (CLOCKABLE_FIELD_NAME.equals(field.getName()) && !(value instanceof Clockable)) {
+            return null;
+        }
+        return value;
+    }
+}
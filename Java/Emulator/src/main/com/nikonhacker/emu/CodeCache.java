@@ -0,0 +1,99 @@
+package com.nikonhacker.emu;
+
+import com.nikonhacker.emu.memory.DebuggableMemory;
+import com.nikonhacker.emu.memory.listener.CodePageWriteListener;
+
+/**
+ * This class stores data derived from executable code (decoded statements, blocks of statements) indexed by address,
+ * so that an emulator only has to fetch and decode each instruction once.
+ * Entries of a page are dropped as soon as the memory warns that the page (or the next one, as an entry
+ * can overlap two pages) was written to.
+ * It is the emulator's responsibility to check that memory has no activity logger attached before using
+ * cached entries, as fetches are not performed anymore.
+ */
+public class CodeCache<T> implements CodePageWriteListener {
+    private final DebuggableMemory memory;
+
+    /** number of address bits to drop because of instruction alignment (e.g. 1 for 16-bit aligned instructions) */
+    private final int alignmentBits;
+
+    private final int pageSize;
+    private final int pageBits;
+
+    /** Cached entries, indexed by page then by aligned offset in the page */
+    private final Object[][] entries;
+
+    /** Number of page invalidations so far, so that code being executed can detect it was overwritten */
+    private int invalidationCount;
+
+    public CodeCache(DebuggableMemory memory, int alignmentBits) {
+        this.memory = memory;
+        this.alignmentBits = alignmentBits;
+        this.pageSize = memory.getPageSize();
+        this.pageBits = Integer.numberOfTrailingZeros(pageSize);
+        this.entries = new Object[memory.getNumPages()][];
+        memory.addCodePageWriteListener(this);
+    }
+
+    public DebuggableMemory getMemory() {
+        return memory;
+    }
+
+    public int getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * @param address the address of the first instruction
+     * @return the entry decoded at that address, or null if it is not cached
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int address) {
+        Object[] pageEntries = entries[address >>> pageBits];
+        if (pageEntries == null) {
+            return null;
+        }
+        return (T) pageEntries[(address & (pageSize - 1)) >>> alignmentBits];
+    }
+
+    /**
+     * Store a fully decoded entry.
+     * @param address the address of the first instruction
+     * @param numBytes the number of bytes of code the entry was decoded from. Must be less than a page
+     * @param entry the entry, which must not be modified afterwards
+     */
+    public void put(int address, int numBytes, T entry) {
+        int page = address >>> pageBits;
+        Object[] pageEntries = entries[page];
+        if (pageEntries == null) {
+            pageEntries = new Object[pageSize >>> alignmentBits];
+            entries[page] = pageEntries;
+        }
+        pageEntries[(address & (pageSize - 1)) >>> alignmentBits] = entry;
+        memory.markCodePage(address);
+        // Code may extend to the next page
+        memory.markCodePage(address + numBytes - 1);
+    }
+
+    public void clear() {
+        for (int page = 0; page < entries.length; page++) {
+            entries[page] = null;
+        }
+    }
+
+    /**
+     * Detach this cache from its memory. It must not be used anymore afterwards
+     */
+    public void dispose() {
+        memory.removeCodePageWriteListener(this);
+        clear();
+    }
+
+    @Override
+    public void onCodePageWrite(int page) {
+        invalidationCount++;
+        entries[page] = null;
+        // Last entries of the previous page may overlap this one
+        entries[(page - 1) & (entries.length - 1)] = null;
+    }
+}
@@ -59,6 +59,7 @@ import com.nikonhacker.emu.peripherials.serialInterface.SerialInterface;
 import com.nikonhacker.emu.peripherials.serialInterface.eeprom.St95040;
 import com.nikonhacker.emu.peripherials.serialInterface.eeprom.St950x0;
 import com.nikonhacker.emu.peripherials.serialInterface.fMount.FMountCircuit;
+import com.nikonhacker.emu.peripherials.serialInterface.fMount.LensPrototype;
 import com.nikonhacker.emu.peripherials.serialInterface.flashCharger.Nhhs2;
 import com.nikonhacker.emu.peripherials.serialInterface.fr.FrSerialInterface;
 import com.nikonhacker.emu.peripherials.serialInterface.imageSensor.Imx071;
@@ -66,6 +67,8 @@ import com.nikonhacker.emu.peripherials.serialInterface.lcd.LcdDriver;
 import com.nikonhacker.emu.peripherials.serialInterface.sensorBridge.Ei155;
 import com.nikonhacker.emu.peripherials.serialInterface.tx.TxHSerialInterface;
 import com.nikonhacker.emu.peripherials.serialInterface.tx.TxSerialInterface;
+import com.nikonhacker.emu.peripherials.serialInterface.util.ClockSyncSerialWire;
+import com.nikonhacker.emu.peripherials.serialInterface.util.IntFifoConverter;
 import com.nikonhacker.emu.peripherials.serialInterface.util.SpiBus;
 import com.nikonhacker.emu.trigger.BreakTrigger;
 import com.nikonhacker.emu.trigger.condition.AlwaysBreakCondition;
@@ -73,12 +76,14 @@ import com.nikonhacker.emu.trigger.condition.AndCondition;
 import com.nikonhacker.emu.trigger.condition.BreakPointCondition;
 import com.nikonhacker.emu.trigger.condition.MemoryValueBreakCondition;
 import com.thoughtworks.xstream.XStream;
-import org.apache.commons.io.IOUtils;
+import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
+import com.thoughtworks.xstream.io.xml.StaxDriver;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -87,8 +92,23 @@ public class EmulationFramework {
 
     private static final int BASE_ADDRESS_FUNCTION_CALL[] = {0xFFFFFFF0, 0x10001000};
 
+    /** Framework state in XML format, only read for backwards compatibility */
     private static final String FRAMEWORK_ZIPENTRY_NAME = "Framework";
+    /** Framework state in binary format, see BinaryStateFormat */
+    private static final String FRAMEWORK_BINARY_ZIPENTRY_NAME = "FrameworkState";
+
     private static final String MEMORY_ZIPENTRY_NAME    = "Memory";
+    private static final String STATE_ID_ZIPENTRY_NAME  = "StateId";
+    private static final String BASE_ZIPENTRY_NAME      = "Base";
+    private static final String DELTA_ZIPENTRY_NAME     = "MemoryDelta";
+
+    /**
+     * Holds the format shared by all saves, loads and checkpoints, as it takes longer to build than to save a
+     * typical state. It is only built upon first use, not when this class is loaded
+     */
+    private static class BinaryStateFormatHolder {
+        static final BinaryStateFormat INSTANCE = new BinaryStateFormat();
+    }
 
     /** Type of run */
     public static enum ExecutionMode {
@@ -124,6 +144,14 @@ public class EmulationFramework {
 
     private CodeStructure[] codeStructure;
 
+    /** Keeps in-memory checkpoints of the emulation, or null if checkpoints are disabled */
+    private CheckpointManager checkpointManager;
+
+    /** Full state file that delta state files can be saved against, or null if none */
+    private String deltaBaseFilename;
+    /** Identifier of deltaBaseFilename, so that a delta is never applied to another file with the same name */
+    private long   deltaBaseId;
+
     public EmulationFramework(Prefs prefs) {
         this.prefs = prefs;
         initCodeStructure();
@@ -157,6 +185,33 @@ public class EmulationFramework {
         return isEmulatorPlaying[chip];
     }
 
+    public CheckpointManager getCheckpointManager() {
+        return checkpointManager;
+    }
+
+    /**
+     * Enable or disable periodic in-memory checkpoints
+     * @param intervalMs the emulated time between checkpoints, or 0 to disable them
+     * @param maxCheckpoints the number of checkpoints to keep
+     */
+    public void setCheckpointInterval(int intervalMs, int maxCheckpoints) {
+        if (checkpointManager != null) {
+            checkpointManager.detach();
+            checkpointManager = null;
+        }
+        if (intervalMs > 0) {
+            checkpointManager = new CheckpointManager(maxCheckpoints);
+            checkpointManager.attach(this, intervalMs * MasterClock.PS_PER_MS);
+        }
+    }
+
+    /**
+     * Continue checkpointing a framework restored from a checkpoint with the same manager
+     */
+    void setCheckpointManager(CheckpointManager checkpointManager) {
+        this.checkpointManager = checkpointManager;
+    }
+
     public CodeStructure getCodeStructure(int chip) {
         return codeStructure[chip];
     }
@@ -184,6 +239,9 @@ public class EmulationFramework {
             // Scratch any analysis that was previously done
             codeStructure[chip] = null;
 
+            // Memory of this chip is replaced, so previous full state cannot be used as base anymore
+            deltaBaseFilename = null;
+
             // 2. CREATE NEW
 
             // TODO We should not create a new platform, just reset it
@@ -672,8 +730,9 @@ public class EmulationFramework {
         // Reconnect Fr Serial channel 5 with Tx serial interface HSC0
         SerialInterface frSerialInterface5 = frSerialInterfaces[5];
         SerialInterface txSerialInterfaceH0 = txSerialInterfaces[TxIoListener.NUM_SERIAL_IF + 0];
-        frSerialInterface5.connectTargetDevice(txSerialInterfaceH0);
-        txSerialInterfaceH0.connectTargetDevice(frSerialInterface5);
+        // Wires make sure values cross from one chip to the other at synchronization points if chips run in parallel
+        frSerialInterface5.connectTargetDevice(new ClockSyncSerialWire(frSerialInterface5.getName() + " > " + txSerialInterfaceH0.getName(), txSerialInterfaceH0, masterClock));
+        txSerialInterfaceH0.connectTargetDevice(new ClockSyncSerialWire(txSerialInterfaceH0.getName() + " > " + frSerialInterface5.getName(), frSerialInterface5, masterClock));
     }
 
     private void interconnectChipIoPorts(IoPort[] frIoPorts, IoPort[] txIoPorts, final FrInterruptController frInterruptController) {
@@ -753,6 +812,7 @@ public class EmulationFramework {
         //System.err.println("Preparing emulation of " + Constants.CHIP_LABEL[chip]);
         isEmulatorPlaying[chip] = true;
         emulator[chip].setOutputOptions(prefs.getOutputOptions(chip));
+        emulator[chip].setBlockExecutionMode(prefs.isBlockExecution(chip));
         masterClock.enableClockable(emulator[chip]);
         // TODO what's the use of this here ?
         platform[chip].getCpuState().setAllRegistersDefined();
@@ -820,7 +880,11 @@ public class EmulationFramework {
 
 
     public static XStream getFrameworkXStream() {
-        XStream xStream = XStreamUtils.getBaseXStream();
+        return getFrameworkXStream(new StaxDriver());
+    }
+
+    static XStream getFrameworkXStream(HierarchicalStreamDriver driver) {
+        XStream xStream = XStreamUtils.getBaseXStream(driver);
 
         // Don't store memory via XStream
         xStream.omitField(Platform.class, "memory");
@@ -828,6 +892,12 @@ public class EmulationFramework {
 
         // Don't store disassembled code via XStream (Java heap overflow)
         xStream.omitField(EmulationFramework.class, "codeStructure");
+        xStream.omitField(FrEmulator.class, "statementCache");
+        xStream.omitField(FrEmulator.class, "blockCache");
+        xStream.omitField(TxEmulator.class, "statementCache16");
+        xStream.omitField(TxEmulator.class, "statementCache32");
+        xStream.omitField(TxEmulator.class, "blockCache16");
+        xStream.omitField(TxEmulator.class, "blockCache32");
 
         // Don't store prefs
         xStream.omitField(EmulationFramework.class, "prefs");
@@ -838,11 +908,43 @@ public class EmulationFramework {
 
         // Don't store callback handler
         xStream.omitField(MasterClock.class, "clockableCallbackHandlers");
+        xStream.omitField(MasterClock.class, "eventQueue");
+        xStream.omitField(MasterClock.class, "parallelRun");
+        xStream.omitField(MasterClock.class, "periodicAction");
+        xStream.omitField(EmulationFramework.class, "checkpointManager");
+        xStream.omitField(EmulationFramework.class, "deltaBaseFilename");
+        xStream.omitField(EmulationFramework.class, "deltaBaseId");
         xStream.omitField(CameraLed.class, "listener");
+        xStream.omitField(MasterClock.class, "running");
+        xStream.omitField(FrLcd.class, "renderCache");
+
+        // Don't store links to debugging tools, which are only set while running
+        xStream.omitField(Emulator.class, "logger");
+        xStream.omitField(Emulator.class, "breakLogPrintWriter");
+        xStream.omitField(Emulator.class, "watchpointListener");
+        xStream.omitField(Emulator.class, "watchpointMemory");
+        xStream.omitField(Emulator.class, "pcBreakConditions");
 // instead of omit we close window before save
 //        xStream.omitField(IoPort.class, "IoPortConfigListener");
 
+        // Fifos are stored as lists of values. Local converters also read the LinkedLists of older states
+        xStream.registerConverter(new IntFifoConverter());
+        IntFifoConverter legacyFifoConverter = new IntFifoConverter(true);
+        xStream.registerLocalConverter(TxSerialInterface.class, "rxFifo", legacyFifoConverter);
+        xStream.registerLocalConverter(TxSerialInterface.class, "txFifo", legacyFifoConverter);
+        xStream.registerLocalConverter(FrSerialInterface.class, "fifo1Backend", legacyFifoConverter);
+        xStream.registerLocalConverter(FrSerialInterface.class, "fifo2Backend", legacyFifoConverter);
+
+        // Skip what older states stored about devices that were Clockables and now schedule ClockEvents
+        xStream.registerConverter(new ClockableEntryConverter(xStream.getMapper(), xStream.getReflectionProvider()));
+        xStream.omitField(TxSerialInterface.class, "bitNumberBeingTransferred");
+        xStream.omitField(FrSerialInterface.class, "bitNumberBeingTransferred");
+        xStream.omitField(MirrorBox.class, "timerCount");
+        xStream.omitField(LensPrototype.class, "timerCount");
+        xStream.omitField(LensPrototype.class, "isTimerActive");
+
         // Use some aliases
+        xStream.registerConverter(new Register32Converter());
         xStream.alias("r32", Register32.class);
         xStream.alias("nr32", NullRegister32.class);
         xStream.alias("wlr32", WriteListenerRegister32.class);
@@ -853,33 +955,106 @@ public class EmulationFramework {
     }
 
 
-    public static void saveStateToFile(EmulationFramework framework, String destinationFilename) throws IOException {
+    /**
+     * @return the full state file that delta state files would be saved against, or null if none
+     */
+    public String getDeltaBaseFilename() {
+        return deltaBaseFilename;
+    }
+
+    /**
+     * Save the full state of the framework. Once saved, the file becomes the base of delta state files, and
+     * memories start tracking the pages modified from now on
+     * @param hashPages see AbstractMemory.setDeltaBase()
+     */
+    public static void saveStateToFile(EmulationFramework framework, String destinationFilename, boolean hashPages) throws IOException {
         FileOutputStream fileOutputStream = new FileOutputStream(new File(destinationFilename));
         ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(fileOutputStream));
 
-        StringWriter writer = new StringWriter();
-        getFrameworkXStream().toXML(framework, writer);
-
-        byte[] bytes = writer.toString().getBytes("UTF-8");
-
-        ZipEntry zipEntry = new ZipEntry(FRAMEWORK_ZIPENTRY_NAME);
-        zipEntry.setSize(bytes.length);
-        zipOutputStream.putNextEntry(zipEntry);
-        IOUtils.write(bytes, zipOutputStream);
+        writeFrameworkEntry(framework, zipOutputStream);
 
         for (int chip = 0; chip < 2; chip++) {
             DebuggableMemory memory = framework.getPlatform(chip).getMemory();
-            zipEntry = new ZipEntry(MEMORY_ZIPENTRY_NAME + chip);
+            ZipEntry zipEntry = new ZipEntry(MEMORY_ZIPENTRY_NAME + chip);
             zipEntry.setSize(memory.getNumPages() + memory.getNumUsedPages() * memory.getPageSize());
             zipOutputStream.putNextEntry(zipEntry);
             memory.saveAllToStream(zipOutputStream);
         }
 
+        long stateId = new Random().nextLong();
+        zipOutputStream.putNextEntry(new ZipEntry(STATE_ID_ZIPENTRY_NAME));
+        new DataOutputStream(zipOutputStream).writeLong(stateId);
+
         zipOutputStream.close();
         fileOutputStream.close();
+
+        framework.setDeltaBase(new File(destinationFilename).getAbsolutePath(), stateId, hashPages);
     }
 
+    /**
+     * Save the state of the framework, but only the memory pages modified since the last full state was
+     * saved or loaded. Loading the resulting file requires that full state file.
+     */
+    public static void saveDeltaStateToFile(EmulationFramework framework, String destinationFilename) throws IOException {
+        if (framework.deltaBaseFilename == null) {
+            throw new IOException("A full state must be saved or loaded before a delta state can be saved");
+        }
+        FileOutputStream fileOutputStream = new FileOutputStream(new File(destinationFilename));
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(fileOutputStream));
+
+        writeFrameworkEntry(framework, zipOutputStream);
 
+        zipOutputStream.putNextEntry(new ZipEntry(BASE_ZIPENTRY_NAME));
+        DataOutputStream dataOutputStream = new DataOutputStream(zipOutputStream);
+        dataOutputStream.writeLong(framework.deltaBaseId);
+        dataOutputStream.writeUTF(framework.deltaBaseFilename);
+        dataOutputStream.flush();
+
+        for (int chip = 0; chip < 2; chip++) {
+            zipOutputStream.putNextEntry(new ZipEntry(DELTA_ZIPENTRY_NAME + chip));
+            framework.getPlatform(chip).getMemory().saveDeltaToStream(zipOutputStream);
+        }
+
+        zipOutputStream.close();
+        fileOutputStream.close();
+    }
+
+    static BinaryStateFormat getBinaryStateFormat() {
+        return BinaryStateFormatHolder.INSTANCE;
+    }
+
+    private static void writeFrameworkEntry(EmulationFramework framework, ZipOutputStream zipOutputStream) throws IOException {
+        zipOutputStream.putNextEntry(new ZipEntry(FRAMEWORK_BINARY_ZIPENTRY_NAME));
+        getBinaryStateFormat().write(framework, zipOutputStream);
+    }
+
+    /**
+     * Read the framework entry of a state file, in binary or XML format
+     */
+    private static EmulationFramework readFrameworkEntry(ZipInputStream zipInputStream) throws IOException {
+        ZipEntry entry = zipInputStream.getNextEntry();
+        if (entry != null && FRAMEWORK_BINARY_ZIPENTRY_NAME.equals(entry.getName())) {
+            return getBinaryStateFormat().read(zipInputStream);
+        }
+        else if (entry != null && FRAMEWORK_ZIPENTRY_NAME.equals(entry.getName())) {
+            return (EmulationFramework) XStreamUtils.load(zipInputStream, getFrameworkXStream());
+        }
+        else {
+            throw new IOException("Error loading state file\nFirst file not called " + FRAMEWORK_BINARY_ZIPENTRY_NAME + " nor " + FRAMEWORK_ZIPENTRY_NAME);
+        }
+    }
+
+    private void setDeltaBase(String baseFilename, long baseId, boolean hashPages) {
+        deltaBaseFilename = baseFilename;
+        deltaBaseId = baseId;
+        for (int chip = 0; chip < 2; chip++) {
+            getPlatform(chip).getMemory().setDeltaBase(hashPages);
+        }
+    }
+
+    /**
+     * Load a full or delta state file
+     */
     public static EmulationFramework load(String sourceFilename, Prefs prefs) throws IOException {
         EmulationFramework framework = null;
         FileInputStream fileInputStream = null;
@@ -889,50 +1064,53 @@ public class EmulationFramework {
             zipInputStream = new ZipInputStream(new BufferedInputStream(fileInputStream));
 
             // Read CPU State
+            framework = readFrameworkEntry(zipInputStream);
+
+            // clean code structure
+            framework.initCodeStructure();
+            /* Relink prefs */
+            framework.setPrefs(prefs);
+            framework.checkpointManager = null;
+
             ZipEntry entry = zipInputStream.getNextEntry();
-            if (entry == null || !FRAMEWORK_ZIPENTRY_NAME.equals(entry.getName())) {
-                throw new IOException("Error loading state file\nFirst file not called " + FRAMEWORK_ZIPENTRY_NAME);
+            if (entry != null && BASE_ZIPENTRY_NAME.equals(entry.getName())) {
+                // Delta state: start from the memory of the base
+                DataInputStream dataInputStream = new DataInputStream(zipInputStream);
+                long baseId = dataInputStream.readLong();
+                String baseFilename = findBaseFile(dataInputStream.readUTF(), sourceFilename);
+                DebuggableMemory[] memories = loadMemories(baseFilename, baseId, prefs);
+                for (int chip = 0; chip < 2; chip++) {
+                    memories[chip].setDeltaBase(prefs.isHashStatePages());
+                    entry = zipInputStream.getNextEntry();
+                    checkEntry(entry, DELTA_ZIPENTRY_NAME + chip);
+                    memories[chip].loadDeltaFromStream(zipInputStream);
+                    framework.attachMemory(chip, memories[chip]);
+                }
+                framework.deltaBaseFilename = baseFilename;
+                framework.deltaBaseId = baseId;
             }
             else {
-                framework = (EmulationFramework) XStreamUtils.load(zipInputStream, getFrameworkXStream());
-
-                // clean code structure
-                framework.initCodeStructure();
-                /* Relink prefs */
-                framework.setPrefs(prefs);
                 /* Restore and relink memory */
                 for (int chip = 0; chip < 2; chip++) {
                     // Read memory
-                    entry = zipInputStream.getNextEntry();
-                    String expectedEntry = MEMORY_ZIPENTRY_NAME + chip;
-                    if (entry == null || !expectedEntry.equals(entry.getName())) {
-                        throw new IOException("Error loading state file\nExpected a file called " + expectedEntry + " but got " + entry.getName());
-                    }
-                    else {
-                        // Restore memory to platform
-                        final DebuggableMemory memory = new DebuggableMemory(prefs.isLogMemoryMessages(chip));
-                        framework.getPlatform(chip).setMemory(memory);
-                        memory.loadAllFromStream(zipInputStream);
-                        // Also update its reference in framework
-                        framework.getEmulator(chip).context.memory = memory;
-                        framework.setupMemoryListeners(chip, memory);
+                    if (chip > 0) {
+                        entry = zipInputStream.getNextEntry();
                     }
+                    checkEntry(entry, MEMORY_ZIPENTRY_NAME + chip);
+                    // Restore memory to platform
+                    final DebuggableMemory memory = new DebuggableMemory(prefs.isLogMemoryMessages(chip));
+                    memory.loadAllFromStream(zipInputStream);
+                    framework.attachMemory(chip, memory);
                 }
-
-                ((TxDmaController)framework.getPlatform(Constants.CHIP_TX).getDmaController()).setPrefs(prefs);
-                // TODO add FR DMA when implemented
-                if (framework.getPlatform(Constants.CHIP_FR).getDmaController()!=null) {
-                    System.err.println("!!! add code for load FR DMA");
-                }
-                for (AdUnit adUnit : framework.getPlatform(Constants.CHIP_TX).getAdConverter().getUnits()) {
-                    for (int i = 0; i < adUnit.getNumChannels(); i++) {
-                        final AdValueProvider provider = adUnit.getProvider(i);
-                        if (provider instanceof AdPrefsValueProvider)
-                            ((AdPrefsValueProvider)provider).setPrefs(prefs);
-                    }
+                // Files saved before delta states were introduced have no id, and cannot be used as base
+                entry = zipInputStream.getNextEntry();
+                if (entry != null && STATE_ID_ZIPENTRY_NAME.equals(entry.getName())) {
+                    long stateId = new DataInputStream(zipInputStream).readLong();
+                    framework.setDeltaBase(new File(sourceFilename).getAbsolutePath(), stateId, prefs.isHashStatePages());
                 }
-                // We do not want that loaded front panel writes to Prefs, so do not set
             }
+
+            framework.relinkPrefs(prefs);
         } finally {
             if (zipInputStream != null) zipInputStream.close();
             if (fileInputStream != null) fileInputStream.close();
@@ -941,4 +1119,97 @@ public class EmulationFramework {
         return framework;
     }
 
+    private static void checkEntry(ZipEntry entry, String expectedEntry) throws IOException {
+        if (entry == null || !expectedEntry.equals(entry.getName())) {
+            throw new IOException("Error loading state file\nExpected a file called " + expectedEntry + " but got " + (entry == null ? "nothing" : entry.getName()));
+        }
+    }
+
+    /**
+     * Locate the base of a delta state file. If it was moved, it is looked for in the directory of the delta
+     */
+    private static String findBaseFile(String baseFilename, String deltaFilename) throws IOException {
+        File baseFile = new File(baseFilename);
+        if (!baseFile.exists()) {
+            baseFile = new File(new File(deltaFilename).getAbsoluteFile().getParentFile(), baseFile.getName());
+            if (!baseFile.exists()) {
+                throw new IOException("Error loading delta state file\nCould not find its base state file " + baseFilename);
+            }
+        }
+        return baseFile.getAbsolutePath();
+    }
+
+    /**
+     * Read memories from a full state file
+     * @param expectedStateId the id the file must have
+     */
+    private static DebuggableMemory[] loadMemories(String sourceFilename, long expectedStateId, Prefs prefs) throws IOException {
+        DebuggableMemory[] memories = new DebuggableMemory[2];
+        try (ZipInputStream zipInputStream = new ZipInputStream(new BufferedInputStream(new FileInputStream(sourceFilename)))) {
+            // Skip CPU state
+            zipInputStream.getNextEntry();
+            for (int chip = 0; chip < 2; chip++) {
+                checkEntry(zipInputStream.getNextEntry(), MEMORY_ZIPENTRY_NAME + chip);
+                memories[chip] = new DebuggableMemory(prefs.isLogMemoryMessages(chip));
+                memories[chip].loadAllFromStream(zipInputStream);
+            }
+            checkEntry(zipInputStream.getNextEntry(), STATE_ID_ZIPENTRY_NAME);
+            if (new DataInputStream(zipInputStream).readLong() != expectedStateId) {
+                throw new IOException("Error loading delta state file\nBase state file " + sourceFilename + " was overwritten since the delta was saved");
+            }
+        }
+        return memories;
+    }
+
+    /**
+     * Relink a framework deserialized from a state saved in memory by a CheckpointManager.
+     * @param framework the deserialized framework, without memory
+     * @param previous the current framework. The new one takes over its memory pages, which must already contain
+     *                 the values of the checkpoint, and keeps its code structures
+     * @return framework, ready to be used
+     */
+    static EmulationFramework restoreCheckpoint(EmulationFramework framework, EmulationFramework previous, Prefs prefs) {
+        framework.codeStructure = previous.codeStructure;
+        framework.deltaBaseFilename = previous.deltaBaseFilename;
+        framework.deltaBaseId = previous.deltaBaseId;
+        framework.setPrefs(prefs);
+        for (int chip = 0; chip < 2; chip++) {
+            framework.isEmulatorPlaying[chip] = false;
+            if (framework.getPlatform(chip) != null && previous.getPlatform(chip) != null) {
+                // Conditions of the interrupted run are rebuilt at next play
+                framework.getEmulator(chip).clearBreakConditions();
+                final DebuggableMemory memory = new DebuggableMemory(prefs.isLogMemoryMessages(chip));
+                memory.takePagesFrom(previous.getPlatform(chip).getMemory());
+                framework.attachMemory(chip, memory);
+            }
+        }
+        framework.relinkPrefs(prefs);
+        return framework;
+    }
+
+    private void attachMemory(int chip, DebuggableMemory memory) {
+        getPlatform(chip).setMemory(memory);
+        // Also update its reference in framework
+        getEmulator(chip).context.memory = memory;
+        setupMemoryListeners(chip, memory);
+    }
+
+    private void relinkPrefs(Prefs prefs) {
+        if (getPlatform(Constants.CHIP_TX) != null) {
+            ((TxDmaController)getPlatform(Constants.CHIP_TX).getDmaController()).setPrefs(prefs);
+            for (AdUnit adUnit : getPlatform(Constants.CHIP_TX).getAdConverter().getUnits()) {
+                for (int i = 0; i < adUnit.getNumChannels(); i++) {
+                    final AdValueProvider provider = adUnit.getProvider(i);
+                    if (provider instanceof AdPrefsValueProvider)
+                        ((AdPrefsValueProvider)provider).setPrefs(prefs);
+                }
+            }
+        }
+        // TODO add FR DMA when implemented
+        if (getPlatform(Constants.CHIP_FR) != null && getPlatform(Constants.CHIP_FR).getDmaController()!=null) {
+            System.err.println("!!! add code for load FR DMA");
+        }
+        // We do not want that loaded front panel writes to Prefs, so do not set
+    }
+
 }
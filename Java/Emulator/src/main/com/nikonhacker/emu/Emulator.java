@@ -3,27 +3,43 @@ package com.nikonhacker.emu;
 import com.nikonhacker.Constants;
 import com.nikonhacker.Format;
 import com.nikonhacker.disassembly.*;
+import com.nikonhacker.emu.interrupt.InterruptRequest;
 import com.nikonhacker.emu.memory.DebuggableMemory;
+import com.nikonhacker.emu.memory.listener.WatchpointActivityListener;
 import com.nikonhacker.emu.peripherials.interruptController.InterruptController;
+import com.nikonhacker.emu.trace.ExecutionTraceRecorder;
 import com.nikonhacker.emu.trigger.BreakTrigger;
 import com.nikonhacker.emu.trigger.condition.AndCondition;
 import com.nikonhacker.emu.trigger.condition.BreakCondition;
 import com.nikonhacker.emu.trigger.condition.BreakPointCondition;
+import com.nikonhacker.emu.trigger.condition.MemoryValueBreakCondition;
 import com.nikonhacker.gui.component.disassembly.DisassemblyLogger;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
 
 public abstract class Emulator implements Clockable {
+    /** Maximum number of statements grouped in a single block in block execution mode */
+    protected static final int MAX_BLOCK_STATEMENTS = 64;
+
     protected long                       totalCycles;
     protected DisassemblyLogger          logger;
     protected PrintWriter                breakLogPrintWriter;
     protected       int                  sleepIntervalMs = 0;
     protected final List<BreakCondition> breakConditions = new ArrayList<BreakCondition>();
-    protected final HashMap<Integer, BreakCondition> pcBreakConditions = new HashMap<Integer, BreakCondition>();
+    /** Conditions only depending on PC. Replaced on each change, so that it can be checked without locking */
+    protected volatile PcBreakpointTable pcBreakConditions = PcBreakpointTable.EMPTY;
+    /** true if PC or other conditions are present. Memory-only conditions don't prevent block execution */
     protected       boolean              breakConditionsPresent;
+    /** true if breakConditions is not empty, so that it is only locked when there is something to check */
+    protected volatile boolean           otherBreakConditionsPresent;
+    /** Conditions only depending on memory values are evaluated when watched words are written to */
+    protected volatile WatchpointActivityListener watchpointListener;
+    protected DebuggableMemory           watchpointMemory;
     protected       Set<OutputOption>    outputOptions   = EnumSet.noneOf(OutputOption.class);
     protected       boolean              exitSleepLoop   = false;
+    protected       boolean              blockExecutionMode;
 
     StatementContext context = new StatementContext();
 
@@ -41,6 +57,15 @@ public abstract class Emulator implements Clockable {
         this.platform = platform;
     }
 
+    /**
+     * PC conditions are not stored in states, like watchpoints: they are set again before each run.
+     * This method resets the table after loading a state, including the map stored by older states
+     */
+    protected Object readResolve() {
+        pcBreakConditions = PcBreakpointTable.EMPTY;
+        return this;
+    }
+
     /**
      * Provide an output to send disassembled form of executed instructions to
      * @param logger
@@ -77,10 +102,44 @@ public abstract class Emulator implements Clockable {
         this.sleepIntervalMs = sleepIntervalMs;
     }
 
+    public boolean isBlockExecutionMode() {
+        return blockExecutionMode;
+    }
+
+    /**
+     * Enables or disables block execution mode.
+     * In that mode, straight-line code up to the next jump, call, return or interrupt instruction is decoded once
+     * and executed as a single block per clock tick. Cycles of the block are accounted for at once and interrupts
+     * are only checked at block boundaries.
+     * The exact instruction by instruction mode is still used as long as break conditions, a disassembly logger,
+     * a sleep interval or memory activity loggers are present.
+     * @param blockExecutionMode
+     */
+    public void setBlockExecutionMode(boolean blockExecutionMode) {
+        this.blockExecutionMode = blockExecutionMode;
+    }
+
+    /**
+     * @return true if the next instructions can be executed as a block, false if they must be executed one by one
+     */
+    protected final boolean canExecuteBlock() {
+        return blockExecutionMode
+                && !breakConditionsPresent
+                && logger == null
+                && sleepIntervalMs == 0
+                && !platform.memory.hasReadOnlyActivityListeners();
+    }
+
     public final void clearBreakConditions() {
         synchronized (breakConditions) {
             breakConditions.clear();
-            pcBreakConditions.clear();
+            pcBreakConditions = PcBreakpointTable.EMPTY;
+            otherBreakConditionsPresent = false;
+            if (watchpointListener != null) {
+                watchpointMemory.removeActivityListener(watchpointListener);
+                watchpointListener = null;
+                watchpointMemory = null;
+            }
             breakConditionsPresent = false;
         }
     }
@@ -102,16 +161,75 @@ public abstract class Emulator implements Clockable {
                 }
             }
         }
+        List<MemoryValueBreakCondition> memoryConditions = getMemoryConditions(breakCondition);
         synchronized (breakConditions) {
             if (isPCCondition) {
-                pcBreakConditions.put(pc,breakCondition);
+                pcBreakConditions = pcBreakConditions.with(pc, breakCondition);
+            } else if (memoryConditions != null) {
+                if (watchpointListener == null) {
+                    watchpointListener = new WatchpointActivityListener();
+                    watchpointMemory = platform.memory;
+                    watchpointListener.addCondition(breakCondition, memoryConditions);
+                    watchpointMemory.addActivityListener(watchpointListener);
+                }
+                else {
+                    // re-register so that the memory indexes the pages of the new condition
+                    watchpointMemory.removeActivityListener(watchpointListener);
+                    watchpointListener.addCondition(breakCondition, memoryConditions);
+                    watchpointMemory.addActivityListener(watchpointListener);
+                }
             } else {
                 breakConditions.add(breakCondition);
+                otherBreakConditionsPresent = true;
+            }
+            if (memoryConditions == null) {
+                breakConditionsPresent = true;
             }
-            breakConditionsPresent = true;
         }
     }
 
+    /**
+     * @return true if words watched by memory conditions were written to since these conditions were last checked.
+     * This does not lock anything, so that it can be checked after each instruction or block
+     */
+    protected final boolean hasPendingWatchpointChanges() {
+        WatchpointActivityListener listener = watchpointListener;
+        return listener != null && listener.hasPendingChanges();
+    }
+
+    /**
+     * @return the memory conditions composing the given condition if it only depends on memory values,
+     * or null if it also depends on anything else (PC, registers, ...)
+     */
+    private List<MemoryValueBreakCondition> getMemoryConditions(BreakCondition breakCondition) {
+        List<MemoryValueBreakCondition> memoryConditions = new ArrayList<MemoryValueBreakCondition>();
+        if (breakCondition instanceof MemoryValueBreakCondition) {
+            memoryConditions.add((MemoryValueBreakCondition) breakCondition);
+        } else if (breakCondition instanceof AndCondition) {
+            for (BreakCondition condition : ((AndCondition) breakCondition).getConditions()) {
+                if (!(condition instanceof MemoryValueBreakCondition)) {
+                    return null;
+                }
+                memoryConditions.add((MemoryValueBreakCondition) condition);
+            }
+        }
+        return memoryConditions.isEmpty() ? null : memoryConditions;
+    }
+
+    /**
+     * Lets the clock skip the ticks that onClockTick() would ignore because the last instruction (or block)
+     * took several cycles. These ticks are then considered elapsed
+     * @return the number of ticks to skip
+     */
+    final int takeIdleTicks() {
+        int idleTicks = context.cycleIncrement - 1;
+        if (idleTicks <= 0) {
+            return 0;
+        }
+        context.cycleIncrement = 1;
+        return idleTicks;
+    }
+
     public void exitSleepLoop() {
         exitSleepLoop = true;
     }
@@ -171,13 +289,42 @@ public abstract class Emulator implements Clockable {
         }
     }
 
+    /**
+     * Notify CPU cycle listeners that the given number of cycles elapsed since totalCycles
+     * @param cycleIncrement
+     */
+    protected final void notifyCycleCounterListeners(int cycleIncrement) {
+        int cycleListenerNumber = 0;
+        while (cycleListenerNumber < cycleCounterListeners.size()) {
+            CycleCounterListener cycleCounterListener = cycleCounterListeners.get(cycleListenerNumber);
+            if (cycleCounterListener.onCycleCountChange(totalCycles, cycleIncrement)) {
+                cycleListenerNumber++;
+            }
+            else {
+                cycleCounterListeners.remove(cycleCounterListener);
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return Constants.CHIP_LABEL[getChip()] + " Emulator";
     }
 
-    protected void logIfRequested(DisassemblyLogger logger) throws DisassemblyException {
+    protected void logIfRequested(DisassemblyLogger logger) throws DisassemblyException, IOException {
         if (logger != null && logger.mustLog(platform.cpuState.pc)) {
+            ExecutionTraceRecorder traceRecorder = logger.getTraceRecorder();
+            if (traceRecorder != null) {
+                // Binary trace: no formatting at all
+                if (logger.isLogging()) {
+                    try {
+                        traceRecorder.recordStatement(platform.getMasterClock().getTotalElapsedTimePs(), platform.cpuState);
+                    } catch (IOException e) {
+                        stopTraceRecording(traceRecorder, e);
+                    }
+                }
+                return;
+            }
             StringBuilder msg = new StringBuilder();
             if (logger.isIncludeTimestamp()) {
                 msg.append(platform.getMasterClock().getFormatedTotalElapsedTimeMs()).append(" ");
@@ -205,6 +352,41 @@ public abstract class Emulator implements Clockable {
         }
     }
 
+    /**
+     * Log the acceptance of the given interrupt, and indent further lines
+     */
+    protected void logInterrupt(DisassemblyLogger logger, InterruptRequest interruptRequest) {
+        ExecutionTraceRecorder traceRecorder = logger.getTraceRecorder();
+        if (traceRecorder != null) {
+            if (logger.isLogging()) {
+                try {
+                    traceRecorder.recordInterrupt(platform.getMasterClock().getTotalElapsedTimePs(), interruptRequest.getInterruptNumber());
+                } catch (IOException e) {
+                    stopTraceRecording(traceRecorder, e);
+                }
+            }
+        }
+        else {
+            if (logger.isIncludeInterruptMarks()) {
+                logger.println(platform.getMasterClock().getFormatedTotalElapsedTimeMs() + " ------------------------- Accepting " + interruptRequest);
+            }
+            logger.indent();
+        }
+    }
+
+    /**
+     * Close a trace that could not be written to. A closed recorder ignores further records, so the error is
+     * only reported once, and emulation goes on without recording
+     */
+    private void stopTraceRecording(ExecutionTraceRecorder traceRecorder, IOException e) {
+        System.err.println(Constants.CHIP_LABEL[getChip()] + ": error writing execution trace, recording stopped: " + e.getMessage());
+        try {
+            traceRecorder.close();
+        } catch (IOException e1) {
+            // noop: already reported
+        }
+    }
+
     protected void sleep() {
         exitSleepLoop = false;
         if (sleepIntervalMs < 100) {
@@ -255,12 +437,27 @@ public abstract class Emulator implements Clockable {
     }
     
     protected final BreakCondition processConditions() {
+        // check fast pc-based conditions first, without locking
+        final BreakCondition pcBreakCondition = pcBreakConditions.get(platform.cpuState.getPc()&(~1));
+        if (pcBreakCondition!=null) {
+            if (executeBreakCondition(pcBreakCondition))
+                return pcBreakCondition;
+        }
+        if (!otherBreakConditionsPresent && !hasPendingWatchpointChanges()) {
+            return null;
+        }
         synchronized(breakConditions) {
-            // check fast pc-based conditions first
-            final BreakCondition pcBreakCondition = pcBreakConditions.get(platform.cpuState.getPc()&(~1));
-            if (pcBreakCondition!=null) {
-                if (executeBreakCondition(pcBreakCondition))
-                    return pcBreakCondition;
+            // check memory conditions whose words were written to since last check
+            if (watchpointListener != null && watchpointListener.hasPendingChanges()) {
+                for (int i = 0; i < watchpointListener.getNumConditions(); i++) {
+                    final BreakCondition breakCondition = watchpointListener.getChangedCondition(i);
+                    if (breakCondition != null && breakCondition.matches(platform.cpuState, platform.memory)) {
+                        if (executeBreakCondition(breakCondition))
+                            // remaining changed conditions will be checked after next instruction
+                            return breakCondition;
+                    }
+                }
+                watchpointListener.clearPendingChanges();
             }
             // check all other conditions if any
             if (!breakConditions.isEmpty())
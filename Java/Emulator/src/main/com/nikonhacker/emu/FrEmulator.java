@@ -2,8 +2,10 @@ package com.nikonhacker.emu;
 
 import com.nikonhacker.Constants;
 import com.nikonhacker.Format;
+import com.nikonhacker.disassembly.Instruction;
 import com.nikonhacker.disassembly.OutputOption;
 import com.nikonhacker.disassembly.ParsingException;
+import com.nikonhacker.disassembly.Statement;
 import com.nikonhacker.disassembly.fr.FrCPUState;
 import com.nikonhacker.disassembly.fr.FrInstructionSet;
 import com.nikonhacker.disassembly.fr.FrStatement;
@@ -16,7 +18,9 @@ import com.nikonhacker.gui.component.disassembly.DisassemblyLogger;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -30,6 +34,12 @@ public class FrEmulator extends Emulator {
     private Set<OutputOption> lastOutputOptions;
     private boolean lastOutputOptionsValid = false;
 
+    /** Decoded statements, indexed by address. Created lazily as it depends on the memory in use */
+    private CodeCache<FrStatement> statementCache;
+
+    /** Decoded blocks of statements for block execution mode, indexed by start address */
+    private CodeCache<StatementBlock> blockCache;
+
     public FrEmulator(Platform platform) {
         super(platform);
         statement = new FrStatement();
@@ -46,6 +56,12 @@ public class FrEmulator extends Emulator {
             FrInstructionSet.init(outputOptions);
             FrStatement.initFormatChars(outputOptions);
             FrCPUState.initRegisterLabels(outputOptions);
+
+            // Cached statements refer to instructions of the previous instruction map
+            if (statementCache != null) {
+                statementCache.clear();
+                blockCache.clear();
+            }
         }
     }
 
@@ -67,21 +83,29 @@ public class FrEmulator extends Emulator {
     @Override
     public BreakCondition onClockTick() throws EmulationException {
 
-        // Skip clock ticks if previous instruction required several cycles
+        // Skip clock ticks if previous instruction (or block) required several cycles
         if (context.cycleIncrement > 1) {
             context.cycleIncrement--;
             return null;
         }
 
         try {
-            statement.reset();
-
-            // FETCH
-            ((FrStatement)statement).getNextStatement(platform.memory, platform.cpuState.pc);
+            if (canExecuteBlock()) {
+                executeBlock();
+                // Memory conditions don't prevent block execution: check those whose words the block wrote to
+                if (hasPendingWatchpointChanges()) {
+                    return processConditions();
+                }
+                return null;
+            }
 
-            // DECODE
-            statement.setInstruction(FrInstructionSet.instructionMap[((FrStatement)statement).data[0]]);
-            ((FrStatement)statement).decodeOperands(platform.cpuState.pc, platform.memory);
+            if (platform.memory.hasReadOnlyActivityListeners()) {
+                // Memory is being tracked or logged: perform actual fetches
+                decodeStatement(new FrStatement(), platform.cpuState.pc);
+            }
+            else {
+                statement = getStatement(platform.cpuState.pc);
+            }
 
             // LOG
             logIfRequested(logger);
@@ -90,60 +114,21 @@ public class FrEmulator extends Emulator {
             statement.getInstruction().getSimulationCode().simulate(statement, context);
 
             // Notify CPU cycle listeners
-            int cycleListenerNumber = 0;
-            while (cycleListenerNumber < cycleCounterListeners.size()) {
-                CycleCounterListener cycleCounterListener = cycleCounterListeners.get(cycleListenerNumber);
-                if (cycleCounterListener.onCycleCountChange(totalCycles, context.cycleIncrement)) {
-                    cycleListenerNumber++;
-                }
-                else {
-                    cycleCounterListeners.remove(cycleCounterListener);
-                }
-            }
+            notifyCycleCounterListeners(context.cycleIncrement);
 
             totalCycles += context.cycleIncrement;
 
             /* Delay slot processing */
             if (context.nextPc != null) {
-                if (context.delaySlotDone) {
-                    platform.cpuState.pc = context.nextPc;
-                    context.nextPc = null;
-                    if (context.nextReturnAddress != null) {
-                        platform.cpuState.setReg(FrCPUState.RP, context.nextReturnAddress);
-                        context.nextReturnAddress = null;
-                    }
-                }
-                else {
-                    context.delaySlotDone = true;
-                }
+                processDelaySlot();
             }
             else {
                 // If not in a delay slot, check interrupts
-                if(platform.interruptController.hasPendingRequests()) { // This call is not synchronized, so it skips fast
-                    FrInterruptRequest interruptRequest = (FrInterruptRequest) platform.interruptController.getNextRequest();
-                    //Double test because lack of synchronization means the status could have changed in between
-                    if (interruptRequest != null) {
-                        if (platform.cpuState.accepts(interruptRequest)){
-                            if (logger != null) {
-                                DisassemblyLogger printer2 = logger;
-                                if (printer2 != null) {
-                                    if(printer2.isIncludeInterruptMarks()) {
-                                        printer2.println(platform.getMasterClock().getFormatedTotalElapsedTimeMs() + " ------------------------- Accepting " + interruptRequest);
-                                    }
-                                    printer2.indent();
-                                }
-                            }
-                            platform.interruptController.removeEdgeTriggeredRequest(interruptRequest);
-                            ((FrInterruptController)platform.interruptController).processInterrupt(interruptRequest.getInterruptNumber(), platform.cpuState.pc, context);
-
-                            ((FrCPUState)platform.cpuState).setILM(interruptRequest.getICR(), false);
-                        }
-                    }
-                }
+                checkInterrupts();
             }
 
             // Process breakConditions
-            if (breakConditionsPresent) {
+            if (breakConditionsPresent || hasPendingWatchpointChanges()) {
                 BreakCondition breakCondition = processConditions();
                 if (breakCondition != null) {
                     return breakCondition;
@@ -171,6 +156,164 @@ public class FrEmulator extends Emulator {
         return null;
     }
 
+    /**
+     * Execute all statements of the block starting at the current PC, or until the flow leaves it.
+     * Cycles of the block are accounted for at once, by skipping the corresponding clock ticks afterwards.
+     * Interrupts are only checked at the end of the block.
+     */
+    private void executeBlock() throws EmulationException {
+        StatementBlock block = getBlock(platform.cpuState.pc);
+        int invalidationCount = blockCache.getInvalidationCount();
+        int blockCycles = 0;
+
+        Statement[] statements = block.getStatements();
+        for (int i = 0; i < statements.length; i++) {
+            statement = statements[i];
+
+            statement.getInstruction().getSimulationCode().simulate(statement, context);
+
+            notifyCycleCounterListeners(context.cycleIncrement);
+
+            totalCycles += context.cycleIncrement;
+            blockCycles += context.cycleIncrement;
+
+            if (context.nextPc != null) {
+                processDelaySlot();
+            }
+
+            // Leave the block if flow was changed (e.g. end of delay slot), or if the block was overwritten
+            if (platform.cpuState.pc != block.getNextStatementPc(i) || blockCache.getInvalidationCount() != invalidationCount) {
+                break;
+            }
+        }
+
+        if (context.nextPc == null) {
+            checkInterrupts();
+        }
+
+        context.cycleIncrement = blockCycles;
+    }
+
+    private void processDelaySlot() {
+        if (context.delaySlotDone) {
+            platform.cpuState.pc = context.nextPc;
+            context.nextPc = null;
+            if (context.nextReturnAddress != null) {
+                platform.cpuState.setReg(FrCPUState.RP, context.nextReturnAddress);
+                context.nextReturnAddress = null;
+            }
+        }
+        else {
+            context.delaySlotDone = true;
+        }
+    }
+
+    private void checkInterrupts() {
+        if(platform.interruptController.hasPendingRequests()) { // This call is not synchronized, so it skips fast
+            FrInterruptRequest interruptRequest = (FrInterruptRequest) platform.interruptController.getNextRequest();
+            //Double test because lack of synchronization means the status could have changed in between
+            if (interruptRequest != null) {
+                if (platform.cpuState.accepts(interruptRequest)){
+                    if (logger != null) {
+                        DisassemblyLogger printer2 = logger;
+                        if (printer2 != null) {
+                            logInterrupt(printer2, interruptRequest);
+                        }
+                    }
+                    platform.interruptController.removeEdgeTriggeredRequest(interruptRequest);
+                    ((FrInterruptController)platform.interruptController).processInterrupt(interruptRequest.getInterruptNumber(), platform.cpuState.pc, context);
+
+                    ((FrCPUState)platform.cpuState).setILM(interruptRequest.getICR(), false);
+                }
+            }
+        }
+    }
+
+    /**
+     * (Re)create caches if memory has changed since they were created
+     */
+    private void checkCaches() {
+        if (statementCache == null || statementCache.getMemory() != platform.memory) {
+            if (statementCache != null) {
+                statementCache.dispose();
+                blockCache.dispose();
+            }
+            statementCache = new CodeCache<FrStatement>(platform.memory, 1);
+            blockCache = new CodeCache<StatementBlock>(platform.memory, 1);
+        }
+    }
+
+    /**
+     * Get the decoded statement at the given address, from cache if possible
+     * @param pc the address of the statement
+     * @return the decoded statement
+     */
+    private FrStatement getStatement(int pc) {
+        checkCaches();
+        FrStatement frStatement = statementCache.get(pc);
+        if (frStatement == null) {
+            frStatement = decodeStatement(new FrStatement(), pc);
+            statementCache.put(pc, frStatement.getNumBytes(), frStatement);
+        }
+        return frStatement;
+    }
+
+    /**
+     * Get the block of statements starting at the given address, from cache if possible.
+     * A block ends after the first instruction that can change the flow, or if the next instruction cannot be decoded
+     * @param pc the address of the first statement
+     * @return the decoded block
+     */
+    private StatementBlock getBlock(int pc) {
+        checkCaches();
+        StatementBlock block = blockCache.get(pc);
+        if (block == null) {
+            List<FrStatement> statements = new ArrayList<FrStatement>();
+            // First statement is decoded outside of the loop so that decoding errors are reported
+            FrStatement frStatement = getStatement(pc);
+            int address = pc;
+            while (true) {
+                statements.add(frStatement);
+                address += frStatement.getNumBytes();
+                if (frStatement.getInstruction().getFlowType() != Instruction.FlowType.NONE
+                        || frStatement.getInstruction().hasDelaySlot()
+                        || statements.size() == MAX_BLOCK_STATEMENTS) {
+                    break;
+                }
+                try {
+                    frStatement = getStatement(address);
+                }
+                catch (Exception e) {
+                    // Probably data or unmapped memory. Leave it to single step execution, if ever reached
+                    break;
+                }
+            }
+            block = new StatementBlock(pc, statements.toArray(new FrStatement[statements.size()]));
+            blockCache.put(pc, block.getNumBytes(), block);
+        }
+        return block;
+    }
+
+    /**
+     * Fetch and decode the instruction at the given address
+     * @param frStatement the statement to fill
+     * @param pc the address of the instruction
+     * @return the filled statement
+     */
+    private FrStatement decodeStatement(FrStatement frStatement, int pc) {
+        // statement is set first so that it can be reported if decoding fails
+        statement = frStatement;
+
+        // FETCH
+        frStatement.getNextStatement(platform.memory, pc);
+
+        // DECODE
+        frStatement.setInstruction(FrInstructionSet.instructionMap[frStatement.data[0]]);
+        frStatement.decodeOperands(pc, platform.memory);
+
+        return frStatement;
+    }
+
 
     public static void main(String[] args) throws IOException, EmulationException, ParsingException {
         if (args.length < 2) {
@@ -4,13 +4,29 @@ import com.nikonhacker.Constants;
 
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
 
 public class MasterClock implements Runnable {
 
     public static final long PS_PER_MS = 1_000_000_000;
     public static final long PS_PER_SEC = 1_000_000_000_000L;
 
+    /**
+     * Orders entries by next tick time, then by order of addition
+     */
+    private static final Comparator<ClockableEntry> NEXT_TICK_COMPARATOR = new Comparator<ClockableEntry>() {
+        @Override
+        public int compare(ClockableEntry entry1, ClockableEntry entry2) {
+            if (entry1.nextTickPs != entry2.nextTickPs) {
+                return entry1.nextTickPs < entry2.nextTickPs ? -1 : 1;
+            }
+            return entry1.sequence - entry2.sequence;
+        }
+    };
+
     private DecimalFormat milliSecondFormatter = new DecimalFormat("0000.000000000");
 
     private ClockableCallbackHandler[] clockableCallbackHandlers;
@@ -46,11 +62,194 @@ public class MasterClock implements Runnable {
      */
     private List<ClockExecutionStep> steps;
 
+    /**
+     * If true, entries are run in order of their own next tick time, kept in eventQueue, instead of following
+     * the list of steps computed from the least common multiple of all frequencies
+     */
+    private boolean eventQueueScheduling = false;
+
+    /**
+     * Entries waiting for their next tick, the first one being the next to run.
+     * Created lazily, and only used if eventQueueScheduling is true
+     */
+    private PriorityQueue<ClockableEntry> eventQueue;
+
+    /**
+     * Sequence number given to entries, so that entries ticking at the same time always run in the order they were added
+     */
+    private int entrySequence = 0;
+
+    /**
+     * Changes requested by other threads (or by clockables themselves), to be applied by the clock thread between
+     * two steps. This way, adding, removing or enabling entries never blocks nor interferes with the run loop
+     */
+    private Queue<ClockRequest> pendingRequests = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Incremented each time an entry is enabled or disabled, so that steps know their list of active entries must
+     * be updated
+     */
+    private int activeEntriesVersion = 0;
+
+    /**
+     * If non-zero, the entries of each chip are run by a thread of their own, using event queue scheduling.
+     * Both threads synchronize each time this amount of emulated time has elapsed, so that one chip is never
+     * ahead of the other by more than this duration
+     */
+    private long multiThreadQuantumPs = 0;
+
+    /**
+     * State of the current multi-threaded run, or null if the clock is not running multi-threaded
+     */
+    private volatile ParallelRun parallelRun;
+
+    /**
+     * Action run by the clock thread between two ticks, each time periodicActionIntervalPs of emulated time has
+     * elapsed, or null if none
+     */
+    private Runnable periodicAction;
+    private long     periodicActionIntervalPs;
+    private long     nextPeriodicActionPs;
+
+    /**
+     * Events waiting to run, the first one being the next. When running multi-threaded, events are moved to the
+     * partition of their chip instead
+     */
+    private PriorityQueue<ClockEvent> clockEvents = new PriorityQueue<>();
+
+    /**
+     * Sequence number given to events each time they are scheduled
+     */
+    private long clockEventSequence = 0;
+
+    /**
+     * If true, programmable timers do not register as Clockables, but only schedule a ClockEvent for their next
+     * tick that does more than counting
+     */
+    private boolean eventDrivenTimers = false;
+
     public MasterClock() {
     }
 
+    /**
+     * This method makes sure loading a state saved before the queues of pending requests or clock events existed
+     * initializes these fields, and drops the entries of objects that are not Clockables anymore
+     * (see ClockableEntryConverter)
+     */
+    private Object readResolve() {
+        if (pendingRequests == null) pendingRequests = new ConcurrentLinkedQueue<>();
+        if (clockEvents == null) clockEvents = new PriorityQueue<>();
+        for (ClockableEntry entry : entries) {
+            if (entry.clockable == null) {
+                entries.remove(entry);
+                rescheduleRequested = true;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Requests frequencies to be read again, e.g. after a frequency change.
+     * Can be called from any thread
+     */
     public void requestResheduling() {
-        rescheduleRequested = true;
+        pendingRequests.add(ClockRequest.RESCHEDULE);
+    }
+
+    public boolean isEventQueueScheduling() {
+        return eventQueueScheduling;
+    }
+
+    /**
+     * Selects the way entries are scheduled.
+     * The default step list is computed from the least common multiple of all frequencies, which can get huge (and
+     * become unprecise) when frequencies are very different.
+     * Event queue scheduling keeps the next tick time of each entry, in picoseconds, in a priority queue, so that each
+     * entry runs at its exact frequency, whatever the others.
+     * @param eventQueueScheduling true to use event queue scheduling, false to use the step list
+     */
+    public void setEventQueueScheduling(boolean eventQueueScheduling) {
+        this.eventQueueScheduling = eventQueueScheduling;
+        requestResheduling();
+    }
+
+    public long getMultiThreadQuantumPs() {
+        return multiThreadQuantumPs;
+    }
+
+    /**
+     * Selects whether chips are run in parallel.
+     * In multi-threaded mode, the entries of each chip are scheduled by an event queue of their own, run by a
+     * separate thread. Threads synchronize every quantum of emulated time, and as soon as an entry exits or
+     * a cross-chip action is posted. Changes to the list of entries or to their frequencies are applied at the
+     * next synchronization point.
+     * The new setting is taken into account next time the clock is started.
+     * @param multiThreadQuantumPs the maximum emulated time between two synchronizations, in picoseconds,
+     *                             or 0 to run all entries in a single thread
+     */
+    public void setMultiThreadQuantumPs(long multiThreadQuantumPs) {
+        this.multiThreadQuantumPs = Math.max(0, multiThreadQuantumPs);
+    }
+
+    public boolean isEventDrivenTimers() {
+        return eventDrivenTimers;
+    }
+
+    /**
+     * Selects the way programmable timers are clocked.
+     * The new setting is taken into account by each timer the next time it is started.
+     * @param eventDrivenTimers true to have timers only schedule their next match, overflow or underflow,
+     *                          false to have them clocked at each tick
+     */
+    public void setEventDrivenTimers(boolean eventDrivenTimers) {
+        this.eventDrivenTimers = eventDrivenTimers;
+    }
+
+    /**
+     * Set an action to be run periodically, in emulated time.
+     * The action is run by the clock thread while no entry is running (in multi-threaded mode, at a synchronization
+     * point), so it can safely inspect the state of both chips
+     * @param periodicAction the action, or null to remove it
+     * @param intervalPs the emulated time between two runs of the action
+     */
+    public void setPeriodicAction(Runnable periodicAction, long intervalPs) {
+        this.periodicActionIntervalPs = intervalPs;
+        this.nextPeriodicActionPs = totalElapsedTimePs + intervalPs;
+        this.periodicAction = periodicAction;
+    }
+
+    public long getPeriodicActionIntervalPs() {
+        return periodicActionIntervalPs;
+    }
+
+    private void runPeriodicAction() {
+        nextPeriodicActionPs = totalElapsedTimePs + periodicActionIntervalPs;
+        periodicAction.run();
+    }
+
+    /**
+     * @return true if the clock is currently running chips in separate threads
+     */
+    public boolean isRunningMultiThreaded() {
+        return parallelRun != null;
+    }
+
+    /**
+     * Performs an action affecting another chip.
+     * When running multi-threaded, the action is deferred to the next synchronization point, which is requested
+     * immediately, so that it is run while both chip threads are paused. Otherwise, it is run right away.
+     * Can be called from any thread
+     * @param action the action to perform
+     */
+    public void postCrossChipAction(Runnable action) {
+        ParallelRun run = parallelRun;
+        if (run != null) {
+            run.crossChipActions.add(action);
+            run.syncRequested = true;
+        }
+        else {
+            action.run();
+        }
     }
 
     /**
@@ -58,22 +257,8 @@ public class MasterClock implements Runnable {
      * @param clockable the object to wake up repeatedly
      * @param clockableCallbackHandlerChip the chip to call on exit or Exception
      */
-    public synchronized void add(Clockable clockable, int clockableCallbackHandlerChip, boolean enabled, boolean precise) {
-        //System.err.println("Adding " + clockable.getClass().getSimpleName());
-        // Check if already present
-        boolean found = false;
-        for (ClockableEntry entry : entries) {
-            if (entry.clockable == clockable) {
-                // make sure it is enabled
-                entry.enabled = true;
-                found = true;
-                break;
-            }
-        }
-        if (!found) {
-            entries.add(new ClockableEntry(clockable, clockableCallbackHandlerChip, enabled, precise));
-        }
-        requestResheduling();
+    public void add(Clockable clockable, int clockableCallbackHandlerChip, boolean enabled, boolean precise) {
+        pendingRequests.add(new ClockRequest(ClockRequest.Type.ADD, clockable, clockableCallbackHandlerChip, enabled, precise));
     }
 
     /**
@@ -88,16 +273,202 @@ public class MasterClock implements Runnable {
      * Removes a clockable object.
      * @param clockable the object to remove
      */
-    public synchronized void remove(Clockable clockable) {
-        for (int i = 0; i < entries.size(); i++) {
-            ClockableEntry entry = entries.get(i);
+    public void remove(Clockable clockable) {
+        pendingRequests.add(new ClockRequest(ClockRequest.Type.REMOVE, clockable, -1, false, false));
+    }
+
+    /**
+     * Schedules an event to run at the given emulated time, replacing its previous schedule, if any.
+     * The event is run between two ticks, by the thread clocking its chip, as soon as that time is reached
+     * (with step list scheduling, at the end of the step during which it is reached). If that time is already
+     * past, the event runs at the next opportunity.
+     * Unlike adding a Clockable, this never causes the schedule to be recomputed.
+     * Must be called by the thread clocking the chip of the event, or while the clock is stopped
+     * @param event the event to run
+     * @param timePs the emulated time at which it must run
+     */
+    public void schedule(ClockEvent event, long timePs) {
+        PriorityQueue<ClockEvent> queue = getClockEventQueue(event.getChip());
+        synchronized (queue) {
+            if (event.queued) {
+                queue.remove(event);
+            }
+            event.timePs = timePs;
+            event.sequence = clockEventSequence++;
+            event.queued = true;
+            queue.add(event);
+        }
+    }
+
+    /**
+     * Schedules an event to run after the given delay, counted from the current emulated time of its chip.
+     * Same threading constraints as schedule()
+     * @param event the event to run
+     * @param delayPs the emulated time to wait before running it
+     */
+    public void scheduleAfter(ClockEvent event, long delayPs) {
+        schedule(event, getTimePs(event.getChip()) + delayPs);
+    }
+
+    /**
+     * Creates an event running the given action once at the given emulated time.
+     * @return the scheduled event, which can be passed to cancel()
+     * @see #schedule(ClockEvent, long)
+     */
+    public ClockEvent scheduleAt(int chip, long timePs, Runnable action) {
+        ClockEvent event = new ClockEvent(chip, action);
+        schedule(event, timePs);
+        return event;
+    }
+
+    /**
+     * Creates an event running the given action once after the given delay.
+     * @return the scheduled event, which can be passed to cancel()
+     * @see #scheduleAfter(ClockEvent, long)
+     */
+    public ClockEvent scheduleAfter(int chip, long delayPs, Runnable action) {
+        ClockEvent event = new ClockEvent(chip, action);
+        scheduleAfter(event, delayPs);
+        return event;
+    }
+
+    /**
+     * Cancels an event. Does nothing if it is not scheduled.
+     * Same threading constraints as schedule()
+     * @param event the event not to run
+     */
+    public void cancel(ClockEvent event) {
+        if (event.queued) {
+            PriorityQueue<ClockEvent> queue = getClockEventQueue(event.getChip());
+            synchronized (queue) {
+                queue.remove(event);
+                event.queued = false;
+            }
+        }
+    }
+
+    /**
+     * @return the queue holding events of the given chip
+     */
+    private PriorityQueue<ClockEvent> getClockEventQueue(int chip) {
+        ParallelRun run = parallelRun;
+        return (run != null) ? getPartition(run, chip).clockEvents : clockEvents;
+    }
+
+    /**
+     * Removes the first event of the given queue if it is due
+     * @return the removed event, or null if none is scheduled up to timePs
+     */
+    private static ClockEvent pollClockEvent(PriorityQueue<ClockEvent> queue, long timePs) {
+        synchronized (queue) {
+            ClockEvent event = queue.peek();
+            if (event == null || event.timePs > timePs) {
+                return null;
+            }
+            queue.poll();
+            event.queued = false;
+            return event;
+        }
+    }
+
+    /**
+     * Run the action of the given event, and warn the callback handler of its chip in case of Exception
+     */
+    private void runClockEvent(ClockEvent event) {
+        try {
+            event.run();
+        }
+        catch (Exception e) {
+            int chip = event.getChip();
+            if (clockableCallbackHandlers != null && chip >= 0 && chip < clockableCallbackHandlers.length && clockableCallbackHandlers[chip] != null) {
+                clockableCallbackHandlers[chip].onException(e);
+            }
+            else {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Apply all changes requested since last call. Must only be called by the clock thread, or while it is stopped
+     */
+    private void processPendingRequests() {
+        ClockRequest request;
+        while ((request = pendingRequests.poll()) != null) {
+            switch (request.type) {
+                case ADD:
+                    //System.err.println("Adding " + request.clockable.getClass().getSimpleName());
+                    ClockableEntry existingEntry = getEntry(request.clockable);
+                    if (existingEntry != null) {
+                        // make sure it is enabled
+                        setEntryEnabled(existingEntry, true);
+                    }
+                    else {
+                        entries.add(new ClockableEntry(request.clockable, request.clockableCallbackHandlerChip, request.enabled, request.precise, entrySequence++));
+                        activeEntriesVersion++;
+                    }
+                    rescheduleRequested = true;
+                    break;
+                case REMOVE:
+                    ClockableEntry entry = getEntry(request.clockable);
+                    if (entry != null) {
+                        //System.err.println("Removing " + entry.clockable.getClass().getSimpleName());
+                        entries.remove(entry);
+                        // If queued, it will be dropped when reaching the head of the event queue
+                        entry.removed = true;
+                        activeEntriesVersion++;
+                    }
+                    rescheduleRequested = true;
+                    break;
+                case ENABLE:
+                    ClockableEntry candidateEntry = getEntry(request.clockable);
+                    if (candidateEntry != null) {
+                        setEntryEnabled(candidateEntry, true);
+                        if (candidateEntry.clockable instanceof Emulator) {
+                            setLinkedEntriesEnabled(candidateEntry.clockable.getChip(), true);
+                        }
+                    }
+                    break;
+                case RESCHEDULE:
+                    rescheduleRequested = true;
+                    break;
+            }
+        }
+    }
+
+    private ClockableEntry getEntry(Clockable clockable) {
+        for (ClockableEntry entry : entries) {
             if (entry.clockable == clockable) {
-                //System.err.println("Removing " + entry.clockable.getClass().getSimpleName());
-                entries.remove(entry);
-                break;
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Enable or disable an entry, keeping the lists of active entries up to date
+     */
+    private void setEntryEnabled(ClockableEntry entry, boolean enabled) {
+        if (entry.enabled != enabled) {
+            entry.enabled = enabled;
+            activeEntriesVersion++;
+            if (enabled && !entry.queued) {
+                if (parallelRun != null) {
+                    // Will be queued in the partition of its chip upon next synchronization
+                    rescheduleRequested = true;
+                }
+                else if (eventQueue != null) {
+                    if (entry.frequencyHz != 0 && !entry.isFrequencyZero) {
+                        // Was dropped from the event queue while disabled. Resume from now on
+                        queueEntry(eventQueue, entry);
+                    }
+                    else {
+                        // Frequency is unknown yet
+                        rescheduleRequested = true;
+                    }
+                }
             }
         }
-        requestResheduling();
     }
 
     private void prepareSchedule() {
@@ -214,6 +585,86 @@ public class MasterClock implements Runnable {
 //        }
     }
 
+    /**
+     * Updates the period of all entries and queues those that are not queued yet.
+     * Queued entries keep their next tick time. Their new period will only be taken into account from that tick on,
+     * so a frequency change costs no more than a queue insertion.
+     */
+    private void prepareEventQueue() {
+        // Reset indicator, if set
+        rescheduleRequested = false;
+
+        if (eventQueue == null) {
+            eventQueue = new PriorityQueue<>(Math.max(1, entries.size()), NEXT_TICK_COMPARATOR);
+            for (ClockableEntry entry : entries) {
+                entry.queued = false;
+            }
+        }
+
+        for (ClockableEntry entry : entries) {
+            if (updateEntryPeriod(entry) && !entry.queued && entry.enabled) {
+                queueEntry(eventQueue, entry);
+            }
+        }
+    }
+
+    /**
+     * Reads the frequency of the given entry again, and updates its period if it changed
+     * @return false if the frequency is zero
+     */
+    private boolean updateEntryPeriod(ClockableEntry entry) {
+        final int frequencyHz = entry.clockable.getFrequencyHz();
+        if (frequencyHz > 0) {
+            entry.isFrequencyZero = false;
+            if (frequencyHz != entry.frequencyHz) {
+                entry.frequencyHz = frequencyHz;
+                entry.periodPs = PS_PER_SEC / frequencyHz;
+                entry.periodRemainderPs = PS_PER_SEC % frequencyHz;
+                entry.accumulatedRemainderPs = 0;
+            }
+            return true;
+        }
+        else {
+            // Entry will be dropped when reaching the head of the queue
+            entry.isFrequencyZero = true;
+            return false;
+        }
+    }
+
+    /**
+     * Queues the given entry so that it runs from now on
+     */
+    private void queueEntry(PriorityQueue<ClockableEntry> queue, ClockableEntry entry) {
+        entry.nextTickPs = totalElapsedTimePs;
+        entry.queued = true;
+        queue.add(entry);
+    }
+
+    /**
+     * Emulators ignore the clock ticks following an instruction (or block) of several cycles. In event queue
+     * scheduling, these ticks are skipped altogether instead of calling the emulator for nothing
+     */
+    private static void skipIdleTicks(ClockableEntry entry) {
+        if (entry.clockable instanceof Emulator) {
+            for (int idleTicks = ((Emulator) entry.clockable).takeIdleTicks(); idleTicks > 0; idleTicks--) {
+                advanceEntry(entry);
+            }
+        }
+    }
+
+    /**
+     * Computes the next tick time of the given entry.
+     * The remainder of the period is accumulated so that no drift occurs
+     */
+    private static void advanceEntry(ClockableEntry entry) {
+        entry.nextTickPs += entry.periodPs;
+        entry.accumulatedRemainderPs += entry.periodRemainderPs;
+        if (entry.accumulatedRemainderPs >= entry.frequencyHz) {
+            entry.accumulatedRemainderPs -= entry.frequencyHz;
+            entry.nextTickPs++;
+        }
+    }
+
     public void setSyncPlay(boolean syncPlay) {
         this.syncPlay = syncPlay;
     }
@@ -235,9 +686,18 @@ public class MasterClock implements Runnable {
      * Note: this is the optimized version that only executes useful entries of useful steps
      */
     public void run() {
+        if (multiThreadQuantumPs > 0) {
+            runMultiThreaded();
+            return;
+        }
+        if (eventQueueScheduling) {
+            runEventQueue();
+            return;
+        }
         List<ClockableEntry> entriesToDisable = new ArrayList<>();
         int stepNumber = 0;
         ClockExecutionStep step;
+        processPendingRequests();
         // Infinite loop
         while (running) {
             if (rescheduleRequested) {
@@ -246,42 +706,20 @@ public class MasterClock implements Runnable {
             // Iterate on all steps
             for (stepNumber = 0; stepNumber < steps.size(); stepNumber++) {
                 step = steps.get(stepNumber);
-                // For each step, execute all entries that should run at this step
-                for (ClockableEntry currentEntry : step.entriesToRunAtThisStep) {
-                    // TODO get rid of the isFrequencyZero by recomputing useful steps at each frequency change
-                    if (currentEntry.enabled && !currentEntry.isFrequencyZero) {
+                if (step.activeEntriesVersion != activeEntriesVersion) {
+                    step.updateActiveEntries(activeEntriesVersion);
+                }
+                // For each step, execute all active entries that should run at this step
+                for (ClockableEntry currentEntry : step.activeEntries) {
+                    // Entry may have been disabled by a previous entry of this step
+                    if (currentEntry.enabled) {
                         // If it's enabled. Call its onClockTick() method
-                        try {
-                            Object result = currentEntry.clockable.onClockTick();
-                            if (result != null) {
-                                // A non-null result means this entry shouldn't run anymore
-                                entriesToDisable.add(currentEntry);
-                                // Warn the callback method
-                                if (currentEntry.clockableCallbackHandlerChip >=0) {
-                                    clockableCallbackHandlers[currentEntry.clockableCallbackHandlerChip].onNormalExit(result);
-                                }
-                            }
-                        }
-                        catch (Exception e) {
-                            // In case of exception this entry shouldn't run anymore
-                            entriesToDisable.add(currentEntry);
-                            // Warn the callback method
-                            if (currentEntry.clockableCallbackHandlerChip >=0) {
-                                clockableCallbackHandlers[currentEntry.clockableCallbackHandlerChip].onException(e);
-                            }
-                        }
-
+                        tickEntry(currentEntry, entriesToDisable);
                     }
                 }
                 // Check if some entries need to be disabled
                 if (!entriesToDisable.isEmpty()) {
-                    for (ClockableEntry entryToDisable : entriesToDisable) {
-                        disableEntry(entryToDisable);
-                    }
-                    entriesToDisable.clear();
-
-                    // Check if all entries are disabled
-                    if (allEntriesDisabled()) {
+                    if (disableEntries(entriesToDisable)) {
                         // All entries are now disabled. Stop clock
                         running = false;
                         break;
@@ -290,6 +728,24 @@ public class MasterClock implements Runnable {
                 // Increment elapsed time
                 totalElapsedTimePs += step.stepDurationPs;
 
+                if (!clockEvents.isEmpty()) {
+                    ClockEvent event;
+                    while ((event = pollClockEvent(clockEvents, totalElapsedTimePs)) != null) {
+                        runClockEvent(event);
+                    }
+                }
+
+                if (periodicAction != null && totalElapsedTimePs >= nextPeriodicActionPs) {
+                    // Rotate steps as when the clock stops, so that the state seen by the action resumes at the right step
+                    Collections.rotate(steps, -1 - stepNumber);
+                    runPeriodicAction();
+                    Collections.rotate(steps, 1 + stepNumber);
+                }
+
+                if (!pendingRequests.isEmpty()) {
+                    processPendingRequests();
+                }
+
                 if (rescheduleRequested) {
                     // To perform reschedule, we need to exit the loop on steps
                     // Note that this is not really transparent as it will "reset" the count of the steps...
@@ -304,16 +760,306 @@ public class MasterClock implements Runnable {
         Collections.rotate(steps, -1 - stepNumber);
     }
 
-    public void enableClockable(Clockable clockable) {
-        for (ClockableEntry candidateEntry : entries) {
-            if (candidateEntry.clockable == clockable) {
-                candidateEntry.enabled = true;
-                if (candidateEntry.clockable instanceof Emulator) {
-                    setLinkedEntriesEnabled(candidateEntry.clockable.getChip(), true);
+    /**
+     * This is the event queue version of run(), executing entries in order of their next tick time
+     */
+    private void runEventQueue() {
+        List<ClockableEntry> entriesToDisable = new ArrayList<>();
+        while (running) {
+            if (!pendingRequests.isEmpty()) {
+                processPendingRequests();
+            }
+            if (rescheduleRequested || eventQueue == null) {
+                prepareEventQueue();
+            }
+            ClockableEntry entry = eventQueue.poll();
+            if (entry == null) {
+                // Nothing to clock
+                running = false;
+                break;
+            }
+            if (entry.removed || entry.isFrequencyZero || !entry.enabled) {
+                // Drop it. It will be queued again when enabled or upon next reschedule, if needed
+                entry.queued = false;
+                continue;
+            }
+
+            if (!clockEvents.isEmpty()) {
+                // Events scheduled up to this tick run first
+                ClockEvent event;
+                while ((event = pollClockEvent(clockEvents, entry.nextTickPs)) != null) {
+                    totalElapsedTimePs = Math.max(totalElapsedTimePs, event.timePs);
+                    runClockEvent(event);
+                }
+            }
+
+            totalElapsedTimePs = entry.nextTickPs;
+
+            if (tickEntry(entry, entriesToDisable)) {
+                skipIdleTicks(entry);
+            }
+            advanceEntry(entry);
+            eventQueue.add(entry);
+
+            if (periodicAction != null && totalElapsedTimePs >= nextPeriodicActionPs) {
+                runPeriodicAction();
+            }
+
+            // Check if some entries need to be disabled
+            if (!entriesToDisable.isEmpty()) {
+                if (disableEntries(entriesToDisable)) {
+                    // All entries are now disabled. Stop clock
+                    running = false;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * This is the multi-threaded version of run(). Entries are partitioned by chip, and each partition is run
+     * by its own thread using event queue scheduling, up to the next synchronization point.
+     * Everything that affects both chips (disabling entries, applying requests, cross-chip actions) is performed
+     * by the barrier action, while all partition threads are waiting.
+     */
+    private void runMultiThreaded() {
+        final ParallelRun run = new ParallelRun(Constants.CHIP_LABEL.length);
+        processPendingRequests();
+        // Entries will be queued in their partition. The single event queue will be rebuilt if needed
+        eventQueue = null;
+        for (ClockableEntry entry : entries) {
+            entry.queued = false;
+        }
+        run.barrierTimePs = totalElapsedTimePs + multiThreadQuantumPs;
+        preparePartitions(run);
+        synchronized (clockEvents) {
+            for (ClockEvent event : clockEvents) {
+                getPartition(run, event.getChip()).clockEvents.add(event);
+            }
+            clockEvents.clear();
+        }
+        parallelRun = run;
+
+        run.barrier = new CyclicBarrier(run.partitions.length, new Runnable() {
+            @Override
+            public void run() {
+                synchronizePartitions(run);
+            }
+        });
+
+        Thread[] threads = new Thread[run.partitions.length - 1];
+        for (int i = 0; i < threads.length; i++) {
+            final ClockPartition partition = run.partitions[i + 1];
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runPartition(run, partition);
+                }
+            }, "MasterClock " + Constants.CHIP_LABEL[i + 1]);
+            threads[i].start();
+        }
+        // Current thread takes care of the first partition
+        runPartition(run, run.partitions[0]);
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        parallelRun = null;
+        synchronized (clockEvents) {
+            for (ClockPartition partition : run.partitions) {
+                clockEvents.addAll(partition.clockEvents);
+            }
+        }
+        // Perform actions that could have been posted after the last synchronization
+        Runnable action;
+        while ((action = run.crossChipActions.poll()) != null) {
+            action.run();
+        }
+        for (ClockableEntry entry : entries) {
+            entry.queued = false;
+        }
+        running = false;
+    }
+
+    /**
+     * Runs the entries of one partition until the clock stops
+     */
+    private void runPartition(ParallelRun run, ClockPartition partition) {
+        while (run.running) {
+            long barrierTimePs = run.barrierTimePs;
+            while (!run.syncRequested) {
+                ClockableEntry entry = partition.queue.peek();
+                if (entry == null || entry.nextTickPs >= barrierTimePs) {
+                    break;
+                }
+                partition.queue.poll();
+                if (entry.removed || entry.isFrequencyZero || !entry.enabled) {
+                    // Drop it. It will be queued again when enabled or upon next synchronization, if needed
+                    entry.queued = false;
+                    continue;
+                }
+
+                if (!partition.clockEvents.isEmpty()) {
+                    // Events scheduled up to this tick run first
+                    ClockEvent event;
+                    while ((event = pollClockEvent(partition.clockEvents, entry.nextTickPs)) != null) {
+                        partition.timePs = Math.max(partition.timePs, event.timePs);
+                        runClockEvent(event);
+                    }
+                }
+
+                partition.timePs = entry.nextTickPs;
+
+                if (tickEntry(entry, partition.entriesToDisable)) {
+                    skipIdleTicks(entry);
+                }
+                advanceEntry(entry);
+                partition.queue.add(entry);
+
+                if (!partition.entriesToDisable.isEmpty()) {
+                    // Let the other partitions know immediately
+                    run.syncRequested = true;
                 }
+            }
+            try {
+                run.barrier.await();
+            } catch (InterruptedException e) {
+                run.running = false;
+                run.barrier.reset();
+                Thread.currentThread().interrupt();
+            } catch (BrokenBarrierException e) {
+                run.running = false;
+            }
+        }
+    }
+
+    /**
+     * Barrier action, run by the last partition thread reaching the synchronization point, while all others wait
+     */
+    private void synchronizePartitions(ParallelRun run) {
+        long timePs = totalElapsedTimePs;
+        for (ClockPartition partition : run.partitions) {
+            timePs = Math.max(timePs, partition.timePs);
+            if (!partition.entriesToDisable.isEmpty()) {
+                disableEntries(partition.entriesToDisable);
+            }
+        }
+
+        Runnable action;
+        while ((action = run.crossChipActions.poll()) != null) {
+            action.run();
+        }
+
+        if (!pendingRequests.isEmpty()) {
+            processPendingRequests();
+        }
+        if (!run.syncRequested) {
+            // Synchronization point was reached by all partitions
+            timePs = run.barrierTimePs;
+            run.barrierTimePs += multiThreadQuantumPs;
+        }
+        run.syncRequested = false;
+        totalElapsedTimePs = timePs;
+
+        if (periodicAction != null && totalElapsedTimePs >= nextPeriodicActionPs) {
+            runPeriodicAction();
+        }
+
+        if (rescheduleRequested) {
+            preparePartitions(run);
+        }
+
+        boolean queuesEmpty = true;
+        for (ClockPartition partition : run.partitions) {
+            if (!partition.queue.isEmpty()) {
+                queuesEmpty = false;
                 break;
             }
         }
+        if (queuesEmpty || allEntriesDisabled()) {
+            // Nothing to clock anymore. Stop clock
+            run.running = false;
+        }
+    }
+
+    /**
+     * Assigns each entry to the partition of its chip, updates its period and queues it if needed
+     */
+    private void preparePartitions(ParallelRun run) {
+        rescheduleRequested = false;
+        for (ClockableEntry entry : entries) {
+            ClockPartition partition = getPartition(run, entry.clockable.getChip());
+            if (updateEntryPeriod(entry) && !entry.queued && entry.enabled) {
+                queueEntry(partition.queue, entry);
+            }
+        }
+    }
+
+    /**
+     * @return the partition running the given chip. Entries not bound to a chip run with the FR
+     */
+    private static ClockPartition getPartition(ParallelRun run, int chip) {
+        return run.partitions[(chip >= 0 && chip < run.partitions.length) ? chip : Constants.CHIP_FR];
+    }
+
+    /**
+     * Call the onClockTick() method of the given entry, and warn its callback handler if it exits
+     * @param entry the entry to run
+     * @param entriesToDisable the list to add the entry to if it shouldn't run anymore
+     * @return true if the entry goes on running
+     */
+    private boolean tickEntry(ClockableEntry entry, List<ClockableEntry> entriesToDisable) {
+        try {
+            Object result = entry.clockable.onClockTick();
+            if (result != null) {
+                // A non-null result means this entry shouldn't run anymore
+                entriesToDisable.add(entry);
+                // Warn the callback method
+                if (entry.clockableCallbackHandlerChip >=0) {
+                    clockableCallbackHandlers[entry.clockableCallbackHandlerChip].onNormalExit(result);
+                }
+                return false;
+            }
+            return true;
+        }
+        catch (Exception e) {
+            // In case of exception this entry shouldn't run anymore
+            entriesToDisable.add(entry);
+            // Warn the callback method
+            if (entry.clockableCallbackHandlerChip >=0) {
+                clockableCallbackHandlers[entry.clockableCallbackHandlerChip].onException(e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Disable the given entries, and clear the list
+     * @param entriesToDisable
+     * @return true if all entries are now disabled
+     */
+    private boolean disableEntries(List<ClockableEntry> entriesToDisable) {
+        for (ClockableEntry entryToDisable : entriesToDisable) {
+            disableEntry(entryToDisable);
+        }
+        entriesToDisable.clear();
+
+        // Check if all entries are disabled
+        return allEntriesDisabled();
+    }
+
+    /**
+     * Enable the given clockable and, if it's an emulator, all clockables linked to it.
+     * Can be called from any thread
+     * @param clockable
+     */
+    public void enableClockable(Clockable clockable) {
+        pendingRequests.add(new ClockRequest(ClockRequest.Type.ENABLE, clockable, -1, true, false));
     }
 
     /**
@@ -324,7 +1070,7 @@ public class MasterClock implements Runnable {
     private void disableEntry(ClockableEntry entryToDisable) {
         // Actually disable that entry
         //System.err.println("Disabling " + currentEntry.clockable.getClass().getSimpleName());
-        entryToDisable.enabled = false;
+        setEntryEnabled(entryToDisable, false);
         if (entryToDisable.clockable instanceof Emulator) {
             setLinkedEntriesEnabled(entryToDisable.clockable.getChip(), false);
             if (syncPlay) {
@@ -336,7 +1082,7 @@ public class MasterClock implements Runnable {
                             clockableCallbackHandlers[candidateEntry.clockableCallbackHandlerChip].onNormalExit("Sync stop due to " + entryToDisable.clockable.getClass().getSimpleName());
                         }
                         //System.err.println("Disabling " + candidateEntry.clockable.getClass().getSimpleName());
-                        candidateEntry.enabled = false;
+                        setEntryEnabled(candidateEntry, false);
                         setLinkedEntriesEnabled(candidateEntry.clockable.getChip(), false);
                     }
                 }
@@ -354,7 +1100,7 @@ public class MasterClock implements Runnable {
                     clockableCallbackHandlers[candidateEntry.clockableCallbackHandlerChip].onNormalExit("Sync stop due to chip " + Constants.CHIP_LABEL[chip] + " stopping.");
                 }
                 //System.err.println((enabled?"Enabling ":"Disabling ") + candidateEntry.clockable.getClass().getSimpleName());
-                candidateEntry.enabled = enabled;
+                setEntryEnabled(candidateEntry, enabled);
             }
         }
     }
@@ -371,6 +1117,18 @@ public class MasterClock implements Runnable {
     }
 
     public void resetTotalElapsedTimePs() {
+        if (eventQueue != null) {
+            // Keep queued entries relative to the new time origin. Order in the queue is not affected
+            for (ClockableEntry entry : eventQueue) {
+                entry.nextTickPs -= totalElapsedTimePs;
+            }
+        }
+        synchronized (clockEvents) {
+            // Same for events
+            for (ClockEvent event : clockEvents) {
+                event.timePs -= totalElapsedTimePs;
+            }
+        }
         totalElapsedTimePs = 0;
     }
 
@@ -379,6 +1137,18 @@ public class MasterClock implements Runnable {
         return totalElapsedTimePs;
     }
 
+    /**
+     * @return the current emulated time, as seen by the given chip. When running multi-threaded, this is the time
+     * of the last tick of that chip, which can be ahead of getTotalElapsedTimePs() by up to one quantum
+     */
+    public long getTimePs(int chip) {
+        ParallelRun run = parallelRun;
+        if (run != null) {
+            return Math.max(totalElapsedTimePs, getPartition(run, chip).timePs);
+        }
+        return totalElapsedTimePs;
+    }
+
     /**
      * This is for tests only
      * @param totalElapsedTimePs
@@ -458,12 +1228,23 @@ public class MasterClock implements Runnable {
         boolean enabled;
         boolean isFrequencyZero;
         boolean isPrecise;
+        boolean removed;
 
-        public ClockableEntry(Clockable clockable, int clockableCallbackHandlerChip, boolean enabled, boolean isPrecise) {
+        // Event queue scheduling
+        final int sequence;
+        boolean queued;
+        int  frequencyHz;
+        long nextTickPs;
+        long periodPs;
+        long periodRemainderPs;
+        long accumulatedRemainderPs;
+
+        public ClockableEntry(Clockable clockable, int clockableCallbackHandlerChip, boolean enabled, boolean isPrecise, int sequence) {
             this.clockable = clockable;
             this.clockableCallbackHandlerChip = clockableCallbackHandlerChip;
             this.enabled = enabled;
             this.isPrecise = isPrecise;
+            this.sequence = sequence;
         }
 
         @Override
@@ -475,5 +1256,76 @@ public class MasterClock implements Runnable {
     static class ClockExecutionStep {
         long stepDurationPs;
         List<ClockableEntry> entriesToRunAtThisStep = new ArrayList<>();
+
+        /** The entries of entriesToRunAtThisStep that are enabled and have a non-zero frequency */
+        ClockableEntry[] activeEntries = new ClockableEntry[0];
+        int activeEntriesVersion = -1;
+
+        void updateActiveEntries(int activeEntriesVersion) {
+            List<ClockableEntry> active = new ArrayList<>();
+            for (ClockableEntry entry : entriesToRunAtThisStep) {
+                if (entry.enabled && !entry.isFrequencyZero && !entry.removed) {
+                    active.add(entry);
+                }
+            }
+            activeEntries = active.toArray(new ClockableEntry[active.size()]);
+            this.activeEntriesVersion = activeEntriesVersion;
+        }
+    }
+
+    /**
+     * The entries of one chip, when running multi-threaded
+     */
+    static class ClockPartition {
+        final PriorityQueue<ClockableEntry> queue = new PriorityQueue<>(16, NEXT_TICK_COMPARATOR);
+        final List<ClockableEntry> entriesToDisable = new ArrayList<>();
+        /** Events of the chip of this partition */
+        final PriorityQueue<ClockEvent> clockEvents = new PriorityQueue<>();
+        /** Time of the last tick run by this partition */
+        long timePs;
+    }
+
+    /**
+     * The state shared by partition threads during a multi-threaded run
+     */
+    static class ParallelRun {
+        final ClockPartition[] partitions;
+        final Queue<Runnable> crossChipActions = new ConcurrentLinkedQueue<>();
+        CyclicBarrier barrier;
+        /** Only modified by the barrier action */
+        volatile long barrierTimePs;
+        volatile boolean running = true;
+        /** Set to have all partitions stop at once, before reaching barrierTimePs */
+        volatile boolean syncRequested;
+
+        ParallelRun(int numPartitions) {
+            partitions = new ClockPartition[numPartitions];
+            for (int i = 0; i < numPartitions; i++) {
+                partitions[i] = new ClockPartition();
+            }
+        }
+    }
+
+    /**
+     * A change to the list of entries or their state, posted by any thread and applied by the clock thread
+     */
+    static class ClockRequest {
+        enum Type {ADD, REMOVE, ENABLE, RESCHEDULE}
+
+        static final ClockRequest RESCHEDULE = new ClockRequest(Type.RESCHEDULE, null, -1, false, false);
+
+        final Type      type;
+        final Clockable clockable;
+        final int       clockableCallbackHandlerChip;
+        final boolean   enabled;
+        final boolean   precise;
+
+        ClockRequest(Type type, Clockable clockable, int clockableCallbackHandlerChip, boolean enabled, boolean precise) {
+            this.type = type;
+            this.clockable = clockable;
+            this.clockableCallbackHandlerChip = clockableCallbackHandlerChip;
+            this.enabled = enabled;
+            this.precise = precise;
+        }
     }
 }
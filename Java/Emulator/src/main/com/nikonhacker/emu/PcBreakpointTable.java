@@ -0,0 +1,100 @@
+package com.nikonhacker.emu;
+
+import com.nikonhacker.emu.trigger.condition.BreakCondition;
+
+/**
+ * This class maps PC addresses to break conditions, and is meant to be checked before each instruction.
+ * It is an open-addressing hash table on primitive int keys, so that a lookup does not allocate anything.
+ * Tables are immutable: adding a breakpoint returns a new table, that can be published to the emulator thread
+ * through a volatile field without any locking.
+ */
+public class PcBreakpointTable {
+    public static final PcBreakpointTable EMPTY = new PcBreakpointTable(new int[0], new BreakCondition[0], 0);
+
+    /** Addresses. Only significant where the corresponding condition is not null */
+    private final int[] pcs;
+    private final BreakCondition[] conditions;
+    private final int size;
+    /** pcs.length - 1, pcs.length being a power of 2 */
+    private final int mask;
+
+    private PcBreakpointTable(int[] pcs, BreakCondition[] conditions, int size) {
+        this.pcs = pcs;
+        this.conditions = conditions;
+        this.size = size;
+        this.mask = pcs.length - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param pc the address to check
+     * @return the condition registered at that address, or null if none
+     */
+    public BreakCondition get(int pc) {
+        if (size == 0) {
+            return null;
+        }
+        int index = hash(pc) & mask;
+        BreakCondition condition;
+        while ((condition = conditions[index]) != null) {
+            if (pcs[index] == pc) {
+                return condition;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return a new table containing the same breakpoints as this one, plus the given one.
+     * If a condition is already registered at that address, it is replaced.
+     */
+    public PcBreakpointTable with(int pc, BreakCondition condition) {
+        int capacity = Math.max(pcs.length, 16);
+        // keep load factor under 50%, so that probe sequences remain short
+        while (capacity < (size + 1) * 2) {
+            capacity *= 2;
+        }
+        int[] newPcs = new int[capacity];
+        BreakCondition[] newConditions = new BreakCondition[capacity];
+        int newSize = 0;
+        for (int i = 0; i < pcs.length; i++) {
+            if (conditions[i] != null) {
+                newSize += put(newPcs, newConditions, pcs[i], conditions[i]);
+            }
+        }
+        newSize += put(newPcs, newConditions, pc, condition);
+        return new PcBreakpointTable(newPcs, newConditions, newSize);
+    }
+
+    /**
+     * @return 1 if a new entry was created, 0 if an existing one was replaced
+     */
+    private static int put(int[] pcs, BreakCondition[] conditions, int pc, BreakCondition condition) {
+        int mask = pcs.length - 1;
+        int index = hash(pc) & mask;
+        while (conditions[index] != null) {
+            if (pcs[index] == pc) {
+                conditions[index] = condition;
+                return 0;
+            }
+            index = (index + 1) & mask;
+        }
+        pcs[index] = pc;
+        conditions[index] = condition;
+        return 1;
+    }
+
+    private static int hash(int pc) {
+        // instructions are aligned, and breakpoints are often close to each other: spread the bits
+        int h = pc * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,36 @@
+package com.nikonhacker.emu;
+
+import com.nikonhacker.disassembly.Register32;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+
+/**
+ * Writes and reads plain registers directly, instead of walking their fields by reflection. CPU states hold hundreds
+ * of them, which makes them the most frequent objects of a state.
+ * The format is the one the reflection converter produces with the "v" attribute alias, so that states saved either
+ * way can be read. Subclasses, which hold more than a value, are left to the reflection converter.
+ * Shared registers (e.g. between shadow register sets) are still written once, as references are handled by XStream
+ * before converters are called.
+ */
+class Register32Converter implements Converter {
+    private static final String VALUE_ATTRIBUTE_NAME = "v";
+
+    @Override
+    public boolean canConvert(Class type) {
+        return type == Register32.class;
+    }
+
+    @Override
+    public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+        writer.addAttribute(VALUE_ATTRIBUTE_NAME, Integer.toString(((Register32) source).getValue()));
+    }
+
+    @Override
+    public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+        String value = reader.getAttribute(VALUE_ATTRIBUTE_NAME);
+        return new Register32(value == null ? 0 : Integer.parseInt(value));
+    }
+}
@@ -0,0 +1,44 @@
+package com.nikonhacker.emu;
+
+import com.nikonhacker.disassembly.Statement;
+
+/**
+ * A block of statements executed in sequence, as built by an emulator in block execution mode.
+ */
+public class StatementBlock {
+    private final int         pc;
+    private final Statement[] statements;
+
+    /** Address following each statement, which is where the PC must be for execution to go on in the block */
+    private final int[] nextStatementPcs;
+
+    public StatementBlock(int pc, Statement[] statements) {
+        this.pc = pc;
+        this.statements = statements;
+        nextStatementPcs = new int[statements.length];
+        int nextStatementPc = pc;
+        for (int i = 0; i < statements.length; i++) {
+            nextStatementPc += statements[i].getNumBytes();
+            nextStatementPcs[i] = nextStatementPc;
+        }
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public Statement[] getStatements() {
+        return statements;
+    }
+
+    public int getNextStatementPc(int statementIndex) {
+        return nextStatementPcs[statementIndex];
+    }
+
+    /**
+     * @return the total size of the block, in bytes
+     */
+    public int getNumBytes() {
+        return nextStatementPcs[nextStatementPcs.length - 1] - pc;
+    }
+}
@@ -2,8 +2,11 @@ package com.nikonhacker.emu;
 
 import com.nikonhacker.Constants;
 import com.nikonhacker.Format;
+import com.nikonhacker.disassembly.DisassemblyException;
+import com.nikonhacker.disassembly.Instruction;
 import com.nikonhacker.disassembly.OutputOption;
 import com.nikonhacker.disassembly.tx.TxCPUState;
+import com.nikonhacker.disassembly.tx.TxInstruction;
 import com.nikonhacker.disassembly.tx.TxInstructionSet;
 import com.nikonhacker.disassembly.tx.TxStatement;
 import com.nikonhacker.emu.interrupt.InterruptRequest;
@@ -13,7 +16,9 @@ import com.nikonhacker.emu.peripherials.interruptController.tx.TxInterruptContro
 import com.nikonhacker.emu.trigger.condition.BreakCondition;
 import com.nikonhacker.gui.component.disassembly.DisassemblyLogger;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Set;
 
 public class TxEmulator extends Emulator {
@@ -21,6 +26,14 @@ public class TxEmulator extends Emulator {
     private Set<OutputOption> lastOutputOptions;
     private boolean lastOutputOptionsValid = false;
 
+    /** Decoded statements, indexed by address, one cache per ISA mode. Created lazily as they depend on the memory in use */
+    private CodeCache<TxStatement> statementCache16;
+    private CodeCache<TxStatement> statementCache32;
+
+    /** Decoded blocks of statements for block execution mode, indexed by start address, one cache per ISA mode */
+    private CodeCache<TxStatement[]> blockCache16;
+    private CodeCache<TxStatement[]> blockCache32;
+
     public TxEmulator(Platform platform) {
         super(platform);
         statement = new TxStatement();
@@ -37,6 +50,14 @@ public class TxEmulator extends Emulator {
             TxInstructionSet.init(outputOptions);
             TxStatement.initFormatChars(outputOptions);
             TxCPUState.initRegisterLabels(outputOptions);
+
+            // Cached statements refer to instructions of the previous instruction maps
+            if (statementCache16 != null) {
+                statementCache16.clear();
+                statementCache32.clear();
+                blockCache16.clear();
+                blockCache32.clear();
+            }
         }
     }
 
@@ -58,94 +79,54 @@ public class TxEmulator extends Emulator {
      */
     @Override
     public BreakCondition onClockTick() throws EmulationException {
-        // TODO skip clock ticks if previous instruction required several cycles
+        // Skip clock ticks if previous instruction (or block) required several cycles
+        if (context.cycleIncrement > 1) {
+            context.cycleIncrement--;
+            return null;
+        }
 
         try {
-            statement.reset();
+            if (canExecuteBlock()) {
+                executeBlock();
+                // Memory conditions don't prevent block execution: check those whose words the block wrote to
+                if (hasPendingWatchpointChanges()) {
+                    return processConditions();
+                }
+                return null;
+            }
 
-            if (((TxCPUState) platform.cpuState).is16bitIsaMode) {
-                // FETCH
-                ((TxStatement)statement).fill16bInstruction(platform.memory.loadInstruction16(platform.cpuState.pc), platform.cpuState.pc, platform.memory);
-                // DECODE
-                ((TxStatement)statement).decode16BitOperands(platform.cpuState.pc);
+            boolean is16bitIsaMode = ((TxCPUState) platform.cpuState).is16bitIsaMode;
+            if (platform.memory.hasReadOnlyActivityListeners()) {
+                // Memory is being tracked or logged: perform actual fetches
+                decodeStatement(new TxStatement(), platform.cpuState.pc, is16bitIsaMode);
             }
             else {
-                // FETCH
-                ((TxStatement)statement).fill32bInstruction(platform.memory.loadInstruction32(platform.cpuState.pc));
-                // DECODE
-                ((TxStatement)statement).decode32BitOperands();
+                statement = getStatement(platform.cpuState.pc, is16bitIsaMode);
             }
 
             // LOG
             logIfRequested(logger);
 
             // ACTUAL INSTRUCTION EXECUTION
+            context.cycleIncrement = ((TxInstruction) statement.getInstruction()).getNumCycles();
             statement.getInstruction().getSimulationCode().simulate(statement, context);
 
             // Notify CPU cycle listeners
-            int cycleListenerNumber = 0;
-            while (cycleListenerNumber < cycleCounterListeners.size()) {
-                CycleCounterListener cycleCounterListener = cycleCounterListeners.get(cycleListenerNumber);
-                if (cycleCounterListener.onCycleCountChange(totalCycles, 1)) {
-                    cycleListenerNumber++;
-                }
-                else {
-                    cycleCounterListeners.remove(cycleCounterListener);
-                }
-            }
+            notifyCycleCounterListeners(context.cycleIncrement);
 
-            totalCycles ++; // approximation
+            totalCycles += context.cycleIncrement;
 
             /* Delay slot processing */
             if (context.nextPc != null) {
-                if (context.delaySlotDone) {
-                    platform.cpuState.setPc(context.nextPc);
-                    context.nextPc = null;
-                    if (context.nextReturnAddress != null) {
-                        int targetRegister = TxCPUState.RA;
-                        if (context.nextReturnAddressTargetRegister != null) {
-                            targetRegister = context.nextReturnAddressTargetRegister;
-                            context.nextReturnAddressTargetRegister = null;
-                        }
-                        platform.cpuState.setReg(targetRegister, context.nextReturnAddress);
-                        context.nextReturnAddress = null;
-                    }
-                }
-                else {
-                    context.delaySlotDone = true;
-                }
+                processDelaySlot();
             }
             else {
                 // If not in a delay slot, check interrupts
-                if(platform.interruptController.hasPendingRequests()) { // This call is not synchronized, so it skips fast
-                    final InterruptRequest interruptRequest = platform.interruptController.getNextRequest();
-                    //Double test because lack of synchronization means the status could have changed in between
-                    if (interruptRequest != null) {
-                        if (platform.cpuState.accepts(interruptRequest)){
-                            if (logger != null) {
-                                DisassemblyLogger printer2 = logger;
-                                if (printer2 != null) {
-                                    if(printer2.isIncludeInterruptMarks()) {
-                                        printer2.println(platform.getMasterClock().getFormatedTotalElapsedTimeMs() + " ------------------------- Accepting " + interruptRequest);
-                                    }
-                                    printer2.indent();
-                                }
-                            }
-                            // TODO : We probably should not remove the request from queue automatically.
-                            // TODO   This has to be done explicitely by writing to INTCLR register
-                            platform.interruptController.removeEdgeTriggeredRequest(interruptRequest);
-                            // TODO : Currently, interrupts are not checked in delay slots (see above).
-                            // TODO   Permit that and use address of branch instruction instead of PC if in delay slot !
-                            // Note : must use getPc() so that current ISA mode is stored and restored when returning from interrupt
-                            context.pushInterrupt(interruptRequest);
-                            ((TxInterruptController)platform.interruptController).processInterrupt((TxInterruptRequest) interruptRequest, platform.cpuState.getPc(), context);
-                        }
-                    }
-                }
+                checkInterrupts();
             }
 
             // Process breakConditions
-            if (breakConditionsPresent) {
+            if (breakConditionsPresent || hasPendingWatchpointChanges()) {
                 BreakCondition breakCondition = processConditions();
                 if (breakCondition != null) {
                     return breakCondition;
@@ -173,4 +154,188 @@ public class TxEmulator extends Emulator {
         return null;
     }
 
+    /**
+     * Execute all statements of the block starting at the current PC, or until the flow leaves it.
+     * Cycles of the block are accounted for at once, by skipping the corresponding clock ticks afterwards.
+     * Interrupts are only checked at the end of the block.
+     */
+    private void executeBlock() throws EmulationException, DisassemblyException {
+        boolean is16bitIsaMode = ((TxCPUState) platform.cpuState).is16bitIsaMode;
+        TxStatement[] block = getBlock(platform.cpuState.pc, is16bitIsaMode);
+        CodeCache<TxStatement[]> blockCache = is16bitIsaMode ? blockCache16 : blockCache32;
+        int invalidationCount = blockCache.getInvalidationCount();
+        int blockCycles = 0;
+        for (TxStatement txStatement : block) {
+            int nextStatementPc = platform.cpuState.pc + txStatement.getNumBytes();
+            statement = txStatement;
+
+            context.cycleIncrement = ((TxInstruction) statement.getInstruction()).getNumCycles();
+            statement.getInstruction().getSimulationCode().simulate(statement, context);
+
+            notifyCycleCounterListeners(context.cycleIncrement);
+
+            totalCycles += context.cycleIncrement;
+            blockCycles += context.cycleIncrement;
+
+            if (context.nextPc != null) {
+                processDelaySlot();
+            }
+
+            // Leave the block if flow was changed (e.g. end of delay slot), or if the block was overwritten
+            if (platform.cpuState.pc != nextStatementPc || blockCache.getInvalidationCount() != invalidationCount) {
+                break;
+            }
+        }
+
+        if (context.nextPc == null) {
+            checkInterrupts();
+        }
+
+        context.cycleIncrement = blockCycles;
+    }
+
+    private void processDelaySlot() {
+        if (context.delaySlotDone) {
+            platform.cpuState.setPc(context.nextPc);
+            context.nextPc = null;
+            if (context.nextReturnAddress != null) {
+                int targetRegister = TxCPUState.RA;
+                if (context.nextReturnAddressTargetRegister != null) {
+                    targetRegister = context.nextReturnAddressTargetRegister;
+                    context.nextReturnAddressTargetRegister = null;
+                }
+                platform.cpuState.setReg(targetRegister, context.nextReturnAddress);
+                context.nextReturnAddress = null;
+            }
+        }
+        else {
+            context.delaySlotDone = true;
+        }
+    }
+
+    private void checkInterrupts() {
+        if(platform.interruptController.hasPendingRequests()) { // This call is not synchronized, so it skips fast
+            final InterruptRequest interruptRequest = platform.interruptController.getNextRequest();
+            //Double test because lack of synchronization means the status could have changed in between
+            if (interruptRequest != null) {
+                if (platform.cpuState.accepts(interruptRequest)){
+                    if (logger != null) {
+                        DisassemblyLogger printer2 = logger;
+                        if (printer2 != null) {
+                            logInterrupt(printer2, interruptRequest);
+                        }
+                    }
+                    // TODO : We probably should not remove the request from queue automatically.
+                    // TODO   This has to be done explicitely by writing to INTCLR register
+                    platform.interruptController.removeEdgeTriggeredRequest(interruptRequest);
+                    // TODO : Currently, interrupts are not checked in delay slots (see above).
+                    // TODO   Permit that and use address of branch instruction instead of PC if in delay slot !
+                    // Note : must use getPc() so that current ISA mode is stored and restored when returning from interrupt
+                    context.pushInterrupt(interruptRequest);
+                    ((TxInterruptController)platform.interruptController).processInterrupt((TxInterruptRequest) interruptRequest, platform.cpuState.getPc(), context);
+                }
+            }
+        }
+    }
+
+    /**
+     * (Re)create caches if memory has changed since they were created
+     */
+    private void checkCaches() {
+        if (statementCache16 == null || statementCache16.getMemory() != platform.memory) {
+            if (statementCache16 != null) {
+                statementCache16.dispose();
+                statementCache32.dispose();
+                blockCache16.dispose();
+                blockCache32.dispose();
+            }
+            statementCache16 = new CodeCache<TxStatement>(platform.memory, 1);
+            statementCache32 = new CodeCache<TxStatement>(platform.memory, 2);
+            blockCache16 = new CodeCache<TxStatement[]>(platform.memory, 1);
+            blockCache32 = new CodeCache<TxStatement[]>(platform.memory, 2);
+        }
+    }
+
+    /**
+     * Get the decoded statement at the given address, from cache if possible
+     * @param pc the address of the statement
+     * @param is16bitIsaMode the ISA mode to decode the instruction in
+     * @return the decoded statement
+     */
+    private TxStatement getStatement(int pc, boolean is16bitIsaMode) throws DisassemblyException {
+        checkCaches();
+        // A given address can be decoded in both ISA modes, so each mode has its own cache
+        CodeCache<TxStatement> statementCache = is16bitIsaMode ? statementCache16 : statementCache32;
+        TxStatement txStatement = statementCache.get(pc);
+        if (txStatement == null) {
+            txStatement = decodeStatement(new TxStatement(), pc, is16bitIsaMode);
+            statementCache.put(pc, txStatement.getNumBytes(), txStatement);
+        }
+        return txStatement;
+    }
+
+    /**
+     * Get the block of statements starting at the given address, from cache if possible.
+     * A block ends after the first instruction that can change the flow, or if the next instruction cannot be decoded
+     * @param pc the address of the first statement
+     * @param is16bitIsaMode the ISA mode to decode the instructions in
+     * @return the decoded block
+     */
+    private TxStatement[] getBlock(int pc, boolean is16bitIsaMode) throws DisassemblyException {
+        checkCaches();
+        CodeCache<TxStatement[]> blockCache = is16bitIsaMode ? blockCache16 : blockCache32;
+        TxStatement[] block = blockCache.get(pc);
+        if (block == null) {
+            List<TxStatement> statements = new ArrayList<TxStatement>();
+            // First statement is decoded outside of the loop so that decoding errors are reported
+            TxStatement txStatement = getStatement(pc, is16bitIsaMode);
+            int address = pc;
+            while (true) {
+                statements.add(txStatement);
+                address += txStatement.getNumBytes();
+                if (txStatement.getInstruction().getFlowType() != Instruction.FlowType.NONE
+                        || txStatement.getInstruction().hasDelaySlot()
+                        || statements.size() == MAX_BLOCK_STATEMENTS) {
+                    break;
+                }
+                try {
+                    txStatement = getStatement(address, is16bitIsaMode);
+                }
+                catch (Exception e) {
+                    // Probably data or unmapped memory. Leave it to single step execution, if ever reached
+                    break;
+                }
+            }
+            block = statements.toArray(new TxStatement[statements.size()]);
+            blockCache.put(pc, address - pc, block);
+        }
+        return block;
+    }
+
+    /**
+     * Fetch and decode the instruction at the given address
+     * @param txStatement the statement to fill
+     * @param pc the address of the instruction
+     * @param is16bitIsaMode the ISA mode to decode the instruction in
+     * @return the filled statement
+     */
+    private TxStatement decodeStatement(TxStatement txStatement, int pc, boolean is16bitIsaMode) throws DisassemblyException {
+        // statement is set first so that it can be reported if decoding fails
+        statement = txStatement;
+
+        if (is16bitIsaMode) {
+            // FETCH
+            txStatement.fill16bInstruction(platform.memory.loadInstruction16(pc), pc, platform.memory);
+            // DECODE
+            txStatement.decode16BitOperands(pc);
+        }
+        else {
+            // FETCH
+            txStatement.fill32bInstruction(platform.memory.loadInstruction32(pc));
+            // DECODE
+            txStatement.decode32BitOperands();
+        }
+
+        return txStatement;
+    }
 }
@@ -5,7 +5,11 @@ import com.nikonhacker.disassembly.Range;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Collection;
 
 /*
@@ -27,6 +31,9 @@ public abstract class AbstractMemory implements Memory {
     /** The number of pages */
     static final int NUM_PAGES = 0x10000;
 
+    /** The maximum number of pages of a file mapped at once by loadFile() */
+    private static final int MAX_PAGES_PER_MAPPING = 1024;
+
     /** The maximum amount of RAM available */
     public static final long MAX_RAM = (long) PAGE_SIZE * (long) NUM_PAGES;
 
@@ -35,11 +42,40 @@ public abstract class AbstractMemory implements Memory {
     byte writableMemory[][];
     byte executableMemory[][];
 
-    /** Do we have more optimal nio mmap operation? */
-    boolean HAVE_java_nio_FileChannelImpl_nio_mmap_file = false;
-
     protected boolean logMemoryMessages = true;
 
+    /** True if pages are preserved before their first modification since last checkpoint */
+    private boolean checkpointTracking;
+
+    /**
+     * Pages whose next write must be tracked, either because they were not written to since last checkpoint
+     * or since the delta base was set.
+     * Store methods must call trackFirstWrite() before writing to such a page
+     */
+    boolean[] cleanPages = new boolean[NUM_PAGES];
+
+    /** Contents of the pages written to since last checkpoint, as they were at that checkpoint */
+    private byte[][] preservedPages = new byte[NUM_PAGES][];
+
+    /** Page table entries of preservedPages, in order of first modification */
+    private int[] dirtyPtes = new int[16];
+    private int numDirtyPtes;
+
+    /** If not null, pages written to since the delta base was set. See setDeltaBase() */
+    private boolean[] modifiedSinceBase;
+
+    /** If not null, hash of each page as it was when the delta base was set, or null if the page did not exist */
+    private byte[][] baseHashes;
+
+    /**
+     * Pages of files loaded lazily that were not accessed yet, or null if there are none.
+     * Such pages are not in the page tables: they stay in the file until loadPendingPage() copies them on first
+     * access. See loadsFilesLazily()
+     */
+    private ByteBuffer[] pendingPages;
+    /** Permissions of pendingPages, as R/W/X flags like in saveAllToStream() */
+    private byte[]       pendingPageFlags;
+
     public AbstractMemory() {
         clear();
     }
@@ -53,6 +89,13 @@ public abstract class AbstractMemory implements Memory {
         readableMemory = new byte[NUM_PAGES][];
         writableMemory = new byte[NUM_PAGES][];
         executableMemory = new byte[NUM_PAGES][];
+        checkpointTracking = false;
+        Arrays.fill(cleanPages, false);
+        forgetPreservedPages();
+        modifiedSinceBase = null;
+        baseHashes = null;
+        pendingPages = null;
+        pendingPageFlags = null;
     }
 
     /** Return the offset part of the address */
@@ -142,6 +185,11 @@ public abstract class AbstractMemory implements Memory {
             readableMemory[pte + i] = read ? pages[i] : new byte[0];
             writableMemory[pte + i] = write ? pages[i] : new byte[0];
             executableMemory[pte + i] = exec ? pages[i] : new byte[0];
+            // A page mapped after a checkpoint is considered blank at that checkpoint
+            if (modifiedSinceBase != null) {
+                modifiedSinceBase[pte + i] = true;
+            }
+            updateCleanPage(pte + i);
         }
 
         return addr;
@@ -183,68 +231,27 @@ public abstract class AbstractMemory implements Memory {
         try {
             // Get page table entry
             int pte = getPTE(addr);
-            // Can we optimise the reads to use mmap?
-            if (!HAVE_java_nio_FileChannelImpl_nio_mmap_file) {
-                // Sub-optimal
-                file.seek(offset);
-                for (int i = 0; i < num_pages; i++) {
-                    // Check pages aren't already allocated
-                    if (getPage(pte + i) != null) {
-                        throw new Error("Memory map of already mapped location addr=0x" + Integer.toHexString(addr) + " len=" + len);
-                    }
-                    // Allocate page
-                    byte page[] = new byte[PAGE_SIZE];
-                    if (i == 0) { // first read, start from offset upto a page length
-                        file.read(page, getOffset(addr), PAGE_SIZE - getOffset(addr));
-                    }
-                    else if (i == (num_pages - 1)) { // last read
-                        file.read(page, 0, ((len - getOffset(addr)) % PAGE_SIZE));
-                    }
-                    else {
-                        file.read(page);
-                    }
-
-                    readableMemory[pte + i] = read ? page : new byte[0];
-                    writableMemory[pte + i] = write ? page : new byte[0];
-                    executableMemory[pte + i] = exec ? page : new byte[0];
+            file.seek(offset);
+            for (int i = 0; i < num_pages; i++) {
+                // Check pages aren't already allocated
+                if (getPage(pte + i) != null) {
+                    throw new Error("Memory map of already mapped location addr=0x" + Integer.toHexString(addr) + " len=" + len);
                 }
-            }
-            else {
-                for (int i = 0; i < num_pages; i++) {
-                    // Check pages aren't already allocated
-                    if (getPage(pte + i) != null) {
-                        throw new Error("Memory map of already mapped location addr=0x" + Integer.toHexString(addr) + " len=" + len);
-                    }
-
-                    // Allocate page
-                    if (read && write) {
-                        readableMemory[pte + i] = file.getChannel().map(
-                                FileChannel.MapMode.READ_WRITE, offset + (i * PAGE_SIZE),
-                                PAGE_SIZE).array();
-                        writableMemory[pte + i] = readableMemory[pte + i];
-                        if (exec) {
-                            executableMemory[pte + i] = readableMemory[pte + i];
-                        }
-                    }
-                    else if (read) {
-                        readableMemory[pte + i] = file.getChannel().map(
-                                FileChannel.MapMode.READ_ONLY, offset + (i * PAGE_SIZE),
-                                PAGE_SIZE).array();
-                        if (exec) {
-                            executableMemory[pte + i] = readableMemory[pte + i];
-                        }
-                    }
-                    else if (exec) {
-                        executableMemory[pte + i] = file.getChannel().map(
-                                FileChannel.MapMode.READ_ONLY, offset + (i * PAGE_SIZE),
-                                PAGE_SIZE).array();
-                    }
-                    else {
-                        throw new Error("Unable to map address 0x"
-                                + Integer.toHexString(addr) + " with permissions "
-                                + (read ? "r" : "-") + (write ? "w" : "-") + (exec ? "x" : "-"));
-                    }
+                // Allocate page
+                byte page[] = new byte[PAGE_SIZE];
+                if (i == 0) { // first read, start from offset upto a page length
+                    file.read(page, getOffset(addr), PAGE_SIZE - getOffset(addr));
+                }
+                else if (i == (num_pages - 1)) { // last read
+                    file.read(page, 0, ((len - getOffset(addr)) % PAGE_SIZE));
                 }
+                else {
+                    file.read(page);
+                }
+
+                readableMemory[pte + i] = read ? page : new byte[0];
+                writableMemory[pte + i] = write ? page : new byte[0];
+                executableMemory[pte + i] = exec ? page : new byte[0];
             }
             return addr;
         } catch (IOException e) {
@@ -270,9 +277,44 @@ public abstract class AbstractMemory implements Memory {
         if (executableMemory[pte] != null)
             return executableMemory[pte];
 
+        if (loadPendingPage(pte))
+            return getPage(pte);
+
         return null;
     }
 
+    /**
+     * @return true if this memory allocates pages when accessing unmapped addresses, so that whole pages of files
+     * can be left in the file until they are first accessed. Such subclasses must call loadPendingPage() before
+     * allocating a page
+     */
+    protected boolean loadsFilesLazily() {
+        return false;
+    }
+
+    /**
+     * Copy a page of a lazily loaded file to the page tables, if it is pending
+     * @return true if the page was pending
+     */
+    final boolean loadPendingPage(int pte) {
+        if (pendingPages == null || pendingPages[pte] == null) {
+            return false;
+        }
+        byte[] page = new byte[PAGE_SIZE];
+        pendingPages[pte].duplicate().get(page);
+        int flags = pendingPageFlags[pte];
+        pendingPages[pte] = null;
+        readableMemory[pte] = ((flags & 0x4) != 0) ? page : new byte[0];
+        writableMemory[pte] = ((flags & 0x2) != 0) ? page : new byte[0];
+        executableMemory[pte] = ((flags & 0x1) != 0) ? page : new byte[0];
+        updateCleanPage(pte);
+        return true;
+    }
+
+    private boolean isPending(int pte) {
+        return pendingPages != null && pendingPages[pte] != null;
+    }
+
     /**
      * Returns the page containing the given address.
      *
@@ -362,6 +404,89 @@ public abstract class AbstractMemory implements Memory {
         return ((addr + PAGE_SIZE - 1) >> OFFSET_BITS) << OFFSET_BITS;
     }
 
+    public void loadBlock(int addr, byte[] dest, int destOffset, int length) {
+        while (length > 0) {
+            int pte = getPTE(addr);
+            int offset = getOffset(addr);
+            int count = Math.min(PAGE_SIZE - offset, length);
+            byte[] page = readableMemory[pte];
+            if (page == null && loadPendingPage(pte)) {
+                page = readableMemory[pte];
+            }
+            if (page != null && page.length == PAGE_SIZE) {
+                System.arraycopy(page, offset, dest, destOffset, count);
+            }
+            else {
+                // Let byte loads handle unmapped or protected pages the way this memory does
+                for (int i = 0; i < count; i++) {
+                    dest[destOffset + i] = (byte) loadUnsigned8(addr + i);
+                }
+            }
+            addr += count;
+            destOffset += count;
+            length -= count;
+        }
+    }
+
+    public void storeBlock(int addr, byte[] src, int srcOffset, int length) {
+        while (length > 0) {
+            int pte = getPTE(addr);
+            int offset = getOffset(addr);
+            int count = Math.min(PAGE_SIZE - offset, length);
+            byte[] page = writableMemory[pte];
+            if (page == null && loadPendingPage(pte)) {
+                page = writableMemory[pte];
+            }
+            if (page != null && page.length == PAGE_SIZE) {
+                if (cleanPages[pte]) {
+                    trackFirstWrite(pte);
+                }
+                System.arraycopy(src, srcOffset, page, offset, count);
+            }
+            else {
+                // Let byte stores handle unmapped or protected pages the way this memory does
+                for (int i = 0; i < count; i++) {
+                    store8(addr + i, src[srcOffset + i]);
+                }
+            }
+            addr += count;
+            srcOffset += count;
+            length -= count;
+        }
+    }
+
+    public void copy(int sourceAddr, int destAddr, int length) {
+        // Going through a buffer makes overlapping blocks behave as expected
+        byte[] buffer = new byte[length];
+        loadBlock(sourceAddr, buffer, 0, length);
+        storeBlock(destAddr, buffer, 0, length);
+    }
+
+    public void fill(int addr, int length, byte value) {
+        while (length > 0) {
+            int pte = getPTE(addr);
+            int offset = getOffset(addr);
+            int count = Math.min(PAGE_SIZE - offset, length);
+            byte[] page = writableMemory[pte];
+            if (page == null && loadPendingPage(pte)) {
+                page = writableMemory[pte];
+            }
+            if (page != null && page.length == PAGE_SIZE) {
+                if (cleanPages[pte]) {
+                    trackFirstWrite(pte);
+                }
+                Arrays.fill(page, offset, offset + count, value);
+            }
+            else {
+                for (int i = 0; i < count; i++) {
+                    store8(addr + i, value);
+                }
+            }
+            addr += count;
+            length -= count;
+        }
+    }
+
     public void changeProtection(int address, int len, boolean newRead, boolean newWrite, boolean newExec) {
 
         while (len > 0) {
@@ -381,6 +506,17 @@ public abstract class AbstractMemory implements Memory {
     }
 
     public void loadFile(File file, int startAddress, boolean isWriteProtected) throws IOException {
+        if (loadsFilesLazily()) {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                loadFromChannelLazily(channel, 0, startAddress, (int) channel.size(), isWriteProtected);
+            }
+            finally {
+                randomAccessFile.close();
+            }
+            return;
+        }
         FileInputStream fis = new FileInputStream(file);
         int pte = getPTE(startAddress);
         int offset = getOffset(startAddress);
@@ -407,6 +543,20 @@ public abstract class AbstractMemory implements Memory {
 
     public void loadFile(File sourceFile, Collection<Range> ranges, boolean isWriteProtected) throws IOException {
         FileChannel fc = new RandomAccessFile(sourceFile, "r").getChannel();
+        if (loadsFilesLazily()) {
+            try {
+                for (Range range : ranges) {
+                    if (range.getFileOffset() >= fc.size()) {
+                        throw new IOException("Error : expected file offset " + range.getFileOffset() + " do not exist");
+                    }
+                    loadFromChannelLazily(fc, range.getFileOffset(), range.getStart(), range.getEnd() - range.getStart() + 1, isWriteProtected);
+                }
+            }
+            finally {
+                fc.close();
+            }
+            return;
+        }
         for (Range range : ranges) {
 
             int rangeSize = range.getEnd() - range.getStart() + 1;
@@ -443,6 +593,63 @@ public abstract class AbstractMemory implements Memory {
         fc.close();
     }
 
+    /**
+     * Loads an area of a file to memory.
+     * Whole pages that are not allocated yet are mapped from the file, and only copied to the heap when first
+     * accessed. Other pages are allocated if needed, and the file contents are copied to them.
+     * Note that on some systems, a file cannot be overwritten while pages of it are mapped.
+     */
+    private void loadFromChannelLazily(FileChannel channel, long filePosition, int address, int length, boolean isWriteProtected) throws IOException {
+        byte flags = (byte) (isWriteProtected ? 0x5 : 0x7);
+        long bytesRemainingInFile = Math.max(0, channel.size() - filePosition);
+        MappedByteBuffer mappedPages = null;
+        int mappedPagesPte = 0;
+        while (length > 0) {
+            int pte = getPTE(address);
+            int offset = getOffset(address);
+            int bytesToLoad = Math.min(PAGE_SIZE - offset, length);
+            int bytesToRead = (int) Math.min(bytesToLoad, bytesRemainingInFile);
+            if (offset == 0 && bytesToRead == PAGE_SIZE && getPage(pte) == null) {
+                if (mappedPages == null || pte - mappedPagesPte >= MAX_PAGES_PER_MAPPING) {
+                    // Map as many whole pages as possible at once
+                    int numPages = (int) Math.min(Math.min(length, bytesRemainingInFile) / PAGE_SIZE, MAX_PAGES_PER_MAPPING);
+                    mappedPages = channel.map(FileChannel.MapMode.READ_ONLY, filePosition, (long) numPages * PAGE_SIZE);
+                    mappedPagesPte = pte;
+                }
+                if (pendingPages == null) {
+                    pendingPages = new ByteBuffer[NUM_PAGES];
+                    pendingPageFlags = new byte[NUM_PAGES];
+                }
+                ByteBuffer page = mappedPages.duplicate();
+                page.position((pte - mappedPagesPte) * PAGE_SIZE);
+                page.limit(page.position() + PAGE_SIZE);
+                pendingPages[pte] = page.slice();
+                pendingPageFlags[pte] = flags;
+            }
+            else {
+                mappedPages = null;
+                byte[] page = getPage(pte);
+                if (page == null) {
+                    map(pte << OFFSET_BITS, PAGE_SIZE, true, !isWriteProtected, true);
+                    page = getPage(pte);
+                }
+                ByteBuffer target = ByteBuffer.wrap(page, offset, bytesToRead);
+                long position = filePosition;
+                while (target.hasRemaining()) {
+                    int bytesRead = channel.read(target, position);
+                    if (bytesRead < 0) {
+                        throw new IOException("Error : unexpected end of file at offset " + position);
+                    }
+                    position += bytesRead;
+                }
+            }
+            filePosition += bytesToRead;
+            bytesRemainingInFile -= bytesToRead;
+            address += bytesToLoad;
+            length -= bytesToLoad;
+        }
+    }
+
     public void saveToFile(File file, int startAddress, int length) throws IOException {
         FileOutputStream fos = new FileOutputStream(file);
         int pte = getPTE(startAddress);
@@ -467,23 +674,148 @@ public abstract class AbstractMemory implements Memory {
     public int getNumUsedPages() {
         int numPages = 0;
         for (int i = 0; i < NUM_PAGES; i++) {
-            if ((readableMemory[i] != null) || (writableMemory[i] != null) || (executableMemory[i] != null)) {
+            if ((readableMemory[i] != null) || (writableMemory[i] != null) || (executableMemory[i] != null) || isPending(i)) {
                 numPages++;
             }
         }
         return numPages;
     }
 
+    public boolean isCheckpointTracking() {
+        return checkpointTracking;
+    }
+
+    /**
+     * Enable or disable checkpoint tracking. When enabled, the current contents become the first checkpoint and
+     * each page is copied before its first modification, so that the next call to takeCheckpointDelta() costs
+     * nothing more than the number of pages modified in between.
+     * Note that only writes performed through store methods are tracked, not direct writes to page arrays.
+     */
+    public void setCheckpointTracking(boolean checkpointTracking) {
+        forgetPreservedPages();
+        this.checkpointTracking = checkpointTracking;
+        for (int pte = 0; pte < NUM_PAGES; pte++) {
+            updateCleanPage(pte);
+        }
+    }
+
+    private void updateCleanPage(int pte) {
+        cleanPages[pte] = (checkpointTracking && preservedPages[pte] == null)
+                || (modifiedSinceBase != null && !modifiedSinceBase[pte]);
+    }
+
+    /**
+     * Record the first write to the given page since last checkpoint or since the delta base was set.
+     * For checkpoints, the contents of the page are copied before they get modified
+     * @param pte the page table entry of the page about to be written
+     */
+    final void trackFirstWrite(int pte) {
+        cleanPages[pte] = false;
+        if (modifiedSinceBase != null) {
+            modifiedSinceBase[pte] = true;
+        }
+        if (checkpointTracking && preservedPages[pte] == null) {
+            byte[] page = writableMemory[pte];
+            preservedPages[pte] = (page == null || page.length != PAGE_SIZE) ? new byte[PAGE_SIZE] : page.clone();
+            if (numDirtyPtes == dirtyPtes.length) {
+                dirtyPtes = Arrays.copyOf(dirtyPtes, numDirtyPtes * 2);
+            }
+            dirtyPtes[numDirtyPtes++] = pte;
+        }
+    }
+
+    /**
+     * Mark a new checkpoint.
+     * @return the pages written to since the previous checkpoint, as they were at that checkpoint.
+     * Applying the returned delta brings memory back to the previous checkpoint
+     */
+    public MemoryDelta takeCheckpointDelta() {
+        int[] ptes = Arrays.copyOf(dirtyPtes, numDirtyPtes);
+        byte[][] contents = new byte[numDirtyPtes][];
+        for (int i = 0; i < numDirtyPtes; i++) {
+            int pte = dirtyPtes[i];
+            contents[i] = preservedPages[pte];
+            preservedPages[pte] = null;
+            updateCleanPage(pte);
+        }
+        numDirtyPtes = 0;
+        return new MemoryDelta(ptes, contents);
+    }
+
+    private void forgetPreservedPages() {
+        for (int i = 0; i < numDirtyPtes; i++) {
+            preservedPages[dirtyPtes[i]] = null;
+        }
+        numDirtyPtes = 0;
+    }
+
+    /**
+     * Write back the page contents of the given delta.
+     * Caller is responsible for resetting checkpoint tracking afterwards if needed, as these writes are not tracked
+     * for checkpoints. They are for delta saves
+     */
+    public void applyDelta(MemoryDelta delta) {
+        for (int i = 0; i < delta.getNumPages(); i++) {
+            int pte = delta.getPte(i);
+            byte[] page = writableMemory[pte];
+            if (page != null && page.length == PAGE_SIZE) {
+                System.arraycopy(delta.getContents(i), 0, page, 0, PAGE_SIZE);
+                if (modifiedSinceBase != null) {
+                    modifiedSinceBase[pte] = true;
+                    updateCleanPage(pte);
+                }
+            }
+        }
+    }
+
+    /**
+     * Take over the pages, checkpoint tracking and delta base state of another memory, e.g. when a platform is rebuilt
+     * with a fresh memory object. The source memory is left empty
+     */
+    public void takePagesFrom(AbstractMemory source) {
+        readableMemory = source.readableMemory;
+        writableMemory = source.writableMemory;
+        executableMemory = source.executableMemory;
+        checkpointTracking = source.checkpointTracking;
+        cleanPages = source.cleanPages;
+        preservedPages = source.preservedPages;
+        dirtyPtes = source.dirtyPtes;
+        numDirtyPtes = source.numDirtyPtes;
+        modifiedSinceBase = source.modifiedSinceBase;
+        baseHashes = source.baseHashes;
+        pendingPages = source.pendingPages;
+        pendingPageFlags = source.pendingPageFlags;
+        source.cleanPages = new boolean[NUM_PAGES];
+        source.preservedPages = new byte[NUM_PAGES][];
+        source.dirtyPtes = new int[16];
+        source.numDirtyPtes = 0;
+        source.clear();
+    }
+
     public void saveAllToStream(OutputStream outputStream) throws IOException {
         // Header contains one byte per page, each with the 3 LSB representing R/W/X
         for (int i = 0; i < NUM_PAGES; i++) {
-            outputStream.write((byte) ((readableMemory[i] == null ? 0 : 0x4) | (writableMemory[i] == null ? 0 : 0x2) | (executableMemory[i] == null ? 0 : 0x1)));
+            if (isPending(i)) {
+                outputStream.write(pendingPageFlags[i]);
+            }
+            else {
+                outputStream.write((byte) getPermissionFlags(readableMemory[i], writableMemory[i], executableMemory[i]));
+            }
         }
         // Then write the contents of used pages
+        byte[] pendingValues = null;
         for (int i = 0; i < NUM_PAGES; i++) {
             byte[] values = readableMemory[i];
             if (values == null) values = writableMemory[i];
             if (values == null) values = executableMemory[i];
+            if (values == null && isPending(i)) {
+                // Write pending pages without loading them
+                if (pendingValues == null) {
+                    pendingValues = new byte[PAGE_SIZE];
+                }
+                pendingPages[i].duplicate().get(pendingValues);
+                values = pendingValues;
+            }
             if (values != null) {
                 outputStream.write(values);
             }
@@ -515,4 +847,120 @@ public abstract class AbstractMemory implements Memory {
             }
         }
     }
+
+    public boolean hasDeltaBase() {
+        return modifiedSinceBase != null;
+    }
+
+    /**
+     * Make the current contents the base of later delta saves: from now on, pages written to through store methods
+     * are tracked, so that saveDeltaToStream() only has to write them.
+     * Note that direct writes to page arrays are not tracked.
+     * @param hashPages if true, a hash of each page is kept, so that pages that were written to but finally hold
+     *                  the same contents as the base are not saved. This makes this call slower, but deltas smaller
+     */
+    public void setDeltaBase(boolean hashPages) {
+        modifiedSinceBase = new boolean[NUM_PAGES];
+        baseHashes = null;
+        if (hashPages) {
+            baseHashes = new byte[NUM_PAGES][];
+            MessageDigest digest = getPageDigest();
+            for (int pte = 0; pte < NUM_PAGES; pte++) {
+                if (isPending(pte)) {
+                    digest.update(pendingPages[pte].duplicate());
+                    baseHashes[pte] = digest.digest();
+                }
+                else {
+                    byte[] page = getPage(pte);
+                    if (page != null) {
+                        baseHashes[pte] = digest.digest(page);
+                    }
+                }
+            }
+        }
+        for (int pte = 0; pte < NUM_PAGES; pte++) {
+            updateCleanPage(pte);
+        }
+    }
+
+    private static MessageDigest getPageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int getPermissionFlags(byte[] readable, byte[] writable, byte[] executable) {
+        return (readable == null ? 0 : 0x4) | (writable == null ? 0 : 0x2) | (executable == null ? 0 : 0x1);
+    }
+
+    /**
+     * Write the pages modified since the delta base was set.
+     * Format: int number of pages, then for each page, int pte, byte R/W/X flags as in saveAllToStream(), and
+     * the page contents unless flags are 0 (page was unmapped)
+     */
+    public void saveDeltaToStream(OutputStream outputStream) throws IOException {
+        if (modifiedSinceBase == null) {
+            throw new IOException("No delta base was set");
+        }
+        MessageDigest digest = (baseHashes == null) ? null : getPageDigest();
+        int[] ptes = new int[NUM_PAGES];
+        int numPages = 0;
+        for (int pte = 0; pte < NUM_PAGES; pte++) {
+            if (modifiedSinceBase[pte]) {
+                byte[] page = getPage(pte);
+                if (digest != null && page != null && baseHashes[pte] != null && MessageDigest.isEqual(baseHashes[pte], digest.digest(page))) {
+                    // Back to base contents. Consider it unmodified until next write
+                    modifiedSinceBase[pte] = false;
+                    updateCleanPage(pte);
+                }
+                else {
+                    ptes[numPages++] = pte;
+                }
+            }
+        }
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.writeInt(numPages);
+        for (int i = 0; i < numPages; i++) {
+            int pte = ptes[i];
+            dataOutputStream.writeInt(pte);
+            int flags = getPermissionFlags(readableMemory[pte], writableMemory[pte], executableMemory[pte]);
+            dataOutputStream.writeByte(flags);
+            if (flags != 0) {
+                byte[] page = getPage(pte);
+                // Pages mapped without read access have a placeholder array
+                dataOutputStream.write(page.length == PAGE_SIZE ? page : new byte[PAGE_SIZE]);
+            }
+        }
+        dataOutputStream.flush();
+    }
+
+    /**
+     * Apply pages written by saveDeltaToStream(). Memory must contain the base the delta was saved against.
+     * If a delta base is set, loaded pages are considered modified since that base
+     */
+    public void loadDeltaFromStream(InputStream inputStream) throws IOException {
+        DataInputStream dataInputStream = new DataInputStream(inputStream);
+        int numPages = dataInputStream.readInt();
+        for (int i = 0; i < numPages; i++) {
+            int pte = dataInputStream.readInt();
+            int flags = dataInputStream.readByte();
+            byte[] page = null;
+            if (flags != 0) {
+                page = new byte[PAGE_SIZE];
+                dataInputStream.readFully(page);
+            }
+            readableMemory[pte] = ((flags & 0x4) != 0) ? page : null;
+            writableMemory[pte] = ((flags & 0x2) != 0) ? page : null;
+            executableMemory[pte] = ((flags & 0x1) != 0) ? page : null;
+            if (pendingPages != null) {
+                pendingPages[pte] = null;
+            }
+            if (modifiedSinceBase != null) {
+                modifiedSinceBase[pte] = true;
+            }
+            updateCleanPage(pte);
+        }
+    }
 }
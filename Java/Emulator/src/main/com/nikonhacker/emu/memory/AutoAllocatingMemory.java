@@ -151,6 +151,9 @@ public class AutoAllocatingMemory extends AbstractMemory implements Memory {
             map(truncateToPage(addr), PAGE_SIZE, true, true, true);
             pageData = writableMemory[getPTE(addr)];
         }
+        if (cleanPages[getPTE(addr)]) {
+            trackFirstWrite(getPTE(addr));
+        }
         pageData[getOffset(addr)] = (byte) value;
     }
 
@@ -0,0 +1,625 @@
+package com.nikonhacker.emu.memory;
+
+import com.nikonhacker.Format;
+import com.nikonhacker.disassembly.Range;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+
+/**
+ * This is a Memory implementation whose pages are kept outside of the Java heap, in direct ByteBuffers.
+ * Write-protected pages loaded from a file are mapped straight from disk instead of being copied.
+ * The byte order is given at construction, so that 16bit and 32bit accesses inside a page are performed by a single
+ * getShort()/getInt(), and only accesses straddling two pages are composed from byte accesses.
+ *
+ * Like FastMemory, this implementation does not allocate pages on-the-fly nor warn any listener.
+ */
+public class ByteBufferMemory implements Memory {
+    /** The size of a single page in bytes. */
+    static final int PAGE_SIZE = AbstractMemory.PAGE_SIZE;
+
+    /** Bits in offset (inside a page) */
+    static final int OFFSET_BITS = AbstractMemory.OFFSET_BITS;
+
+    /** The number of pages */
+    static final int NUM_PAGES = AbstractMemory.NUM_PAGES;
+
+    /** Maximum number of pages allocated in a single direct buffer */
+    private static final int MAX_PAGES_PER_BUFFER = 1024;
+
+    /** Marker for pages lacking a permission, just like the empty arrays of AbstractMemory */
+    private static final ByteBuffer NO_ACCESS = ByteBuffer.allocate(0);
+
+    private final ByteOrder byteOrder;
+    private final boolean   bigEndian;
+
+    /** The memory backing store */
+    private ByteBuffer readableMemory[];
+    private ByteBuffer writableMemory[];
+    private ByteBuffer executableMemory[];
+
+    protected boolean logMemoryMessages = true;
+
+    /**
+     * @param byteOrder the byte order of 16bit and 32bit values, e.g. ByteOrder.BIG_ENDIAN for FR and TX,
+     *                  ByteOrder.LITTLE_ENDIAN for ARM
+     */
+    public ByteBufferMemory(ByteOrder byteOrder) {
+        this.byteOrder = byteOrder;
+        this.bigEndian = (byteOrder == ByteOrder.BIG_ENDIAN);
+        clear();
+        setLogMemoryMessages(false);
+    }
+
+    @Override
+    public void setLogMemoryMessages(boolean logMemoryMessages) {
+        this.logMemoryMessages = logMemoryMessages;
+    }
+
+    public void clear() {
+        // Direct buffers are released when garbage collected
+        readableMemory = new ByteBuffer[NUM_PAGES];
+        writableMemory = new ByteBuffer[NUM_PAGES];
+        executableMemory = new ByteBuffer[NUM_PAGES];
+    }
+
+    /** Return the offset part of the address */
+    static int getOffset(int address) {
+        return address & (PAGE_SIZE - 1);
+    }
+
+    /** Return the page table entry part of the address */
+    static int getPTE(int address) {
+        return address >>> OFFSET_BITS;
+    }
+
+    /**
+     * Map an anonymous area of memory, allocated outside of the Java heap
+     *
+     * @param addr  the address to map, which must be page aligned
+     * @param len   the amount of memory to map
+     * @param read  is the page readable
+     * @param write is the page writable
+     * @param exec  is the page executable
+     */
+    public int map(int addr, int len, boolean read, boolean write, boolean exec) throws MemoryMapException {
+        // Check address is page aligned
+        if ((addr % PAGE_SIZE) != 0) {
+            MemoryMapException.unalignedAddress(addr);
+        }
+
+        int numPages = (len + PAGE_SIZE - 1) / PAGE_SIZE;
+
+        if (logMemoryMessages) {
+            System.out.println("Direct mapping: addr=0x"
+                    + Integer.toHexString(addr) + " len=" + len + (read ? " r" : " -")
+                    + (write ? "w" : "-") + (exec ? "x" : "-"));
+        }
+
+        int pte = getPTE(addr);
+        for (int i = 0; i < numPages; i++) {
+            // Check pages aren't already allocated
+            if (getPage(pte + i) != null) {
+                throw new Error("Memory map of already mapped location addr=0x" + Integer.toHexString(addr) + " len=" + len);
+            }
+        }
+
+        ByteBuffer buffer = null;
+        for (int i = 0; i < numPages; i++) {
+            int indexInBuffer = i % MAX_PAGES_PER_BUFFER;
+            if (indexInBuffer == 0) {
+                buffer = ByteBuffer.allocateDirect(Math.min(numPages - i, MAX_PAGES_PER_BUFFER) * PAGE_SIZE);
+            }
+            setPage(pte + i, slicePage(buffer, indexInBuffer * PAGE_SIZE), read, write, exec);
+        }
+
+        return addr;
+    }
+
+    /**
+     * Map an area of memory from file.
+     * Read-only areas are mapped from the file itself. Writable areas are copied, so that the file is never modified.
+     *
+     * @param file   the file map in from
+     * @param offset the position of the area in the file
+     * @param addr   the address to map, which must be page aligned
+     * @param len    the amount of memory to map
+     * @param read   is the page readable
+     * @param write  is the page writable
+     * @param exec   is the page executable
+     */
+    public int map(RandomAccessFile file, long offset, int addr, int len, boolean read, boolean write, boolean exec) throws MemoryMapException {
+        // Check address is page aligned
+        if ((addr % PAGE_SIZE) != 0) {
+            MemoryMapException.unalignedAddress(addr);
+        }
+        if (logMemoryMessages) {
+            System.out.println("Mapping file " + file + " offset=" + offset
+                    + " addr=0x" + Integer.toHexString(addr) + " len=" + len
+                    + (read ? " r" : " -") + (write ? "w" : "-") + (exec ? "x" : "-"));
+        }
+        try {
+            FileChannel channel = file.getChannel();
+            if (write) {
+                map(addr, len, read, true, exec);
+                loadFromChannel(channel, offset, addr, len, false);
+            }
+            else {
+                int numPages = (len + PAGE_SIZE - 1) / PAGE_SIZE;
+                int pte = getPTE(addr);
+                for (int i = 0; i < numPages; i++) {
+                    if (getPage(pte + i) != null) {
+                        throw new Error("Memory map of already mapped location addr=0x" + Integer.toHexString(addr) + " len=" + len);
+                    }
+                }
+                loadFromChannel(channel, offset, addr, len, true);
+                changeProtection(addr, len, read, false, exec);
+            }
+            return addr;
+        } catch (IOException e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * Returns a view of one page of the given buffer, in the byte order of this memory
+     */
+    private ByteBuffer slicePage(ByteBuffer buffer, int position) {
+        ByteBuffer page = buffer.duplicate();
+        page.position(position);
+        page.limit(position + PAGE_SIZE);
+        return page.slice().order(byteOrder);
+    }
+
+    private void setPage(int pte, ByteBuffer page, boolean read, boolean write, boolean exec) {
+        readableMemory[pte] = read ? page : NO_ACCESS;
+        writableMemory[pte] = write ? page : NO_ACCESS;
+        executableMemory[pte] = exec ? page : NO_ACCESS;
+    }
+
+    /**
+     * Returns the page currently mapped at the given page table entry.
+     *
+     * @param pte The page table entry, for which a page is to be retrieved.
+     * @return The page (R,W,X) mapped at the given page table entry or null, if no page is currently mapped
+     *         to that entry.
+     */
+    ByteBuffer getPage(int pte) {
+        if (readableMemory[pte] != null && readableMemory[pte] != NO_ACCESS)
+            return readableMemory[pte];
+
+        if (writableMemory[pte] != null && writableMemory[pte] != NO_ACCESS)
+            return writableMemory[pte];
+
+        if (executableMemory[pte] != null && executableMemory[pte] != NO_ACCESS)
+            return executableMemory[pte];
+
+        return null;
+    }
+
+    /**
+     * Returns a page that file contents can be copied to, allocating it if needed.
+     * A page mapped read-only from a file is replaced by a copy, keeping its permissions
+     */
+    private ByteBuffer getLoadablePage(int pte, boolean isWriteProtected) {
+        ByteBuffer page = getPage(pte);
+        if (page == null) {
+            map(pte << OFFSET_BITS, PAGE_SIZE, true, !isWriteProtected, true);
+            page = getPage(pte);
+        }
+        else if (page.isReadOnly()) {
+            boolean read = readableMemory[pte] != NO_ACCESS;
+            boolean write = writableMemory[pte] != NO_ACCESS;
+            boolean exec = executableMemory[pte] != NO_ACCESS;
+            ByteBuffer copy = ByteBuffer.allocateDirect(PAGE_SIZE).order(byteOrder);
+            copy.put(page.duplicate());
+            setPage(pte, copy, read, write, exec);
+            page = copy;
+        }
+        return page;
+    }
+
+    /**
+     * Loads an area of a file to memory.
+     * If write-protected, whole pages that are not allocated yet are mapped straight from the file. Other pages are
+     * allocated if needed, and the file contents are copied to them.
+     */
+    private void loadFromChannel(FileChannel channel, long filePosition, int address, int length, boolean isWriteProtected) throws IOException {
+        long bytesRemainingInFile = Math.max(0, channel.size() - filePosition);
+        while (length > 0) {
+            int pte = getPTE(address);
+            int offset = getOffset(address);
+            int bytesToLoad = Math.min(PAGE_SIZE - offset, length);
+            int bytesToRead = (int) Math.min(bytesToLoad, bytesRemainingInFile);
+            if (isWriteProtected && offset == 0 && bytesToRead == PAGE_SIZE && getPage(pte) == null) {
+                setPage(pte, channel.map(FileChannel.MapMode.READ_ONLY, filePosition, PAGE_SIZE).order(byteOrder), true, false, true);
+            }
+            else {
+                ByteBuffer target = getLoadablePage(pte, isWriteProtected).duplicate();
+                target.position(offset);
+                target.limit(offset + bytesToRead);
+                long position = filePosition;
+                while (target.hasRemaining()) {
+                    int bytesRead = channel.read(target, position);
+                    if (bytesRead < 0) {
+                        throw new IOException("Error : unexpected end of file at offset " + position);
+                    }
+                    position += bytesRead;
+                }
+            }
+            filePosition += bytesToRead;
+            bytesRemainingInFile -= bytesToRead;
+            address += bytesToLoad;
+            length -= bytesToLoad;
+        }
+    }
+
+    /**
+     * Unmap a page of memory
+     *
+     * @param addr the address to unmap
+     * @param len  the amount of memory to unmap
+     */
+    public void unmap(int addr, int len) {
+        for (int i = 0; i < len; i += PAGE_SIZE) {
+            int pte = getPTE(addr + i);
+            if (getPage(pte) != null) {
+                readableMemory[pte] = null;
+                writableMemory[pte] = null;
+                executableMemory[pte] = null;
+            }
+            else {
+                throw new Error("Unmapping memory that's not mapped addr=0x" + Integer.toHexString(addr) + " len=" + len);
+            }
+        }
+    }
+
+    /**
+     * Is the given address mapped into memory?
+     *
+     * @param addr to check
+     * @return true => memory is mapped
+     */
+    public boolean isMapped(int addr) {
+        return getPage(getPTE(addr)) != null;
+    }
+
+    public int getNumPages() {
+        return NUM_PAGES;
+    }
+
+    public int getPageSize() {
+        return PAGE_SIZE;
+    }
+
+    public boolean isPageAligned(int addr) {
+        return (addr % PAGE_SIZE) == 0;
+    }
+
+    public int truncateToPage(int addr) {
+        return (addr >> OFFSET_BITS) << OFFSET_BITS;
+    }
+
+    public int truncateToNextPage(int addr) {
+        return ((addr + PAGE_SIZE - 1) >> OFFSET_BITS) << OFFSET_BITS;
+    }
+
+    public void changeProtection(int address, int len, boolean newRead, boolean newWrite, boolean newExec) {
+        while (len > 0) {
+            int pte = getPTE(address);
+            ByteBuffer page = getPage(pte);
+
+            if (page == null)
+                throw new RuntimeException("Segmentation fault at 0x" + Format.asHex(address, 8));
+
+            if (newWrite && page.isReadOnly()) {
+                // Mapped from a file: work on a copy
+                page = getLoadablePage(pte, false);
+            }
+            setPage(pte, page, newRead, newWrite, newExec);
+
+            address += PAGE_SIZE;
+            len -= PAGE_SIZE;
+        }
+    }
+
+    /**
+     * Perform a byte load where the sign extended result fills the return value
+     *
+     * @param addr the address of the value to load
+     * @return the sign extended result
+     */
+    public int loadSigned8(int addr) {
+        return readableMemory[getPTE(addr)].get(getOffset(addr));
+    }
+
+    /**
+     * Perform a byte load where the zero extended result fills the return value
+     *
+     * @param addr the address of the value to load
+     * @return the zero extended result
+     */
+    public int loadUnsigned8(int addr) {
+        return readableMemory[getPTE(addr)].get(getOffset(addr)) & 0xFF;
+    }
+
+    /**
+     * Perform a 16bit load where the sign extended result fills the return value
+     *
+     * @param addr the address of the value to load
+     * @return the sign extended result
+     */
+    public int loadSigned16(int addr) {
+        int offset = getOffset(addr);
+        if (offset < PAGE_SIZE - 1) {
+            return readableMemory[getPTE(addr)].getShort(offset);
+        }
+        return bigEndian ? (loadSigned8(addr) << 8) | loadUnsigned8(addr + 1)
+                         : (loadSigned8(addr + 1) << 8) | loadUnsigned8(addr);
+    }
+
+    /**
+     * Perform a 16bit load where the zero extended result fills the return value
+     *
+     * @param addr the address of the value to load
+     * @return the zero extended result
+     */
+    public int loadUnsigned16(int addr) {
+        return loadSigned16(addr) & 0xFFFF;
+    }
+
+    /**
+     * Perform a 32bit load
+     *
+     * @param addr the address of the value to load
+     * @return the result
+     */
+    public int load32(int addr) {
+        int offset = getOffset(addr);
+        if (offset < PAGE_SIZE - 3) {
+            return readableMemory[getPTE(addr)].getInt(offset);
+        }
+        return bigEndian ? (loadUnsigned16(addr) << 16) | loadUnsigned16(addr + 2)
+                         : (loadUnsigned16(addr + 2) << 16) | loadUnsigned16(addr);
+    }
+
+    /**
+     * Perform a 8bit load from memory that must be executable
+     *
+     * @param addr the address of the value to load
+     * @return the result
+     */
+    public int loadInstruction8(int addr) {
+        return executableMemory[getPTE(addr)].get(getOffset(addr)) & 0xFF;
+    }
+
+    public int loadInstruction16(int addr) {
+        int offset = getOffset(addr);
+        if (offset < PAGE_SIZE - 1) {
+            return executableMemory[getPTE(addr)].getShort(offset) & 0xFFFF;
+        }
+        return bigEndian ? (loadInstruction8(addr) << 8) | loadInstruction8(addr + 1)
+                         : (loadInstruction8(addr + 1) << 8) | loadInstruction8(addr);
+    }
+
+    /**
+     * Perform a 32bit load from memory that must be executable
+     *
+     * @param addr the address of the value to load
+     * @return the result
+     */
+    public int loadInstruction32(int addr) {
+        int offset = getOffset(addr);
+        if (offset < PAGE_SIZE - 3) {
+            return executableMemory[getPTE(addr)].getInt(offset);
+        }
+        return bigEndian ? (loadInstruction16(addr) << 16) | loadInstruction16(addr + 2)
+                         : (loadInstruction16(addr + 2) << 16) | loadInstruction16(addr);
+    }
+
+    /**
+     * Perform a byte store
+     *
+     * @param value the value to store
+     * @param addr  the address of where to store
+     */
+    public void store8(int addr, int value) {
+        writableMemory[getPTE(addr)].put(getOffset(addr), (byte) value);
+    }
+
+    /**
+     * Perform a 16bit store
+     *
+     * @param value the value to store
+     * @param addr  the address of where to store
+     */
+    public void store16(int addr, int value) {
+        int offset = getOffset(addr);
+        if (offset < PAGE_SIZE - 1) {
+            writableMemory[getPTE(addr)].putShort(offset, (short) value);
+        }
+        else if (bigEndian) {
+            store8(addr, value >> 8);
+            store8(addr + 1, value);
+        }
+        else {
+            store8(addr + 1, value >> 8);
+            store8(addr, value);
+        }
+    }
+
+    /**
+     * Perform a 32bit store
+     *
+     * @param value the value to store
+     * @param addr  the address of where to store
+     */
+    public void store32(int addr, int value) {
+        int offset = getOffset(addr);
+        if (offset < PAGE_SIZE - 3) {
+            writableMemory[getPTE(addr)].putInt(offset, value);
+        }
+        else if (bigEndian) {
+            store16(addr, value >> 16);
+            store16(addr + 2, value);
+        }
+        else {
+            store16(addr + 2, value >> 16);
+            store16(addr, value);
+        }
+    }
+
+    public void loadBlock(int addr, byte[] dest, int destOffset, int length) {
+        while (length > 0) {
+            int offset = getOffset(addr);
+            int count = Math.min(PAGE_SIZE - offset, length);
+            ByteBuffer page = readableMemory[getPTE(addr)].duplicate();
+            page.position(offset);
+            page.get(dest, destOffset, count);
+            addr += count;
+            destOffset += count;
+            length -= count;
+        }
+    }
+
+    public void storeBlock(int addr, byte[] src, int srcOffset, int length) {
+        while (length > 0) {
+            int offset = getOffset(addr);
+            int count = Math.min(PAGE_SIZE - offset, length);
+            ByteBuffer page = writableMemory[getPTE(addr)].duplicate();
+            page.position(offset);
+            page.put(src, srcOffset, count);
+            addr += count;
+            srcOffset += count;
+            length -= count;
+        }
+    }
+
+    public void copy(int sourceAddr, int destAddr, int length) {
+        // Going through a buffer makes overlapping blocks behave as expected
+        byte[] buffer = new byte[length];
+        loadBlock(sourceAddr, buffer, 0, length);
+        storeBlock(destAddr, buffer, 0, length);
+    }
+
+    public void fill(int addr, int length, byte value) {
+        while (length > 0) {
+            int offset = getOffset(addr);
+            int count = Math.min(PAGE_SIZE - offset, length);
+            ByteBuffer page = writableMemory[getPTE(addr)];
+            for (int i = offset; i < offset + count; i++) {
+                page.put(i, value);
+            }
+            addr += count;
+            length -= count;
+        }
+    }
+
+    public void loadFile(File file, int startAddress, boolean isWriteProtected) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            loadFromChannel(channel, 0, startAddress, (int) channel.size(), isWriteProtected);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    public void loadFile(File sourceFile, Collection<Range> ranges, boolean isWriteProtected) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(sourceFile, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            for (Range range : ranges) {
+                if (range.getFileOffset() >= channel.size()) {
+                    throw new IOException("Error : expected file offset " + range.getFileOffset() + " do not exist");
+                }
+                loadFromChannel(channel, range.getFileOffset(), range.getStart(), range.getEnd() - range.getStart() + 1, isWriteProtected);
+            }
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Copies part of a page to the given array
+     */
+    private static void readPage(ByteBuffer page, int offset, byte[] destination, int length) {
+        ByteBuffer source = page.duplicate();
+        source.position(offset);
+        source.get(destination, 0, length);
+    }
+
+    public void saveToFile(File file, int startAddress, int length) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        byte[] buffer = new byte[PAGE_SIZE];
+        int pte = getPTE(startAddress);
+        int offset = getOffset(startAddress);
+        int bytesRemainingToWrite = length;
+        while (bytesRemainingToWrite > 0) {
+            int bytesToWrite = Math.min(PAGE_SIZE - offset, bytesRemainingToWrite);
+            ByteBuffer page = getPage(pte);
+            if (page == null) {
+                // Unallocated page, use 0-filled page
+                fos.write(new byte[bytesToWrite]);
+            }
+            else {
+                readPage(page, offset, buffer, bytesToWrite);
+                fos.write(buffer, 0, bytesToWrite);
+            }
+            bytesRemainingToWrite -= bytesToWrite;
+            pte++;
+            offset = 0;
+        }
+        fos.close();
+    }
+
+    public void saveAllToStream(OutputStream outputStream) throws IOException {
+        // Same format as AbstractMemory.
+        // Header contains one byte per page, each with the 3 LSB representing R/W/X
+        for (int i = 0; i < NUM_PAGES; i++) {
+            if (getPage(i) == null) {
+                outputStream.write(0);
+            }
+            else {
+                outputStream.write((readableMemory[i] == NO_ACCESS ? 0 : 0x4) | (writableMemory[i] == NO_ACCESS ? 0 : 0x2) | (executableMemory[i] == NO_ACCESS ? 0 : 0x1));
+            }
+        }
+        // Then write the contents of used pages
+        byte[] buffer = new byte[PAGE_SIZE];
+        for (int i = 0; i < NUM_PAGES; i++) {
+            ByteBuffer page = getPage(i);
+            if (page != null) {
+                readPage(page, 0, buffer, PAGE_SIZE);
+                outputStream.write(buffer);
+            }
+        }
+    }
+
+    public void loadAllFromStream(InputStream inputStream) throws IOException {
+        clear();
+        // Header contains one byte per page, each with the 3 LSB representing R/W/X
+        byte[] header = new byte[NUM_PAGES];
+        for (int i = 0; i < NUM_PAGES; i++) {
+            header[i] = (byte) inputStream.read();
+        }
+        // Then read the contents of used pages
+        byte[] buffer = new byte[PAGE_SIZE];
+        for (int i = 0; i < NUM_PAGES; i++) {
+            byte b = header[i];
+            if (b != 0) {
+                int bytesRead = 0;
+                while (bytesRead != PAGE_SIZE) {
+                    bytesRead += inputStream.read(buffer, bytesRead, PAGE_SIZE - bytesRead);
+                }
+                ByteBuffer page = ByteBuffer.allocateDirect(PAGE_SIZE).order(byteOrder);
+                page.put(buffer);
+                setPage(i, page, (b & 0x4) != 0, (b & 0x2) != 0, (b & 0x1) != 0);
+            }
+        }
+    }
+}
@@ -9,9 +9,18 @@
  */
 package com.nikonhacker.emu.memory;
 
+import com.nikonhacker.disassembly.Range;
+import com.nikonhacker.emu.memory.listener.BlockActivityListener;
+import com.nikonhacker.emu.memory.listener.CodePageWriteListener;
 import com.nikonhacker.emu.memory.listener.MemoryActivityListener;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -28,6 +37,21 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
 
     private List<MemoryActivityListener> activityListeners = new ArrayList<MemoryActivityListener>();
 
+    /**
+     * For each page, the activityListeners that may match some of its addresses, in the same order, or null if none.
+     * Rebuilt each time a listener is added or removed, so that accesses to unwatched pages skip listeners altogether
+     */
+    private MemoryActivityListener[][] pageListeners = new MemoryActivityListener[NUM_PAGES][];
+
+    /** Number of listeners in activityListeners that are only loggers (see MemoryActivityListener.isReadOnly()) */
+    private int numReadOnlyListeners = 0;
+
+    /** Listeners to warn when a page containing cached code is modified */
+    private List<CodePageWriteListener> codePageWriteListeners = new ArrayList<CodePageWriteListener>();
+
+    /** Pages for which code was cached by a CodePageWriteListener and not modified since */
+    private boolean[] codePages = new boolean[NUM_PAGES];
+
     public enum AccessSource{
         /** Access due to code reading/writing to memory */
         CODE,
@@ -47,21 +71,144 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
 
     public void clear() {
         super.clear();
+        // Note: clear() is called by the super constructor before fields are initialized
+        if (codePages != null) {
+            invalidateAllCodePages();
+        }
+    }
+
+    @Override
+    public void loadFile(File file, int startAddress, boolean isWriteProtected) throws IOException {
+        super.loadFile(file, startAddress, isWriteProtected);
+        invalidateAllCodePages();
+    }
+
+    @Override
+    public void loadFile(File sourceFile, Collection<Range> ranges, boolean isWriteProtected) throws IOException {
+        super.loadFile(sourceFile, ranges, isWriteProtected);
+        invalidateAllCodePages();
+    }
+
+    @Override
+    protected boolean loadsFilesLazily() {
+        // Unmapped pages are allocated on first access anyway
+        return true;
+    }
+
+    @Override
+    public void applyDelta(MemoryDelta delta) {
+        super.applyDelta(delta);
+        invalidateAllCodePages();
+    }
+
+    @Override
+    public void loadDeltaFromStream(InputStream inputStream) throws IOException {
+        super.loadDeltaFromStream(inputStream);
+        invalidateAllCodePages();
+    }
+
+    @Override
+    public void takePagesFrom(AbstractMemory source) {
+        super.takePagesFrom(source);
+        invalidateAllCodePages();
     }
 
     public void addActivityListener(MemoryActivityListener activityListener) {
         if (activityListener.isReadOnly()) {
             // add at the end so that logging occurs after modifications
             activityListeners.add(activityListener);
+            numReadOnlyListeners++;
         }
         else {
             // add at the start so that modifications occur before logging
             activityListeners.add(0, activityListener);
         }
+        updatePageListeners();
     }
 
     public boolean removeActivityListener(MemoryActivityListener activityListener) {
-        return activityListeners.remove(activityListener);
+        boolean removed = activityListeners.remove(activityListener);
+        if (removed) {
+            if (activityListener.isReadOnly()) {
+                numReadOnlyListeners--;
+            }
+            updatePageListeners();
+        }
+        return removed;
+    }
+
+    /**
+     * Rebuilds the per-page index of activity listeners.
+     * Each page entry is replaced at once, so that the emulator thread never sees a partially built list
+     */
+    private void updatePageListeners() {
+        List<MemoryActivityListener> listeners = new ArrayList<MemoryActivityListener>();
+        MemoryActivityListener[] previousPageListeners = null;
+        for (int page = 0; page < NUM_PAGES; page++) {
+            listeners.clear();
+            for (MemoryActivityListener activityListener : activityListeners) {
+                if (activityListener.matchesPage(page)) {
+                    listeners.add(activityListener);
+                }
+            }
+            if (listeners.isEmpty()) {
+                pageListeners[page] = null;
+            }
+            else {
+                MemoryActivityListener[] currentPageListeners = listeners.toArray(new MemoryActivityListener[listeners.size()]);
+                // Share arrays between consecutive pages watched by the same listeners
+                if (!Arrays.equals(currentPageListeners, previousPageListeners)) {
+                    previousPageListeners = currentPageListeners;
+                }
+                pageListeners[page] = previousPageListeners;
+            }
+        }
+    }
+
+    /**
+     * Indicates if some loggers or trackers are attached to this memory, in which case every access must
+     * really be performed (e.g. instruction fetches cannot be served from a cache)
+     * @return true if at least one read-only listener is attached
+     */
+    public boolean hasReadOnlyActivityListeners() {
+        return numReadOnlyListeners > 0;
+    }
+
+    public void addCodePageWriteListener(CodePageWriteListener codePageWriteListener) {
+        if (!codePageWriteListeners.contains(codePageWriteListener)) {
+            codePageWriteListeners.add(codePageWriteListener);
+        }
+    }
+
+    public boolean removeCodePageWriteListener(CodePageWriteListener codePageWriteListener) {
+        return codePageWriteListeners.remove(codePageWriteListener);
+    }
+
+    /**
+     * Declares that code of the page containing the given address has been cached, so that the
+     * CodePageWriteListeners are warned upon the next write to that page
+     * @param addr any address in the page
+     */
+    public void markCodePage(int addr) {
+        codePages[getPTE(addr)] = true;
+    }
+
+    /**
+     * Warns the CodePageWriteListeners that all marked pages are invalid
+     */
+    public void invalidateAllCodePages() {
+        for (int page = 0; page < NUM_PAGES; page++) {
+            if (codePages[page]) {
+                invalidateCodePage(page);
+            }
+        }
+    }
+
+    private void invalidateCodePage(int page) {
+        codePages[page] = false;
+        for (CodePageWriteListener codePageWriteListener : codePageWriteListeners) {
+            codePageWriteListener.onCodePageWrite(page);
+        }
     }
 
     /**
@@ -80,13 +227,16 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
         try {
             byte[] pageData = readableMemory[page];
             if (pageData == null) {
-                map(truncateToPage(addr), PAGE_SIZE, true, true, true);
+                if (!loadPendingPage(page)) {
+                    map(truncateToPage(addr), PAGE_SIZE, true, true, true);
+                }
                 pageData = readableMemory[page];
             }
 
             byte value = pageData[offset];
-            if (accessSource != null) {
-                for (MemoryActivityListener activityListener : activityListeners) {
+            MemoryActivityListener[] listeners = pageListeners[page];
+            if (listeners != null && accessSource != null) {
+                for (MemoryActivityListener activityListener : listeners) {
                     if (activityListener.matches(addr)) {
                         Byte b = activityListener.onLoadData8(pageData, addr, value, accessSource);
                         if (b != null) {
@@ -121,13 +271,16 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
         try {
             byte[] pageData = readableMemory[page];
             if (pageData == null) {
-                map(truncateToPage(addr), PAGE_SIZE, true, true, true);
+                if (!loadPendingPage(page)) {
+                    map(truncateToPage(addr), PAGE_SIZE, true, true, true);
+                }
                 pageData = readableMemory[page];
             }
 
             byte value = pageData[offset];
-            if (accessSource != null) {
-                for (MemoryActivityListener activityListener : activityListeners) {
+            MemoryActivityListener[] listeners = pageListeners[page];
+            if (listeners != null && accessSource != null) {
+                for (MemoryActivityListener activityListener : listeners) {
                     if (activityListener.matches(addr)) {
                         Byte b = activityListener.onLoadData8(pageData, addr, value, accessSource);
                         if (b != null) {
@@ -145,6 +298,34 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
         }
     }
 
+    /**
+     * Reads a 16bit value, without warning listeners.
+     * If both bytes are in the same allocated page, they are read directly from it
+     */
+    private int readUnsigned16(int addr) {
+        byte[] pageData = readableMemory[getPTE(addr)];
+        int offset = getOffset(addr);
+        if (pageData != null && offset < pageData.length - 1) {
+            return ((pageData[offset] & 0xFF) << 8) | (pageData[offset + 1] & 0xFF);
+        }
+        return (loadUnsigned8(addr, null) << 8) | loadUnsigned8(addr + 1, null);
+    }
+
+    /**
+     * Reads a 32bit value, without warning listeners.
+     * If all bytes are in the same allocated page, they are read directly from it
+     */
+    private int read32(int addr) {
+        byte[] pageData = readableMemory[getPTE(addr)];
+        int offset = getOffset(addr);
+        if (pageData != null && offset < pageData.length - 3) {
+            return (pageData[offset] << 24) | ((pageData[offset + 1] & 0xFF) << 16)
+                    | ((pageData[offset + 2] & 0xFF) << 8) | (pageData[offset + 3] & 0xFF);
+        }
+        return (loadSigned8(addr, null) << 24) | (loadUnsigned8(addr + 1, null) << 16)
+                | (loadUnsigned8(addr + 2, null) << 8) | loadUnsigned8(addr + 3, null);
+    }
+
     /**
      * Perform a 16bit load where the sign extended result fills the return value
      *
@@ -156,9 +337,10 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
     }
     
     public int loadSigned16(int addr, AccessSource accessSource) {
-        int value = (loadSigned8(addr, null) << 8) | loadUnsigned8(addr + 1, null);
-        if (accessSource != null) {
-            for (MemoryActivityListener activityListener : activityListeners) {
+        int value = (short) readUnsigned16(addr);
+        MemoryActivityListener[] listeners = pageListeners[getPTE(addr)];
+        if (listeners != null && accessSource != null) {
+            for (MemoryActivityListener activityListener : listeners) {
                 if (activityListener.matches(addr)) {
                     Integer i = activityListener.onLoadData16(readableMemory[getPTE(addr)], addr, value, accessSource);
                     if (i != null) {
@@ -184,9 +366,10 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
     }
     
     public int loadUnsigned16(int addr, AccessSource accessSource) {
-        int value = (loadUnsigned8(addr, null) << 8) | loadUnsigned8(addr + 1, null);
-        if (accessSource != null) {
-            for (MemoryActivityListener activityListener : activityListeners) {
+        int value = readUnsigned16(addr);
+        MemoryActivityListener[] listeners = pageListeners[getPTE(addr)];
+        if (listeners != null && accessSource != null) {
+            for (MemoryActivityListener activityListener : listeners) {
                 if (activityListener.matches(addr)) {
                     Integer i = activityListener.onLoadData16(readableMemory[getPTE(addr)], addr, value, accessSource);
                     if (i != null) {
@@ -211,10 +394,10 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
     }
 
     public int load32(int addr, AccessSource accessSource) {
-        int value = (loadSigned8(addr, null) << 24) | (loadUnsigned8(addr + 1, null) << 16)
-                | (loadUnsigned8(addr + 2, null) << 8) | loadUnsigned8(addr + 3, null);
-        if (accessSource != null) {
-            for (MemoryActivityListener activityListener : activityListeners) {
+        int value = read32(addr);
+        MemoryActivityListener[] listeners = pageListeners[getPTE(addr)];
+        if (listeners != null && accessSource != null) {
+            for (MemoryActivityListener activityListener : listeners) {
                 if (activityListener.matches(addr)) {
                     Integer i = activityListener.onLoadData32(readableMemory[getPTE(addr)], addr, value, accessSource);
                     if (i != null) {
@@ -240,8 +423,12 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
     public int loadInstruction8(int addr, AccessSource accessSource) {
         int page = getPTE(addr);
         int offset = getOffset(addr);
-        if (accessSource != null) {
-            for (MemoryActivityListener activityListener : activityListeners) {
+        if (executableMemory[page] == null) {
+            loadPendingPage(page);
+        }
+        MemoryActivityListener[] listeners = pageListeners[page];
+        if (listeners != null && accessSource != null) {
+            for (MemoryActivityListener activityListener : listeners) {
                 if (activityListener.matches(addr)) {
                     activityListener.onLoadInstruction8(executableMemory[page], addr, executableMemory[page][offset], accessSource);
                 }
@@ -255,11 +442,21 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
     }
 
     public int loadInstruction16(int addr, AccessSource accessSource) {
-        int value = (loadInstruction8(addr, null) << 8) | loadInstruction8(addr + 1, null);
-        if (accessSource != null) {
-            for (MemoryActivityListener activityListener : activityListeners) {
+        int page = getPTE(addr);
+        int offset = getOffset(addr);
+        byte[] pageData = executableMemory[page];
+        int value;
+        if (pageData != null && offset < pageData.length - 1) {
+            value = ((pageData[offset] & 0xFF) << 8) | (pageData[offset + 1] & 0xFF);
+        }
+        else {
+            value = (loadInstruction8(addr, null) << 8) | loadInstruction8(addr + 1, null);
+        }
+        MemoryActivityListener[] listeners = pageListeners[page];
+        if (listeners != null && accessSource != null) {
+            for (MemoryActivityListener activityListener : listeners) {
                 if (activityListener.matches(addr)) {
-                    activityListener.onLoadInstruction16(executableMemory[getPTE(addr)], addr, value, accessSource);
+                    activityListener.onLoadInstruction16(executableMemory[page], addr, value, accessSource);
                 }
             }
         }
@@ -277,13 +474,24 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
     }
 
     public int loadInstruction32(int addr, AccessSource accessSource) {
-        int value = (loadInstruction8(addr, null) << 24)
-                | (loadInstruction8(addr + 1, null) << 16)
-                | (loadInstruction8(addr + 2, null) << 8) | loadInstruction8(addr + 3, null);
-        if (accessSource != null) {
-            for (MemoryActivityListener activityListener : activityListeners) {
+        int page = getPTE(addr);
+        int offset = getOffset(addr);
+        byte[] pageData = executableMemory[page];
+        int value;
+        if (pageData != null && offset < pageData.length - 3) {
+            value = (pageData[offset] << 24) | ((pageData[offset + 1] & 0xFF) << 16)
+                    | ((pageData[offset + 2] & 0xFF) << 8) | (pageData[offset + 3] & 0xFF);
+        }
+        else {
+            value = (loadInstruction8(addr, null) << 24)
+                    | (loadInstruction8(addr + 1, null) << 16)
+                    | (loadInstruction8(addr + 2, null) << 8) | loadInstruction8(addr + 3, null);
+        }
+        MemoryActivityListener[] listeners = pageListeners[page];
+        if (listeners != null && accessSource != null) {
+            for (MemoryActivityListener activityListener : listeners) {
                 if (activityListener.matches(addr)) {
-                    activityListener.onLoadInstruction32(executableMemory[getPTE(addr)], addr, value, accessSource);
+                    activityListener.onLoadInstruction32(executableMemory[page], addr, value, accessSource);
                 }
             }
         }
@@ -306,11 +514,20 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
 
         byte[] pageData = writableMemory[page];
         if (pageData == null) {
-            map(truncateToPage(addr), PAGE_SIZE, true, true, true);
+            if (!loadPendingPage(page)) {
+                map(truncateToPage(addr), PAGE_SIZE, true, true, true);
+            }
             pageData = writableMemory[page];
         }
-        if (accessSource != null) {
-            for (MemoryActivityListener activityListener : activityListeners) {
+        if (codePages[page]) {
+            invalidateCodePage(page);
+        }
+        if (cleanPages[page]) {
+            trackFirstWrite(page);
+        }
+        MemoryActivityListener[] listeners = pageListeners[page];
+        if (listeners != null && accessSource != null) {
+            for (MemoryActivityListener activityListener : listeners) {
                 if (activityListener.matches(addr)) {
                     activityListener.onStore8(pageData, addr, (byte) value, accessSource);
                 }
@@ -330,15 +547,32 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
     }
 
     public void store16(int addr, int value, AccessSource accessSource) {
-        if (accessSource != null) {
-            for (MemoryActivityListener activityListener : activityListeners) {
+        int page = getPTE(addr);
+        MemoryActivityListener[] listeners = pageListeners[page];
+        if (listeners != null && accessSource != null) {
+            for (MemoryActivityListener activityListener : listeners) {
                 if (activityListener.matches(addr)) {
-                    activityListener.onStore16(writableMemory[getPTE(addr)], addr, value, accessSource);
+                    activityListener.onStore16(writableMemory[page], addr, value, accessSource);
                 }
             }
         }
-        store8(addr, value >> 8, null);
-        store8(addr + 1, value, null);
+        byte[] pageData = writableMemory[page];
+        int offset = getOffset(addr);
+        if (pageData != null && offset < pageData.length - 1) {
+            // Both bytes are in the same allocated page: write them directly
+            if (codePages[page]) {
+                invalidateCodePage(page);
+            }
+            if (cleanPages[page]) {
+                trackFirstWrite(page);
+            }
+            pageData[offset] = (byte) (value >> 8);
+            pageData[offset + 1] = (byte) value;
+        }
+        else {
+            store8(addr, value >> 8, null);
+            store8(addr + 1, value, null);
+        }
     }
 
     /**
@@ -352,17 +586,213 @@ public class DebuggableMemory extends AbstractMemory implements Memory {
     }
 
     public void store32(int addr, int value, AccessSource accessSource) {
-        if (accessSource != null) {
-            for (MemoryActivityListener activityListener : activityListeners) {
+        int page = getPTE(addr);
+        MemoryActivityListener[] listeners = pageListeners[page];
+        if (listeners != null && accessSource != null) {
+            for (MemoryActivityListener activityListener : listeners) {
                 if (activityListener.matches(addr)) {
-                    activityListener.onStore32(writableMemory[getPTE(addr)], addr, value, accessSource);
+                    activityListener.onStore32(writableMemory[page], addr, value, accessSource);
                 }
             }
         }
-        store8(addr, value >> 24, null);
-        store8(addr + 1, value >> 16, null);
-        store8(addr + 2, value >> 8, null);
-        store8(addr + 3, value, null);
+        byte[] pageData = writableMemory[page];
+        int offset = getOffset(addr);
+        if (pageData != null && offset < pageData.length - 3) {
+            // All bytes are in the same allocated page: write them directly
+            if (codePages[page]) {
+                invalidateCodePage(page);
+            }
+            if (cleanPages[page]) {
+                trackFirstWrite(page);
+            }
+            pageData[offset] = (byte) (value >> 24);
+            pageData[offset + 1] = (byte) (value >> 16);
+            pageData[offset + 2] = (byte) (value >> 8);
+            pageData[offset + 3] = (byte) value;
+        }
+        else {
+            store8(addr, value >> 24, null);
+            store8(addr + 1, value >> 16, null);
+            store8(addr + 2, value >> 8, null);
+            store8(addr + 3, value, null);
+        }
     }
 
+    @Override
+    public void loadBlock(int addr, byte[] dest, int destOffset, int length) {
+        loadBlock(addr, dest, destOffset, length, AccessSource.CODE);
+    }
+
+    /**
+     * Copy a block of memory to an array, page by page. Listeners watching the block are notified once, after
+     * the copy (see BlockActivityListener)
+     */
+    public void loadBlock(int addr, byte[] dest, int destOffset, int length, AccessSource accessSource) {
+        List<BlockActivityListener> blockListeners = getBlockListeners(addr, length, accessSource);
+        if (blockListeners == null) {
+            for (int i = 0; i < length; i++) {
+                dest[destOffset + i] = (byte) loadUnsigned8(addr + i, accessSource);
+            }
+            return;
+        }
+        int address = addr;
+        int remaining = length;
+        while (remaining > 0) {
+            int page = getPTE(address);
+            int offset = getOffset(address);
+            int count = Math.min(PAGE_SIZE - offset, remaining);
+            byte[] pageData = readableMemory[page];
+            if (pageData == null) {
+                if (!loadPendingPage(page)) {
+                    map(truncateToPage(address), PAGE_SIZE, true, true, true);
+                }
+                pageData = readableMemory[page];
+            }
+            System.arraycopy(pageData, offset, dest, destOffset, count);
+            address += count;
+            destOffset += count;
+            remaining -= count;
+        }
+        for (BlockActivityListener blockListener : blockListeners) {
+            blockListener.onLoadBlock(addr, length, accessSource);
+        }
+    }
+
+    @Override
+    public void storeBlock(int addr, byte[] src, int srcOffset, int length) {
+        storeBlock(addr, src, srcOffset, length, AccessSource.CODE);
+    }
+
+    /**
+     * Copy an array to a block of memory, page by page. Listeners watching the block are notified once, before
+     * the copy (see BlockActivityListener)
+     */
+    public void storeBlock(int addr, byte[] src, int srcOffset, int length, AccessSource accessSource) {
+        List<BlockActivityListener> blockListeners = getBlockListeners(addr, length, accessSource);
+        if (blockListeners == null) {
+            for (int i = 0; i < length; i++) {
+                store8(addr + i, src[srcOffset + i], accessSource);
+            }
+            return;
+        }
+        for (BlockActivityListener blockListener : blockListeners) {
+            blockListener.onStoreBlock(addr, length, accessSource);
+        }
+        while (length > 0) {
+            int page = getPTE(addr);
+            int offset = getOffset(addr);
+            int count = Math.min(PAGE_SIZE - offset, length);
+            System.arraycopy(src, srcOffset, getPageDataForBlockStore(page), offset, count);
+            addr += count;
+            srcOffset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void copy(int sourceAddr, int destAddr, int length) {
+        copy(sourceAddr, destAddr, length, AccessSource.CODE);
+    }
+
+    /**
+     * Copy a block of memory to another address. Blocks may overlap
+     */
+    public void copy(int sourceAddr, int destAddr, int length, AccessSource accessSource) {
+        // Going through a buffer makes overlapping blocks behave as expected
+        byte[] buffer = new byte[length];
+        loadBlock(sourceAddr, buffer, 0, length, accessSource);
+        storeBlock(destAddr, buffer, 0, length, accessSource);
+    }
+
+    @Override
+    public void fill(int addr, int length, byte value) {
+        fill(addr, length, value, AccessSource.CODE);
+    }
+
+    /**
+     * Store the same byte value to each address of a block of memory
+     */
+    public void fill(int addr, int length, byte value, AccessSource accessSource) {
+        List<BlockActivityListener> blockListeners = getBlockListeners(addr, length, accessSource);
+        if (blockListeners == null) {
+            for (int i = 0; i < length; i++) {
+                store8(addr + i, value, accessSource);
+            }
+            return;
+        }
+        for (BlockActivityListener blockListener : blockListeners) {
+            blockListener.onStoreBlock(addr, length, accessSource);
+        }
+        while (length > 0) {
+            int page = getPTE(addr);
+            int offset = getOffset(addr);
+            int count = Math.min(PAGE_SIZE - offset, length);
+            Arrays.fill(getPageDataForBlockStore(page), offset, offset + count, value);
+            addr += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Indicates if a listener watching the given block must be notified of each access, e.g. to emulate I/O
+     * registers. Such blocks are still accessed correctly by block operations, but byte by byte, so devices
+     * accessing registers with a specific width must keep using scalar accesses for them
+     */
+    public boolean isWatchedPerAccess(int addr, int length) {
+        return getBlockListeners(addr, length, AccessSource.DMA) == null;
+    }
+
+    /**
+     * Prepare a page to be written to by a block store, as store8() does for a single byte
+     * @return the page data
+     */
+    private byte[] getPageDataForBlockStore(int page) {
+        byte[] pageData = writableMemory[page];
+        if (pageData == null) {
+            if (!loadPendingPage(page)) {
+                map(page << OFFSET_BITS, PAGE_SIZE, true, true, true);
+            }
+            pageData = writableMemory[page];
+        }
+        if (codePages[page]) {
+            invalidateCodePage(page);
+        }
+        if (cleanPages[page]) {
+            trackFirstWrite(page);
+        }
+        return pageData;
+    }
+
+    /**
+     * Get the listeners to notify of a block access
+     * @return the BlockActivityListeners watching pages of the block, or null if a listener watching one of these
+     * pages must be notified of each access, in which case the block must be accessed byte by byte
+     */
+    private List<BlockActivityListener> getBlockListeners(int addr, int length, AccessSource accessSource) {
+        List<BlockActivityListener> blockListeners = Collections.emptyList();
+        if (length <= 0 || accessSource == null) {
+            // Listeners are not notified of accesses without source
+            return blockListeners;
+        }
+        int lastPage = getPTE(addr + length - 1);
+        for (int page = getPTE(addr); ; page = (page + 1) & (NUM_PAGES - 1)) {
+            MemoryActivityListener[] listeners = pageListeners[page];
+            if (listeners != null) {
+                for (MemoryActivityListener activityListener : listeners) {
+                    if (!(activityListener instanceof BlockActivityListener)) {
+                        return null;
+                    }
+                    if (blockListeners.isEmpty()) {
+                        blockListeners = new ArrayList<>();
+                    }
+                    if (!blockListeners.contains(activityListener)) {
+                        blockListeners.add((BlockActivityListener) activityListener);
+                    }
+                }
+            }
+            if (page == lastPage) {
+                return blockListeners;
+            }
+        }
+    }
 }
@@ -121,7 +121,11 @@ public class FastMemory extends AbstractMemory implements Memory  {
      * @param addr  the address of where to store
      */
     public final void store8(int addr, int value) {
-        writableMemory[AbstractMemory.getPTE(addr)][AbstractMemory.getOffset(addr)] = (byte) value;
+        int pte = AbstractMemory.getPTE(addr);
+        if (cleanPages[pte]) {
+            trackFirstWrite(pte);
+        }
+        writableMemory[pte][AbstractMemory.getOffset(addr)] = (byte) value;
     }
 
     /**
@@ -65,6 +65,34 @@ public interface Memory {
 
     void store32(int addr, int value);
 
+    /**
+     * Copy a block of memory to an array, page by page, instead of loading each byte separately
+     * @param addr the address of the first byte to load
+     * @param dest the array to copy to
+     * @param destOffset the index in dest of the first byte
+     * @param length the number of bytes to load
+     */
+    void loadBlock(int addr, byte[] dest, int destOffset, int length);
+
+    /**
+     * Copy an array to a block of memory, page by page, instead of storing each byte separately
+     * @param addr the address of the first byte to store
+     * @param src the array to copy from
+     * @param srcOffset the index in src of the first byte
+     * @param length the number of bytes to store
+     */
+    void storeBlock(int addr, byte[] src, int srcOffset, int length);
+
+    /**
+     * Copy a block of memory to another address. Blocks may overlap
+     */
+    void copy(int sourceAddr, int destAddr, int length);
+
+    /**
+     * Store the same byte value to each address of a block of memory
+     */
+    void fill(int addr, int length, byte value);
+
     void changeProtection(int address, int len, boolean newRead, boolean newWrite, boolean newExec);
 
     void loadFile(File file, int memoryOffset, boolean isWriteProtected) throws IOException;
@@ -0,0 +1,38 @@
+package com.nikonhacker.emu.memory;
+
+/**
+ * This class holds the contents of a set of memory pages, as they were at a given checkpoint.
+ * See AbstractMemory.takeCheckpointDelta()
+ */
+public class MemoryDelta {
+    private final int[]    ptes;
+    private final byte[][] contents;
+
+    public MemoryDelta(int[] ptes, byte[][] contents) {
+        this.ptes = ptes;
+        this.contents = contents;
+    }
+
+    public int getNumPages() {
+        return ptes.length;
+    }
+
+    /**
+     * @return the page table entry (address >>> 16) of the i-th page
+     */
+    public int getPte(int i) {
+        return ptes[i];
+    }
+
+    public byte[] getContents(int i) {
+        return contents[i];
+    }
+
+    public long getSizeInBytes() {
+        long size = 0;
+        for (byte[] pageContents : contents) {
+            size += pageContents.length;
+        }
+        return size;
+    }
+}
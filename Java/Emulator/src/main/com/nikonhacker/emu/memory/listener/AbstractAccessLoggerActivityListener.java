@@ -8,7 +8,7 @@ import com.nikonhacker.emu.memory.DebuggableMemory;
 import java.io.PrintWriter;
 import java.util.Set;
 
-public abstract class AbstractAccessLoggerActivityListener implements MemoryActivityListener {
+public abstract class AbstractAccessLoggerActivityListener implements MemoryActivityListener, BlockActivityListener {
     private PrintWriter                        printWriter;
     private CPUState                           cpuState;
     private Set<DebuggableMemory.AccessSource> selectedAccessSources;
@@ -215,4 +215,34 @@ public abstract class AbstractAccessLoggerActivityListener implements MemoryActi
             printWriter.println(msg);
         }
     }
+
+    public void onLoadBlock(int address, int length, DebuggableMemory.AccessSource accessSource) {
+        if (selectedAccessSources.contains(accessSource)) {
+            logBlock("            block of 0x" + Format.asHex(length, 8) + " bytes read from 0x" + Format.asHex(address, 8) + "  ", accessSource);
+        }
+    }
+
+    public void onStoreBlock(int address, int length, DebuggableMemory.AccessSource accessSource) {
+        if (selectedAccessSources.contains(accessSource)) {
+            logBlock("block of 0x" + Format.asHex(length, 8) + " bytes written to 0x" + Format.asHex(address, 8) + "            ", accessSource);
+        }
+    }
+
+    private void logBlock(String msg, DebuggableMemory.AccessSource accessSource) {
+        switch (accessSource) {
+            case CODE:
+                msg += "(@0x" + Format.asHex(cpuState.pc, 8) + ")";
+                break;
+            case DMA:
+                msg += "(DMA ctrlr)";
+                break;
+            case IMGA:
+                msg += "(IMGA ctrlr)";
+                break;
+        }
+        if (masterClock != null) {
+            msg = masterClock.getFormatedTotalElapsedTimeMs() + " " + msg;
+        }
+        printWriter.println(msg);
+    }
 }
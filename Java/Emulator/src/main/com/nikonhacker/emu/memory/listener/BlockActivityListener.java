@@ -0,0 +1,30 @@
+package com.nikonhacker.emu.memory.listener;
+
+import com.nikonhacker.emu.memory.DebuggableMemory;
+
+/**
+ * This interface can be implemented by MemoryActivityListeners that accept to be notified once per block when
+ * a peripheral loads or stores a block of memory (see DebuggableMemory.loadBlock() and storeBlock()), instead of
+ * once per byte.
+ * Values of a block load cannot be replaced, so listeners returning values from onLoadDataXX must not implement it.
+ * When a block touches a page watched by a listener not implementing it, the block is accessed byte by byte.
+ */
+public interface BlockActivityListener {
+    /**
+     * Method to be called after a block of data is read. The listener must filter the addresses it watches itself
+     *
+     * @param address the address of the first byte of the block
+     * @param length the number of bytes read
+     * @param accessSource
+     */
+    void onLoadBlock(int address, int length, DebuggableMemory.AccessSource accessSource);
+
+    /**
+     * Method to be called before a block of data is written. The listener must filter the addresses it watches itself
+     *
+     * @param address the address of the first byte of the block
+     * @param length the number of bytes written
+     * @param accessSource
+     */
+    void onStoreBlock(int address, int length, DebuggableMemory.AccessSource accessSource);
+}
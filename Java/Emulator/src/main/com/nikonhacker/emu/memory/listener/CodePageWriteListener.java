@@ -0,0 +1,15 @@
+package com.nikonhacker.emu.memory.listener;
+
+/**
+ * This interface allows classes keeping data derived from executable code (e.g. decoded instructions)
+ * to be notified when a page they depend on is written to.
+ * Pages must be declared with DebuggableMemory.markCodePage() to be watched.
+ */
+public interface CodePageWriteListener {
+    /**
+     * This method is called the first time a marked page is written to, or when memory is cleared or reloaded.
+     * The page is unmarked before this call, so it must be marked again if its code is decoded again.
+     * @param page the page table entry of the page that was written to
+     */
+    public void onCodePageWrite(int page);
+}
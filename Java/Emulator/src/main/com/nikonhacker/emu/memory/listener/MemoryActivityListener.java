@@ -12,6 +12,16 @@ public interface MemoryActivityListener {
      */
     boolean matches(int address);
 
+    /**
+     * Method used to determine if this activity listener must be warned of changes to some addresses of a given page.
+     * It is called when listeners are added or removed, to index listeners by page so that accesses to pages
+     * without listeners skip them altogether. matches() is still called for each access to indexed pages.
+     *
+     * @param page the page number, that is the upper 16 bits of the addresses it contains
+     * @return false only if no address of that page matches
+     */
+    boolean matchesPage(int page);
+
     /**
      * Method used to declare if this activity listener is a logger or can also modify data in onLoadXX methods
      * This is to make sure that logging happens AFTER modifiers have processed data, so that the logs reflects the
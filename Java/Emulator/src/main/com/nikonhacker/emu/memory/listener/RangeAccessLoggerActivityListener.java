@@ -25,6 +25,12 @@ public class RangeAccessLoggerActivityListener extends AbstractAccessLoggerActiv
             && !BinaryArithmetics.isGreaterThanUnsigned(address, maxAddress);
     }
 
+    @Override
+    public boolean matchesPage(int page) {
+        return !BinaryArithmetics.isLessThanUnsigned(page, minAddress >>> 16)
+            && !BinaryArithmetics.isGreaterThanUnsigned(page, maxAddress >>> 16);
+    }
+
     @Override
     public boolean isReadOnly() {
         return true;
@@ -2,7 +2,7 @@ package com.nikonhacker.emu.memory.listener;
 
 import com.nikonhacker.emu.memory.DebuggableMemory;
 
-public class TrackingMemoryActivityListener extends Abstract8BitMemoryActivityListener implements MemoryActivityListener {
+public class TrackingMemoryActivityListener extends Abstract8BitMemoryActivityListener implements MemoryActivityListener, BlockActivityListener {
 
     /** Arrays to track activity */
     private int[] pageActivityMap;
@@ -54,6 +54,11 @@ public class TrackingMemoryActivityListener extends Abstract8BitMemoryActivityLi
         return true;
     }
 
+    @Override
+    public boolean matchesPage(int page) {
+        return true;
+    }
+
     @Override
     public boolean isReadOnly() {
         return true;
@@ -121,4 +126,15 @@ public class TrackingMemoryActivityListener extends Abstract8BitMemoryActivityLi
         if (mustRotateValues || ((cellActivityMaps[pageNumber][offset] & 0xFF0000)!=0xFF0000)) cellActivityMaps[pageNumber][offset]+= 0x010000;
     }
 
+    public void onLoadBlock(int address, int length, DebuggableMemory.AccessSource accessSource) {
+        for (int i = 0; i < length; i++) {
+            onLoadData8(null, address + i, (byte) 0, accessSource);
+        }
+    }
+
+    public void onStoreBlock(int address, int length, DebuggableMemory.AccessSource accessSource) {
+        for (int i = 0; i < length; i++) {
+            onStore8(null, address + i, (byte) 0, accessSource);
+        }
+    }
 }
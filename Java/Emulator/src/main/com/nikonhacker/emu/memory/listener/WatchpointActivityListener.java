@@ -0,0 +1,201 @@
+package com.nikonhacker.emu.memory.listener;
+
+import com.nikonhacker.emu.memory.DebuggableMemory;
+import com.nikonhacker.emu.trigger.condition.BreakCondition;
+import com.nikonhacker.emu.trigger.condition.MemoryValueBreakCondition;
+
+import java.util.List;
+
+/**
+ * This listener watches the words tested by MemoryValueBreakConditions, so that conditions only depending on
+ * memory values are evaluated when one of their words is written to, instead of after each instruction.
+ * Writes only mark conditions as changed. Evaluation is left to the emulator, once the current instruction is
+ * complete, so that conditions see the final value.
+ * Note that writes performed directly on page arrays, bypassing DebuggableMemory store methods, are not detected.
+ */
+public class WatchpointActivityListener implements MemoryActivityListener, BlockActivityListener {
+
+    /** Copied on write, as watchpoints are added by the UI thread while memory is accessed by the emulator */
+    private Watchpoint[] watchpoints = new Watchpoint[0];
+
+    /** Set when at least one condition changed since last call to clearPendingChanges() */
+    private volatile boolean pendingChanges;
+
+    /**
+     * Watch the words tested by the given memory conditions.
+     * The condition is initially considered changed, so that it is evaluated once even if no write occurs
+     * @param condition the condition to evaluate when a watched word changes
+     * @param memoryConditions the memory conditions composing it
+     */
+    public void addCondition(BreakCondition condition, List<MemoryValueBreakCondition> memoryConditions) {
+        Watchpoint watchpoint = new Watchpoint(condition, memoryConditions.size());
+        watchpoint.changed = true;
+        for (int i = 0; i < memoryConditions.size(); i++) {
+            MemoryValueBreakCondition memoryCondition = memoryConditions.get(i);
+            watchpoint.addresses[i] = memoryCondition.getAddress();
+            // Words are big endian: byte 0 holds bits 31-24 of the value
+            int mask = memoryCondition.getMask();
+            for (int b = 0; b < 4; b++) {
+                if (((mask >>> (24 - 8 * b)) & 0xFF) != 0) {
+                    watchpoint.byteMasks[i] |= 1 << b;
+                }
+            }
+        }
+        Watchpoint[] newWatchpoints = new Watchpoint[watchpoints.length + 1];
+        System.arraycopy(watchpoints, 0, newWatchpoints, 0, watchpoints.length);
+        newWatchpoints[watchpoints.length] = watchpoint;
+        watchpoints = newWatchpoints;
+        pendingChanges = true;
+    }
+
+    public boolean hasPendingChanges() {
+        return pendingChanges;
+    }
+
+    public void clearPendingChanges() {
+        pendingChanges = false;
+    }
+
+    public int getNumConditions() {
+        return watchpoints.length;
+    }
+
+    /**
+     * Returns the condition at the given index if one of its words was written to since last call, and resets
+     * its state
+     * @param index index of the condition, in order of addition
+     * @return the condition, or null if it didn't change
+     */
+    public BreakCondition getChangedCondition(int index) {
+        Watchpoint watchpoint = watchpoints[index];
+        if (watchpoint.changed) {
+            watchpoint.changed = false;
+            return watchpoint.condition;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean matches(int address) {
+        for (Watchpoint watchpoint : watchpoints) {
+            for (int watchedAddress : watchpoint.addresses) {
+                // a write of up to 4 bytes starting up to 3 bytes before the word can overlap it
+                int delta = address - watchedAddress;
+                if (delta >= -3 && delta <= 3) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean matchesPage(int page) {
+        for (Watchpoint watchpoint : watchpoints) {
+            for (int watchedAddress : watchpoint.addresses) {
+                if (page == (watchedAddress - 3) >>> 16 || page == watchedAddress >>> 16 || page == (watchedAddress + 3) >>> 16) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This listener does not modify values, but it is not a logger either: declaring it read-only would prevent
+     * the emulator from caching decoded statements
+     */
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    private void onStore(int address, int numBytes) {
+        for (Watchpoint watchpoint : watchpoints) {
+            for (int i = 0; i < watchpoint.addresses.length; i++) {
+                for (int b = 0; b < numBytes; b++) {
+                    int delta = address + b - watchpoint.addresses[i];
+                    if (delta >= 0 && delta < 4 && (watchpoint.byteMasks[i] & (1 << delta)) != 0) {
+                        watchpoint.changed = true;
+                        pendingChanges = true;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onStoreBlock(int address, int length, DebuggableMemory.AccessSource accessSource) {
+        for (Watchpoint watchpoint : watchpoints) {
+            for (int i = 0; i < watchpoint.addresses.length; i++) {
+                for (int b = 0; b < 4; b++) {
+                    // unsigned comparison, as blocks may end at the top of the address space
+                    if ((watchpoint.byteMasks[i] & (1 << b)) != 0 && ((watchpoint.addresses[i] + b - address) & 0xFFFFFFFFL) < length) {
+                        watchpoint.changed = true;
+                        pendingChanges = true;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onLoadBlock(int address, int length, DebuggableMemory.AccessSource accessSource) {
+    }
+
+    @Override
+    public void onStore8(byte[] pageData, int address, byte value, DebuggableMemory.AccessSource accessSource) {
+        onStore(address, 1);
+    }
+
+    @Override
+    public void onStore16(byte[] pageData, int address, int value, DebuggableMemory.AccessSource accessSource) {
+        onStore(address, 2);
+    }
+
+    @Override
+    public void onStore32(byte[] pageData, int address, int value, DebuggableMemory.AccessSource accessSource) {
+        onStore(address, 4);
+    }
+
+    @Override
+    public Byte onLoadData8(byte[] pageData, int address, byte value, DebuggableMemory.AccessSource accessSource) {
+        return null;
+    }
+
+    @Override
+    public Integer onLoadData16(byte[] pageData, int address, int value, DebuggableMemory.AccessSource accessSource) {
+        return null;
+    }
+
+    @Override
+    public Integer onLoadData32(byte[] pageData, int address, int value, DebuggableMemory.AccessSource accessSource) {
+        return null;
+    }
+
+    @Override
+    public void onLoadInstruction8(byte[] pageData, int address, byte value, DebuggableMemory.AccessSource accessSource) {
+    }
+
+    @Override
+    public void onLoadInstruction16(byte[] pageData, int address, int value, DebuggableMemory.AccessSource accessSource) {
+    }
+
+    @Override
+    public void onLoadInstruction32(byte[] pageData, int address, int value, DebuggableMemory.AccessSource accessSource) {
+    }
+
+    private static class Watchpoint {
+        final BreakCondition condition;
+        final int[] addresses;
+        /** For each address, bit n is set if byte n of the word is tested */
+        final int[] byteMasks;
+        volatile boolean changed;
+
+        Watchpoint(BreakCondition condition, int numAddresses) {
+            this.condition = condition;
+            this.addresses = new int[numAddresses];
+            this.byteMasks = new int[numAddresses];
+        }
+    }
+}
@@ -26,6 +26,11 @@ public class Expeed4002IoListener extends IoActivityListener {
         return (((address & ADDRESS_MASK1) == BASE_ADDRESS1) || ((address & ADDRESS_MASK2) == BASE_ADDRESS2));
     }
 
+    @Override
+    public boolean matchesPage(int page) {
+        return ((((page << 16) & ADDRESS_MASK1) == BASE_ADDRESS1) || (((page << 16) & ADDRESS_MASK2) == BASE_ADDRESS2));
+    }
+
     @Override
     public Byte onLoadData8(byte[] pageData, int addr, byte value, DebuggableMemory.AccessSource accessSource) {
         final int unit = ( (addr&0x100000)!=0 ? 2 : ((addr>>16)&1) );
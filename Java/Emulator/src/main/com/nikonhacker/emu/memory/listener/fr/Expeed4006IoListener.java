@@ -19,6 +19,11 @@ public class Expeed4006IoListener extends IoActivityListener {
         return (address & ADDRESS_MASK) == BASE_ADDRESS;
     }
 
+    @Override
+    public boolean matchesPage(int page) {
+        return ((page << 16) & ADDRESS_MASK) == BASE_ADDRESS;
+    }
+
 
     @Override
     public Byte onLoadData8(byte[] pageData, int address, byte value, DebuggableMemory.AccessSource accessSource) {
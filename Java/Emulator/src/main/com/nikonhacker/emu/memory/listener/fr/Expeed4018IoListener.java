@@ -24,6 +24,11 @@ public class Expeed4018IoListener extends IoActivityListener {
         return (address & ADDRESS_MASK) == BASE_ADDRESS;
     }
 
+    @Override
+    public boolean matchesPage(int page) {
+        return ((page << 16) & ADDRESS_MASK) == BASE_ADDRESS;
+    }
+
     @Override
     public Byte onLoadData8(byte[] pageData, int addr, byte value, DebuggableMemory.AccessSource accessSource) {
         if (logRegisterMessages) warn("FrImageTransferCircuit: registers can't be addressed as byte");
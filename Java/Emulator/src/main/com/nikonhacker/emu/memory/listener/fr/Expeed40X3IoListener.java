@@ -23,6 +23,11 @@ public class Expeed40X3IoListener extends IoActivityListener {
         return (address & ADDRESS_MASK) == BASE_ADDRESS;
     }
 
+    @Override
+    public boolean matchesPage(int page) {
+        return ((page << 16) & ADDRESS_MASK) == BASE_ADDRESS;
+    }
+
     @Override
     public Byte onLoadData8(byte[] pageData, int addr, byte value, DebuggableMemory.AccessSource accessSource) {
         int unit = ((addr&0x100000)!=0 ? 1 : 0);
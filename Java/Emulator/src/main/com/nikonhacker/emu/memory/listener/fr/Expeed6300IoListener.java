@@ -26,6 +26,11 @@ public class Expeed6300IoListener extends IoActivityListener {
         return (((address & ADDRESS_MASK1) == BASE_ADDRESS1) || ((address & ADDRESS_MASK2) == BASE_ADDRESS2));
     }
 
+    @Override
+    public boolean matchesPage(int page) {
+        return ((((page << 16) & ADDRESS_MASK1) == BASE_ADDRESS1) || (((page << 16) & ADDRESS_MASK2) == BASE_ADDRESS2));
+    }
+
     @Override
     public Byte onLoadData8(byte[] pageData, int addr, byte value, DebuggableMemory.AccessSource accessSource) {
         if (logRegisterMessages) warn("SD controller ("+(addr&0x4000000)+"):register 0x" + Format.asHex(addr&0xFFF, 3) + ": Load8 is not supported yet");
@@ -26,6 +26,11 @@ public class Expeed6B00IoListener extends IoActivityListener {
         return (address & ADDRESS_MASK) == BASE_ADDRESS;
     }
 
+    @Override
+    public boolean matchesPage(int page) {
+        return ((page << 16) & ADDRESS_MASK) == BASE_ADDRESS;
+    }
+
     @Override
     public Byte onLoadData8(byte[] pageData, int addr, byte value, DebuggableMemory.AccessSource accessSource) {
         if (addr >= REGISTER_SHARED_INT_CONFIG_BEGIN && addr <= REGISTER_SHARED_INT_CONFIG_END) {
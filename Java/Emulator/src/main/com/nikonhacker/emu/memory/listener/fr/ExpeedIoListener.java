@@ -83,6 +83,11 @@ public class ExpeedIoListener extends IoActivityListener {
         return address >>> 16 == 0x0000;
     }
 
+    @Override
+    public boolean matchesPage(int page) {
+        return page == 0x0000;
+    }
+
     /**
      * Called when reading 8-bit value from register address range
      *
@@ -26,6 +26,11 @@ public class ExpeedPinIoListener extends IoActivityListener {
         return ((address & PORT_ADDRESS_MASK) == PORT_BASE_ADDRESS );
     }
 
+    @Override
+    public final boolean matchesPage(int page) {
+        return ((page << 16) & PORT_ADDRESS_MASK) == PORT_BASE_ADDRESS;
+    }
+
     @Override
     public Byte onLoadData8(byte[] pageData, int address, byte value, DebuggableMemory.AccessSource accessSource) {
         final int portNumber = address & 0xFF;
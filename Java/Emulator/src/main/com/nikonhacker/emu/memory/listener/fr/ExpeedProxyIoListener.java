@@ -46,6 +46,11 @@ public class ExpeedProxyIoListener extends IoActivityListener {
         return true;
     }
 
+    @Override
+    public final boolean matchesPage(int page) {
+        return listeners.containsKey(page);
+    }
+
     @Override
     public final Byte onLoadData8(byte[] pageData, int address, byte value, DebuggableMemory.AccessSource accessSource) {
         final IoActivityListener listener = listeners.get(address>>>16);
@@ -225,6 +225,11 @@ public class TxIoListener extends IoActivityListener {
         return address >>> 16 == 0xFF00;
     }
 
+    @Override
+    public boolean matchesPage(int page) {
+        return page == 0xFF00;
+    }
+
     /**
      * Called when reading 8-bit value from register address range
      *
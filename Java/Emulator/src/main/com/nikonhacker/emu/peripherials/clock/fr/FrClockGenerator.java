@@ -3,6 +3,7 @@ package com.nikonhacker.emu.peripherials.clock.fr;
 import com.nikonhacker.Format;
 import com.nikonhacker.emu.Platform;
 import com.nikonhacker.emu.peripherials.clock.ClockGenerator;
+import com.nikonhacker.emu.peripherials.serialInterface.SerialInterface;
 
 /**
  * This is based on hardware specification CM71-10147-2E.pdf, sections 7 and 8
@@ -325,6 +326,11 @@ public class FrClockGenerator extends ClockGenerator {
 //        }
 
         platform.getMasterClock().requestResheduling();
+        if (platform.getSerialInterfaces() != null) {
+            for (SerialInterface serialInterface : platform.getSerialInterfaces()) {
+                serialInterface.onClockFrequencyChanged();
+            }
+        }
     }
 
     // TODO is Main timer used outside of stabilization period ?
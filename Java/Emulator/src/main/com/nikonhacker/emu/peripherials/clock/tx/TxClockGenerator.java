@@ -4,6 +4,7 @@ import com.nikonhacker.Format;
 import com.nikonhacker.disassembly.tx.TxCPUState;
 import com.nikonhacker.emu.Platform;
 import com.nikonhacker.emu.peripherials.clock.ClockGenerator;
+import com.nikonhacker.emu.peripherials.serialInterface.SerialInterface;
 
 /**
  * In Tx CPU, the Clock Generator can be configured specifically, and its output is used by peripherials
@@ -292,6 +293,11 @@ public class TxClockGenerator extends ClockGenerator {
         }
 
         platform.getMasterClock().requestResheduling();
+        if (platform.getSerialInterfaces() != null) {
+            for (SerialInterface serialInterface : platform.getSerialInterfaces()) {
+                serialInterface.onClockFrequencyChanged();
+            }
+        }
         // System.out.println(toString());
     }
 
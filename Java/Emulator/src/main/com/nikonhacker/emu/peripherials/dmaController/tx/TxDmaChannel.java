@@ -2,11 +2,22 @@ package com.nikonhacker.emu.peripherials.dmaController.tx;
 
 import com.nikonhacker.Constants;
 import com.nikonhacker.Format;
+import com.nikonhacker.emu.ClockEvent;
+import com.nikonhacker.emu.MasterClock;
 import com.nikonhacker.emu.memory.DebuggableMemory;
+import com.nikonhacker.emu.peripherials.clock.tx.TxClockGenerator;
 import com.nikonhacker.emu.peripherials.interruptController.tx.TxInterruptController;
 import com.nikonhacker.emu.peripherials.ioPort.IoPort;
 import com.nikonhacker.emu.peripherials.ioPort.tx.TxIoPort;
 
+/**
+ * A channel of the TX DMA controller.
+ * Software-requested memory-to-memory transfers between non-overlapping ranges, with incrementing addresses and
+ * no snooping, are performed as bursts: data is moved at once with block operations. SAR, DAR and BCR then progress
+ * with emulated time as if units were transferred one by one, and completion is signalled by a clock event after
+ * the emulated duration of the transfer.
+ * Other transfers, e.g. from or to I/O registers, are performed one unit at a time.
+ */
 public class TxDmaChannel {
     private static final int CCR_SIO_MASK  = 0b00000000_00000000_00000010_00000000;
     private static final int CCR_RELEN_MASK= 0b00000000_00000000_00000100_00000000;
@@ -28,6 +39,12 @@ public class TxDmaChannel {
     // Writing 1 to NC and AbC has no effect
     private static final int CSR_NOT_SETTABLE_TO_ONE = CSR_NC_MASK | CSR_ABC_MASK;
 
+    /**
+     * Number of fsys cycles to transfer one unit in burst mode: one read and one write bus cycle.
+     * This is an approximation, as actual timings depend on the bus and memory being accessed
+     */
+    private static final int CYCLES_PER_BURST_UNIT = 2;
+
     private int channelNumber;
     private TxDmaController txDmaController;
     private boolean isInStandBy = false;
@@ -40,6 +57,14 @@ public class TxDmaChannel {
     private int bcr;
     private int dtcr;
 
+    /** Size of the units of the burst in progress, or 0 if none. See transferInBurst() */
+    private int burstUnitBytes;
+    /** Emulated time at which the burst in progress started */
+    private long burstStartTimePs;
+    /** Emulated duration of the transfer of one unit in burst mode */
+    private long burstUnitPs;
+    private ClockEvent burstEndEvent;
+
     public TxDmaChannel(int channelNumber, TxDmaController txDmaController) {
         this.channelNumber = channelNumber;
         this.txDmaController = txDmaController;
@@ -98,7 +123,7 @@ public class TxDmaChannel {
     }
 
     public int getSar() {
-        return sar;
+        return sar + getBurstBytesDone();
     }
 
     public void setSar(int sar) {
@@ -106,7 +131,7 @@ public class TxDmaChannel {
     }
 
     public int getDar() {
-        return dar;
+        return dar + getBurstBytesDone();
     }
 
     public void setDar(int dar) {
@@ -114,7 +139,7 @@ public class TxDmaChannel {
     }
 
     public int getBcr() {
-        return bcr;
+        return bcr - getBurstBytesDone();
     }
 
     public void setBcr(int bcr) {
@@ -132,7 +157,11 @@ public class TxDmaChannel {
 
 
     public void reset() {
-        // TODO if transfer implementation switches to async mode, stop current transfer, if any
+        // TODO in ASYNC mode, stop the unit by unit transfer in progress, if any
+        if (burstUnitBytes != 0) {
+            burstUnitBytes = 0;
+            txDmaController.getPlatform().getMasterClock().cancel(burstEndEvent);
+        }
         ccr = 0b00000000_11100010_00000000_00000000;
         csr = 0;
         sar = 0;
@@ -375,6 +404,10 @@ public class TxDmaChannel {
     }
 
     public void start() {
+        if (burstUnitBytes != 0) {
+            // Burst in progress. It is not interrupted by requests
+            return;
+        }
         if (txDmaController.getPrefs().isDmaSynchronous(Constants.CHIP_TX)) {
             // SYNC
             performTransfer();
@@ -420,6 +453,14 @@ public class TxDmaChannel {
             int value;
             // transfer is continuous for internal requests, or if it is specified as continuous
             boolean isContinuous = !isCcrExternalRequest() || !isCcrSioSingle();
+            // External requests must be cleared after each unit, and overlapping ranges must be copied forward
+            // (replicating the first units), so these are never performed as bursts
+            if (isContinuous && bcr != 0 && !isCcrExternalRequest() && !isCcrSReqSnoop()
+                    && srcIncrement == dpsBytes && dstIncrement == dpsBytes && !isOverlapping(sar, dar, bcr)
+                    && !memory.isWatchedPerAccess(sar, bcr) && !memory.isWatchedPerAccess(dar, bcr)) {
+                transferInBurst(memory, dpsBytes);
+                return;
+            }
             boolean doLoop = true;
             while (bcr != 0 && doLoop) {
                 switch (dpsBytes) {
@@ -472,6 +513,82 @@ public class TxDmaChannel {
         }
     }
 
+    /**
+     * @return true if the blocks of the given length starting at both addresses share at least one byte
+     */
+    private static boolean isOverlapping(int address1, int address2, int length) {
+        return ((address2 - address1) & 0xFFFFFFFFL) < length || ((address1 - address2) & 0xFFFFFFFFL) < length;
+    }
+
+    /**
+     * Moves the whole BCR count at once, then schedules the end of the burst, so that registers progress and
+     * completion is signalled as if units were transferred one by one
+     */
+    private void transferInBurst(DebuggableMemory memory, int dpsBytes) {
+        byte[] buffer = new byte[bcr];
+        memory.loadBlock(sar, buffer, 0, bcr, DebuggableMemory.AccessSource.DMA);
+        if (!isCcrBig() && dpsBytes > 1) {
+            // Endian switchover function
+            for (int unitStart = 0; unitStart < bcr; unitStart += dpsBytes) {
+                for (int i = 0, j = dpsBytes - 1; i < j; i++, j--) {
+                    byte b = buffer[unitStart + i];
+                    buffer[unitStart + i] = buffer[unitStart + j];
+                    buffer[unitStart + j] = b;
+                }
+            }
+        }
+        memory.storeBlock(dar, buffer, 0, bcr, DebuggableMemory.AccessSource.DMA);
+
+        // DHR holds the last unit transferred
+        int value = 0;
+        for (int i = bcr - dpsBytes; i < bcr; i++) {
+            value = (value << 8) | (buffer[i] & 0xFF);
+        }
+        txDmaController.setDhr(value);
+
+        MasterClock masterClock = txDmaController.getPlatform().getMasterClock();
+        int fsysHz = ((TxClockGenerator) txDmaController.getPlatform().getClockGenerator()).getFsysHz();
+        burstUnitBytes = dpsBytes;
+        burstStartTimePs = masterClock.getTimePs(Constants.CHIP_TX);
+        burstUnitPs = CYCLES_PER_BURST_UNIT * MasterClock.PS_PER_SEC / fsysHz;
+        if (burstEndEvent == null) {
+            burstEndEvent = new ClockEvent(Constants.CHIP_TX, new Runnable() {
+                @Override
+                public void run() {
+                    onBurstEnd();
+                }
+            });
+        }
+        masterClock.schedule(burstEndEvent, burstStartTimePs + (bcr / dpsBytes) * burstUnitPs);
+    }
+
+    /**
+     * @return the number of bytes of the burst in progress that would have been transferred by now, if units were
+     * transferred one by one. Registers keep their values of the start of the burst until it ends
+     */
+    private int getBurstBytesDone() {
+        if (burstUnitBytes == 0) {
+            return 0;
+        }
+        long units = (txDmaController.getPlatform().getMasterClock().getTimePs(Constants.CHIP_TX) - burstStartTimePs) / burstUnitPs;
+        // The last unit is only counted when the burst ends
+        return (int) Math.max(0, Math.min(units * burstUnitBytes, bcr - burstUnitBytes));
+    }
+
+    /**
+     * Called at the end of the burst in progress. Data has already been moved by transferInBurst()
+     */
+    private void onBurstEnd() {
+        if (burstUnitBytes != 0) {
+            sar += bcr;
+            dar += bcr;
+            bcr = 0;
+            burstUnitBytes = 0;
+            isInStandBy = false;
+            signalNormalCompletion();
+        }
+    }
+
     private void signalNormalCompletion() {
         setCsrNormalCompletion();
         // Interrupt if required
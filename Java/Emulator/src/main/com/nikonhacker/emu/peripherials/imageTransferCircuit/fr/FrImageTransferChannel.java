@@ -169,14 +169,12 @@ public class FrImageTransferChannel implements ImageTransferChannel {
             throw new RuntimeException("ImageTransferChannel(" + channelNumber +"): ImageWidth > BufferWidth");
         }
         
+        final byte[] line = new byte[destinationImageWidth];
         for (int y=0; y<destinationImageHeight; y++) {
-            for (int x=0; x<destinationImageWidth; x++,to++,from++) {
-                memory.store8(to, 
-                              memory.loadUnsigned8(from, DebuggableMemory.AccessSource.IMGA), 
-                              DebuggableMemory.AccessSource.IMGA);
-            }
-            from += addFrom;
-            to += addTo;
+            memory.loadBlock(from, line, 0, destinationImageWidth, DebuggableMemory.AccessSource.IMGA);
+            memory.storeBlock(to, line, 0, destinationImageWidth, DebuggableMemory.AccessSource.IMGA);
+            from += sourceBufferWidth;
+            to += destinationBufferWidth;
         }
     }
 
@@ -191,10 +189,8 @@ public class FrImageTransferChannel implements ImageTransferChannel {
         }
         
         // fill image
-        for (int y=0; y<destinationImageHeight; y++, to += addTo) {
-            for (int x=0; x<destinationImageWidth; x++, to++) {
-                memory.store8(to, value, DebuggableMemory.AccessSource.IMGA);
-            }
+        for (int y=0; y<destinationImageHeight; y++, to += destinationBufferWidth) {
+            memory.fill(to, destinationImageWidth, (byte) value, DebuggableMemory.AccessSource.IMGA);
         }
     }
 }
@@ -151,10 +151,8 @@ class DebuggableMemoryInputStream extends java.io.InputStream {
             len = size - pos;
         }
         if (len>0) {
-            // TODO optimize to use .loadBlock()
-            for (int i=0;i<len;i++) {
-                b[off++] = (byte)memory.loadUnsigned8(addr + (pos++), DebuggableMemory.AccessSource.IMGA);
-            }
+            memory.loadBlock(addr + pos, b, off, len, DebuggableMemory.AccessSource.IMGA);
+            pos += len;
         }
         return len;
     }
@@ -551,9 +549,15 @@ public class FrJpegCodec implements JpegCodec {
         int offsetCb = addrCb;
         int offsetCr = addrCr;
 
+        // pixels are converted line by line, and each line of each component is stored at once
+        final int pairsPerLine = (width + 1) >> 1;
+        final byte[] lineY = new byte[pairsPerLine * 2];
+        final byte[] lineCb = new byte[pairsPerLine];
+        final byte[] lineCr = new byte[pairsPerLine];
+
         // create output data and obey alignment
-        for (int pixel = 0; pixel < pixels.length; offsetY += addY, offsetCb += addCbCr, offsetCr += addCbCr) {
-            for (int i=0; i< width; i+=2, pixel += 6, offsetY+=2) {
+        for (int pixel = 0; pixel < pixels.length; offsetY += lineY.length + addY, offsetCb += pairsPerLine + addCbCr, offsetCr += pairsPerLine + addCbCr) {
+            for (int i=0; i< pairsPerLine; i++, pixel += 6) {
                 /* coderat: this implementation was selected after performance tests
                    I use canonical calculation formula, because it is closest to original
                    But still 1-2 values out of 256 differs from original result (are rounded higher)
@@ -568,12 +572,15 @@ public class FrJpegCodec implements JpegCodec {
                 final int g2 = ((int)pixels[pixel+4] & 0xFF);
                 final int r2 = ((int)pixels[pixel+5] & 0xFF);
 
-                // TODO optimize to use .storeBlock(), because can be up to 16Mpix
                 // coderat: no clamp is need here, because conversion formules RGB->YCbCr are already biased
-                memory.store16(offsetY, (getY(r1, g1, b1)<<8)|getY(r2, g2, b2), DebuggableMemory.AccessSource.IMGA);
-                memory.store8(offsetCb++, getCb2(r1, g1, b1, r2, g2, b2), DebuggableMemory.AccessSource.IMGA);
-                memory.store8(offsetCr++, getCr2(r1, g1, b1, r2, g2, b2), DebuggableMemory.AccessSource.IMGA);
+                lineY[2*i] = (byte) getY(r1, g1, b1);
+                lineY[2*i+1] = (byte) getY(r2, g2, b2);
+                lineCb[i] = (byte) getCb2(r1, g1, b1, r2, g2, b2);
+                lineCr[i] = (byte) getCr2(r1, g1, b1, r2, g2, b2);
             }
+            memory.storeBlock(offsetY, lineY, 0, lineY.length, DebuggableMemory.AccessSource.IMGA);
+            memory.storeBlock(offsetCb, lineCb, 0, pairsPerLine, DebuggableMemory.AccessSource.IMGA);
+            memory.storeBlock(offsetCr, lineCr, 0, pairsPerLine, DebuggableMemory.AccessSource.IMGA);
         }
         return true;
     }
@@ -32,23 +32,58 @@ public class FrLcd implements Lcd {
         return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
     }
 
+    /** Offset of value 0 in CLAMP */
+    private static final int CLAMP_OFFSET = 256;
+
+    /** Clamped value for each sum of a luma value and a chroma factor, from -256 to 511 */
+    private static final int[] CLAMP = new int[3 * 256];
+
+    /** Chroma factors for each Cr value (R), each Cb value (B) and each (Cb << 8 | Cr) pair (G) */
+    private static final int[] FACTOR_R  = new int[256];
+    private static final int[] FACTOR_B  = new int[256];
+    private static final int[] FACTOR_G  = new int[256 * 256];
+
+    static {
+        for (int i = 0; i < CLAMP.length; i++) {
+            CLAMP[i] = clamp(i - CLAMP_OFFSET);
+        }
+        // full range YCbCr to RGB conversion
+        for (int c = 0; c < 256; c++) {
+            FACTOR_R[c] = Math.round(1.4f * (c-128) );
+            FACTOR_B[c] = Math.round(1.765f * (c-128) );
+        }
+        for (int u = 0; u < 256; u++) {
+            for (int v = 0; v < 256; v++) {
+                FACTOR_G[(u << 8) | v] = Math.round(-0.343f * (u-128) - 0.711f * (v-128));
+            }
+        }
+    }
+
+    /**
+     * Source bytes and destination of the last image update, to only convert rows that changed since then.
+     * Not part of the emulator state
+     */
+    private RenderCache renderCache;
+
     private static final int clamp(int x) {
         return (x<=255 ? (x>=0 ? x : 0 ) : 255);
     }
 
     private static final void setPixelsFromYCbCr422(int[] pixels,int pos, int y, int y1, int u, int v) {
-        // full range YCbCr to RGB conversion
-        final int factorR = Math.round(1.4f * (v-128) );
-        final int factorG = Math.round(-0.343f * (u-128) - 0.711f * (v-128));
-        final int factorB = Math.round(1.765f * (u-128) );
+        final int factorR = FACTOR_R[v] + CLAMP_OFFSET;
+        final int factorG = FACTOR_G[(u << 8) | v] + CLAMP_OFFSET;
+        final int factorB = FACTOR_B[u] + CLAMP_OFFSET;
 
         // coderat: conversion YCbCr->RGB clamp is needed, because RGB do not include complete YCbCr space
-        pixels[pos]   = (clamp(y+factorR) << 16) | (clamp(y+factorG) << 8) | clamp(y+factorB);
-        pixels[pos+1] = (clamp(y1+factorR) << 16) | (clamp(y1+factorG) << 8) | clamp(y1+factorB);
+        pixels[pos]   = (CLAMP[y+factorR] << 16) | (CLAMP[y+factorG] << 8) | CLAMP[y+factorB];
+        pixels[pos+1] = (CLAMP[y1+factorR] << 16) | (CLAMP[y1+factorG] << 8) | CLAMP[y1+factorB];
     }
 
     /**    this method can be used to show any screen or picture buffer in YCbCr 4:2:2 format
 
+         Rows are read from memory in bulk, and only converted if their source bytes changed since the previous
+         update of the same image from the same buffers.
+
          @param img Initialised image object with "width" and "height" of image to be displayed
          @param yAddr start of Y buffer
          @param cbAddr start of Cb buffer
@@ -69,20 +104,98 @@ public class FrLcd implements Lcd {
         final int addY = ((imageWidth % align) != 0 ? (align-(imageWidth % align)) : 0);
         final int addCbCr = (((imageWidth>>1) % align) != 0 ? (align-((imageWidth>>1) % align)) : 0);
 
-        // optimisation for buffered image TYPE_INT_RGB
-        // coderat: this optimized code is 2x faster as before
-        for (int yPos = 0, pixelPos=0; yPos < imageHeight; yPos++) {
-            for (int xPos = 0; xPos < imageWidth; xPos+=2, yAddr+=2, pixelPos+=2) {
-                final int y = memory.loadUnsigned16(yAddr, null);
-                setPixelsFromYCbCr422(pixels, pixelPos,
-                                      y>>8,
-                                      y&0xFF,
-                                      memory.loadUnsigned8(cbAddr++, null),
-                                      memory.loadUnsigned8(crAddr++, null));
+        RenderCache cache = renderCache;
+        if (cache == null || !cache.matches(img, yAddr, cbAddr, crAddr, align)) {
+            cache = new RenderCache(img, yAddr, cbAddr, crAddr, align);
+            renderCache = cache;
+        }
+        final int chromaWidth = imageWidth >> 1;
+        final byte[] yRow = cache.yRow;
+        final byte[] cbRow = cache.cbRow;
+        final byte[] crRow = cache.crRow;
+
+        for (int yPos = 0, pixelPos=0; yPos < imageHeight; yPos++, pixelPos+=imageWidth) {
+            // Source accesses are not reported to listeners (null source), like individual loads were
+            memory.loadBlock(yAddr, yRow, 0, imageWidth, null);
+            memory.loadBlock(cbAddr, cbRow, 0, chromaWidth, null);
+            memory.loadBlock(crAddr, crRow, 0, chromaWidth, null);
+            yAddr += imageWidth + addY;
+            cbAddr += chromaWidth + addCbCr;
+            crAddr += chromaWidth + addCbCr;
+
+            if (!cache.updateRow(yPos)) {
+                // Row is already displayed
+                continue;
+            }
+            for (int xPos = 0, chromaPos = 0; xPos < imageWidth; xPos+=2, chromaPos++) {
+                setPixelsFromYCbCr422(pixels, pixelPos + xPos,
+                                      yRow[xPos] & 0xFF,
+                                      yRow[xPos + 1] & 0xFF,
+                                      cbRow[chromaPos] & 0xFF,
+                                      crRow[chromaPos] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Rows last converted to a given image, from given buffers
+     */
+    private static class RenderCache {
+        private final BufferedImage img;
+        private final int yAddr, cbAddr, crAddr, align;
+
+        /** Source bytes of the row being updated */
+        final byte[] yRow, cbRow, crRow;
+
+        /** Source bytes of all rows, as they were when last converted */
+        private final byte[] yFrame, cbFrame, crFrame;
+
+        /** Rows that were converted at least once */
+        private final boolean[] converted;
+
+        RenderCache(BufferedImage img, int yAddr, int cbAddr, int crAddr, int align) {
+            this.img = img;
+            this.yAddr = yAddr;
+            this.cbAddr = cbAddr;
+            this.crAddr = crAddr;
+            this.align = align;
+            int width = img.getWidth();
+            int height = img.getHeight();
+            yRow = new byte[width];
+            cbRow = new byte[width >> 1];
+            crRow = new byte[width >> 1];
+            yFrame = new byte[width * height];
+            cbFrame = new byte[(width >> 1) * height];
+            crFrame = new byte[(width >> 1) * height];
+            converted = new boolean[height];
+        }
+
+        boolean matches(BufferedImage img, int yAddr, int cbAddr, int crAddr, int align) {
+            return this.img == img && this.yAddr == yAddr && this.cbAddr == cbAddr && this.crAddr == crAddr && this.align == align;
+        }
+
+        /**
+         * Compare the row buffers to the given row as last converted, and remember them if they differ
+         * @return true if the row must be converted
+         */
+        boolean updateRow(int rowNumber) {
+            boolean changed = !converted[rowNumber];
+            changed |= update(yRow, yFrame, rowNumber);
+            changed |= update(cbRow, cbFrame, rowNumber);
+            changed |= update(crRow, crFrame, rowNumber);
+            converted[rowNumber] = true;
+            return changed;
+        }
+
+        private static boolean update(byte[] row, byte[] frame, int rowNumber) {
+            int offset = rowNumber * row.length;
+            for (int i = 0; i < row.length; i++) {
+                if (row[i] != frame[offset + i]) {
+                    System.arraycopy(row, i, frame, offset + i, row.length - i);
+                    return true;
+                }
             }
-            yAddr += addY;
-            cbAddr += addCbCr;
-            crAddr += addCbCr;
+            return false;
         }
     }
 
@@ -1,12 +1,13 @@
 package com.nikonhacker.emu.peripherials.mirrorBox;
 
 import com.nikonhacker.Constants;
-import com.nikonhacker.emu.Clockable;
+import com.nikonhacker.emu.ClockEvent;
+import com.nikonhacker.emu.MasterClock;
 import com.nikonhacker.emu.peripherials.ioPort.Pin;
 import com.nikonhacker.emu.peripherials.ioPort.util.PulledOutputPin;
 import com.nikonhacker.emu.Platform;
 
-public class MirrorBox implements Clockable {
+public class MirrorBox {
 
     Platform platform;
 
@@ -15,9 +16,8 @@ public class MirrorBox implements Clockable {
     private Pin mirrorDir;
     private Pin mirrorLock;
 
-    // TODO it is WORKAROUND because MasterClock doesn't work with low clock frequencies!!!
-    private static final int CLOCK_FREQ = 100000;
-    private int timerCount;
+    // reached when the mirror gets to the next wipers state
+    private ClockEvent moveEvent;
 
     // states for shooting photo movement only!
     private static final int[] wipersStates = {0b000, 0b110, 0b100, 0b110, 0b010, 0b011, 0b111, 0b001, 0b101, 0b100, 0b111, 0b110, 0b100, 0b000};
@@ -35,6 +35,7 @@ public class MirrorBox implements Clockable {
     public MirrorBox(Platform platform) {
         this.platform = platform;
         state = STATE_MIRROR_DOWN;
+        moveEvent = createMoveEvent();
         for (int i=0; i<3; i++) {
             wipers[i] = new PulledOutputPin(this.getClass().getSimpleName() + " WIPER" + i + " pin", (wipersStates[STATE_MIRROR_DOWN]>>(2-i))&1);
         }
@@ -65,23 +66,27 @@ public class MirrorBox implements Clockable {
         return mirrorDir;
     }
 
-    @Override
-    public int getFrequencyHz() {
-        return CLOCK_FREQ;
+    private ClockEvent createMoveEvent() {
+        return new ClockEvent(Constants.CHIP_TX, new Runnable() {
+            @Override
+            public void run() {
+                onMoveEvent();
+            }
+        });
     }
 
-    @Override
-    public int getChip() {
-        return Constants.CHIP_TX;
+    /**
+     * This method makes sure loading a state saved when the mirror box was still a Clockable
+     * initializes the move event
+     */
+    private Object readResolve() {
+        if (moveEvent == null) moveEvent = createMoveEvent();
+        return this;
     }
 
-    @Override
-    public Object onClockTick() throws Exception {
-        if ( (--timerCount)>0)
-            return null;
-
+    private void onMoveEvent() {
         if (mirrorMovement==0)
-            return null;
+            return;
 
         if (mirrorMovement>0) {
             setWipers (state+1);
@@ -91,16 +96,15 @@ public class MirrorBox implements Clockable {
             state--;
         }
         setMirrorMovement(mirrorMovement, true);
-        return null;
     }
 
     // ms
     private final void setClockInterval(int t) {
-        if (t!=0) {
-            timerCount = t*CLOCK_FREQ/1000;
-        } else {
-            timerCount = 0;
-        }
+        platform.getMasterClock().scheduleAfter(moveEvent, t * MasterClock.PS_PER_MS);
+    }
+
+    private final void stopClock() {
+        platform.getMasterClock().cancel(moveEvent);
     }
 
     private final void setMirrorMovement(int value, boolean inClock) {
@@ -111,18 +115,11 @@ public class MirrorBox implements Clockable {
 
                 if (state !=  STATE_MIRROR_UP_PHOTO) {
                     setClockInterval(wipersTimes[state+1]);
-                    // if first time
-                    if (!inClock) {
-                        platform.getMasterClock().add(this, -1, true, false);
-                    }
                 } else {
 
                     // move not possible, so stop (in reality still spins due to inertion/torque)
                     // Mirror brake phase is short(~5-10ms), so the emulation will stay in last state
-                    setClockInterval(0);
-                    if (inClock) {
-                        platform.getMasterClock().remove(this);
-                    }
+                    stopClock();
                 }
 
             } else if (mirrorMovement<0) {
@@ -130,22 +127,14 @@ public class MirrorBox implements Clockable {
                 if (state != STATE_MIRROR_UP_LIVEVIEWEXPOSURE) {
 
                     setClockInterval(wipersTimes[state]);
-                    // if first time
-                    if (!inClock) {
-                        platform.getMasterClock().add(this, -1, true, false);
-                    }
                 } else {
 
                     // move not possible, so stop
-                    setClockInterval(0);
-                    if (inClock) {
-                        platform.getMasterClock().remove(this);
-                    }
+                    stopClock();
                 }
             } else {
 
-                setClockInterval(0);
-                platform.getMasterClock().remove(this);
+                stopClock();
             }
         }
     }
@@ -1,6 +1,8 @@
 package com.nikonhacker.emu.peripherials.programmableTimer;
 
+import com.nikonhacker.emu.ClockEvent;
 import com.nikonhacker.emu.Clockable;
+import com.nikonhacker.emu.MasterClock;
 import com.nikonhacker.emu.Platform;
 
 public abstract class ProgrammableTimer implements Clockable {
@@ -40,6 +42,33 @@ public abstract class ProgrammableTimer implements Clockable {
     @Deprecated
     protected long intervalNanoseconds = 1000000000L; // in ns/Timertick. For example, intervalNanoseconds=1000000000 ns/Timertick means f = 1Hz
 
+    /** True while the timer is registered, either to the MasterClock or as event-driven */
+    protected boolean registered = false;
+
+    /**
+     * If true, the timer is not clocked at each tick. Instead, the number of ticks until the next one that does
+     * more than counting (match, overflow, underflow...) is computed, and only that tick is scheduled as a
+     * ClockEvent. In between, currentValue is brought up to date from elapsed time by synchronize(), which
+     * subclasses call before accessing their registers.
+     * Chosen upon registration, according to MasterClock.isEventDrivenTimers()
+     */
+    protected boolean eventDriven = false;
+
+    // Event-driven counting state
+
+    /** True if ticks are elapsing since lastTickTimePs */
+    private boolean counting;
+    /** Frequency used to count ticks since lastTickTimePs */
+    private int countingFrequencyHz;
+    /** Emulated time of the last tick accounted for in currentValue */
+    private long lastTickTimePs;
+    /** Fraction of picosecond to add to lastTickTimePs, in 1/countingFrequencyHz, so that no drift occurs */
+    private long lastTickRemainder;
+    /** Event running the next tick that does more than counting */
+    private ClockEvent nextTickEvent;
+    /** Number of ticks from lastTickTimePs to nextTickEvent */
+    private long ticksToNextTickEvent;
+
     public ProgrammableTimer(int timerNumber, Platform platform) {
         this.timerNumber = timerNumber;
         this.platform = platform;
@@ -50,31 +79,199 @@ public abstract class ProgrammableTimer implements Clockable {
     }
 
     public int getCurrentValue() {
+        synchronize();
         return currentValue;
     }
 
     public void setCurrentValue(int currentValue) {
+        synchronize();
         this.currentValue = currentValue;
+        reschedule();
     }
 
     public void setActive(boolean active) {
+        synchronize();
         this.active = active;
+        reschedule();
     }
 
     public boolean isActive() {
         return active;
     }
 
+    public boolean isEventDriven() {
+        return eventDriven;
+    }
+
     protected void register() {
-        platform.getMasterClock().add(this);
+        if (!registered) {
+            registered = true;
+            eventDriven = platform.getMasterClock().isEventDrivenTimers();
+            if (!eventDriven) {
+                platform.getMasterClock().add(this);
+            }
+        }
+        reschedule();
     }
 
     protected void updateFrequency() {
-        platform.getMasterClock().requestResheduling();
+        if (eventDriven) {
+            reschedule();
+        }
+        else {
+            platform.getMasterClock().requestResheduling();
+        }
     }
 
     protected void unRegister() {
-        platform.getMasterClock().remove(this);
+        if (eventDriven) {
+            synchronize();
+            registered = false;
+            reschedule();
+        }
+        else {
+            registered = false;
+            platform.getMasterClock().remove(this);
+        }
+    }
+
+    /**
+     * @return true if ticks currently make the timer count (when registered)
+     */
+    protected boolean isOperating() {
+        return active;
+    }
+
+    /**
+     * In event-driven mode, computes the number of ticks from now until the next tick that does more than counting,
+     * according to currentValue and registers
+     * @return a number of ticks, at least 1
+     */
+    protected abstract long getTicksToNextEvent();
+
+    /**
+     * In event-driven mode, updates currentValue as the given number of ticks would do.
+     * None of these ticks does more than counting
+     */
+    protected abstract void countTicks(long ticks);
+
+    /**
+     * In event-driven mode, brings currentValue up to date with elapsed time. Does nothing otherwise.
+     * Subclasses must call this method before reading or changing currentValue or any register that
+     * affects counting, and call reschedule() after such a change.
+     * The tick of the next event is never counted here, even if it is due, as the event will run it
+     */
+    protected final void synchronize() {
+        if (counting) {
+            long ticks = getTicksAt(platform.getMasterClock().getTimePs(getChip()) - lastTickTimePs);
+            ticks = Math.min(ticks, ticksToNextTickEvent - 1);
+            if (ticks > 0) {
+                countTicks(ticks);
+                advanceLastTick(ticks);
+                ticksToNextTickEvent -= ticks;
+            }
+        }
+    }
+
+    /**
+     * In event-driven mode, schedules the next tick that does more than counting, or cancels it if the timer does
+     * not count anymore. Does nothing otherwise.
+     * Must be called after synchronize() and a change to the state of the timer
+     */
+    protected final void reschedule() {
+        if (!eventDriven) {
+            return;
+        }
+        MasterClock masterClock = platform.getMasterClock();
+        boolean wasCounting = counting;
+        counting = registered && isOperating();
+        if (counting) {
+            int frequencyHz = getFrequencyHz();
+            if (frequencyHz <= 0) {
+                counting = false;
+            }
+            else if (frequencyHz != countingFrequencyHz) {
+                // New period applies from the last tick on
+                countingFrequencyHz = frequencyHz;
+                lastTickRemainder = 0;
+            }
+        }
+        if (counting) {
+            if (!wasCounting) {
+                // As when clocked, first tick happens now. So last one was one period ago
+                lastTickTimePs = masterClock.getTimePs(getChip()) - MasterClock.PS_PER_SEC / countingFrequencyHz;
+                lastTickRemainder = 0;
+            }
+            if (nextTickEvent == null) {
+                nextTickEvent = new ClockEvent(getChip(), new Runnable() {
+                    @Override
+                    public void run() {
+                        onNextTickEvent();
+                    }
+                });
+            }
+            ticksToNextTickEvent = getTicksToNextEvent();
+            masterClock.schedule(nextTickEvent, lastTickTimePs + getTickOffsetPs(ticksToNextTickEvent));
+        }
+        else if (nextTickEvent != null) {
+            masterClock.cancel(nextTickEvent);
+        }
+    }
+
+    /**
+     * Counts the ticks up to the scheduled one, then runs that one as if clocked
+     */
+    private void onNextTickEvent() {
+        countTicks(ticksToNextTickEvent - 1);
+        advanceLastTick(ticksToNextTickEvent);
+        // Until reschedule(), the next event is unknown, so synchronize() must not count anything
+        ticksToNextTickEvent = 1;
+        try {
+            onClockTick();
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        reschedule();
+    }
+
+    /**
+     * @return the time between lastTickTimePs and the given tick after it, in whole picoseconds, as the MasterClock
+     * would compute it
+     */
+    private long getTickOffsetPs(long ticks) {
+        return ticks * (MasterClock.PS_PER_SEC / countingFrequencyHz)
+                + (ticks * (MasterClock.PS_PER_SEC % countingFrequencyHz) + lastTickRemainder) / countingFrequencyHz;
+    }
+
+    /**
+     * Moves lastTickTimePs to the given tick after it
+     */
+    private void advanceLastTick(long ticks) {
+        long remainder = ticks * (MasterClock.PS_PER_SEC % countingFrequencyHz) + lastTickRemainder;
+        lastTickTimePs += ticks * (MasterClock.PS_PER_SEC / countingFrequencyHz) + remainder / countingFrequencyHz;
+        lastTickRemainder = remainder % countingFrequencyHz;
+    }
+
+    /**
+     * @return the number of ticks elapsed between lastTickTimePs and the given time after it
+     */
+    private long getTicksAt(long offsetPs) {
+        if (offsetPs <= 0) {
+            return 0;
+        }
+        // Estimate, then fix rounding errors
+        long ticks = (long) (offsetPs * (double) countingFrequencyHz / MasterClock.PS_PER_SEC);
+        while (ticks > 0 && getTickOffsetPs(ticks) > offsetPs) {
+            ticks--;
+        }
+        while (getTickOffsetPs(ticks + 1) <= offsetPs) {
+            ticks++;
+        }
+        return ticks;
     }
 
     @Override
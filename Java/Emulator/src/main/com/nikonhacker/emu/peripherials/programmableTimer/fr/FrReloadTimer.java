@@ -50,6 +50,7 @@ public class FrReloadTimer extends ProgrammableTimer {
 
 
     public int getTmr() {
+        synchronize();
         return currentValue;
     }
 
@@ -73,6 +74,8 @@ public class FrReloadTimer extends ProgrammableTimer {
         // GATE: ignored
         // OUTL: ignored
 
+        synchronize();
+
         // read old values
         int oldDivider = getDivider();
         boolean wasEnabled = isTmcsrCnteSet();
@@ -106,6 +109,7 @@ public class FrReloadTimer extends ProgrammableTimer {
         if (isTmcsrTrgSet()) {
             currentValue = tmrlra;
         }
+        reschedule();
     }
 
     private int TMCSR_TRGM_MASK() {
@@ -176,6 +180,18 @@ public class FrReloadTimer extends ProgrammableTimer {
         return ((FrClockGenerator)platform.getClockGenerator()).getPClkFrequency() / getDivider();
     }
 
+    @Override
+    protected long getTicksToNextEvent() {
+        // Underflow is detected when reaching 0 (or after wrapping around if starting from 0)
+        long ticks = currentValue & 0xFFFFFFFFL;
+        return (ticks == 0) ? 1L << 32 : ticks;
+    }
+
+    @Override
+    protected void countTicks(long ticks) {
+        currentValue -= (int) ticks;
+    }
+
     @Override
     public Object onClockTick() throws Exception {
         if (active) {
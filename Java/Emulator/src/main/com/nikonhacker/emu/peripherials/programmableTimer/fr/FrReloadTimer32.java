@@ -48,6 +48,12 @@ public class FrReloadTimer32 extends FrReloadTimer {
      * - timers 0x100-0x150 are loaded with numbers like 999.
      * it seems be the 32-bit reload timer always counts (tmrlra+1) pulses according to datasheet while the 16-bit reload timer counts exactly tmrlra...
      */
+    @Override
+    protected long getTicksToNextEvent() {
+        // Underflow is detected on the tick following 0
+        return (currentValue & 0xFFFFFFFFL) + 1;
+    }
+
     @Override
     public Object onClockTick() throws Exception {
         if (active) {
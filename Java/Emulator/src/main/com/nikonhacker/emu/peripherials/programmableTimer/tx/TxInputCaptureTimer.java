@@ -114,6 +114,7 @@ public class TxInputCaptureTimer extends ProgrammableTimer implements CpuPowerMo
      * @param tbtrun
      */
     public void setTbtrun(int tbtrun) {
+        synchronize();
         this.tbtrun = tbtrun;
 
         if (isTbtrunTbtcapSet()) {
@@ -151,6 +152,7 @@ public class TxInputCaptureTimer extends ProgrammableTimer implements CpuPowerMo
     }
 
     public void setTbtcr(int tbtcr) {
+        synchronize();
         int oldDivider = getDivider();
         this.tbtcr = tbtcr;
         int newDivider = getDivider();
@@ -216,7 +218,9 @@ public class TxInputCaptureTimer extends ProgrammableTimer implements CpuPowerMo
     }
 
     public void setCmpctl(int compareChannel, int cmpctl) {
+        synchronize();
         this.cmpctl[compareChannel] = cmpctl;
+        reschedule();
 
         // The role of the timer flip-flop is not well described in the Input Capture spec (chap 12).
         // Explanations are more complete in the Timer Counters spec (e.g. section 11.3.7)
@@ -258,6 +262,7 @@ public class TxInputCaptureTimer extends ProgrammableTimer implements CpuPowerMo
     }
 
     public void setTccmp(int compareChannel, int tccmp) {
+        synchronize();
         if (isCmpctlCmprdeSet(compareChannel)) {
             // Double buffering
             this.tccmpBuf[compareChannel] = tccmp;
@@ -266,6 +271,7 @@ public class TxInputCaptureTimer extends ProgrammableTimer implements CpuPowerMo
             // No double buffering
             this.tccmp[compareChannel] = tccmp;
         }
+        reschedule();
     }
 
 
@@ -281,6 +287,7 @@ public class TxInputCaptureTimer extends ProgrammableTimer implements CpuPowerMo
 
     // TODO use this
     public void performCapture(int captureChannel) {
+        synchronize();
         tccap[captureChannel] = currentValue;
         platform.getInterruptController().request(TxInterruptController.INTCAP0 + captureChannel);
     }
@@ -288,6 +295,7 @@ public class TxInputCaptureTimer extends ProgrammableTimer implements CpuPowerMo
 
     @Override
     public void onCpuPowerModeChange(TxCPUState.PowerMode powerMode) {
+        synchronize();
         updateOperate();
     }
 
@@ -307,6 +315,12 @@ public class TxInputCaptureTimer extends ProgrammableTimer implements CpuPowerMo
                 && ((((TxCPUState)platform.getCpuState()).getPowerMode()== TxCPUState.PowerMode.RUN) || isTbtrunI2tbtSet())
                 && isTbtrunTbtrunSet()
                 && isTbtrunTbtprunSet();
+        reschedule();
+    }
+
+    @Override
+    protected boolean isOperating() {
+        return operate;
     }
 
 
@@ -320,6 +334,31 @@ public class TxInputCaptureTimer extends ProgrammableTimer implements CpuPowerMo
         return ((TxClockGenerator)platform.getClockGenerator()).getFt0Hz() / getDivider();
     }
 
+    @Override
+    protected long getTicksToNextEvent() {
+        // Overflow, unless a comparator matches before
+        long ticks = getTicksUntil(0);
+        for (int compareChannel = 0; compareChannel < TxIoListener.NUM_COMPARE_CHANNEL; compareChannel++) {
+            if (isCmpctlCmpenSet(compareChannel)) {
+                ticks = Math.min(ticks, getTicksUntil(tccmp[compareChannel]));
+            }
+        }
+        return ticks;
+    }
+
+    /**
+     * @return the number of ticks until the 32-bit counter reaches the given value, wrapping if needed
+     */
+    private long getTicksUntil(int value) {
+        long ticks = (value - currentValue) & 0xFFFFFFFFL;
+        return (ticks == 0) ? 1L << 32 : ticks;
+    }
+
+    @Override
+    protected void countTicks(long ticks) {
+        currentValue += (int) ticks;
+    }
+
     @Override
     public Object onClockTick() {
         if (operate) {
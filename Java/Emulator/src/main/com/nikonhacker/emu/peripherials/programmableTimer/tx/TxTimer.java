@@ -127,6 +127,7 @@ public class TxTimer extends ProgrammableTimer implements CpuPowerModeChangeList
      * @param tbrun
      */
     public void setTbrun(int tbrun) {
+        synchronize();
         this.tbrun = tbrun;
 
         // if counter is enabled and prescaler is enabled
@@ -156,6 +157,7 @@ public class TxTimer extends ProgrammableTimer implements CpuPowerModeChangeList
     }
 
     public void setTbcr(int tbcr) {
+        synchronize();
         this.tbcr = tbcr;
         if (isTbcrTbsyncSet()) {
             throw new RuntimeException("Attempt to configure " + getName() + " in synchronization mode. This is not supported for now.");
@@ -180,6 +182,7 @@ public class TxTimer extends ProgrammableTimer implements CpuPowerModeChangeList
     }
 
     public void setTbmod(int tbmod) {
+        synchronize();
         int oldTbclk = getTbmodTbclk();
         this.tbmod = tbmod;
         int newTbclk = getTbmodTbclk();
@@ -211,6 +214,7 @@ public class TxTimer extends ProgrammableTimer implements CpuPowerModeChangeList
         }
         // Spec says TBnCLK "**Clears** and controls the TMRBn up-counter."
         currentValue = 0;
+        reschedule();
     }
 
     public boolean isTbmodTbcp0Set() {
@@ -312,12 +316,15 @@ public class TxTimer extends ProgrammableTimer implements CpuPowerModeChangeList
     }
 
     public int getTbuc() {
+        synchronize();
         return currentValue;
     }
 
     public void setTbuc(int tbuc) {
+        synchronize();
         // only 16-bit are writable
         this.currentValue = tbuc & 0xFFFF;
+        reschedule();
     }
 
     private void toggleFf0() {
@@ -341,6 +348,7 @@ public class TxTimer extends ProgrammableTimer implements CpuPowerModeChangeList
     }
 
     public void setTbrg0(int tbrg0) {
+        synchronize();
         // only 16-bit are writable
         tbrg0 = tbrg0 & 0xFFFF;
         // "If double buffering is enabled, data is transferred from register buffer 0 to the TB0RG0/1
@@ -353,6 +361,7 @@ public class TxTimer extends ProgrammableTimer implements CpuPowerModeChangeList
             // No double buffering
             this.tbrg0 = tbrg0;
         }
+        reschedule();
     }
 
     public int getTbrg1() {
@@ -360,8 +369,10 @@ public class TxTimer extends ProgrammableTimer implements CpuPowerModeChangeList
     }
 
     public void setTbrg1(int tbrg1) {
+        synchronize();
         // only 16-bit are writable
         this.tbrg1 = tbrg1 & 0xFFFF;
+        reschedule();
     }
 
     public int getTbcp0() {
@@ -373,6 +384,7 @@ public class TxTimer extends ProgrammableTimer implements CpuPowerModeChangeList
     }
 
     public void performCapture0() {
+        synchronize();
         setTbcp0(currentValue);
         if (isTbffcrTbc0t1Set()) {
             toggleFf0();
@@ -388,6 +400,7 @@ public class TxTimer extends ProgrammableTimer implements CpuPowerModeChangeList
     }
 
     public void performCapture1() {
+        synchronize();
         setTbcp1(currentValue);
         if (isTbffcrTbc1t1Set()) {
             toggleFf0();
@@ -396,6 +409,7 @@ public class TxTimer extends ProgrammableTimer implements CpuPowerModeChangeList
 
     @Override
     public void onCpuPowerModeChange(TxCPUState.PowerMode powerMode) {
+        synchronize();
         updateOperate();
     }
 
@@ -415,6 +429,12 @@ public class TxTimer extends ProgrammableTimer implements CpuPowerModeChangeList
                 && ((((TxCPUState) platform.getCpuState()).getPowerMode() == TxCPUState.PowerMode.RUN) || isTbcrI2tbSet())
                 && isTbrunTbrunSet()
                 && isTbrunTbprunSet();
+        reschedule();
+    }
+
+    @Override
+    protected boolean isOperating() {
+        return operate;
     }
 
 
@@ -432,6 +452,24 @@ public class TxTimer extends ProgrammableTimer implements CpuPowerModeChangeList
         return TxInterruptController.INTTB0 + timerNumber + (timerNumber>0xF ? TxInterruptController.INTTB10-TxInterruptController.INTTBF-1 : 0);
     }
 
+    @Override
+    protected long getTicksToNextEvent() {
+        // Overflow, unless a comparator matches before
+        long ticks = MAX_COUNTER_VALUE + 1 - currentValue;
+        if (tbrg0 > currentValue) {
+            ticks = Math.min(ticks, tbrg0 - currentValue);
+        }
+        if (tbrg1 > currentValue) {
+            ticks = Math.min(ticks, tbrg1 - currentValue);
+        }
+        return ticks;
+    }
+
+    @Override
+    protected void countTicks(long ticks) {
+        currentValue += (int) ticks;
+    }
+
     @Override
     public Object onClockTick() {
 //        System.out.println(getName() + (operate?" operates":" doesn't operate"));
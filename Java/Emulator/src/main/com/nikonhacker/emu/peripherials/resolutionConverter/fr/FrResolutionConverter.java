@@ -309,14 +309,12 @@ public class FrResolutionConverter implements ResolutionConverter {
             throw new RuntimeException("ResolutionConverter(" + channelNumber +"): ImageWidth > BufferWidth");
         }
         
+        final byte[] line = new byte[destinationImageWidth];
         for (int y=0; y<destinationImageHeight; y++) {
-            for (int x=0; x<destinationImageWidth; x++,to++,from++) {
-                memory.store8(to, 
-                              memory.loadUnsigned8(from, DebuggableMemory.AccessSource.IMGA), 
-                              DebuggableMemory.AccessSource.IMGA);
-            }
-            from += addFrom;
-            to += addTo;
+            memory.loadBlock(from, line, 0, destinationImageWidth, DebuggableMemory.AccessSource.IMGA);
+            memory.storeBlock(to, line, 0, destinationImageWidth, DebuggableMemory.AccessSource.IMGA);
+            from += sourceBufferWidth;
+            to += destinationBufferWidth;
         }
         return true;
     }
@@ -39,6 +39,16 @@ public abstract class SerialDevice {
     public abstract void onBitNumberChange(SerialDevice serialDevice, int numBits);
 
     public abstract void write(Integer value);
+
+    /**
+     * Unboxed version of write(Integer), used on the path of high-volume traffic so that no Integer is allocated.
+     * This default implementation boxes the value. Devices and connectors that override it must behave the same
+     * way in both versions, a null value being only possible with write(Integer)
+     * @param value the value to write
+     */
+    public void write(int value) {
+        write(Integer.valueOf(value));
+    }
     
     public void readHalfDuplex() {
         throw new RuntimeException("readHalfDuplex() no implemented");
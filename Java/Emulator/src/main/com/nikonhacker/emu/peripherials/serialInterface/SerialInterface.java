@@ -24,6 +24,9 @@ import com.nikonhacker.emu.Platform;
  * serial interface registers and act accordingly.
  */
 public abstract class SerialInterface extends SerialDevice {
+    /** Returned by unboxed read methods of subclasses when read() would return null. Values never exceed 9 bits */
+    protected static final int NO_VALUE = -1;
+
     protected final Platform platform;
     protected final int      serialInterfaceNumber;
 
@@ -72,6 +75,17 @@ public abstract class SerialInterface extends SerialDevice {
         targetDevice.write(value);
     }
 
+    public void valueReady(int value) {
+        targetDevice.write(value);
+    }
+
+    /**
+     * Called when the clock feeding serial interfaces changed frequency.
+     * Interfaces that could not time a transfer while their clock was stopped must try again
+     */
+    public void onClockFrequencyChanged() {
+    }
+
 
     @Override
     public String toString() {
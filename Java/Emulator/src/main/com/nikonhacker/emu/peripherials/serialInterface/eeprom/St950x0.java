@@ -30,6 +30,9 @@ public abstract class St950x0 extends SpiSlaveDevice {
     public static final int WRITE0 = 0b0000_0010; // WRITE Write Data to Memory Array (0)
     public static final int WRITE1 = 0b0000_1010; // WRITE Write Data to Memory Array (1)
 
+    /** Value of currentAddress until the address phase of a command is complete */
+    private static final int NO_ADDRESS = -1;
+
     private String name;
 
     int statusRegister = 0b1111_0000;
@@ -39,7 +42,7 @@ public abstract class St950x0 extends SpiSlaveDevice {
 
     // Current command processing state
     private Command currentCommand = null;
-    private Integer currentAddress = null;
+    private int currentAddress = NO_ADDRESS;
 
     private int numBits = 8;
 
@@ -116,7 +119,7 @@ public abstract class St950x0 extends SpiSlaveDevice {
                 clearWriteLatchEnabled();
             }
             currentCommand = null;
-            currentAddress = null;
+            currentAddress = NO_ADDRESS;
         }
         super.setSelected(selected);
     }
@@ -140,7 +143,7 @@ public abstract class St950x0 extends SpiSlaveDevice {
         // This has no effect.
     }
 
-    public Integer read() {
+    public int read() {
         if (currentCommand == null) {
             // This clock is due to the command being received. Return a dummy byte
             return (int) DUMMY_BYTE;
@@ -151,7 +154,7 @@ public abstract class St950x0 extends SpiSlaveDevice {
                 return statusRegister;
             case READ0:
             case READ1:
-                if (currentAddress == null) {
+                if (currentAddress == NO_ADDRESS) {
                     // This clock is due to the address being received. Return a dummy byte
                     return (int) DUMMY_BYTE;
                 }
@@ -178,91 +181,96 @@ public abstract class St950x0 extends SpiSlaveDevice {
             throw new RuntimeException("St950x0.write(null)");
         }
         else {
-            int byteValue = value & 0xFF;
-            if (!selected) {
-                throw new RuntimeException("St950x0.write(0x" + Format.asHex(byteValue & 0xFF, 2) + ") called while eeprom is not SELECTed !");
+            write(value.intValue());
+        }
+    }
+
+    @Override
+    public void write(int value) {
+        int byteValue = value & 0xFF;
+        if (!selected) {
+            throw new RuntimeException("St950x0.write(0x" + Format.asHex(byteValue & 0xFF, 2) + ") called while eeprom is not SELECTed !");
+        }
+        // Writing a value to serial eeprom means clock is ticking, so a value has to be transmitted back synchronously
+        targetDevice.write(read());
+
+        if (currentCommand == null) {
+            // first byte is a new command
+            switch (byteValue) {
+                case WREN:
+                    setWriteLatchEnabled();
+                    break;
+                case WRDI:
+                    clearWriteLatchEnabled();
+                    break;
+                case RDSR:
+                    currentCommand = Command.RDSR;
+                    break;
+                case WRSR:
+                    currentCommand = Command.WRSR;
+                    break;
+                case READ0:
+                    currentCommand = Command.READ0;
+                    break;
+                case READ1:
+                    currentCommand = Command.READ1;
+                    break;
+                case WRITE0:
+                    currentCommand = Command.WRITE0;
+                    break;
+                case WRITE1:
+                    currentCommand = Command.WRITE1;
+                    break;
+                default:
+                    throw new RuntimeException("Unknown command : 0b" + Format.asBinary(byteValue, 8));
             }
-            // Writing a value to serial eeprom means clock is ticking, so a value has to be transmitted back synchronously
-            targetDevice.write(read());
-
-            if (currentCommand == null) {
-                // first byte is a new command
-                switch (byteValue) {
-                    case WREN:
-                        setWriteLatchEnabled();
-                        break;
-                    case WRDI:
-                        clearWriteLatchEnabled();
-                        break;
-                    case RDSR:
-                        currentCommand = Command.RDSR;
-                        break;
-                    case WRSR:
-                        currentCommand = Command.WRSR;
-                        break;
+        }
+        else if (currentCommand == Command.READ0 || currentCommand == Command.READ1 || currentCommand == Command.WRITE0 || currentCommand == Command.WRITE1) {
+            write1offset = 0x100;
+            if (currentAddress == NO_ADDRESS) {
+                // "decode" 2nd byte as an address
+                if (currentCommand == Command.READ0 || currentCommand == Command.WRITE0) {
+                    // Page 0
+                    currentAddress = byteValue;
+                }
+                else {
+                    // Page 1
+                    currentAddress = write1offset | byteValue;
+                }
+            }
+            else {
+                // We have a READ/WRITE command and an address
+                // This is the "data phase"
+                switch (currentCommand) {
+                    // If READ command, the value received is meaningless : ignore it
                     case READ0:
-                        currentCommand = Command.READ0;
-                        break;
                     case READ1:
-                        currentCommand = Command.READ1;
                         break;
+                    // If WRITE command, store it at the corresponding address and increment address
                     case WRITE0:
-                        currentCommand = Command.WRITE0;
+                        // Write to page 0
+                        performWrite(currentAddress, value);
+                        // Prepare next read by incrementing address, wrapping at 16
+                        currentAddress = (currentAddress & 0xFFFFFFF0) | ((currentAddress + 1) & 0xF);
                         break;
                     case WRITE1:
-                        currentCommand = Command.WRITE1;
+                        // Write to page 1
+                        performWrite(write1offset | currentAddress, value);
+                        // Prepare next read by incrementing address, wrapping at 16
+                        currentAddress = (currentAddress & 0xFFFFFFF0) | ((currentAddress + 1) & 0xF);
                         break;
-                    default:
-                        throw new RuntimeException("Unknown command : 0b" + Format.asBinary(byteValue, 8));
-                }
-            }
-            else if (currentCommand == Command.READ0 || currentCommand == Command.READ1 || currentCommand == Command.WRITE0 || currentCommand == Command.WRITE1) {
-                write1offset = 0x100;
-                if (currentAddress == null) {
-                    // "decode" 2nd byte as an address
-                    if (currentCommand == Command.READ0 || currentCommand == Command.WRITE0) {
-                        // Page 0
-                        currentAddress = byteValue;
-                    }
-                    else {
-                        // Page 1
-                        currentAddress = write1offset | byteValue;
-                    }
-                }
-                else {
-                    // We have a READ/WRITE command and an address
-                    // This is the "data phase"
-                    switch (currentCommand) {
-                        // If READ command, the value received is meaningless : ignore it
-                        case READ0:
-                        case READ1:
-                            break;
-                        // If WRITE command, store it at the corresponding address and increment address
-                        case WRITE0:
-                            // Write to page 0
-                            performWrite(currentAddress, value);
-                            // Prepare next read by incrementing address, wrapping at 16
-                            currentAddress = (currentAddress & 0xFFFFFFF0) | ((currentAddress + 1) & 0xF);
-                            break;
-                        case WRITE1:
-                            // Write to page 1
-                            performWrite(write1offset | currentAddress, value);
-                            // Prepare next read by incrementing address, wrapping at 16
-                            currentAddress = (currentAddress & 0xFFFFFFF0) | ((currentAddress + 1) & 0xF);
-                            break;
-                    }
                 }
             }
-            else if (currentCommand == Command.RDSR) {
-                // This is the "data phase". Ignore received byte
-            }
-            else if (currentCommand == Command.WRSR) {
-                // This is the "data phase". Store the received value (only protection bytes are writeable)
-                statusRegister = (statusRegister & 0b11110011) | (byteValue & 0b00001100);
-            }
-            else {
-                System.err.println("Unimplemented command : " + currentCommand);
-            }
+        }
+        else if (currentCommand == Command.RDSR) {
+            // This is the "data phase". Ignore received byte
+        }
+        else if (currentCommand == Command.WRSR) {
+            // This is the "data phase". Store the received value (only protection bytes are writeable)
+            statusRegister = (statusRegister & 0b11110011) | (byteValue & 0b00001100);
+        }
+        else {
+            System.err.println("Unimplemented command : " + currentCommand);
         }
     }
 
@@ -87,7 +87,12 @@ public class FMountCircuit extends SerialInterface {
         targetDevice.write(read());
     }
 
-    public synchronized void write(Integer value) {
+    public void write(Integer value) {
+        write(value.intValue());
+    }
+
+    @Override
+    public synchronized void write(int value) {
         // F-Mount serial bus is one-wire, so transmit same byte back
         if (lens!=null) {
             // invert byte
@@ -2,8 +2,8 @@ package com.nikonhacker.emu.peripherials.serialInterface.fMount;
 
 import com.nikonhacker.Constants;
 import com.nikonhacker.Format;
+import com.nikonhacker.emu.ClockEvent;
 import com.nikonhacker.emu.MasterClock;
-import com.nikonhacker.emu.Clockable;
 import com.nikonhacker.emu.peripherials.serialInterface.fMount.LensDevice;
 import com.nikonhacker.emu.peripherials.serialInterface.fMount.FMountCircuit;
 
@@ -12,13 +12,12 @@ import com.nikonhacker.emu.peripherials.serialInterface.fMount.FMountCircuit;
     emulated, but most info comes from 35mm 1.8 G
 
  */
-public class LensPrototype extends LensDevice implements Clockable {
+public class LensPrototype extends LensDevice {
 
     private static final int SLOW_BAUD_RATE = 192307/2;    // Bps
     private static final int FAST_BAUD_RATE = 312500/2;    // Bps
 
     private MasterClock masterClock;
-    private boolean isTimerActive;
 
     // set if lens was disconnected from mount
     private boolean unpluged;
@@ -38,9 +37,8 @@ public class LensPrototype extends LensDevice implements Clockable {
 
     private int baudRate = SLOW_BAUD_RATE; // Bps
 
-    // TODO workaround for MasterClock.prepareSchedule() broken calculations
-    // (setting too low frequency results very low speed (5cps), so use higher frequency with counter)
-    private int timerCount;
+    // asserts Pin2 when the lens is ready for next byte
+    private ClockEvent timerEvent;
 
     // only set if command needs several actions
     private int currentCommand = -1;
@@ -62,6 +60,25 @@ public class LensPrototype extends LensDevice implements Clockable {
     public LensPrototype (FMountCircuit fMountCircuit, MasterClock masterClock) {
         super(fMountCircuit);
         this.masterClock = masterClock;
+        timerEvent = createTimerEvent();
+    }
+
+    private ClockEvent createTimerEvent() {
+        return new ClockEvent(Constants.CHIP_TX, new Runnable() {
+            @Override
+            public void run() {
+                onTimerEvent();
+            }
+        });
+    }
+
+    /**
+     * This method makes sure loading a state saved when the lens was still a Clockable
+     * initializes the timer event
+     */
+    private Object readResolve() {
+        if (timerEvent == null) timerEvent = createTimerEvent();
+        return this;
     }
 
     public String toString() {
@@ -74,6 +91,11 @@ public class LensPrototype extends LensDevice implements Clockable {
      */
     @Override
     public void write(Integer value) {
+        write(value.intValue());
+    }
+
+    @Override
+    public void write(int value) {
         if (testCommandAborted())
             return;
         // if command byte
@@ -119,16 +141,14 @@ public class LensPrototype extends LensDevice implements Clockable {
                 }
                 if (transferCount!=0) {
                     // aprox 177us
-                    timerCount = (baudRate==FAST_BAUD_RATE ? 28 : 17);
-                    masterClock.add(this, -1, true, false);
+                    startTimer(baudRate==FAST_BAUD_RATE ? 28 : 17);
                 }
                 break;
             case RECEIVE_BYTES:
                 transferData[transferData.length - (transferCount--)] = value;
                 if (transferCount!=0) {
                     // aprox 30us @156 KBps, 72us @ 96 KBps
-                    timerCount = (baudRate==FAST_BAUD_RATE ? 5 : 7);
-                    masterClock.add(this, -1, true, false);
+                    startTimer(baudRate==FAST_BAUD_RATE ? 5 : 7);
                 } else {
                     // if command 0x40 was successfull, set new baud rate
                     if (currentCommand==0x40)
@@ -187,9 +207,8 @@ public class LensPrototype extends LensDevice implements Clockable {
                     state = State.IDLE;
             }
             if (transferCount!=0) {
-                    // aprox 30us @156 KBps, 72us @ 96 KBps
-                    timerCount = (baudRate==FAST_BAUD_RATE ? 5 : 7);
-                masterClock.add(this, -1, true, false);
+                // aprox 30us @156 KBps, 72us @ 96 KBps
+                startTimer(baudRate==FAST_BAUD_RATE ? 5 : 7);
             }
             fMountCircuit.setPin2Value(1);
             return ch;
@@ -206,34 +225,24 @@ public class LensPrototype extends LensDevice implements Clockable {
         unpluged = true;
     }
 
+    /**
+        Assert Pin2 after the given number of periods (each one lasting the time to transfer 4 bits)
+     */
+    private void startTimer(int periods) {
+        masterClock.scheduleAfter(timerEvent, periods * MasterClock.PS_PER_SEC / baudRate);
+    }
+
     // ------------------------ Timer callback is synchron (called from same thread by design) with other methods except dispose()
-    @Override
-    public synchronized Object onClockTick() throws Exception {
+    private synchronized void onTimerEvent() {
         if (unpluged || state==State.IDLE) {
-            masterClock.remove(this);
-            return null;
+            return;
         }
-        if ( (--timerCount)>0)
-            return null;
         fMountCircuit.setPin2Value(0);
-        masterClock.remove(this);
-        return null;
-    }
-
-    @Override
-    public int getFrequencyHz() {
-        // interval for 4 bits
-        return baudRate;
-    }
-
-    @Override
-    public int getChip() {
-        return Constants.CHIP_TX;
     }
 
     private boolean testCommandAborted() {
         boolean isAbort = false;
-        final long newTime = masterClock.getTotalElapsedTimePs();
+        final long newTime = masterClock.getTimePs(Constants.CHIP_TX);
 
         // if command started
         if (state != State.IDLE) {
@@ -2,19 +2,18 @@ package com.nikonhacker.emu.peripherials.serialInterface.fr;
 
 import com.nikonhacker.Constants;
 import com.nikonhacker.Format;
-import com.nikonhacker.emu.Clockable;
+import com.nikonhacker.emu.ClockEvent;
+import com.nikonhacker.emu.MasterClock;
 import com.nikonhacker.emu.Platform;
 import com.nikonhacker.emu.peripherials.clock.fr.FrClockGenerator;
 import com.nikonhacker.emu.peripherials.interruptController.fr.FrInterruptController;
 import com.nikonhacker.emu.peripherials.serialInterface.SerialInterface;
-
-import java.util.LinkedList;
-import java.util.Queue;
+import com.nikonhacker.emu.peripherials.serialInterface.util.IntFifo;
 
 /**
  * Behaviour based on spec in http://edevice.fujitsu.com/fj/MANUAL/MANUALp/en-pdf/CM71-10147-2E.pdf
  */
-public class FrSerialInterface extends SerialInterface implements Clockable {
+public class FrSerialInterface extends SerialInterface {
     public static final int FIFO_SIZE = 128; // Spec says 16, but code splits message at 0x80
 
     public static final int SCR_TXE_MASK  = 0b0000_0001;
@@ -73,18 +72,18 @@ public class FrSerialInterface extends SerialInterface implements Clockable {
 
     // Note: SSEL89AB/RDRM/TDRM don't seem to be used in the Expeed implementation
 
-    private final Queue<Integer> fifo1Backend = new LinkedList<Integer>();
-    private final Queue<Integer> fifo2Backend = new LinkedList<Integer>();
+    private final IntFifo fifo1Backend = new IntFifo(FIFO_SIZE);
+    private final IntFifo fifo2Backend = new IntFifo(FIFO_SIZE);
 
     /**
      * FIFO1. null if disabled, otherwise = fifo1Backend
      */
-    private Queue<Integer> fifo1 = null;
+    private IntFifo fifo1 = null;
 
     /**
      * FIFO2. null if disabled, otherwise = fifo2Backend
      */
-    private Queue<Integer> fifo2 = null;
+    private IntFifo fifo2 = null;
 
     private int baudRateGenerator;
 
@@ -93,7 +92,8 @@ public class FrSerialInterface extends SerialInterface implements Clockable {
     private int rxInterruptNumber, txInterruptNumber;
     private int rxInterruptSource, txInterruptSource;
 
-    private int bitNumberBeingTransferred = 0;
+    /** Event ending the frame being transferred, created upon first transfer */
+    private ClockEvent frameEndEvent;
 
     public FrSerialInterface(int serialInterfaceNumber, Platform platform, boolean logSerialMessages) {
         super(serialInterfaceNumber, platform, logSerialMessages);
@@ -213,6 +213,8 @@ public class FrSerialInterface extends SerialInterface implements Clockable {
         }
 
         this.smr = smr;
+        // SCKE selects the clock source
+        onClockFrequencyChanged();
     }
 
     public int getSmrMode() {
@@ -337,7 +339,7 @@ public class FrSerialInterface extends SerialInterface implements Clockable {
             removeInterrupt(txInterruptNumber,txInterruptSource);
         }
 
-        Queue<Integer> txFifo = isTxFifo1()?fifo1:fifo2;
+        IntFifo txFifo = isTxFifo1()?fifo1:fifo2;
 
         // "Transmission data cannot be written to the transmission data register (TDR)
         // when the transmission data empty flag (SSR:TDRE) is set to "0"
@@ -380,28 +382,57 @@ public class FrSerialInterface extends SerialInterface implements Clockable {
     }
 
     private final int getNbTxValuesWaiting() {
-        final Queue<Integer> txFifo = isTxFifo1()?fifo1:fifo2;
+        final IntFifo txFifo = isTxFifo1()?fifo1:fifo2;
         if (txFifo == null) {
             return (isSsrTdreSet() ? 0 : 1);
         }
         return txFifo.size();
     }
 
+    /**
+     * A frame cannot be timed while the baud rate is 0, so a transfer requested at that time is only started
+     * once the baud rate or the clocks are configured
+     */
+    @Override
+    public void onClockFrequencyChanged() {
+        startTransfer();
+    }
+
     private final void startTransfer() {
         // In slave mode, we have to wait for a byte to come in and use its clock to transmit
         if (!isSlaveAndClockInputEnabled() &&
               (isScrTxeSet() && getNbTxValuesWaiting()>0)  ) {
-            // Insert delay of a few CPU cycles.
-            platform.getMasterClock().add(this, -1, true, false);
+            scheduleFrameEnd();
+        }
+    }
+
+    /**
+     * Schedules the end of the next frame, unless one is already being transferred.
+     * Values are only exchanged with the target device at the end of a frame, so there is nothing to do in between
+     */
+    private void scheduleFrameEnd() {
+        if (frameEndEvent == null) {
+            frameEndEvent = new ClockEvent(getChip(), new Runnable() {
+                @Override
+                public void run() {
+                    onFrameEnd();
+                }
+            });
+        }
+        if (!frameEndEvent.isScheduled()) {
+            int frequencyHz = getFrequencyHz();
+            if (frequencyHz > 0) {
+                MasterClock masterClock = platform.getMasterClock();
+                long frameDurationPs = getNumBits() /* TODO + start/stop/parity if UART */ * MasterClock.PS_PER_SEC / frequencyHz;
+                masterClock.schedule(frameEndEvent, masterClock.getTimePs(getChip()) + frameDurationPs);
+            }
         }
     }
 
-    @Override
     public int getChip() {
         return Constants.CHIP_FR;
     }
 
-    @Override
     public int getFrequencyHz() {
         int freq;
         if (getSmrMode()==SMR_MODE_CSIO) {
@@ -413,38 +444,29 @@ public class FrSerialInterface extends SerialInterface implements Clockable {
         return freq;
     }
     /**
-     * The goal of this is to delay the actual transfer according to the currently selected baud rate
+     * Performs the actual transfer, once the frame duration at the currently selected baud rate has elapsed
      */
-    @Override
-    public Object onClockTick() throws Exception {
-        bitNumberBeingTransferred++;
-        if (bitNumberBeingTransferred == getNumBits() /* TODO + start/stop/parity if UART */) {
-            bitNumberBeingTransferred = 0;
-
-            if (!isScrTxeSet()) {
-                // half-duplex receive (clock master)
+    private void onFrameEnd() {
+        if (!isScrTxeSet()) {
+            // half-duplex receive (clock master)
+            if (isScrRxeSet()) {
+                targetDevice.readHalfDuplex();
+                // device may stop reception automatically if FIFO was used and configured like this
                 if (isScrRxeSet()) {
-                    targetDevice.readHalfDuplex();
-                    // device may stop reception automatically if FIFO was used and configured like this
-                    if (isScrRxeSet()) {
-                        return null;
-                    }
-                }
-            } else {
-                // Transfer one byte
-                Integer value = read();
-                if (value != null) {
-                    super.valueReady(value);
-                    // device may stop transmission automatically if FIFO was used and configured like this
-                    if (isScrTxeSet()) {
-                        return null;
-                    }
+                    scheduleFrameEnd();
                 }
             }
-            // End of transmission - unregister
-            platform.getMasterClock().remove(this);
+        } else {
+            // Transfer one byte
+            int value = readValue();
+            if (value != NO_VALUE) {
+                super.valueReady(value);
+                // device may stop transmission automatically if FIFO was used and configured like this.
+                // Otherwise, go on as long as values are waiting: TDR must not be sent again once empty
+                startTransfer();
+            }
         }
-        return null;
+        // Otherwise, end of transmission
     }
 
     /**
@@ -453,7 +475,16 @@ public class FrSerialInterface extends SerialInterface implements Clockable {
      * @return 5 to 9 bits integer corresponding to a single value read by a device from this serial port
      */
     public Integer read() {
-        Queue<Integer> txFifo = isTxFifo1()?fifo1:fifo2;
+        int value = readValue();
+        return (value == NO_VALUE) ? null : value;
+    }
+
+    /**
+     * Unboxed version of read()
+     * @return the value, or NO_VALUE when read() would return null
+     */
+    private int readValue() {
+        IntFifo txFifo = isTxFifo1()?fifo1:fifo2;
 
         if (!isScrTxeSet()) {
             if (logSerialMessages) System.err.println("FrSerialInterface.read()  was called while Tx is disabled");
@@ -480,7 +511,7 @@ public class FrSerialInterface extends SerialInterface implements Clockable {
         }
         else {
             // Using FIFO for transmission
-            Integer value = txFifo.poll();
+            int value = txFifo.isEmpty() ? NO_VALUE : txFifo.poll();
 
             if (txFifo.isEmpty()) {
                 // Spec says among "FDRQ setting condition": "The transmission FIFO is empty."
@@ -523,82 +554,93 @@ public class FrSerialInterface extends SerialInterface implements Clockable {
             throw new RuntimeException("FrSerialInterface.write(null)");
         }
         else {
-            if (!isScrRxeSet()) {
-                if (logSerialMessages) System.err.println("FrSerialInterface.write(0x" + Format.asHex(value, 2) + ") was called while Rx is disabled. Ignored");
+            write(value.intValue());
+        }
+    }
+
+    @Override
+    public void write(int value) {
+        if (!isScrRxeSet()) {
+            if (logSerialMessages) System.err.println("FrSerialInterface.write(0x" + Format.asHex(value, 2) + ") was called while Rx is disabled. Ignored");
+        }
+        else {
+            IntFifo rxFifo;
+            int fbyteThreshold;
+            if (isRxFifo1()) {
+                rxFifo = fifo1;
+                fbyteThreshold = fbyte1;
             }
             else {
-                Queue<Integer> rxFifo;
-                int fbyteThreshold;
-                if (isRxFifo1()) {
-                    rxFifo = fifo1;
-                    fbyteThreshold = fbyte1;
+                rxFifo = fifo2;
+                fbyteThreshold = fbyte2;
+            }
+
+            if (rxFifo == null) {
+                // Not using FIFO for reception
+                if (isSsrRdrfSet()) {
+                    // There was already a value pending: indicate OverRun Error
+                    setSsrOre();
+
+                    // Request RX interrupt, if enabled
+                    if (isScrRieSet()) {
+                        requestInterrupt(rxInterruptNumber,rxInterruptSource);
+                    }
                 }
                 else {
-                    rxFifo = fifo2;
-                    fbyteThreshold = fbyte2;
+                    rdr = mask(value);
+
+                    signalRdrFull();
                 }
+            }
+            else {
+                // Using FIFO for reception
+                if (rxFifo.size() == FIFO_SIZE) {
+                    // FIFO is already full: OverRun Error
+                    setSsrOre();
 
-                if (rxFifo == null) {
-                    // Not using FIFO for reception
-                    if (isSsrRdrfSet()) {
-                        // There was already a value pending: indicate OverRun Error
-                        setSsrOre();
+                    // Spec says "If this flag is set during the use of the reception FIFO,
+                    // the reception FIFO enable bit will be cleared". So :
 
-                        // Request RX interrupt, if enabled
-                        if (isScrRieSet()) {
-                            requestInterrupt(rxInterruptNumber,rxInterruptSource);
-                        }
+                    // Determine which fifo is the reception one
+                    if (rxFifo == fifo1) {
+                        clearFcr0Fe1();
+                        fifo1 = null; // Disable fifo1
                     }
                     else {
-                        rdr = mask(value);
+                        clearFcr0Fe2();
+                        fifo2 = null; // Disable fifo2
+                    }
 
-                        signalRdrFull();
+                    // "A reception interrupt request is output when the ORE and RIE bits are set to "1".
+                    if (isScrRieSet()) {
+                        requestInterrupt(rxInterruptNumber,rxInterruptSource);
                     }
                 }
-                else {
-                    // Using FIFO for reception
-                    if (rxFifo.size() == FIFO_SIZE) {
-                        // FIFO is already full: OverRun Error
-                        setSsrOre();
-
-                        // Spec says "If this flag is set during the use of the reception FIFO,
-                        // the reception FIFO enable bit will be cleared". So :
-
-                        // Determine which fifo is the reception one
-                        if (rxFifo == fifo1) {
-                            clearFcr0Fe1();
-                            fifo1 = null; // Disable fifo1
-                        }
-                        else {
-                            clearFcr0Fe2();
-                            fifo2 = null; // Disable fifo2
-                        }
-
-                        // "A reception interrupt request is output when the ORE and RIE bits are set to "1".
-                        if (isScrRieSet()) {
-                            requestInterrupt(rxInterruptNumber,rxInterruptSource);
+                else  {
+                    // not full yet. Add the value
+                    rxFifo.add(mask(value));
+
+                    if (rxFifo.size() == fbyteThreshold) {
+                        // Check that it wasn't signalled as full yet
+                        // because the "== fbyte" condition could match multiple times when FIFO is read and written concurrently
+                        if (!isSsrRdrfSet()) {
+                            signalRdrFull();
                         }
                     }
-                    else  {
-                        // not full yet. Add the value
-                        rxFifo.add(mask(value));
-
-                        if (rxFifo.size() == fbyteThreshold) {
-                            // Check that it wasn't signalled as full yet
-                            // because the "== fbyte" condition could match multiple times when FIFO is read and written concurrently
-                            if (!isSsrRdrfSet()) {
-                                signalRdrFull();
-                            }
-                        }
-                        else {
-                            fifoIdleCounter = 0;
-                        }
+                    else {
+                        fifoIdleCounter = 0;
                     }
                 }
             }
-            // In slave mode, we have to send a byte when we receive one, no matter if RXE is enabled or not
-            if (isSlaveAndClockInputEnabled()) {
-                super.valueReady(read());
+        }
+        // In slave mode, we have to send a byte when we receive one, no matter if RXE is enabled or not
+        if (isSlaveAndClockInputEnabled()) {
+            int txValue = readValue();
+            if (txValue != NO_VALUE) {
+                super.valueReady(txValue);
+            }
+            else {
+                super.valueReady((Integer) null);
             }
         }
     }
@@ -619,7 +661,7 @@ public class FrSerialInterface extends SerialInterface implements Clockable {
      * @return rdr
      */
     public int getRdr() {
-        Queue<Integer> rxFifo = isRxFifo1()?fifo1:fifo2;
+        IntFifo rxFifo = isRxFifo1()?fifo1:fifo2;
 
         int value;
         synchronized (this) {
@@ -670,6 +712,7 @@ public class FrSerialInterface extends SerialInterface implements Clockable {
 
     private void updateBaudRateGenerator() {
         baudRateGenerator = ((bgr1 & 0xFF) << 8) | (bgr0 & 0xFF);
+        onClockFrequencyChanged();
     }
 
 
@@ -66,6 +66,11 @@ public class LcdDriver extends SpiSlaveDevice {
 
     @Override
     public void write(Integer value) {
+        write(value.intValue());
+    }
+
+    @Override
+    public void write(int value) {
         if (!selected) {
             throw new RuntimeException("LcdDriver.write(0x" + Format.asHex(value & 0xFF, 2) + ") called while chip is not SELECTed !");
         }
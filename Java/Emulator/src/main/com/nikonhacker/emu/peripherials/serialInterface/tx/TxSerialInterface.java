@@ -2,19 +2,18 @@ package com.nikonhacker.emu.peripherials.serialInterface.tx;
 
 import com.nikonhacker.Constants;
 import com.nikonhacker.Format;
-import com.nikonhacker.emu.Clockable;
+import com.nikonhacker.emu.ClockEvent;
+import com.nikonhacker.emu.MasterClock;
 import com.nikonhacker.emu.Platform;
 import com.nikonhacker.emu.peripherials.clock.tx.TxClockGenerator;
 import com.nikonhacker.emu.peripherials.interruptController.tx.TxInterruptController;
 import com.nikonhacker.emu.peripherials.serialInterface.SerialInterface;
-
-import java.util.LinkedList;
-import java.util.Queue;
+import com.nikonhacker.emu.peripherials.serialInterface.util.IntFifo;
 
 /**
  * Behaviour is based on Toshiba documentation TMP19A44F10XBG_TMP19A44FEXBG_en_datasheet_100401.pdf
  */
-public class TxSerialInterface extends SerialInterface implements Clockable {
+public class TxSerialInterface extends SerialInterface {
     private static final int SERIAL_RX_FIFO_SIZE = 4;
 
     public static final int EN_SIOE_MASK = 0b00000001;
@@ -84,7 +83,7 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
     /**
      * Rx FIFO
      */
-    protected Queue<Integer> rxFifo = new LinkedList<Integer>();
+    protected final IntFifo rxFifo = new IntFifo();
     protected int rxInterruptFillLevel;
 
     /**
@@ -95,10 +94,11 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
     /**
      * Tx FIFO.
      */
-    protected Queue<Integer> txFifo = new LinkedList<Integer>();
+    protected final IntFifo txFifo = new IntFifo();
     protected int txInterruptFillLevel;
 
-    private int bitNumberBeingTransferred = 0;
+    /** Event ending the frame being transferred, created upon first transfer */
+    private ClockEvent frameEndEvent;
 
     protected int en; // Enable register
     protected int cr; // Control register
@@ -148,23 +148,19 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
 //        if (en == 0) {
 //            throw new RuntimeException("Attempt to receive data from disabled " + getName());
 //        }
-        Integer poll;
-
         if (!isFcnfCnfgSet()) { // FIFO disabled
-            poll = rxBuf;
             clearMod2Rbfll();
+            return rxBuf;
         }
         else {
-            poll = rxFifo.poll();
             clearRstRor();
             // TODO signal if empty ?
+            if (rxFifo.isEmpty()) {
+//                System.err.println(getName() + " - Attempt to read from empty buffer");
+                return 0;
+            }
+            return rxFifo.poll();
         }
-
-        if (poll == null) {
-//            System.err.println(getName() + " - Attempt to read from empty buffer");
-            return 0;
-        }
-        return poll;
     }
 
     /**
@@ -206,6 +202,9 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
 
         // RB8 and error flags are not writable
         this.cr = (this.cr & 0b10011100) | (cr & 0b01100011);
+
+        // IOC selects the clock source
+        onClockFrequencyChanged();
     }
 
 
@@ -222,6 +221,10 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
             // Then start now.
             startTransfer();
         }
+        else {
+            // SC may have selected another clock source
+            onClockFrequencyChanged();
+        }
 
         if (getMod0Sm() != 0b00) {
             if (logSerialMessages) System.err.println(getName() + " is being configured as UART. Only I/O serial mode is supported for now");
@@ -249,6 +252,15 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
         }
     }
 
+    /**
+     * A frame cannot be timed while the baud rate is 0, so a transfer requested at that time is only started
+     * once the baud rate or the clocks are configured
+     */
+    @Override
+    public void onClockFrequencyChanged() {
+        startTransfer();
+    }
+
     private void startTransfer() {
         switch (getMod1Fdpx()) {
             case MOD1_FDPX_RX_MASK|MOD1_FDPX_TX_MASK:
@@ -265,9 +277,35 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
                 // if disabled or not I/O mode or not clock master then passive role
                 if (!isMod0RxeSet() || !isIoMode() || isCrIocSet())
                     return;
+                break;
+            default:
+                // Transfer prohibited
+                return;
+        }
+        scheduleFrameEnd();
+    }
+
+    /**
+     * Schedules the end of the next frame, unless one is already being transferred.
+     * Values are only exchanged with the target device at the end of a frame, so there is nothing to do in between
+     */
+    private void scheduleFrameEnd() {
+        if (frameEndEvent == null) {
+            frameEndEvent = new ClockEvent(getChip(), new Runnable() {
+                @Override
+                public void run() {
+                    onFrameEnd();
+                }
+            });
+        }
+        if (!frameEndEvent.isScheduled()) {
+            int frequencyHz = getFrequencyHz();
+            if (frequencyHz > 0) {
+                MasterClock masterClock = platform.getMasterClock();
+                long frameDurationPs = (getNumBits() + getIntervalTimeInSclk() /* TODO + start/stop/parity if UART */) * MasterClock.PS_PER_SEC / frequencyHz;
+                masterClock.schedule(frameEndEvent, masterClock.getTimePs(getChip()) + frameDurationPs);
+            }
         }
-        // Insert delay of a few CPU cycles.
-        platform.getMasterClock().add(this, -1, true, false);
     }
 
 
@@ -300,6 +338,7 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
 
     public void setBrcr(int brcr) {
         this.brcr = brcr;
+        onClockFrequencyChanged();
     }
 
 
@@ -309,6 +348,7 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
 
     public void setBradd(int bradd) {
         this.bradd = bradd & BRnADD_BRnK_MASK;
+        onClockFrequencyChanged();
     }
 
     public int getRfc() {
@@ -317,7 +357,7 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
 
     public void setRfc(int rfc) {
         if ((rfc & RFC_RFCS_MASK) != 0) {
-            rxFifo = new LinkedList<Integer>();
+            rxFifo.clear();
         }
         // TODO RFIS
         this.rfc = rfc;
@@ -336,7 +376,7 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
     public void setTfc(int tfc) {
         this.tfc = tfc;
         if (isTfcTfcsSet()) {
-            txFifo = new LinkedList<Integer>();
+            txFifo.clear();
         }
         // TODO TFIS
         computeTxFillLevel();
@@ -639,7 +679,6 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
      * Compute frequency
      * @return SIO_CLK
      */
-    @Override
     public int getFrequencyHz() {
         if (isIoMode()) {
             // I/O interface mode, clock is specified in the control register SC0CR
@@ -796,6 +835,15 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
      */
     @Override
     public Integer read() {
+        int value = readValue();
+        return (value == NO_VALUE) ? null : value;
+    }
+
+    /**
+     * Unboxed version of read()
+     * @return the value, or NO_VALUE when read() would return null
+     */
+    private int readValue() {
         if (isEnSet() && isMod1TxeSet() && isMod1FdpxTxSet()) {
             return getTxValue();
         }
@@ -809,11 +857,11 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
             else {
                 if (logSerialMessages) System.out.println("Duplex mode on " + getName() + " is " + getMod1Fdpx() + ". Returning null.");
             }
-            return null;
+            return NO_VALUE;
         }
     }
 
-    private Integer getTxValue() {
+    private int getTxValue() {
         if (!isFcnfCnfgSet()) { // FIFO disabled
             if (isMod2TbempSet()) {
                 if (logSerialMessages) System.err.println(getName() + ": TX buffer underrun");
@@ -821,7 +869,7 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
                 if (isCrIocSet()) { // Buffer underrun can normally only happen in SCLK input mode. In SCLK output mode, clock is stopped
                     setCrPerr();
                 }
-                return null;
+                return NO_VALUE;
             }
             setMod2Tbemp();
             if (isMod1FdpxTxSet()) {
@@ -836,10 +884,10 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
 //                if (isCrIocSet()) {// Buffer underrun can normally only happen in SCLK input mode. In SCLK output mode, clock is stopped
 //                    setCrPerr(); // TODO This is not explicitly specified in case of FIFO. Sounds logical but...
 //                }
-                return null;
+                return NO_VALUE;
             }
             else {
-                Integer value = txFifo.poll();
+                int value = txFifo.poll();
                 if (isTfcTfisSet()?(txFifo.size() <= txInterruptFillLevel):(txFifo.size() == txInterruptFillLevel)) {
                     if (isFcnfTfieSet()) {
                         platform.getInterruptController().request(getTxInterruptNumber());
@@ -876,19 +924,24 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
             if (logSerialMessages) System.out.println("TxSerialInterface.write(null)");
         }
         else {
-            if (isEnSet() && isMod0RxeSet() && isMod1FdpxRxSet()) {
-                queueRxValue(value);
+            write(value.intValue());
+        }
+    }
+
+    @Override
+    public void write(int value) {
+        if (isEnSet() && isMod0RxeSet() && isMod1FdpxRxSet()) {
+            queueRxValue(value);
+        }
+        else {
+            if (!isEnSet()) {
+                if (logSerialMessages) System.out.println(getName() + " is disabled. Value 0x" + Format.asHex(value, 2) + " is ignored.");
+            }
+            else if (!isMod0RxeSet()) {
+                if (logSerialMessages) System.out.println("RX is disabled on " + getName() + ". Value 0x" + Format.asHex(value, 2) + " is ignored.");
             }
             else {
-                if (!isEnSet()) {
-                    if (logSerialMessages) System.out.println(getName() + " is disabled. Value 0x" + Format.asHex(value, 2) + " is ignored.");
-                }
-                else if (!isMod0RxeSet()) {
-                    if (logSerialMessages) System.out.println("RX is disabled on " + getName() + ". Value 0x" + Format.asHex(value, 2) + " is ignored.");
-                }
-                else {
-                    if (logSerialMessages) System.out.println("Duplex mode on " + getName() + " is " + getMod1Fdpx() + ". Value 0x" + Format.asHex(value, 2) + " is ignored.");
-                }
+                if (logSerialMessages) System.out.println("Duplex mode on " + getName() + " is " + getMod1Fdpx() + ". Value 0x" + Format.asHex(value, 2) + " is ignored.");
             }
         }
     }
@@ -993,43 +1046,34 @@ public class TxSerialInterface extends SerialInterface implements Clockable {
     }
 
 
-    @Override
     public int getChip() {
         return Constants.CHIP_TX;
     }
 
     /**
-     * The goal of this is to delay the actual transfer according to the currently selected baud rate
+     * Performs the actual transfer, once the frame duration at the currently selected baud rate has elapsed
      */
-    @Override
-    public Object onClockTick() throws Exception {
-        bitNumberBeingTransferred++;
-        if (bitNumberBeingTransferred == getNumBits() + getIntervalTimeInSclk() /* TODO + start/stop/parity if UART */) {
-            bitNumberBeingTransferred = 0;
-
-            if (getMod1Fdpx()==MOD1_FDPX_RX_MASK) {
-                // half-duplex receive (clock master)
-                if (isEnSet() && isMod0RxeSet()) {
-                    targetDevice.readHalfDuplex();
-                    // device may stop reception automatically if FIFO was used and configured like this
-                    if (isMod0RxeSet()) {
-                        return null;
-                    }
+    private void onFrameEnd() {
+        if (getMod1Fdpx()==MOD1_FDPX_RX_MASK) {
+            // half-duplex receive (clock master)
+            if (isEnSet() && isMod0RxeSet()) {
+                targetDevice.readHalfDuplex();
+                // device may stop reception automatically if FIFO was used and configured like this
+                if (isMod0RxeSet()) {
+                    scheduleFrameEnd();
                 }
-            } else {
-                // Transfer one byte
-                Integer value = read();
-                if (value != null) {
-                    super.valueReady(value);
-                    // device may stop transmission automatically if FIFO was used and configured like this
-                    if (isMod1TxeSet()) {
-                        return null;
-                    }
+            }
+        } else {
+            // Transfer one byte
+            int value = readValue();
+            if (value != NO_VALUE) {
+                super.valueReady(value);
+                // device may stop transmission automatically if FIFO was used and configured like this
+                if (isMod1TxeSet()) {
+                    scheduleFrameEnd();
                 }
             }
-            // End of transmission - unregister
-            platform.getMasterClock().remove(this);
         }
-        return null;
+        // Otherwise, end of transmission
     }
 }
@@ -0,0 +1,64 @@
+package com.nikonhacker.emu.peripherials.serialInterface.util;
+
+import com.nikonhacker.emu.MasterClock;
+import com.nikonhacker.emu.peripherials.serialInterface.SerialDevice;
+
+/**
+ * This wire connects serial devices belonging to different chips.
+ * When the MasterClock runs chips in separate threads, values are not passed directly to the target device
+ * but posted as cross-chip actions, so that they are delivered at the next synchronization point, while both
+ * chips are paused. Otherwise, it behaves like a plain SerialWire.
+ */
+public class ClockSyncSerialWire extends SerialWire {
+    private MasterClock masterClock;
+
+    public ClockSyncSerialWire(String wireName, SerialDevice realTargetDevice, MasterClock masterClock) {
+        super(wireName, realTargetDevice);
+        this.masterClock = masterClock;
+    }
+
+    @Override
+    public void write(final Integer value) {
+        if (masterClock.isRunningMultiThreaded()) {
+            masterClock.postCrossChipAction(new Runnable() {
+                @Override
+                public void run() {
+                    targetDevice.write(value);
+                }
+            });
+        }
+        else {
+            targetDevice.write(value);
+        }
+    }
+
+    @Override
+    public void write(final int value) {
+        if (masterClock.isRunningMultiThreaded()) {
+            masterClock.postCrossChipAction(new Runnable() {
+                @Override
+                public void run() {
+                    targetDevice.write(value);
+                }
+            });
+        }
+        else {
+            targetDevice.write(value);
+        }
+    }
+
+    @Override
+    public void readHalfDuplex() {
+        if (masterClock.isRunningMultiThreaded()) {
+            masterClock.postCrossChipAction(new Runnable() {
+                @Override
+                public void run() {
+                    targetDevice.readHalfDuplex();
+                }
+            });
+        }
+        else {
+            targetDevice.readHalfDuplex();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.nikonhacker.emu.peripherials.serialInterface.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A first-in first-out queue of int values, stored in a ring buffer.
+ * Unlike a Queue&lt;Integer&gt;, adding and removing values does not box them nor allocate list nodes, so that
+ * serial interfaces produce no garbage, whatever the traffic.
+ * The buffer grows if more values are added than its capacity. Callers emulating a hardware FIFO are expected to
+ * check its size against their own limit before adding.
+ * This class is not thread safe.
+ */
+public class IntFifo {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] values;
+    /** Index of the oldest value */
+    private int head;
+    private int size;
+
+    public IntFifo() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the initial number of values that can be stored without growing the buffer
+     */
+    public IntFifo(int capacity) {
+        values = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * Adds a value at the tail of the fifo
+     */
+    public void add(int value) {
+        if (size == values.length) {
+            grow();
+        }
+        int tail = head + size;
+        if (tail >= values.length) {
+            tail -= values.length;
+        }
+        values[tail] = value;
+        size++;
+    }
+
+    /**
+     * Removes the value at the head of the fifo
+     * @return the removed value
+     * @throws NoSuchElementException if the fifo is empty
+     */
+    public int poll() {
+        if (size == 0) {
+            throw new NoSuchElementException("Fifo is empty");
+        }
+        int value = values[head];
+        head++;
+        if (head == values.length) {
+            head = 0;
+        }
+        size--;
+        return value;
+    }
+
+    /**
+     * @return the value at the head of the fifo, without removing it
+     * @throws NoSuchElementException if the fifo is empty
+     */
+    public int peek() {
+        if (size == 0) {
+            throw new NoSuchElementException("Fifo is empty");
+        }
+        return values[head];
+    }
+
+    /**
+     * @param index position of the value, 0 being the head
+     * @return the value at that position, without removing it
+     * @throws IndexOutOfBoundsException if there is no value at that position
+     */
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        int position = head + index;
+        if (position >= values.length) {
+            position -= values.length;
+        }
+        return values[position];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all values. The buffer is kept
+     */
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private void grow() {
+        int[] newValues = new int[values.length * 2];
+        int firstPartLength = Math.min(size, values.length - head);
+        System.arraycopy(values, head, newValues, 0, firstPartLength);
+        System.arraycopy(values, 0, newValues, firstPartLength, size - firstPartLength);
+        values = newValues;
+        head = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(values[(head + i) % values.length]);
+        }
+        return builder.append(']').toString();
+    }
+}
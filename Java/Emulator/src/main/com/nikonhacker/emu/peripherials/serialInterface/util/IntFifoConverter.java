@@ -0,0 +1,64 @@
+package com.nikonhacker.emu.peripherials.serialInterface.util;
+
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+
+import java.util.LinkedList;
+
+/**
+ * Stores an IntFifo as the list of its values, head first.
+ * This is the layout XStream uses for a LinkedList&lt;Integer&gt;, so that fifos of states saved when serial
+ * interfaces still used such lists can be read too, using a converter accepting LinkedLists registered as local
+ * converter for those fields (the class attribute of the older states would otherwise select the collection
+ * converter).
+ */
+public class IntFifoConverter implements Converter {
+    private static final String VALUE_NODE_NAME = "int";
+    private static final String NULL_NODE_NAME  = "null";
+
+    private final boolean acceptLinkedLists;
+
+    public IntFifoConverter() {
+        this(false);
+    }
+
+    /**
+     * @param acceptLinkedLists if true, LinkedLists stored by older states are read as IntFifos.
+     *                          Such a converter must only be registered as local converter
+     */
+    public IntFifoConverter(boolean acceptLinkedLists) {
+        this.acceptLinkedLists = acceptLinkedLists;
+    }
+
+    @Override
+    public boolean canConvert(Class type) {
+        return type == IntFifo.class || (acceptLinkedLists && type == LinkedList.class);
+    }
+
+    @Override
+    public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+        IntFifo fifo = (IntFifo) source;
+        for (int i = 0; i < fifo.size(); i++) {
+            writer.startNode(VALUE_NODE_NAME);
+            writer.setValue(Integer.toString(fifo.get(i)));
+            writer.endNode();
+        }
+    }
+
+    @Override
+    public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+        IntFifo fifo = new IntFifo();
+        while (reader.hasMoreChildren()) {
+            reader.moveDown();
+            // Lists of older states could contain nulls, which carry no data
+            if (!NULL_NODE_NAME.equals(reader.getNodeName())) {
+                fifo.add(Integer.parseInt(reader.getValue()));
+            }
+            reader.moveUp();
+        }
+        return fifo;
+    }
+}
@@ -20,6 +20,12 @@ public class PrintWriterLoggerSerialWire extends SerialWire {
         super.write(value);
     }
 
+    @Override
+    public void write(int value) {
+        printWriter.write(Format.asHex(value & mask, 2) + " ");
+        super.write(value);
+    }
+
     @Override
     public void onBitNumberChange(SerialDevice serialDevice, int numBits) {
         mask = (1 << numBits) - 1;
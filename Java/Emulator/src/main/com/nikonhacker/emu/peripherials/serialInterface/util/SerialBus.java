@@ -103,6 +103,14 @@ public class SerialBus {
             }
         }
 
+        @Override
+        public void write(int value) {
+            // Indexed loop, so that no Iterator is allocated
+            for (int i = 0; i < internalSlavePartners.size(); i++) {
+                internalSlavePartners.get(i).reverseWrite(value);
+            }
+        }
+
         @Override
         public void onBitNumberChange(SerialDevice serialDevice, int numBits) {
             System.out.println("SerialTee$InternalAPartner.onBitNumberChange");
@@ -111,6 +119,10 @@ public class SerialBus {
         public void reverseWrite(Integer value) {
             targetDevice.write(value);
         }
+
+        public void reverseWrite(int value) {
+            targetDevice.write(value);
+        }
     }
 
     /**
@@ -130,6 +142,11 @@ public class SerialBus {
             internalMasterPartner.reverseWrite(value);
         }
 
+        @Override
+        public void write(int value) {
+            internalMasterPartner.reverseWrite(value);
+        }
+
         @Override
         public void onBitNumberChange(SerialDevice serialDevice, int numBits) {
             System.out.println("SerialTee$InternalBPartner.onBitNumberChange");
@@ -138,5 +155,9 @@ public class SerialBus {
         public void reverseWrite(Integer value) {
             targetDevice.write(value);
         }
+
+        public void reverseWrite(int value) {
+            targetDevice.write(value);
+        }
     }
 }
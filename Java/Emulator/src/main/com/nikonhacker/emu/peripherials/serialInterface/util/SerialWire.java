@@ -21,6 +21,11 @@ public class SerialWire extends SerialDevice {
         targetDevice.write(value);
     }
 
+    @Override
+    public void write(int value) {
+        targetDevice.write(value);
+    }
+
     @Override
     public void readHalfDuplex() {
         targetDevice.readHalfDuplex();
@@ -4,9 +4,6 @@ import com.nikonhacker.Format;
 import com.nikonhacker.emu.peripherials.serialInterface.SerialDevice;
 import com.nikonhacker.emu.peripherials.serialInterface.SpiSlaveDevice;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * This is a special version of SerialBus to simulate a SPI bus with one master and several slaves
  * The change is that it uses a special master partner that checks that exactly one slave device is selected and only
@@ -28,24 +25,33 @@ public class SpiBus extends SerialBus {
     private class InternalMasterSpiSlavePartner extends InternalMasterPartner {
         @Override
         public void write(Integer value) {
-            // List selected devices
-            List<InternalSlavePartner> partnersOfSelectedSlaves = new ArrayList<>();
-            for (InternalSlavePartner internalSlavePartner : internalSlavePartners) {
+            write(value.intValue());
+        }
+
+        @Override
+        public void write(int value) {
+            // Write if exactly one device is selected, otherwise warn
+            InternalSlavePartner partnerOfSelectedSlave = null;
+            int numSelectedSlaves = 0;
+            for (int i = 0; i < internalSlavePartners.size(); i++) {
+                InternalSlavePartner internalSlavePartner = internalSlavePartners.get(i);
                 if (((SpiSlaveDevice) internalSlavePartner.getTargetDevice()).isSelected()) {
-                    partnersOfSelectedSlaves.add(internalSlavePartner);
+                    partnerOfSelectedSlave = internalSlavePartner;
+                    numSelectedSlaves++;
                 }
             }
-            // Write if exactly one, otherwise warn
-            switch (partnersOfSelectedSlaves.size()) {
+            switch (numSelectedSlaves) {
                 case 0:
                     throw new RuntimeException("Tring to write serial value 0x" + Format.asHex(value, 2) + " while no slave device is selected !");
                 case 1:
-                    partnersOfSelectedSlaves.get(0).reverseWrite(value);
+                    partnerOfSelectedSlave.reverseWrite(value);
                     break;
                 default:
                     String msg="";
-                    for (InternalSlavePartner partnerOfSelectedSlaves : partnersOfSelectedSlaves) {
-                        msg += partnerOfSelectedSlaves.getTargetDevice() + " ";
+                    for (InternalSlavePartner internalSlavePartner : internalSlavePartners) {
+                        if (((SpiSlaveDevice) internalSlavePartner.getTargetDevice()).isSelected()) {
+                            msg += internalSlavePartner.getTargetDevice() + " ";
+                        }
                     }
                     throw new RuntimeException("Tring to write serial value 0x" + Format.asHex(value, 2) + " while more than slave device is selected (" + msg.trim() + ")!");
             }
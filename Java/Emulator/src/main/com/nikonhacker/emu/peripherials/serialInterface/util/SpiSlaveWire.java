@@ -22,6 +22,11 @@ public class SpiSlaveWire extends SpiSlaveDevice {
         targetDevice.write(value);
     }
 
+    @Override
+    public void write(int value) {
+        targetDevice.write(value);
+    }
+
     @Override
     public void onBitNumberChange(SerialDevice serialDevice, int numBits) {
         // Do nothing
@@ -0,0 +1,150 @@
+package com.nikonhacker.emu.trace;
+
+import com.nikonhacker.disassembly.CPUState;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class records executed instructions to a compact binary file, as a much faster alternative to the
+ * text output of DisassemblyLogger. Nothing is formatted or disassembled during emulation: a trace can be turned
+ * into text afterwards using ExecutionTraceRenderer, possibly limited to the interesting parts.
+ *
+ * File format (big endian):
+ * <ul>
+ *     <li>Header: int MAGIC, short VERSION, byte chip, byte flags (FLAG_REGISTERS)</li>
+ *     <li>Then a sequence of records, starting with a type byte:
+ *     <ul>
+ *         <li>RECORD_STATEMENT: long timestamp (ps), int pc (including ISA mode in bit 0).
+ *         If FLAG_REGISTERS is set, followed by a long mask of the registers that changed since the previous
+ *         statement, and an int value for each of them, by increasing register number</li>
+ *         <li>RECORD_INTERRUPT: long timestamp (ps), int interrupt number</li>
+ *     </ul></li>
+ * </ul>
+ */
+public class ExecutionTraceRecorder {
+    public static final int   MAGIC   = 0x4E485452; // "NHTR"
+    public static final short VERSION = 1;
+
+    public static final byte FLAG_REGISTERS = 1;
+
+    public static final byte RECORD_STATEMENT = 0;
+    public static final byte RECORD_INTERRUPT = 1;
+
+    /** Maximum number of registers that can be tracked, as changes are recorded in a long mask */
+    public static final int MAX_REGISTERS = 64;
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    /** Largest possible record: type, timestamp, pc, mask, and all registers */
+    private static final int MAX_RECORD_SIZE = 1 + 8 + 4 + 8 + 4 * MAX_REGISTERS;
+
+    private final FileChannel channel;
+    private final ByteBuffer  buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final boolean     recordRegisters;
+
+    /** Set once closed. Records can still be attempted afterwards by the emulator thread, and are ignored */
+    private boolean closed;
+
+    /** Register values as of last recorded statement, or null if none was recorded yet */
+    private int[] lastRegisterValues;
+
+    /**
+     * @param file the file to write the trace to. It is overwritten if it exists
+     * @param chip the chip being traced, as defined in Constants
+     * @param recordRegisters if true, register changes are recorded alongside each statement
+     */
+    public ExecutionTraceRecorder(File file, int chip, boolean recordRegisters) throws IOException {
+        this.channel = new FileOutputStream(file).getChannel();
+        this.recordRegisters = recordRegisters;
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.put((byte) chip);
+        buffer.put(recordRegisters ? FLAG_REGISTERS : 0);
+    }
+
+    /**
+     * Record the statement about to be executed
+     * @param timestampPs the current MasterClock time
+     * @param cpuState the CPU state before execution
+     */
+    public synchronized void recordStatement(long timestampPs, CPUState cpuState) throws IOException {
+        if (closed) {
+            return;
+        }
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            flush();
+        }
+        buffer.put(RECORD_STATEMENT);
+        buffer.putLong(timestampPs);
+        buffer.putInt(cpuState.getPc());
+        if (recordRegisters) {
+            int numRegisters = Math.min(cpuState.getNumStdRegisters(), MAX_REGISTERS);
+            if (lastRegisterValues == null) {
+                lastRegisterValues = new int[numRegisters];
+                // First statement: record all registers
+                buffer.putLong(numRegisters == MAX_REGISTERS ? -1L : (1L << numRegisters) - 1);
+                for (int i = 0; i < numRegisters; i++) {
+                    lastRegisterValues[i] = cpuState.getReg(i);
+                    buffer.putInt(lastRegisterValues[i]);
+                }
+            }
+            else {
+                // Reserve room for the mask, and fill it once changes are known
+                int maskPosition = buffer.position();
+                buffer.putLong(0);
+                long mask = 0;
+                for (int i = 0; i < numRegisters; i++) {
+                    int value = cpuState.getReg(i);
+                    if (value != lastRegisterValues[i]) {
+                        mask |= 1L << i;
+                        lastRegisterValues[i] = value;
+                        buffer.putInt(value);
+                    }
+                }
+                buffer.putLong(maskPosition, mask);
+            }
+        }
+    }
+
+    /**
+     * Record the acceptance of an interrupt
+     * @param timestampPs the current MasterClock time
+     * @param interruptNumber the number of the accepted interrupt
+     */
+    public synchronized void recordInterrupt(long timestampPs, int interruptNumber) throws IOException {
+        if (closed) {
+            return;
+        }
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            flush();
+        }
+        buffer.put(RECORD_INTERRUPT);
+        buffer.putLong(timestampPs);
+        buffer.putInt(interruptNumber);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Flush pending records and close the file. May be called from another thread than the emulator's
+     */
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
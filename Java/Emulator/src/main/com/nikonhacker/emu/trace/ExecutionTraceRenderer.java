@@ -0,0 +1,293 @@
+package com.nikonhacker.emu.trace;
+
+import com.nikonhacker.Constants;
+import com.nikonhacker.Format;
+import com.nikonhacker.disassembly.*;
+import com.nikonhacker.disassembly.fr.Dfr;
+import com.nikonhacker.disassembly.tx.Dtx;
+import com.nikonhacker.emu.AddressRange;
+import com.nikonhacker.emu.MasterClock;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.DecimalFormat;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class turns a binary trace written by ExecutionTraceRecorder into the text format of DisassemblyLogger.
+ * Statements are not decoded from the trace: they are taken from a CodeStructure built beforehand by
+ * disassembling the firmware, so they only have their statically disassembled operands.
+ * Output can be limited to a time window and to PC ranges, so that only the interesting part of a long
+ * trace gets rendered.
+ */
+public class ExecutionTraceRenderer {
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final CodeStructure     codeStructure;
+    private final Set<OutputOption> outputOptions;
+
+    private boolean includeTimestamp      = true;
+    private boolean includeIndent         = true;
+    private boolean includeInstruction    = true;
+    private boolean includeInterruptMarks = true;
+    private boolean includeRegisters      = false;
+
+    private long               startTimePs = 0;
+    private long               endTimePs   = Long.MAX_VALUE;
+    /** by convention, null means no filtering */
+    private List<AddressRange> ranges;
+
+    private DecimalFormat milliSecondFormatter = new DecimalFormat("0000.000000000");
+
+    private String prefix = "";
+
+    public ExecutionTraceRenderer(CodeStructure codeStructure, Set<OutputOption> outputOptions) {
+        this.codeStructure = codeStructure;
+        this.outputOptions = outputOptions;
+    }
+
+    public void setIncludeTimestamp(boolean includeTimestamp) {
+        this.includeTimestamp = includeTimestamp;
+    }
+
+    public void setIncludeIndent(boolean includeIndent) {
+        this.includeIndent = includeIndent;
+    }
+
+    public void setIncludeInstruction(boolean includeInstruction) {
+        this.includeInstruction = includeInstruction;
+    }
+
+    public void setIncludeInterruptMarks(boolean includeInterruptMarks) {
+        this.includeInterruptMarks = includeInterruptMarks;
+    }
+
+    public void setIncludeRegisters(boolean includeRegisters) {
+        this.includeRegisters = includeRegisters;
+    }
+
+    /**
+     * Only render records in the given time window
+     */
+    public void setTimeWindow(long startTimePs, long endTimePs) {
+        this.startTimePs = startTimePs;
+        this.endTimePs = endTimePs;
+    }
+
+    /**
+     * Set ranges
+     * @param ranges by convention, null means no filtering
+     */
+    public void setRanges(List<AddressRange> ranges) {
+        this.ranges = ranges;
+    }
+
+    /**
+     * Read the chip a trace was recorded for
+     * @return the chip, as defined in Constants
+     */
+    public static int readChip(File traceFile) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(traceFile))) {
+            checkHeader(dis.readInt(), dis.readShort());
+            return dis.readByte();
+        }
+    }
+
+    private static void checkHeader(int magic, short version) throws IOException {
+        if (magic != ExecutionTraceRecorder.MAGIC) {
+            throw new IOException("Not an execution trace");
+        }
+        if (version != ExecutionTraceRecorder.VERSION) {
+            throw new IOException("Unsupported execution trace version " + version);
+        }
+    }
+
+    public void render(File traceFile, Writer writer) throws IOException {
+        prefix = "";
+        try (FileChannel channel = new FileInputStream(traceFile).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.flip();
+            if (!fill(channel, buffer, 8)) {
+                throw new IOException("Truncated execution trace");
+            }
+            checkHeader(buffer.getInt(), buffer.getShort());
+            buffer.get(); // chip
+            boolean hasRegisters = (buffer.get() & ExecutionTraceRecorder.FLAG_REGISTERS) != 0;
+            int[] registerValues = new int[ExecutionTraceRecorder.MAX_REGISTERS];
+            String[] registerLabels = codeStructure.getRegisterLabels();
+
+            while (fill(channel, buffer, 13)) {
+                byte type = buffer.get();
+                long timestampPs = buffer.getLong();
+                int value = buffer.getInt();
+                boolean inWindow = timestampPs >= startTimePs && timestampPs <= endTimePs;
+                switch (type) {
+                    case ExecutionTraceRecorder.RECORD_STATEMENT:
+                        long mask = 0;
+                        if (hasRegisters) {
+                            if (!fill(channel, buffer, 8)) {
+                                throw new IOException("Truncated execution trace");
+                            }
+                            mask = buffer.getLong();
+                            if (!fill(channel, buffer, 4 * Long.bitCount(mask))) {
+                                throw new IOException("Truncated execution trace");
+                            }
+                            for (int i = 0; i < ExecutionTraceRecorder.MAX_REGISTERS; i++) {
+                                if ((mask & (1L << i)) != 0) {
+                                    registerValues[i] = buffer.getInt();
+                                }
+                            }
+                        }
+                        if (inWindow && mustRender(value)) {
+                            renderStatement(writer, timestampPs, value, mask, registerValues, registerLabels);
+                        }
+                        break;
+                    case ExecutionTraceRecorder.RECORD_INTERRUPT:
+                        if (inWindow) {
+                            if (includeInterruptMarks) {
+                                writer.write(formatTimestamp(timestampPs) + " ------------------------- Accepting interrupt 0x" + Format.asHex(value, 2) + System.lineSeparator());
+                            }
+                            indent();
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown record type " + type + " in execution trace");
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    private boolean mustRender(int pc) {
+        if (ranges == null) return true;
+
+        for (AddressRange range : ranges) {
+            if (range.includes(pc & CodeStructure.IGNORE_ISA_BIT)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void renderStatement(Writer writer, long timestampPs, int pc, long mask, int[] registerValues, String[] registerLabels) throws IOException {
+        int address = pc & CodeStructure.IGNORE_ISA_BIT;
+        Statement statement = codeStructure.getStatement(address);
+        StringBuilder msg = new StringBuilder();
+        if (includeTimestamp) {
+            msg.append(formatTimestamp(timestampPs)).append(" ");
+        }
+        msg.append("0x").append(Format.asHex(address, 8));
+
+        if (includeIndent) {
+            msg.append(prefix);
+            if (statement != null) {
+                switch (statement.getInstruction().getFlowType()) {
+                    case CALL:
+                    case INT:
+                        indent();
+                        break;
+                    case RET:
+                        outdent(writer);
+                        break;
+                }
+            }
+        }
+
+        if (includeInstruction) {
+            if (statement == null) {
+                msg.append(" ; not in code structure");
+            }
+            else {
+                msg.append(" ").append(statement.toString(outputOptions));
+            }
+        }
+
+        if (includeRegisters && mask != 0) {
+            msg.append(" ;");
+            for (int i = 0; i < ExecutionTraceRecorder.MAX_REGISTERS; i++) {
+                if ((mask & (1L << i)) != 0) {
+                    msg.append(" ").append((registerLabels != null && i < registerLabels.length) ? registerLabels[i] : ("r" + i)).append("=0x").append(Format.asHex(registerValues[i], 8));
+                }
+            }
+        }
+        writer.write(msg.toString() + System.lineSeparator());
+    }
+
+    private String formatTimestamp(long timestampPs) {
+        return milliSecondFormatter.format(timestampPs / (double) MasterClock.PS_PER_MS) + "ms";
+    }
+
+    private void indent() {
+        if (includeIndent) {
+            prefix += "  ";
+        }
+    }
+
+    private void outdent(Writer writer) throws IOException {
+        if (prefix.length() > 1) {
+            prefix = prefix.substring(0, prefix.length() - 2);
+        }
+        else {
+            writer.write("<< requested outdent cannot be honored" + System.lineSeparator());
+        }
+    }
+
+    /**
+     * Make sure the buffer has at least the given number of bytes remaining, reading more from the channel if needed
+     * @return false if the end of the channel was reached before
+     */
+    private static boolean fill(FileChannel channel, ByteBuffer buffer, int numBytes) throws IOException {
+        if (buffer.remaining() >= numBytes) {
+            return true;
+        }
+        buffer.compact();
+        while (buffer.position() < numBytes) {
+            if (channel.read(buffer) < 0) {
+                buffer.flip();
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage ExecutionTraceRenderer <trace file> <disassembler options file> <firmware file> [<output file>]");
+            System.err.println(" e.g. ExecutionTraceRenderer FR_boot.trace b960002.dfr.txt b960002.bin boot.log");
+            System.exit(1);
+        }
+        try {
+            File traceFile = new File(args[0]);
+            int chip = readChip(traceFile);
+            Disassembler disassembler;
+            if (chip == Constants.CHIP_FR) {
+                disassembler = new Dfr();
+            }
+            else {
+                disassembler = new Dtx();
+            }
+            disassembler.setOutputFileName(null);
+            disassembler.setInputFileName(args[2]);
+            disassembler.readOptions(args[1]);
+            Set<OutputOption> outputOptions = EnumSet.copyOf(disassembler.outputOptions);
+            outputOptions.add(OutputOption.STRUCTURE);
+            disassembler.setOutputOptions(outputOptions);
+            disassembler.initialize();
+            CodeStructure codeStructure = disassembler.disassembleMemRanges();
+            disassembler.cleanup();
+            disassembler.closeDebugPrintWriter();
+
+            ExecutionTraceRenderer renderer = new ExecutionTraceRenderer(codeStructure, outputOptions);
+            Writer writer = (args.length > 3) ? new BufferedWriter(new FileWriter(args[3])) : new PrintWriter(System.out);
+            renderer.render(traceFile, writer);
+            writer.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -19,9 +19,11 @@ import com.nikonhacker.disassembly.fr.Dfr;
 import com.nikonhacker.disassembly.fr.FrCPUState;
 import com.nikonhacker.disassembly.tx.Dtx;
 import com.nikonhacker.disassembly.tx.TxCPUState;
+import com.nikonhacker.emu.CheckpointManager;
 import com.nikonhacker.emu.ClockableCallbackHandler;
 import com.nikonhacker.emu.EmulationException;
 import com.nikonhacker.emu.EmulationFramework;
+import com.nikonhacker.emu.MasterClock;
 import com.nikonhacker.emu.memory.DebuggableMemory;
 import com.nikonhacker.emu.memory.Memory;
 import com.nikonhacker.emu.memory.listener.TrackingMemoryActivityListener;
@@ -81,6 +83,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.text.DecimalFormat;
 import java.util.*;
 import java.util.List;
 
@@ -124,6 +127,8 @@ public class EmulatorUI extends JFrame implements ActionListener {
     private static final String COMMAND_DECODE_NKLD                  = "DECODE_NKLD";
     private static final String COMMAND_LOAD_STATE                   = "LOAD_STATE";
     private static final String COMMAND_SAVE_STATE                   = "SAVE_STATE";
+    private static final String COMMAND_SAVE_DELTA_STATE             = "SAVE_DELTA_STATE";
+    private static final String COMMAND_REWIND                       = "REWIND";
     private static final String COMMAND_QUIT                         = "QUIT";
     private static final String COMMAND_ABOUT                        = "ABOUT";
     private static final String COMMAND_TEST                         = "TEST";
@@ -855,12 +860,25 @@ public class EmulatorUI extends JFrame implements ActionListener {
         tmpMenuItem.addActionListener(this);
         fileMenu.add(tmpMenuItem);
 
+        //Save delta state
+        tmpMenuItem = new JMenuItem("Save delta state");
+        tmpMenuItem.setToolTipText("Only save memory modified since last full state was saved or loaded");
+        tmpMenuItem.setActionCommand(COMMAND_SAVE_DELTA_STATE);
+        tmpMenuItem.addActionListener(this);
+        fileMenu.add(tmpMenuItem);
+
         //Load state
         tmpMenuItem = new JMenuItem("Load state");
         tmpMenuItem.setActionCommand(COMMAND_LOAD_STATE);
         tmpMenuItem.addActionListener(this);
         fileMenu.add(tmpMenuItem);
 
+        //Rewind
+        tmpMenuItem = new JMenuItem("Rewind to checkpoint...");
+        tmpMenuItem.setActionCommand(COMMAND_REWIND);
+        tmpMenuItem.addActionListener(this);
+        fileMenu.add(tmpMenuItem);
+
         fileMenu.add(new JSeparator());
 
         //quit
@@ -1156,6 +1174,48 @@ public class EmulatorUI extends JFrame implements ActionListener {
             }
         });
         menuBar.add(syncEmulators);
+
+        // Global clock scheduling setting
+        final JCheckBox eventQueueScheduling = new JCheckBox("Event-driven clock");
+        eventQueueScheduling.setToolTipText("If checked, each device is clocked at its exact frequency using an event queue, instead of a step table that can get huge or unprecise when frequencies are very different");
+        eventQueueScheduling.setSelected(prefs.isEventQueueScheduling());
+        framework.getMasterClock().setEventQueueScheduling(prefs.isEventQueueScheduling());
+        eventQueueScheduling.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                prefs.setEventQueueScheduling(eventQueueScheduling.isSelected());
+                framework.getMasterClock().setEventQueueScheduling(eventQueueScheduling.isSelected());
+            }
+        });
+        menuBar.add(eventQueueScheduling);
+
+        // Global multi-threading setting
+        final JCheckBox multiThreadedClock = new JCheckBox("Run chips in parallel");
+        multiThreadedClock.setToolTipText("If checked, each chip runs in its own thread. Chips are synchronized at intervals set in Preferences, and when they exchange serial data. Takes effect on next start");
+        multiThreadedClock.setSelected(prefs.isMultiThreadedClock());
+        framework.getMasterClock().setMultiThreadQuantumPs(prefs.getMultiThreadQuantumPs());
+        multiThreadedClock.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                prefs.setMultiThreadedClock(multiThreadedClock.isSelected());
+                framework.getMasterClock().setMultiThreadQuantumPs(prefs.getMultiThreadQuantumPs());
+            }
+        });
+        menuBar.add(multiThreadedClock);
+
+        // Global timer clocking setting
+        final JCheckBox eventDrivenTimers = new JCheckBox("Event-driven timers");
+        eventDrivenTimers.setToolTipText("If checked, programmable timers only schedule their next match, overflow or underflow instead of being clocked at each tick. Takes effect when a timer is started");
+        eventDrivenTimers.setSelected(prefs.isEventDrivenTimers());
+        framework.getMasterClock().setEventDrivenTimers(prefs.isEventDrivenTimers());
+        eventDrivenTimers.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                prefs.setEventDrivenTimers(eventDrivenTimers.isSelected());
+                framework.getMasterClock().setEventDrivenTimers(eventDrivenTimers.isSelected());
+            }
+        });
+        menuBar.add(eventDrivenTimers);
         return menuBar;
     }
 
@@ -1272,7 +1332,13 @@ public class EmulatorUI extends JFrame implements ActionListener {
             loadState();
         }
         else if (COMMAND_SAVE_STATE.equals(e.getActionCommand())) {
-            saveState();
+            saveState(false);
+        }
+        else if (COMMAND_SAVE_DELTA_STATE.equals(e.getActionCommand())) {
+            saveState(true);
+        }
+        else if (COMMAND_REWIND.equals(e.getActionCommand())) {
+            rewind();
         }
         else if (COMMAND_TOGGLE_SCREEN_EMULATOR.equals(e.getActionCommand())) {
             toggleScreenEmulator();
@@ -1436,6 +1502,10 @@ public class EmulatorUI extends JFrame implements ActionListener {
                     framework = EmulationFramework.load(source, prefs);
                     framework.setupCallbacks(getCallbackHandler(0), getCallbackHandler(1));
                     framework.getMasterClock().setSyncPlay(prefs.isSyncPlay());
+                    framework.getMasterClock().setEventQueueScheduling(prefs.isEventQueueScheduling());
+                    framework.getMasterClock().setMultiThreadQuantumPs(prefs.getMultiThreadQuantumPs());
+                    framework.getMasterClock().setEventDrivenTimers(prefs.isEventDrivenTimers());
+                    framework.setCheckpointInterval(prefs.getCheckpointIntervalMs(), prefs.getMaxCheckpoints());
                     setTitle(ApplicationInfo.getNameVersion() + " - Loaded " + source);
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -1447,11 +1517,18 @@ public class EmulatorUI extends JFrame implements ActionListener {
         }
     }
 
-    private void saveState() {
+    /**
+     * @param delta if true, only memory pages modified since last full state was saved or loaded are saved
+     */
+    private void saveState(boolean delta) {
         if (framework.isEmulatorPlaying(Constants.CHIP_TX) || framework.isEmulatorPlaying(Constants.CHIP_FR)){
             JOptionPane.showMessageDialog(this, "Could not save while playing", "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
+        if (delta && framework.getDeltaBaseFilename() == null) {
+            JOptionPane.showMessageDialog(this, "A full state must be saved or loaded first", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
         final JFileChooser fc = new JFileChooser();
 
         fc.setDialogTitle("Select destination file");
@@ -1471,7 +1548,16 @@ public class EmulatorUI extends JFrame implements ActionListener {
                 // spying frames insert IO forwarding pins that should not be saved
                 closeAllSpyFrames();
                 try {
-                    EmulationFramework.saveStateToFile(framework, destinationFile.getAbsolutePath());
+                    if (delta) {
+                        if (destinationFile.getAbsolutePath().equals(framework.getDeltaBaseFilename())) {
+                            JOptionPane.showMessageDialog(this, "A delta state cannot overwrite its base", "Error", JOptionPane.ERROR_MESSAGE);
+                            return;
+                        }
+                        EmulationFramework.saveDeltaStateToFile(framework, destinationFile.getAbsolutePath());
+                    }
+                    else {
+                        EmulationFramework.saveStateToFile(framework, destinationFile.getAbsolutePath(), prefs.isHashStatePages());
+                    }
                     JOptionPane.showMessageDialog(this, "State saving complete", "Done", JOptionPane.INFORMATION_MESSAGE);
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -1481,6 +1567,48 @@ public class EmulatorUI extends JFrame implements ActionListener {
         }
     }
 
+    private void rewind() {
+        if (framework.isEmulatorPlaying(Constants.CHIP_TX) || framework.isEmulatorPlaying(Constants.CHIP_FR)){
+            JOptionPane.showMessageDialog(this, "Could not rewind while playing", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        CheckpointManager checkpointManager = framework.getCheckpointManager();
+        if (checkpointManager == null || checkpointManager.getNumCheckpoints() == 0) {
+            JOptionPane.showMessageDialog(this, "No checkpoint available.\nCheckpoints can be enabled in Preferences", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        int numCheckpoints = checkpointManager.getNumCheckpoints();
+        DecimalFormat milliSecondFormatter = new DecimalFormat("0000.000000000");
+        String[] choices = new String[numCheckpoints];
+        for (int i = 0; i < numCheckpoints; i++) {
+            // Most recent first
+            choices[i] = milliSecondFormatter.format(checkpointManager.getCheckpointTimePs(numCheckpoints - 1 - i) / (double) MasterClock.PS_PER_MS) + "ms";
+        }
+        // By default, propose the last checkpoint before current time
+        String defaultChoice = choices[0];
+        if (numCheckpoints > 1 && checkpointManager.getCheckpointTimePs(numCheckpoints - 1) >= framework.getMasterClock().getTotalElapsedTimePs()) {
+            defaultChoice = choices[1];
+        }
+        String choice = (String) JOptionPane.showInputDialog(this, "Current time is " + framework.getMasterClock().getFormatedTotalElapsedTimeMs() + ".\nRewind to checkpoint at:", "Rewind", JOptionPane.QUESTION_MESSAGE, null, choices, defaultChoice);
+        if (choice != null) {
+            // Problem: some UI components install listeners and links will be lost
+            closeAllFrames();
+            try {
+                framework = checkpointManager.rewind(numCheckpoints - 1 - Arrays.asList(choices).indexOf(choice), prefs);
+                framework.setupCallbacks(getCallbackHandler(0), getCallbackHandler(1));
+                framework.getMasterClock().setSyncPlay(prefs.isSyncPlay());
+                framework.getMasterClock().setEventQueueScheduling(prefs.isEventQueueScheduling());
+                framework.getMasterClock().setMultiThreadQuantumPs(prefs.getMultiThreadQuantumPs());
+                framework.getMasterClock().setEventDrivenTimers(prefs.isEventDrivenTimers());
+            } catch (Exception e) {
+                e.printStackTrace();
+                JOptionPane.showMessageDialog(this, e.getMessage() + "\nSee console for more info", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+            // some menu items may get disabled
+            updateStates();
+        }
+    }
+
     private void openGenerateSysSymbolsDialog() {
         GenerateSysSymbolsDialog generateSysSymbolsDialog = new GenerateSysSymbolsDialog(this, framework.getPlatform(Constants.CHIP_FR).getMemory());
         generateSysSymbolsDialog.startGeneration();
@@ -1704,6 +1832,7 @@ public class EmulatorUI extends JFrame implements ActionListener {
         }
 
         framework.initialize(chip, imageFile[chip]);
+        framework.setCheckpointInterval(prefs.getCheckpointIntervalMs(), prefs.getMaxCheckpoints());
 
         setTitle(ApplicationInfo.getNameVersion() + " - " + (imageFile[Constants.CHIP_FR]==null?"(none)":imageFile[Constants.CHIP_FR].getName()) + " / " + (imageFile[Constants.CHIP_TX]==null?"(none)":imageFile[Constants.CHIP_TX].getName()));
 
@@ -1747,6 +1876,10 @@ public class EmulatorUI extends JFrame implements ActionListener {
         final JCheckBox closeAllWindowsOnStopCheckBox = new JCheckBox("Close all windows on Stop");
         closeAllWindowsOnStopCheckBox.setSelected(prefs.isCloseAllWindowsOnStop());
 
+        // Delta states
+        final JCheckBox hashStatePagesCheckBox = new JCheckBox("Hash memory pages of full states, to make delta states smaller");
+        hashStatePagesCheckBox.setSelected(prefs.isHashStatePages());
+
         // Refresh interval
         JPanel refreshIntervalPanel = new JPanel();
         final JTextField refreshIntervalField = new JTextField(5);
@@ -1755,6 +1888,25 @@ public class EmulatorUI extends JFrame implements ActionListener {
         refreshIntervalField.setText("" + prefs.getRefreshIntervalMs());
         refreshIntervalPanel.add(refreshIntervalField);
 
+        // Multi-threading quantum
+        JPanel multiThreadQuantumPanel = new JPanel();
+        final JTextField multiThreadQuantumField = new JTextField(5);
+        multiThreadQuantumPanel.add(new JLabel("Chip synchronization interval when running in parallel (µs):"));
+
+        multiThreadQuantumField.setText("" + prefs.getMultiThreadQuantumUs());
+        multiThreadQuantumPanel.add(multiThreadQuantumField);
+
+        // Checkpoints
+        JPanel checkpointPanel = new JPanel();
+        final JTextField checkpointIntervalField = new JTextField(5);
+        final JTextField maxCheckpointsField = new JTextField(3);
+        checkpointPanel.add(new JLabel("Checkpoint every (emulated ms, 0 = off):"));
+        checkpointIntervalField.setText("" + prefs.getCheckpointIntervalMs());
+        checkpointPanel.add(checkpointIntervalField);
+        checkpointPanel.add(new JLabel("keeping:"));
+        maxCheckpointsField.setText("" + prefs.getMaxCheckpoints());
+        checkpointPanel.add(maxCheckpointsField);
+
         // Setup panel
         options.add(new JLabel("Button size :"));
         options.add(small);
@@ -1763,6 +1915,11 @@ public class EmulatorUI extends JFrame implements ActionListener {
         options.add(closeAllWindowsOnStopCheckBox);
         options.add(refreshIntervalPanel);
         options.add(new JLabel("Larger value greatly increases emulation speed"));
+        options.add(multiThreadQuantumPanel);
+        options.add(new JLabel("Larger value lets chips drift further apart between synchronizations"));
+        options.add(checkpointPanel);
+        options.add(hashStatePagesCheckBox);
+        options.add(new JLabel("Checkpoints allow rewinding the emulation. Changes made while playing apply at next image load"));
 
         if (JOptionPane.OK_OPTION == JOptionPane.showOptionDialog(this,
                 options,
@@ -1776,6 +1933,7 @@ public class EmulatorUI extends JFrame implements ActionListener {
             // save
             prefs.setButtonSize(group.getSelection().getActionCommand());
             prefs.setCloseAllWindowsOnStop(closeAllWindowsOnStopCheckBox.isSelected());
+            prefs.setHashStatePages(hashStatePagesCheckBox.isSelected());
             int refreshIntervalMs = 0;
             try {
                 refreshIntervalMs = Integer.parseInt(refreshIntervalField.getText());
@@ -1784,6 +1942,27 @@ public class EmulatorUI extends JFrame implements ActionListener {
             }
             refreshIntervalMs = Math.max(Math.min(refreshIntervalMs, 10000), 10);
             prefs.setRefreshIntervalMs(refreshIntervalMs);
+            int multiThreadQuantumUs = 0;
+            try {
+                multiThreadQuantumUs = Integer.parseInt(multiThreadQuantumField.getText());
+            } catch (NumberFormatException e) {
+                // noop
+            }
+            prefs.setMultiThreadQuantumUs(Math.max(Math.min(multiThreadQuantumUs, 10000), 1));
+            framework.getMasterClock().setMultiThreadQuantumPs(prefs.getMultiThreadQuantumPs());
+            int checkpointIntervalMs = 0;
+            int maxCheckpoints = 0;
+            try {
+                checkpointIntervalMs = Integer.parseInt(checkpointIntervalField.getText());
+                maxCheckpoints = Integer.parseInt(maxCheckpointsField.getText());
+            } catch (NumberFormatException e) {
+                // noop
+            }
+            prefs.setCheckpointIntervalMs(checkpointIntervalMs);
+            prefs.setMaxCheckpoints(maxCheckpoints);
+            if (!framework.isEmulatorPlaying(Constants.CHIP_TX) && !framework.isEmulatorPlaying(Constants.CHIP_FR)) {
+                framework.setCheckpointInterval(prefs.getCheckpointIntervalMs(), prefs.getMaxCheckpoints());
+            }
             applyPrefsToUI();
         }
     }
@@ -1944,6 +2123,11 @@ public class EmulatorUI extends JFrame implements ActionListener {
         emulationOptionsPanel.add(autoEnableTimersCheckBox);
         emulationOptionsPanel.add(new JLabel("If checked, timers will be automatically enabled upon reset or firmware load."));
 
+        final JCheckBox blockExecutionCheckBox = new JCheckBox("Execute code by blocks");
+        blockExecutionCheckBox.setSelected(prefs.isBlockExecution(chip));
+        emulationOptionsPanel.add(blockExecutionCheckBox);
+        emulationOptionsPanel.add(new JLabel("If checked, straight-line code is executed in blocks and interrupts are only checked between blocks. Much faster, but less accurate. Ignored while breakpoints or logs are active."));
+
         // Log memory messages
         final JCheckBox logMemoryMessagesCheckBox = new JCheckBox("Log memory messages");
         logMemoryMessagesCheckBox.setSelected(prefs.isLogMemoryMessages(chip));
@@ -2077,6 +2261,7 @@ public class EmulatorUI extends JFrame implements ActionListener {
             prefs.setFirmwareWriteProtected(chip, writeProtectFirmwareCheckBox.isSelected());
             prefs.setDmaSynchronous(chip, dmaSynchronousCheckBox.isSelected());
             prefs.setAutoEnableTimers(chip, autoEnableTimersCheckBox.isSelected());
+            prefs.setBlockExecution(chip, blockExecutionCheckBox.isSelected());
             prefs.setLogRegisterMessages(chip, logRegisterMessagesCheckBox.isSelected());
             prefs.setLogSerialMessages(chip, logSerialMessagesCheckBox.isSelected());
             prefs.setLogPinMessages(chip, logPinMessagesCheckBox.isSelected());
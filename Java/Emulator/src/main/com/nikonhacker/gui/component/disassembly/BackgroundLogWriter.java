@@ -0,0 +1,182 @@
+package com.nikonhacker.gui.component.disassembly;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class moves the actual writing of log lines out of the emulation thread.
+ * Lines are queued without locking, and a background thread appends them in batches to the writers.
+ * As all lines (instructions, interrupt marks, indentation warnings) go through the same queue, they are written
+ * in the order they were logged.
+ * The queue is bounded. What happens when it is full is determined by the OverflowPolicy.
+ */
+public class BackgroundLogWriter implements Runnable {
+
+    public enum OverflowPolicy {
+        /** The logging thread waits until the background thread has made room in the queue */
+        BLOCK,
+        /** Lines are dropped. The number of dropped lines is reported in the log once the queue has room again */
+        DROP,
+        /** The logging thread writes pending lines itself, then its own, as in synchronous mode */
+        SPILL
+    }
+
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    /** Maximum number of lines appended to writers at once */
+    private static final int BATCH_SIZE = 1024;
+
+    /** Time to wait for the background thread to make room in the queue, for the BLOCK policy */
+    private static final long PARK_TIME_NS = 1_000_000;
+
+    private final List<Writer>   writers;
+    private final int            capacity;
+    private final OverflowPolicy overflowPolicy;
+
+    private final Queue<String> queue        = new ConcurrentLinkedQueue<>();
+    /** Number of lines in the queue, or reserved to be put in it */
+    private final AtomicInteger queueSize    = new AtomicInteger();
+    private final AtomicInteger droppedLines = new AtomicInteger();
+
+    /** Held while lines are removed from the queue and written, so that they stay in order */
+    private final Object writeLock = new Object();
+
+    private final    Thread  thread;
+    private volatile boolean running = true;
+    /** Set while the background thread is parked or about to be, so that writers only unpark it when needed */
+    private volatile boolean waiting = false;
+
+    /**
+     * @param writers the writers to append lines to. As it is iterated by the background thread, it must support
+     *                concurrent modification (e.g. a CopyOnWriteArrayList)
+     */
+    public BackgroundLogWriter(List<Writer> writers, int capacity, OverflowPolicy overflowPolicy) {
+        this.writers = writers;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        thread = new Thread(this, "Log writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Queue the given text to be written by the background thread
+     */
+    public void write(String s) {
+        if (queueSize.incrementAndGet() > capacity) {
+            queueSize.decrementAndGet();
+            switch (overflowPolicy) {
+                case DROP:
+                    droppedLines.incrementAndGet();
+                    return;
+                case SPILL:
+                    synchronized (writeLock) {
+                        flush();
+                        append(s);
+                    }
+                    return;
+                case BLOCK:
+                    while (queueSize.incrementAndGet() > capacity) {
+                        queueSize.decrementAndGet();
+                        LockSupport.parkNanos(PARK_TIME_NS);
+                    }
+                    break;
+            }
+        }
+        queue.offer(withDroppedLinesNotice(s));
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private String withDroppedLinesNotice(String s) {
+        if (droppedLines.get() > 0) {
+            int numDroppedLines = droppedLines.getAndSet(0);
+            if (numDroppedLines > 0) {
+                return "<< " + numDroppedLines + " line(s) dropped because log writing could not keep up" + System.lineSeparator() + s;
+            }
+        }
+        return s;
+    }
+
+    @Override
+    public void run() {
+        while (running || !queue.isEmpty()) {
+            if (!writeBatch()) {
+                waiting = true;
+                // Check again once waiting is visible, so that a line queued in between is not left waiting
+                if (running && queue.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+            }
+        }
+    }
+
+    /**
+     * Write the next lines of the queue, if any
+     * @return false if the queue was empty
+     */
+    private boolean writeBatch() {
+        synchronized (writeLock) {
+            StringBuilder batch = null;
+            String s;
+            for (int i = 0; i < BATCH_SIZE && (s = queue.poll()) != null; i++) {
+                queueSize.decrementAndGet();
+                if (batch == null) {
+                    batch = new StringBuilder(s.length() * BATCH_SIZE);
+                }
+                batch.append(s);
+            }
+            if (batch == null) {
+                return false;
+            }
+            append(batch);
+            return true;
+        }
+    }
+
+    private void append(CharSequence s) {
+        for (Writer writer : writers) {
+            try {
+                writer.append(s);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Write all queued lines, from the calling thread
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            //noinspection StatementWithEmptyBody
+            while (writeBatch()) {
+            }
+        }
+    }
+
+    /**
+     * Write all queued lines and stop the background thread
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            // noop
+        }
+        flush();
+    }
+}
@@ -3,6 +3,7 @@ package com.nikonhacker.gui.component.disassembly;
 import com.nikonhacker.Constants;
 import com.nikonhacker.emu.AddressRange;
 import com.nikonhacker.emu.Emulator;
+import com.nikonhacker.emu.trace.ExecutionTraceRecorder;
 import com.nikonhacker.gui.EmulatorUI;
 import com.nikonhacker.gui.swing.DocumentFrame;
 import com.nikonhacker.gui.swing.PrintWriterArea;
@@ -25,6 +26,8 @@ public class DisassemblyFrame extends DocumentFrame implements LoggingStateChang
     private static final int ROWS    = 50;
     private static final int COLUMNS = 100;
 
+    private static final int DESTINATION_BINARY_TRACE = 3;
+
     private Emulator emulator;
     private List<AddressRange> addressRanges;
     private       boolean editable;
@@ -37,17 +40,21 @@ public class DisassemblyFrame extends DocumentFrame implements LoggingStateChang
     private final JCheckBox         instructionCheckbox;
     private final JCheckBox         interruptMarksCheckbox;
     private final JComboBox<Object> destinationComboBox;
+    private final JComboBox<Object> writingComboBox;
+    private final PrintWriterArea   disassemblyLog;
+    private final int               chip;
 
 
     public DisassemblyFrame(String title, String imageName, boolean resizable, boolean closable, boolean maximizable, boolean iconifiable, final int chip, EmulatorUI ui, Emulator emulator, final List<AddressRange> addressRanges) {
         super(title, imageName, resizable, closable, maximizable, iconifiable, chip, ui);
         this.emulator = emulator;
         this.addressRanges = addressRanges;
+        this.chip = chip;
         logger.getListeners().add(this);
 
         JPanel selectionPanelContainer = new JPanel();
 
-        final PrintWriterArea disassemblyLog = new PrintWriterArea(ROWS, COLUMNS);
+        disassemblyLog = new PrintWriterArea(ROWS, COLUMNS);
         disassemblyLog.setAutoScroll(true);
         disassemblyLog.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 10));
 
@@ -97,6 +104,7 @@ public class DisassemblyFrame extends DocumentFrame implements LoggingStateChang
         destinationComboBox.addItem("to here");
         destinationComboBox.addItem("to file");
         destinationComboBox.addItem("to both");
+        destinationComboBox.addItem("to binary trace");
         destinationComboBox.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -114,6 +122,8 @@ public class DisassemblyFrame extends DocumentFrame implements LoggingStateChang
                 }
                 logger.getWriters().clear();
                 switch (destinationComboBox.getSelectedIndex()) {
+                    case DESTINATION_BINARY_TRACE:
+                        // Trace file is opened when logging starts. Only status messages are printed here
                     case 0:
                         // To here
                         logger.getWriters().add(disassemblyLog.getPrintWriter());
@@ -139,6 +149,33 @@ public class DisassemblyFrame extends DocumentFrame implements LoggingStateChang
         });
         selectionPanelContainer.add(destinationComboBox);
 
+        writingComboBox = new JComboBox<>();
+        writingComboBox.addItem("synchronously");
+        writingComboBox.addItem("in background, wait when late");
+        writingComboBox.addItem("in background, drop when late");
+        writingComboBox.addItem("in background, spill when late");
+        writingComboBox.setToolTipText("Background writing lets emulation go on while lines are written. It may block, drop lines, or write them from the emulator if the writer cannot keep up");
+        writingComboBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                switch (writingComboBox.getSelectedIndex()) {
+                    case 1:
+                        logger.setBackgroundWriting(BackgroundLogWriter.OverflowPolicy.BLOCK);
+                        break;
+                    case 2:
+                        logger.setBackgroundWriting(BackgroundLogWriter.OverflowPolicy.DROP);
+                        break;
+                    case 3:
+                        logger.setBackgroundWriting(BackgroundLogWriter.OverflowPolicy.SPILL);
+                        break;
+                    default:
+                        logger.setBackgroundWriting(null);
+                        break;
+                }
+            }
+        });
+        selectionPanelContainer.add(writingComboBox);
+
         rangeButton = new JButton("Limit PC");
         selectionPanelContainer.add(rangeButton);
         rangeButton.addActionListener(new ActionListener() {
@@ -184,6 +221,7 @@ public class DisassemblyFrame extends DocumentFrame implements LoggingStateChang
         instructionCheckbox.setEnabled(editable && !isLogging);
         interruptMarksCheckbox.setEnabled(editable && !isLogging);
         destinationComboBox.setEnabled(editable && !isLogging);
+        writingComboBox.setEnabled(editable && !isLogging);
         rangeButton.setEnabled(editable && !isLogging);
         startStopButton.setEnabled(editable);
     }
@@ -195,6 +233,8 @@ public class DisassemblyFrame extends DocumentFrame implements LoggingStateChang
 
     @Override
     public void dispose() {
+        // Stop background writing first, so that pending lines are written before writers get closed
+        logger.setBackgroundWriting(null);
         if (logger.isLogging()) {
             logger.setLogging(false);
             for (Writer writer : logger.getWriters()) {
@@ -216,12 +256,38 @@ public class DisassemblyFrame extends DocumentFrame implements LoggingStateChang
             logger.clearIndent();
             logger.println("");
             logger.println("---- Starting realtime logging" + (addressRanges.isEmpty() ? "..." : (", limiting PC to " + addressRanges.size() + " range(s)...")));
+            if (destinationComboBox.getSelectedIndex() == DESTINATION_BINARY_TRACE) {
+                openTraceRecorder();
+            }
             startStopButton.setText("Stop");
         }
         else {
+            closeTraceRecorder();
             logger.println("---- Realtime logging stopped.");
             startStopButton.setText("Start");
         }
         updateControls(logging);
     }
+
+    private void openTraceRecorder() {
+        File file = new File(Constants.CHIP_LABEL[chip] + "_" + (new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss")).format(new Date()) + ".trace");
+        logger.println("---- Recording binary trace to " + file.getAbsolutePath());
+        try {
+            logger.setTraceRecorder(new ExecutionTraceRecorder(file, chip, true));
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(DisassemblyFrame.this, "Cannot write to " + file.getAbsolutePath(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void closeTraceRecorder() {
+        ExecutionTraceRecorder traceRecorder = logger.getTraceRecorder();
+        if (traceRecorder != null) {
+            logger.setTraceRecorder(null);
+            try {
+                traceRecorder.close();
+            } catch (IOException e) {
+                System.err.println("Error closing trace " + traceRecorder);
+            }
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package com.nikonhacker.gui.component.disassembly;
 
 import com.nikonhacker.emu.AddressRange;
+import com.nikonhacker.emu.trace.ExecutionTraceRecorder;
 
 import java.io.IOException;
 import java.io.PrintStream;
@@ -8,6 +9,7 @@ import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class DisassemblyLogger {
     private boolean logging;
@@ -16,9 +18,14 @@ public class DisassemblyLogger {
     boolean includeInstruction    = true;
     boolean includeInterruptMarks = true;
     String  prefix                = "";
-    private List<Writer> writers = new ArrayList<>();
+    /** Changed from the UI while lines are written by the emulation thread or the background writer */
+    private List<Writer> writers = new CopyOnWriteArrayList<>();
     private List<AddressRange> ranges;
     private List<LoggingStateChangeListener> listeners = new ArrayList<>();
+    /** If not null, executed instructions are recorded to this binary trace instead of being printed */
+    private ExecutionTraceRecorder traceRecorder;
+    /** If not null, lines are written to writers by a background thread */
+    private BackgroundLogWriter backgroundWriter;
 
     /**
      * Basic empty constructor
@@ -50,6 +57,31 @@ public class DisassemblyLogger {
                 listener.onBeforeLoggingStateChange(logging);
             }
             this.logging = logging;
+            if (!logging && backgroundWriter != null) {
+                // make sure everything is written when logging stops, e.g. before writers get closed
+                backgroundWriter.flush();
+            }
+        }
+    }
+
+    public BackgroundLogWriter.OverflowPolicy getBackgroundWritingPolicy() {
+        return backgroundWriter == null ? null : backgroundWriter.getOverflowPolicy();
+    }
+
+    /**
+     * Choose whether lines are written to writers by the logging thread, or by a background thread
+     * @param overflowPolicy what to do when the background thread cannot keep up, or null to write synchronously
+     */
+    public void setBackgroundWriting(BackgroundLogWriter.OverflowPolicy overflowPolicy) {
+        if (backgroundWriter != null) {
+            if (backgroundWriter.getOverflowPolicy() == overflowPolicy) {
+                return;
+            }
+            backgroundWriter.close();
+            backgroundWriter = null;
+        }
+        if (overflowPolicy != null) {
+            backgroundWriter = new BackgroundLogWriter(writers, BackgroundLogWriter.DEFAULT_CAPACITY, overflowPolicy);
         }
     }
 
@@ -124,6 +156,10 @@ public class DisassemblyLogger {
 
     public void rawPrint(String s) {
         if (logging) {
+            if (backgroundWriter != null) {
+                backgroundWriter.write(s);
+                return;
+            }
             for (Writer writer : writers) {
                 try {
                     writer.append(s);
@@ -134,6 +170,14 @@ public class DisassemblyLogger {
         }
     }
 
+    public ExecutionTraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    public void setTraceRecorder(ExecutionTraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
     public List<Writer> getWriters() {
         return writers;
     }
@@ -0,0 +1,185 @@
+package com.nikonhacker.emu;
+
+import com.nikonhacker.disassembly.CPUState;
+import com.nikonhacker.disassembly.fr.FrCPUState;
+import com.nikonhacker.disassembly.tx.TxCPUState;
+import com.nikonhacker.emu.memory.DebuggableMemory;
+import com.nikonhacker.emu.peripherials.interruptController.fr.FrInterruptController;
+import com.nikonhacker.emu.peripherials.interruptController.tx.TxInterruptController;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+/**
+ * Tests that code modified after it was decoded (self-modifying code, loaded files, DMA...) is decoded again
+ */
+public class CodeCacheTest extends TestCase {
+
+    private static final int PAGE_SIZE    = 0x1_0000;
+    private static final int BASE_ADDRESS = 0x0004_0000;
+
+    // ADD #2,R3 and ADD #3,R3
+    private static final int FR_ADD_2_R3 = 0xA423;
+    private static final int FR_ADD_3_R3 = 0xA433;
+    // BRA to the previous instruction
+    private static final int FR_BRA_BACK = 0xE0FE;
+
+    // As a 32-bit instruction: ANDI $8,$8,0x17FE. As two 16-bit instructions: SLL $17,$16,2 then B to the previous one
+    private static final int TX_ANDI_OR_SLL_B = 0x310817FE;
+    // BEQ $0,$0 to the previous instruction, then NOP in the delay slot
+    private static final int TX_BEQ_BACK      = 0x1000FFFE;
+    private static final int TX_NOP           = 0x00000000;
+
+    /**
+     * A write to a page holding code must drop the entries of that page and of the previous one, whose last entries
+     * may overlap it, and only them
+     */
+    public void testCodePageWrite() throws Exception {
+        DebuggableMemory memory = new DebuggableMemory(false);
+        CodeCache<String> cache = new CodeCache<String>(memory, 1);
+        cache.put(BASE_ADDRESS, 2, "before");
+        cache.put(BASE_ADDRESS + 2 * PAGE_SIZE - 2, 4, "overlapping");
+        cache.put(BASE_ADDRESS + 2 * PAGE_SIZE, 2, "written");
+        cache.put(BASE_ADDRESS + 3 * PAGE_SIZE, 2, "after");
+
+        memory.store16(BASE_ADDRESS + 2 * PAGE_SIZE + 0x10, 0);
+
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals("before", cache.get(BASE_ADDRESS));
+        assertNull(cache.get(BASE_ADDRESS + 2 * PAGE_SIZE - 2));
+        assertNull(cache.get(BASE_ADDRESS + 2 * PAGE_SIZE));
+        assertEquals("after", cache.get(BASE_ADDRESS + 3 * PAGE_SIZE));
+
+        // Page is not marked anymore, until code is cached again
+        memory.store16(BASE_ADDRESS + 2 * PAGE_SIZE + 0x10, 0);
+        assertEquals(1, cache.getInvalidationCount());
+        cache.put(BASE_ADDRESS + 2 * PAGE_SIZE, 2, "written");
+        memory.store8(BASE_ADDRESS + 2 * PAGE_SIZE + 0x10, 0);
+        assertEquals(2, cache.getInvalidationCount());
+        assertNull(cache.get(BASE_ADDRESS + 2 * PAGE_SIZE));
+    }
+
+    /**
+     * Block stores and file loads bypass the scalar store methods, but must invalidate cached code all the same.
+     * Block loads only read memory and must not
+     */
+    public void testBlockAccesses() throws Exception {
+        DebuggableMemory memory = new DebuggableMemory(false);
+        CodeCache<String> cache = new CodeCache<String>(memory, 1);
+
+        cache.put(BASE_ADDRESS, 2, "code");
+        memory.loadBlock(BASE_ADDRESS, new byte[16], 0, 16);
+        assertEquals("code", cache.get(BASE_ADDRESS));
+
+        memory.storeBlock(BASE_ADDRESS + 0x100, new byte[16], 0, 16);
+        assertNull("Block store", cache.get(BASE_ADDRESS));
+
+        cache.put(BASE_ADDRESS, 2, "code");
+        memory.fill(BASE_ADDRESS + 0x100, 16, (byte) 0);
+        assertNull("Fill", cache.get(BASE_ADDRESS));
+
+        cache.put(BASE_ADDRESS, 2, "code");
+        memory.copy(BASE_ADDRESS + PAGE_SIZE, BASE_ADDRESS + 0x100, 16);
+        assertNull("Copy", cache.get(BASE_ADDRESS));
+
+        cache.put(BASE_ADDRESS, 2, "code");
+        File file = File.createTempFile("codeCache", ".bin");
+        try {
+            FileOutputStream outputStream = new FileOutputStream(file);
+            outputStream.write(new byte[16]);
+            outputStream.close();
+            memory.loadFile(file, BASE_ADDRESS + 0x100, false);
+        }
+        finally {
+            file.delete();
+        }
+        assertNull("File load", cache.get(BASE_ADDRESS));
+    }
+
+    /**
+     * Once overwritten, code must be decoded again, both in single step and in block execution mode
+     */
+    public void testFrReexecution() throws Exception {
+        Platform platform = new Platform(new MasterClock());
+        FrCPUState cpuState = new FrCPUState(BASE_ADDRESS);
+        platform.setCpuState(cpuState);
+        DebuggableMemory memory = new DebuggableMemory(false);
+        platform.setMemory(memory);
+        FrInterruptController interruptController = new FrInterruptController(platform);
+        platform.setInterruptController(interruptController);
+        FrEmulator emulator = new FrEmulator(platform);
+        emulator.setContext(memory, cpuState, interruptController);
+        emulator.clearBreakConditions();
+
+        memory.store16(BASE_ADDRESS, FR_ADD_2_R3);
+        memory.store16(BASE_ADDRESS + 2, FR_BRA_BACK);
+
+        for (boolean blockExecutionMode : new boolean[]{false, true}) {
+            emulator.setBlockExecutionMode(blockExecutionMode);
+            memory.store16(BASE_ADDRESS, FR_ADD_2_R3);
+            cpuState.setReg(3, 0);
+
+            runLoop(emulator, cpuState);
+            assertEquals(2, cpuState.getReg(3));
+            runLoop(emulator, cpuState);
+            assertEquals(4, cpuState.getReg(3));
+
+            memory.store16(BASE_ADDRESS, FR_ADD_3_R3);
+            runLoop(emulator, cpuState);
+            assertEquals("Stale statement executed in " + (blockExecutionMode ? "block" : "single step") + " mode", 7, cpuState.getReg(3));
+        }
+    }
+
+    /**
+     * The same code is decoded differently depending on the ISA mode: statements and blocks decoded in one mode must
+     * never be executed in the other one
+     */
+    public void testTxIsaModes() throws Exception {
+        Platform platform = new Platform(new MasterClock());
+        TxCPUState cpuState = new TxCPUState();
+        platform.setCpuState(cpuState);
+        DebuggableMemory memory = new DebuggableMemory(false);
+        platform.setMemory(memory);
+        TxInterruptController interruptController = new TxInterruptController(platform);
+        platform.setInterruptController(interruptController);
+        TxEmulator emulator = new TxEmulator(platform);
+        emulator.setContext(memory, cpuState, interruptController);
+        emulator.clearBreakConditions();
+
+        memory.store32(BASE_ADDRESS, TX_ANDI_OR_SLL_B);
+        memory.store32(BASE_ADDRESS + 4, TX_BEQ_BACK);
+        memory.store32(BASE_ADDRESS + 8, TX_NOP);
+
+        for (boolean blockExecutionMode : new boolean[]{false, true}) {
+            emulator.setBlockExecutionMode(blockExecutionMode);
+            String mode = (blockExecutionMode ? "block" : "single step") + " mode";
+            // Each mode is run twice, so that the second run of each is served from the caches
+            for (int i = 0; i < 2; i++) {
+                cpuState.setReg(8, 0xFFFF);
+                cpuState.setReg(16, 0x11);
+                cpuState.setReg(17, 0);
+                cpuState.setPc(BASE_ADDRESS);
+                runLoop(emulator, cpuState);
+                assertEquals("32-bit code in " + mode, 0x17FE, cpuState.getReg(8));
+                assertEquals("32-bit code in " + mode, 0, cpuState.getReg(17));
+
+                cpuState.setReg(8, 0xFFFF);
+                cpuState.setPc(BASE_ADDRESS | 1);
+                runLoop(emulator, cpuState);
+                assertEquals("16-bit code in " + mode, 0xFFFF, cpuState.getReg(8));
+                assertEquals("16-bit code in " + mode, 0x44, cpuState.getReg(17));
+            }
+        }
+    }
+
+    /**
+     * Run emulation until the flow has gone through the loop at BASE_ADDRESS once
+     */
+    private void runLoop(Emulator emulator, CPUState cpuState) throws EmulationException {
+        do {
+            emulator.onClockTick();
+        }
+        while (cpuState.pc != BASE_ADDRESS || emulator.context.cycleIncrement > 1);
+    }
+}
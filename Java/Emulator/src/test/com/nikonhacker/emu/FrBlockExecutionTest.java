@@ -0,0 +1,130 @@
+package com.nikonhacker.emu;
+
+import com.nikonhacker.Constants;
+import com.nikonhacker.disassembly.fr.FrCPUState;
+import com.nikonhacker.emu.interrupt.fr.FrInterruptRequest;
+import com.nikonhacker.emu.memory.DebuggableMemory;
+import com.nikonhacker.emu.peripherials.interruptController.fr.FrInterruptController;
+import com.nikonhacker.emu.trigger.BreakTrigger;
+import com.nikonhacker.emu.trigger.condition.BreakCondition;
+import com.nikonhacker.emu.trigger.condition.BreakPointCondition;
+import junit.framework.TestCase;
+
+/**
+ * Tests that block execution mode behaves as single step execution at block boundaries
+ */
+public class FrBlockExecutionTest extends TestCase {
+
+    private static final int BASE_ADDRESS    = 0x0004_0000;
+    private static final int HANDLER_ADDRESS = 0x0004_0100;
+    private static final int STACK_ADDRESS   = 0x0004_1000;
+    private static final int TBR             = 0x0004_2000;
+
+    private static final int INTERRUPT_NUMBER = 0x10;
+
+    // ADD #1,R3 and ADD #2,R3 and ADD #3,R3
+    private static final int ADD_1_R3 = 0xA413;
+    private static final int ADD_2_R3 = 0xA423;
+    private static final int ADD_3_R3 = 0xA433;
+    // STH R4,@R5
+    private static final int STH_R4_R5 = 0x1554;
+
+    private FrCPUState            cpuState;
+    private DebuggableMemory      memory;
+    private FrInterruptController interruptController;
+    private FrEmulator            emulator;
+
+    @Override
+    protected void setUp() throws Exception {
+        Platform platform = new Platform(new MasterClock());
+        cpuState = new FrCPUState(BASE_ADDRESS);
+        platform.setCpuState(cpuState);
+        memory = new DebuggableMemory(false);
+        platform.setMemory(memory);
+        interruptController = new FrInterruptController(platform);
+        platform.setInterruptController(interruptController);
+        emulator = new FrEmulator(platform);
+        emulator.setContext(memory, cpuState, interruptController);
+        emulator.clearBreakConditions();
+        emulator.setBlockExecutionMode(true);
+    }
+
+    /**
+     * A PC breakpoint added once a block is cached must stop emulation at its address, not at the end of the block
+     */
+    public void testBreakpointInBlock() throws Exception {
+        storeLoop(ADD_1_R3, ADD_1_R3, ADD_1_R3);
+        runLoop();
+        assertEquals(3, cpuState.getReg(3));
+
+        emulator.addBreakCondition(new BreakPointCondition(BASE_ADDRESS + 4, new BreakTrigger(Constants.CHIP_FR, "test")));
+        BreakCondition breakCondition = null;
+        for (int tick = 0; tick < 100 && breakCondition == null; tick++) {
+            breakCondition = emulator.onClockTick();
+        }
+
+        assertNotNull(breakCondition);
+        assertEquals(BASE_ADDRESS + 4, cpuState.pc);
+        assertEquals(5, cpuState.getReg(3));
+    }
+
+    /**
+     * An interrupt requested by the first statement of a block must only be taken after the last one
+     */
+    public void testInterruptInBlock() throws Exception {
+        storeLoop(ADD_1_R3, ADD_1_R3, ADD_1_R3);
+        memory.store32(TBR + 0x3FC - INTERRUPT_NUMBER * 4, HANDLER_ADDRESS);
+        cpuState.setReg(FrCPUState.TBR, TBR);
+        cpuState.setReg(FrCPUState.SSP, STACK_ADDRESS);
+        cpuState.setILM(0x1F, false);
+        cpuState.setCCR(0x10); // I flag
+        emulator.addCycleCounterListener(new CycleCounterListener() {
+            @Override
+            public boolean onCycleCountChange(long oldCount, int increment) {
+                interruptController.request(new FrInterruptRequest(INTERRUPT_NUMBER, false, INTERRUPT_NUMBER));
+                return false;
+            }
+        });
+
+        emulator.onClockTick();
+
+        assertEquals(3, cpuState.getReg(3));
+        assertEquals(HANDLER_ADDRESS, cpuState.pc);
+        // Return address is the one after the block
+        assertEquals(BASE_ADDRESS, memory.load32(STACK_ADDRESS - 8));
+    }
+
+    /**
+     * A statement of a block overwriting a later statement of the same block must end the block, so that the new
+     * statement is executed
+     */
+    public void testCodeWriteInBlock() throws Exception {
+        storeLoop(STH_R4_R5, ADD_2_R3, ADD_2_R3);
+        cpuState.setReg(4, ADD_3_R3);
+        cpuState.setReg(5, BASE_ADDRESS + 2);
+
+        runLoop();
+
+        assertEquals(5, cpuState.getReg(3));
+    }
+
+    /**
+     * Store three statements followed by a branch back to the first one
+     */
+    private void storeLoop(int statement1, int statement2, int statement3) {
+        memory.store16(BASE_ADDRESS, statement1);
+        memory.store16(BASE_ADDRESS + 2, statement2);
+        memory.store16(BASE_ADDRESS + 4, statement3);
+        memory.store16(BASE_ADDRESS + 6, 0xE0FC); // BRA BASE_ADDRESS
+    }
+
+    /**
+     * Run emulation until the flow has gone through the loop at BASE_ADDRESS once
+     */
+    private void runLoop() throws EmulationException {
+        do {
+            emulator.onClockTick();
+        }
+        while (cpuState.pc != BASE_ADDRESS || emulator.context.cycleIncrement > 1);
+    }
+}
@@ -0,0 +1,149 @@
+package com.nikonhacker.emu;
+
+import com.nikonhacker.Constants;
+import com.nikonhacker.emu.peripherials.serialInterface.fr.FrSerialInterface;
+import com.nikonhacker.emu.peripherials.serialInterface.tx.TxSerialInterface;
+import com.nikonhacker.emu.trigger.condition.BreakPointCondition;
+import com.thoughtworks.xstream.XStream;
+import junit.framework.TestCase;
+
+/**
+ * Loads objects stored in the format of states saved when serial interfaces used LinkedList fifos, when
+ * serial interfaces, the mirror box and the lens prototype were Clockables, and when PC break conditions were
+ * stored in a HashMap
+ */
+public class LegacyStateTest extends TestCase {
+
+    private static final String TX_SERIAL_INTERFACE = "com.nikonhacker.emu.peripherials.serialInterface.tx.TxSerialInterface";
+    private static final String FR_SERIAL_INTERFACE = "com.nikonhacker.emu.peripherials.serialInterface.fr.FrSerialInterface";
+    private static final String MIRROR_BOX          = "com.nikonhacker.emu.peripherials.mirrorBox.MirrorBox";
+    private static final String LENS_PROTOTYPE      = "com.nikonhacker.emu.peripherials.serialInterface.fMount.LensPrototype";
+    private static final String CLOCKABLE_ENTRY     = "com.nikonhacker.emu.MasterClock_-ClockableEntry";
+    private static final String COUNTING_CLOCKABLE  = "com.nikonhacker.emu.LegacyStateTest_-CountingClockable";
+
+    private static final String LEGACY_STATE =
+            "<object-array>" +
+                "<" + TX_SERIAL_INTERFACE + ">" +
+                    "<rxFifo class=\"linked-list\"><int>1</int><int>2</int></rxFifo>" +
+                    "<txFifo class=\"linked-list\"><int>3</int></txFifo>" +
+                    "<bitNumberBeingTransferred>4</bitNumberBeingTransferred>" +
+                "</" + TX_SERIAL_INTERFACE + ">" +
+                "<" + FR_SERIAL_INTERFACE + ">" +
+                    "<fifo1Backend class=\"linked-list\"><int>5</int><int>6</int><int>7</int></fifo1Backend>" +
+                    "<fifo2Backend class=\"linked-list\"/>" +
+                    "<fifo1 class=\"linked-list\" reference=\"../fifo1Backend\"/>" +
+                    "<bitNumberBeingTransferred>2</bitNumberBeingTransferred>" +
+                "</" + FR_SERIAL_INTERFACE + ">" +
+                "<" + MIRROR_BOX + "><timerCount>12</timerCount><state>10</state></" + MIRROR_BOX + ">" +
+                "<" + LENS_PROTOTYPE + "><timerCount>3</timerCount><isTimerActive>true</isTimerActive></" + LENS_PROTOTYPE + ">" +
+                "<" + COUNTING_CLOCKABLE + "><maxRuns>10</maxRuns></" + COUNTING_CLOCKABLE + ">" +
+                "<com.nikonhacker.emu.MasterClock>" +
+                    "<entries class=\"java.util.concurrent.CopyOnWriteArrayList\" serialization=\"custom\">" +
+                        "<java.util.concurrent.CopyOnWriteArrayList>" +
+                            "<default/>" +
+                            "<int>5</int>" +
+                            legacyEntry("<clockable class=\"" + TX_SERIAL_INTERFACE + "\" reference=\"../../../../../" + TX_SERIAL_INTERFACE + "\"/>") +
+                            legacyEntry("<clockable class=\"" + FR_SERIAL_INTERFACE + "\" reference=\"../../../../../" + FR_SERIAL_INTERFACE + "\"/>") +
+                            legacyEntry("<clockable class=\"" + MIRROR_BOX + "\" reference=\"../../../../../" + MIRROR_BOX + "\"/>") +
+                            legacyEntry("<clockable class=\"" + LENS_PROTOTYPE + "\" reference=\"../../../../../" + LENS_PROTOTYPE + "\"/>") +
+                            legacyEntry("<clockable class=\"" + CountingClockable.class.getName() + "\" reference=\"../../../../../" + COUNTING_CLOCKABLE + "\"/>") +
+                        "</java.util.concurrent.CopyOnWriteArrayList>" +
+                    "</entries>" +
+                    "<totalElapsedTimePs>0</totalElapsedTimePs>" +
+                    "<eventQueueScheduling>true</eventQueueScheduling>" +
+                "</com.nikonhacker.emu.MasterClock>" +
+            "</object-array>";
+
+    private static String legacyEntry(String clockable) {
+        return "<" + CLOCKABLE_ENTRY + ">" +
+                    clockable +
+                    "<clockableCallbackHandlerChip>-1</clockableCallbackHandlerChip>" +
+                    "<counterValue>0</counterValue>" +
+                    "<counterThreshold>0</counterThreshold>" +
+                    "<enabled>true</enabled>" +
+                    "<isFrequencyZero>false</isFrequencyZero>" +
+                    "<isPrecise>true</isPrecise>" +
+                "</" + CLOCKABLE_ENTRY + ">";
+    }
+
+    public void testLoadLegacyState() throws Exception {
+        XStream xStream = EmulationFramework.getFrameworkXStream();
+        Object[] objects = (Object[]) xStream.fromXML(LEGACY_STATE);
+
+        TxSerialInterface txSerialInterface = (TxSerialInterface) objects[0];
+        // RST:RLVL is the number of values in the RX fifo
+        assertEquals(2, txSerialInterface.getRst());
+        FrSerialInterface frSerialInterface = (FrSerialInterface) objects[1];
+        assertEquals(3, frSerialInterface.getFbyte1());
+
+        // Saving again uses the current format, which must load back to the same contents
+        String xml = xStream.toXML(objects);
+        assertFalse(xml.contains("linked-list"));
+        assertFalse(xml.contains("bitNumberBeingTransferred"));
+        assertTrue(xml.contains("<rxFifo><int>1</int><int>2</int></rxFifo>"));
+        assertTrue(xml.contains("<txFifo><int>3</int></txFifo>"));
+        assertTrue(xml.contains("<fifo1Backend><int>5</int><int>6</int><int>7</int></fifo1Backend>"));
+        assertFalse(xml.contains("timerCount"));
+        assertFalse(xml.contains("isTimerActive"));
+        // Events created by constructors of the current classes are created upon load
+        assertTrue(xml.contains("<moveEvent>"));
+        assertTrue(xml.contains("<timerEvent>"));
+        Object[] reloadedObjects = (Object[]) xStream.fromXML(xml);
+        assertEquals(2, ((TxSerialInterface) reloadedObjects[0]).getRst());
+        assertEquals(3, ((FrSerialInterface) reloadedObjects[1]).getFbyte1());
+        assertEquals(xml, xStream.toXML(reloadedObjects));
+
+        // Entries of objects that are not Clockables anymore are dropped, the others still run
+        assertEquals(1, countOccurrences(xml, "<" + CLOCKABLE_ENTRY + ">"));
+        CountingClockable counter = (CountingClockable) objects[4];
+        MasterClock masterClock = (MasterClock) objects[5];
+        masterClock.start();
+        for (int i = 0; i < 100 && counter.runs < counter.maxRuns; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(10, counter.runs);
+    }
+
+    public void testLoadLegacyEmulator() throws Exception {
+        XStream xStream = EmulationFramework.getFrameworkXStream();
+        FrEmulator emulator = (FrEmulator) xStream.fromXML(
+                "<com.nikonhacker.emu.FrEmulator>" +
+                    "<breakConditions/>" +
+                    "<pcBreakConditions>" +
+                        "<entry><int>256</int><com.nikonhacker.emu.trigger.condition.AlwaysBreakCondition/></entry>" +
+                    "</pcBreakConditions>" +
+                "</com.nikonhacker.emu.FrEmulator>");
+        // PC conditions are set again before each run
+        emulator.addBreakCondition(new BreakPointCondition(0x200, null));
+        assertFalse(xStream.toXML(emulator).contains("pcBreakConditions"));
+    }
+
+    private static int countOccurrences(String string, String substring) {
+        int count = 0;
+        for (int index = string.indexOf(substring); index != -1; index = string.indexOf(substring, index + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static class CountingClockable implements Clockable {
+        private volatile int runs;
+        private int maxRuns;
+
+        @Override
+        public int getChip() {
+            return Constants.CHIP_TX;
+        }
+
+        @Override
+        public int getFrequencyHz() {
+            return 1000000;
+        }
+
+        @Override
+        public Object onClockTick() {
+            runs++;
+            return (runs < maxRuns) ? null : new Object();
+        }
+    }
+}
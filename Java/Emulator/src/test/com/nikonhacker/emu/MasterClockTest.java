@@ -1,7 +1,14 @@
 package com.nikonhacker.emu;
 
+import com.nikonhacker.Constants;
+import com.nikonhacker.emu.trigger.condition.AlwaysBreakCondition;
+import com.nikonhacker.emu.trigger.condition.BreakCondition;
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class MasterClockTest  extends TestCase {
     public void testClockable1() throws Exception {
         MasterClock masterClock = new MasterClock();
@@ -28,6 +35,214 @@ public class MasterClockTest  extends TestCase {
         Thread.sleep(5000);
     }
 
+    public void testEventQueueScheduling() throws Exception {
+        MasterClock masterClock = new MasterClock();
+        masterClock.setEventQueueScheduling(true);
+        final CountingClockable fast = new CountingClockable(Constants.CHIP_NONE, 80000000, null);
+        fast.maxRuns = 80000; // 1ms
+        CountingClockable slow = new CountingClockable(Constants.CHIP_NONE, 9600, fast);
+
+        masterClock.add(fast, -1, true, true);
+        masterClock.add(slow, -1, true, false);
+        masterClock.start();
+
+        for (int i = 0; i < 100 && slow.runs < 11; i++) {
+            Thread.sleep(50);
+        }
+
+        // Slow clockable must have run at 0, 104.17us, ..., 937.5us, then at 1041.67us where it noticed fast one ended
+        assertEquals(80000, fast.runs);
+        assertEquals(11, slow.runs);
+        assertEquals(1041666666L, masterClock.getTotalElapsedTimePs());
+    }
+
+    public void testMultiThreaded() throws Exception {
+        MasterClock masterClock = new MasterClock();
+        masterClock.setMultiThreadQuantumPs(10 * 1_000_000L); // 10us
+        final CountingClockable fast = new CountingClockable(Constants.CHIP_FR, 80000000, null);
+        fast.maxRuns = 80000; // 1ms
+        CountingClockable slow = new CountingClockable(Constants.CHIP_TX, 1000000, null);
+        slow.maxRuns = 2000; // 2ms
+        slow.clockableToCompareWith = fast;
+
+        masterClock.add(fast, -1, true, true);
+        masterClock.add(slow, -1, true, true);
+        masterClock.start();
+
+        for (int i = 0; i < 100 && slow.runs < 2000; i++) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(80000, fast.runs);
+        assertEquals(2000, slow.runs);
+        // Each one on its own thread, fast one can't have been more than one quantum (800 runs) away from slow one
+        assertTrue("Skew too large: " + slow.maxSkewRuns, slow.maxSkewRuns <= 800 + 80);
+        // Time of the last tick of the slow clockable
+        assertEquals(1999 * 1_000_000L, masterClock.getTotalElapsedTimePs());
+    }
+
+    public void testClockEventsWithStepList() throws Exception {
+        checkClockEvents(false);
+    }
+
+    public void testClockEventsWithEventQueue() throws Exception {
+        checkClockEvents(true);
+    }
+
+    private void checkClockEvents(boolean eventQueueScheduling) throws Exception {
+        final MasterClock masterClock = new MasterClock();
+        masterClock.setEventQueueScheduling(eventQueueScheduling);
+        CountingClockable fast = new CountingClockable(Constants.CHIP_NONE, 80000000, null);
+        fast.maxRuns = 80000; // 1ms
+
+        // Event running every 100us from 500us on, rescheduling itself
+        final List<Long> eventTimes = new ArrayList<>();
+        final ClockEvent[] periodicEvent = new ClockEvent[1];
+        periodicEvent[0] = new ClockEvent(Constants.CHIP_NONE, new Runnable() {
+            @Override
+            public void run() {
+                eventTimes.add(masterClock.getTotalElapsedTimePs());
+                masterClock.schedule(periodicEvent[0], periodicEvent[0].getTimePs() + 100 * 1_000_000L);
+            }
+        });
+        masterClock.schedule(periodicEvent[0], 500 * 1_000_000L);
+
+        // Event cancelled before it runs
+        ClockEvent cancelledEvent = new ClockEvent(Constants.CHIP_NONE, new Runnable() {
+            @Override
+            public void run() {
+                fail("Cancelled event was run");
+            }
+        });
+        masterClock.schedule(cancelledEvent, 200 * 1_000_000L);
+        masterClock.cancel(cancelledEvent);
+        assertFalse(cancelledEvent.isScheduled());
+
+        // One-shot events created by the clock
+        final List<Long> oneShotTimes = new ArrayList<>();
+        ClockEvent oneShotEvent = masterClock.scheduleAfter(Constants.CHIP_NONE, 300 * 1_000_000L, new Runnable() {
+            @Override
+            public void run() {
+                oneShotTimes.add(masterClock.getTotalElapsedTimePs());
+            }
+        });
+        ClockEvent cancelledOneShotEvent = masterClock.scheduleAt(Constants.CHIP_NONE, 400 * 1_000_000L, new Runnable() {
+            @Override
+            public void run() {
+                fail("Cancelled one-shot event was run");
+            }
+        });
+        masterClock.cancel(cancelledOneShotEvent);
+
+        masterClock.add(fast, -1, true, true);
+        masterClock.start();
+
+        for (int i = 0; i < 100 && fast.runs < fast.maxRuns; i++) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(50);
+
+        // Events only run while entries are clocked, so the one at 1ms is still pending
+        assertEquals(Arrays.asList(500_000_000L, 600_000_000L, 700_000_000L, 800_000_000L, 900_000_000L), eventTimes);
+        assertEquals(Arrays.asList(300_000_000L), oneShotTimes);
+        assertFalse(oneShotEvent.isScheduled());
+        assertTrue(periodicEvent[0].isScheduled());
+        assertEquals(1000 * 1_000_000L, periodicEvent[0].getTimePs());
+    }
+
+    public void testEmulatorIdleTicks() throws Exception {
+        MasterClock masterClock = new MasterClock();
+        masterClock.setEventQueueScheduling(true);
+        MultiCycleEmulator emulator = new MultiCycleEmulator(new Platform(masterClock));
+        masterClock.add(emulator, -1, true, true);
+        masterClock.start();
+
+        for (int i = 0; i < 100 && emulator.instructions < 100; i++) {
+            Thread.sleep(50);
+        }
+
+        // Ticks between instructions are skipped instead of being ignored by the emulator
+        assertEquals(100, emulator.instructions);
+        assertEquals(0, emulator.ignoredTicks);
+        // Time of the tick of the last instruction, at 4 cycles of 1us per instruction
+        assertEquals(99 * 4 * 1_000_000L, masterClock.getTotalElapsedTimePs());
+    }
+
+    /**
+     * An emulator whose instructions all take 4 cycles
+     */
+    private static class MultiCycleEmulator extends Emulator {
+        private volatile int instructions = 0;
+        private int ignoredTicks = 0;
+
+        public MultiCycleEmulator(Platform platform) {
+            super(platform);
+        }
+
+        @Override
+        public int getChip() {
+            return Constants.CHIP_NONE;
+        }
+
+        @Override
+        public int getFrequencyHz() {
+            return 1000000;
+        }
+
+        @Override
+        public BreakCondition onClockTick() {
+            if (context.cycleIncrement > 1) {
+                context.cycleIncrement--;
+                ignoredTicks++;
+                return null;
+            }
+            context.cycleIncrement = 4;
+            instructions++;
+            return (instructions < 100) ? null : new AlwaysBreakCondition();
+        }
+    }
+
+    private static class CountingClockable implements Clockable {
+        private int chip;
+        private int frequencyHz;
+        private CountingClockable clockableToWaitFor;
+        private volatile int runs = 0;
+        private int maxRuns = Integer.MAX_VALUE;
+        private CountingClockable clockableToCompareWith;
+        /** Largest difference between the runs of clockableToCompareWith and the expected ones, while it was running */
+        private long maxSkewRuns = 0;
+
+        public CountingClockable(int chip, int frequencyHz, CountingClockable clockableToWaitFor) {
+            this.chip = chip;
+            this.frequencyHz = frequencyHz;
+            this.clockableToWaitFor = clockableToWaitFor;
+        }
+
+        @Override
+        public int getChip() {
+            return chip;
+        }
+
+        public int getFrequencyHz() {
+            return frequencyHz;
+        }
+
+        public Object onClockTick() {
+            if (clockableToCompareWith != null) {
+                int otherRuns = clockableToCompareWith.runs;
+                if (otherRuns < clockableToCompareWith.maxRuns) {
+                    long expectedRuns = (long) runs * clockableToCompareWith.frequencyHz / frequencyHz;
+                    maxSkewRuns = Math.max(maxSkewRuns, Math.abs(otherRuns - expectedRuns));
+                }
+            }
+            runs++;
+            if (runs >= maxRuns || (clockableToWaitFor != null && clockableToWaitFor.runs >= clockableToWaitFor.maxRuns)) {
+                return new Object();
+            }
+            return null;
+        }
+    }
+
     private static class TestClockable implements Clockable, ClockableCallbackHandler {
         private String name;
         private int frequencyHz;
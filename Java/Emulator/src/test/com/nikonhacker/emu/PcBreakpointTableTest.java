@@ -0,0 +1,41 @@
+package com.nikonhacker.emu;
+
+import com.nikonhacker.emu.trigger.condition.BreakCondition;
+import com.nikonhacker.emu.trigger.condition.BreakPointCondition;
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class PcBreakpointTableTest extends TestCase {
+
+    public void testEmpty() {
+        assertNull(PcBreakpointTable.EMPTY.get(0));
+        assertNull(PcBreakpointTable.EMPTY.get(0x0004_0000));
+        assertTrue(PcBreakpointTable.EMPTY.isEmpty());
+    }
+
+    public void testLikeHashMap() {
+        Random random = new Random(1);
+        Map<Integer, BreakCondition> reference = new HashMap<Integer, BreakCondition>();
+        PcBreakpointTable table = PcBreakpointTable.EMPTY;
+        for (int i = 0; i < 500; i++) {
+            // close addresses, including duplicates and negative ones
+            int pc = 0xBFC0_0000 + (random.nextInt(1000) << 1);
+            BreakCondition condition = new BreakPointCondition(pc, null);
+            PcBreakpointTable previousTable = table;
+            int previousSize = previousTable.size();
+            table = table.with(pc, condition);
+            reference.put(pc, condition);
+            // Previous table was not modified
+            assertEquals(previousSize, previousTable.size());
+            assertEquals(reference.size(), table.size());
+        }
+        for (int i = 0; i < 2000; i += 2) {
+            int pc = 0xBFC0_0000 + i;
+            assertSame(reference.get(pc), table.get(pc));
+        }
+        assertNull(table.get(0));
+    }
+}
@@ -0,0 +1,41 @@
+package com.nikonhacker.emu;
+
+import com.nikonhacker.disassembly.tx.TxCPUState;
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.binary.BinaryStreamDriver;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class Register32ConverterTest extends TestCase {
+
+    public void testXmlFormat() throws Exception {
+        XStream xStream = EmulationFramework.getFrameworkXStream();
+        TxCPUState cpuState = new TxCPUState();
+        cpuState.setReg(8, -5);
+        String xml = xStream.toXML(cpuState);
+        // Same format as the one written by the reflection converter
+        assertTrue(xml.contains("<r32 v=\"-5\">"));
+        checkLoadedState((TxCPUState) xStream.fromXML(xml.replace("<r32 v=\"-5\">", "<r32 v=\"-6\">")), -6);
+    }
+
+    public void testBinaryRoundTrip() throws Exception {
+        BinaryStreamDriver driver = new BinaryStreamDriver();
+        XStream xStream = EmulationFramework.getFrameworkXStream(driver);
+        TxCPUState cpuState = new TxCPUState();
+        cpuState.setReg(8, -5);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        xStream.marshal(cpuState, driver.createWriter(outputStream));
+        checkLoadedState((TxCPUState) xStream.unmarshal(driver.createReader(new ByteArrayInputStream(outputStream.toByteArray()))), -5);
+    }
+
+    private void checkLoadedState(TxCPUState cpuState, int expectedR8) {
+        assertEquals(expectedR8, cpuState.getReg(8));
+        // r27 is shared by all register sets, and must still be after loading
+        cpuState.setReg(27, 0x1234);
+        assertEquals(0x1234, cpuState.getShadowReg(5, 27));
+        // r8 is not
+        assertEquals(0, cpuState.getShadowReg(5, 8));
+    }
+}
@@ -0,0 +1,100 @@
+package com.nikonhacker.emu.memory;
+
+import com.nikonhacker.emu.memory.listener.BlockActivityListener;
+import com.nikonhacker.emu.memory.listener.RangeCheckerMemoryActivityListener;
+import junit.framework.TestCase;
+
+public class BlockAccessTest extends TestCase {
+
+    // Blocks cross the page boundary at BASE_ADDRESS + PAGE_SIZE
+    private static final int BASE_ADDRESS = 0x0040_0000;
+    private static final int BLOCK_START  = BASE_ADDRESS + AbstractMemory.PAGE_SIZE - 3;
+
+    public void testFastMemory() throws Exception {
+        checkBlocks(new FastMemory());
+    }
+
+    public void testDebuggableMemory() throws Exception {
+        checkBlocks(new DebuggableMemory(false));
+    }
+
+    public void testByteBufferMemory() throws Exception {
+        ByteBufferMemory memory = new ByteBufferMemory(java.nio.ByteOrder.BIG_ENDIAN);
+        memory.map(BASE_ADDRESS, 4 * AbstractMemory.PAGE_SIZE, true, true, true);
+        checkBlocks(memory);
+    }
+
+    private void checkBlocks(Memory memory) throws Exception {
+        if (!memory.isMapped(BASE_ADDRESS)) {
+            memory.map(BASE_ADDRESS, 4 * AbstractMemory.PAGE_SIZE, true, true, true);
+        }
+        byte[] src = {1, 2, 3, 4, 5, 6, 7, 8};
+        memory.storeBlock(BLOCK_START, src, 1, 6);
+        assertEquals(0x02030405, memory.load32(BLOCK_START));
+        assertEquals(0x0607, memory.loadUnsigned16(BLOCK_START + 4));
+
+        byte[] dest = new byte[8];
+        memory.loadBlock(BLOCK_START, dest, 2, 6);
+        assertEquals(2, dest[2]);
+        assertEquals(7, dest[7]);
+
+        // Overlapping copy
+        memory.copy(BLOCK_START, BLOCK_START + 2, 6);
+        assertEquals(0x02030203, memory.load32(BLOCK_START));
+        assertEquals(0x04050607, memory.load32(BLOCK_START + 4));
+
+        memory.fill(BLOCK_START + 1, 4, (byte) 0xAA);
+        assertEquals(0x02AAAAAA, memory.load32(BLOCK_START));
+        assertEquals(0xAA05, memory.loadUnsigned16(BLOCK_START + 4));
+    }
+
+    public void testListeners() throws Exception {
+        DebuggableMemory memory = new DebuggableMemory(false);
+        memory.map(BASE_ADDRESS, 4 * AbstractMemory.PAGE_SIZE, true, true, true);
+        CountingListener listener = new CountingListener();
+        memory.addActivityListener(listener);
+
+        memory.storeBlock(BLOCK_START, new byte[16], 0, 16, DebuggableMemory.AccessSource.DMA);
+        memory.loadBlock(BLOCK_START, new byte[16], 0, 16, DebuggableMemory.AccessSource.DMA);
+        assertEquals(1, listener.numBlockStores);
+        assertEquals(1, listener.numBlockLoads);
+        assertEquals(0, listener.numStores);
+
+        // Accesses without source are not reported
+        memory.fill(BLOCK_START, 16, (byte) 0, null);
+        assertEquals(1, listener.numBlockStores);
+
+        // A listener that is not block-aware gets every byte
+        memory.removeActivityListener(listener);
+        CountingByteListener byteListener = new CountingByteListener();
+        memory.addActivityListener(byteListener);
+        memory.fill(BLOCK_START, 16, (byte) 0x55, DebuggableMemory.AccessSource.DMA);
+        assertEquals(16, byteListener.numStores);
+        assertEquals(0x55555555, memory.load32(BLOCK_START + 12));
+    }
+
+    private static class CountingByteListener extends RangeCheckerMemoryActivityListener {
+        int numStores;
+
+        @Override
+        public void onStore8(byte[] pageData, int address, byte value, DebuggableMemory.AccessSource accessSource) {
+            numStores++;
+        }
+    }
+
+    private static class CountingListener extends CountingByteListener implements BlockActivityListener {
+        int numBlockLoads;
+        int numBlockStores;
+
+        @Override
+        public void onLoadBlock(int address, int length, DebuggableMemory.AccessSource accessSource) {
+            numBlockLoads++;
+        }
+
+        @Override
+        public void onStoreBlock(int address, int length, DebuggableMemory.AccessSource accessSource) {
+            assertEquals(BLOCK_START, address);
+            numBlockStores++;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.nikonhacker.emu.memory;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+public class ByteBufferMemoryTest extends TestCase {
+
+    private static final int BASE_ADDRESS = 0x0040_0000;
+    // 3 pages and a half
+    private static final int FILE_SIZE = 0x3_8000;
+
+    public void testBigEndianLikeFastMemory() throws Exception {
+        compareWith(new FastMemory(), ByteOrder.BIG_ENDIAN);
+    }
+
+    public void testLittleEndianLikeFastMemoryLE() throws Exception {
+        compareWith(new FastMemoryLE(), ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void compareWith(Memory referenceMemory, ByteOrder byteOrder) throws Exception {
+        byte[] contents = new byte[FILE_SIZE];
+        new Random(1).nextBytes(contents);
+        File file = File.createTempFile("memory", ".bin");
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(contents);
+        fos.close();
+
+        Memory memory = new ByteBufferMemory(byteOrder);
+        memory.loadFile(file, BASE_ADDRESS, true);
+        referenceMemory.loadFile(file, BASE_ADDRESS, true);
+
+        // Check all alignments, including accesses straddling two pages
+        for (int address = BASE_ADDRESS; address < BASE_ADDRESS + FILE_SIZE - 4; address++) {
+            assertEquals(referenceMemory.loadSigned8(address), memory.loadSigned8(address));
+            assertEquals(referenceMemory.loadUnsigned8(address), memory.loadUnsigned8(address));
+            assertEquals(referenceMemory.loadSigned16(address), memory.loadSigned16(address));
+            assertEquals(referenceMemory.loadUnsigned16(address), memory.loadUnsigned16(address));
+            assertEquals(referenceMemory.load32(address), memory.load32(address));
+            assertEquals(referenceMemory.loadInstruction16(address), memory.loadInstruction16(address));
+            assertEquals(referenceMemory.loadInstruction32(address), memory.loadInstruction32(address));
+        }
+
+        // Write-protected pages are not writable
+        try {
+            memory.store8(BASE_ADDRESS, 0);
+            fail("Write to a write-protected page should fail");
+        }
+        catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        // Stores, again including accesses straddling two pages
+        memory.changeProtection(BASE_ADDRESS, FILE_SIZE, true, true, true);
+        referenceMemory.changeProtection(BASE_ADDRESS, FILE_SIZE, true, true, true);
+        int[] addresses = {BASE_ADDRESS + 0x100, BASE_ADDRESS + 0xFFFF, BASE_ADDRESS + 0x1FFFE, BASE_ADDRESS + 0x2FFFD};
+        for (int address : addresses) {
+            memory.store32(address, 0x12345678);
+            referenceMemory.store32(address, 0x12345678);
+            memory.store16(address + 4, 0x9ABC);
+            referenceMemory.store16(address + 4, 0x9ABC);
+            for (int i = -4; i < 8; i++) {
+                assertEquals(referenceMemory.loadUnsigned8(address + i), memory.loadUnsigned8(address + i));
+            }
+        }
+
+        // The file itself is left untouched
+        assertEquals(FILE_SIZE, file.length());
+        Memory reloadedMemory = new ByteBufferMemory(byteOrder);
+        reloadedMemory.loadFile(file, BASE_ADDRESS, true);
+        assertEquals(contents[0x100] & 0xFF, reloadedMemory.loadUnsigned8(BASE_ADDRESS + 0x100));
+
+        // Unmapped pages are reported the same way as in other implementations
+        try {
+            memory.loadInstruction32(BASE_ADDRESS + 0x10_0000);
+            fail("Read from an unmapped page should fail");
+        }
+        catch (NullPointerException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.nikonhacker.emu.memory;
+
+import junit.framework.TestCase;
+
+public class CheckpointTrackingTest extends TestCase {
+
+    private static final int BASE_ADDRESS = 0x0040_0000;
+
+    public void testFastMemory() throws Exception {
+        checkRewind(new FastMemory());
+    }
+
+    public void testFastMemoryLE() throws Exception {
+        checkRewind(new FastMemoryLE());
+    }
+
+    public void testDebuggableMemory() throws Exception {
+        checkRewind(new DebuggableMemory(false));
+    }
+
+    private void checkRewind(AbstractMemory memory) throws Exception {
+        memory.map(BASE_ADDRESS, 4 * AbstractMemory.PAGE_SIZE, true, true, true);
+        memory.store32(BASE_ADDRESS, 0x11111111);
+        memory.setCheckpointTracking(true);
+
+        // Between first and second checkpoints, only 2 pages are modified
+        memory.store32(BASE_ADDRESS, 0x22222222);
+        memory.store16(BASE_ADDRESS + 4, 0x3333);
+        memory.store8(BASE_ADDRESS + 2 * AbstractMemory.PAGE_SIZE, 0x44);
+        MemoryDelta first = memory.takeCheckpointDelta();
+        assertEquals(2, first.getNumPages());
+
+        memory.store32(BASE_ADDRESS, 0x55555555);
+        MemoryDelta second = memory.takeCheckpointDelta();
+        assertEquals(1, second.getNumPages());
+
+        // Nothing written since
+        assertEquals(0, memory.takeCheckpointDelta().getNumPages());
+
+        memory.applyDelta(second);
+        assertEquals(0x22222222, memory.load32(BASE_ADDRESS));
+        memory.applyDelta(first);
+        assertEquals(0x11111111, memory.load32(BASE_ADDRESS));
+        assertEquals(0, memory.loadUnsigned16(BASE_ADDRESS + 4));
+        assertEquals(0, memory.loadUnsigned8(BASE_ADDRESS + 2 * AbstractMemory.PAGE_SIZE));
+    }
+
+    public void testTakePagesFrom() throws Exception {
+        DebuggableMemory source = new DebuggableMemory(false);
+        source.map(BASE_ADDRESS, AbstractMemory.PAGE_SIZE, true, true, true);
+        source.setCheckpointTracking(true);
+        source.store32(BASE_ADDRESS, 0x12345678);
+
+        DebuggableMemory memory = new DebuggableMemory(false);
+        memory.takePagesFrom(source);
+        assertTrue(memory.isCheckpointTracking());
+        assertFalse(source.isCheckpointTracking());
+        assertEquals(0x12345678, memory.load32(BASE_ADDRESS));
+
+        // Tracking continues where source left
+        MemoryDelta delta = memory.takeCheckpointDelta();
+        assertEquals(1, delta.getNumPages());
+        memory.applyDelta(delta);
+        assertEquals(0, memory.load32(BASE_ADDRESS));
+    }
+}
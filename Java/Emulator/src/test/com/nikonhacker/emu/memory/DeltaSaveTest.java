@@ -0,0 +1,60 @@
+package com.nikonhacker.emu.memory;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class DeltaSaveTest extends TestCase {
+
+    private static final int BASE_ADDRESS = 0x0040_0000;
+
+    public void testWithoutHashing() throws Exception {
+        checkDelta(false, 4);
+    }
+
+    public void testWithHashing() throws Exception {
+        // The page written back with its base value is not saved
+        checkDelta(true, 3);
+    }
+
+    private void checkDelta(boolean hashPages, int expectedNumPages) throws Exception {
+        DebuggableMemory memory = new DebuggableMemory(false);
+        memory.map(BASE_ADDRESS, 4 * AbstractMemory.PAGE_SIZE, true, true, true);
+        memory.store32(BASE_ADDRESS, 0x11111111);
+        memory.store32(BASE_ADDRESS + 3 * AbstractMemory.PAGE_SIZE, 0x22222222);
+
+        ByteArrayOutputStream base = new ByteArrayOutputStream();
+        memory.saveAllToStream(base);
+        memory.setDeltaBase(hashPages);
+        // Also check tracking survives checkpoints
+        memory.setCheckpointTracking(true);
+
+        memory.store32(BASE_ADDRESS, 0x33333333);
+        memory.takeCheckpointDelta();
+        memory.store8(BASE_ADDRESS + AbstractMemory.PAGE_SIZE + 1, 0x44);
+        memory.store16(BASE_ADDRESS + 3 * AbstractMemory.PAGE_SIZE, 0x2222);
+        memory.map(BASE_ADDRESS + 8 * AbstractMemory.PAGE_SIZE, AbstractMemory.PAGE_SIZE, true, true, false);
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        memory.saveDeltaToStream(delta);
+        // number of pages, then pte, flags and contents of each page
+        assertEquals(4 + expectedNumPages * (4 + 1 + AbstractMemory.PAGE_SIZE), delta.size());
+
+        DebuggableMemory loaded = new DebuggableMemory(false);
+        loaded.loadAllFromStream(new ByteArrayInputStream(base.toByteArray()));
+        assertEquals(0x11111111, loaded.load32(BASE_ADDRESS));
+        loaded.setDeltaBase(hashPages);
+        loaded.loadDeltaFromStream(new ByteArrayInputStream(delta.toByteArray()));
+
+        assertEquals(0x33333333, loaded.load32(BASE_ADDRESS));
+        assertEquals(0x44, loaded.loadUnsigned8(BASE_ADDRESS + AbstractMemory.PAGE_SIZE + 1));
+        assertEquals(0x22222222, loaded.load32(BASE_ADDRESS + 3 * AbstractMemory.PAGE_SIZE));
+        assertNotNull(loaded.getPageForAddress(BASE_ADDRESS + 8 * AbstractMemory.PAGE_SIZE));
+
+        // Loaded pages are still considered modified against the same base
+        ByteArrayOutputStream secondDelta = new ByteArrayOutputStream();
+        loaded.saveDeltaToStream(secondDelta);
+        assertEquals(delta.size(), secondDelta.size());
+    }
+}
@@ -0,0 +1,44 @@
+package com.nikonhacker.emu.memory;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+public class LazyFileLoadTest extends TestCase {
+
+    private static final int BASE_ADDRESS = 0x0040_0000;
+
+    public void testLoadFile() throws Exception {
+        // 2 whole pages, left in the file, then half a page, copied
+        byte[] contents = new byte[2 * AbstractMemory.PAGE_SIZE + AbstractMemory.PAGE_SIZE / 2];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = (byte) (i / AbstractMemory.PAGE_SIZE + 1);
+        }
+        File file = File.createTempFile("lazy", ".bin");
+        file.deleteOnExit();
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(contents);
+        fileOutputStream.close();
+
+        DebuggableMemory memory = new DebuggableMemory(false);
+        memory.loadFile(file, BASE_ADDRESS, false);
+        assertEquals(3, memory.getNumUsedPages());
+        assertNull(memory.readableMemory[AbstractMemory.getPTE(BASE_ADDRESS)]);
+
+        // Saving does not load pending pages
+        ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        memory.saveAllToStream(saved);
+        assertEquals(AbstractMemory.NUM_PAGES + 3 * AbstractMemory.PAGE_SIZE, saved.size());
+        assertNull(memory.readableMemory[AbstractMemory.getPTE(BASE_ADDRESS)]);
+
+        assertEquals(1, memory.loadUnsigned8(BASE_ADDRESS));
+        assertEquals(0x02020202, memory.loadInstruction32(BASE_ADDRESS + AbstractMemory.PAGE_SIZE));
+        memory.store8(BASE_ADDRESS + AbstractMemory.PAGE_SIZE, 0x44);
+        assertEquals(0x44, memory.loadUnsigned8(BASE_ADDRESS + AbstractMemory.PAGE_SIZE));
+        assertEquals(3, memory.loadUnsigned8(BASE_ADDRESS + 2 * AbstractMemory.PAGE_SIZE + 1));
+        assertEquals(0, memory.loadUnsigned8(BASE_ADDRESS + 2 * AbstractMemory.PAGE_SIZE + AbstractMemory.PAGE_SIZE / 2));
+        assertEquals(3, memory.getNumUsedPages());
+    }
+}
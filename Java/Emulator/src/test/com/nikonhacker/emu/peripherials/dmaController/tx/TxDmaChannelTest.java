@@ -0,0 +1,112 @@
+package com.nikonhacker.emu.peripherials.dmaController.tx;
+
+import com.nikonhacker.Prefs;
+import com.nikonhacker.disassembly.tx.TxCPUState;
+import com.nikonhacker.emu.MasterClock;
+import com.nikonhacker.emu.Platform;
+import com.nikonhacker.emu.memory.DebuggableMemory;
+import com.nikonhacker.emu.peripherials.clock.tx.TxClockGenerator;
+import com.nikonhacker.emu.peripherials.interruptController.tx.TxInterruptController;
+import junit.framework.TestCase;
+
+public class TxDmaChannelTest extends TestCase {
+
+    private static final int BASE_ADDRESS = 0x0040_0000;
+    private static final int LENGTH       = 16;
+    private static final int PAGE_SIZE    = 0x1_0000;
+
+    // STR, 1-byte units (TrSiz and DPS), incrementing source and destination addresses
+    private static final int CCR_START_BYTES = 0b10000000_00000000_00000000_00001111;
+    // EXR, with SIO cleared (continuous transfer)
+    private static final int CCR_EXTERNAL    = 0b00000000_00000000_01000000_00000000;
+
+    private DebuggableMemory memory;
+    private TestInterruptController interruptController;
+    private TxDmaController dmaController;
+
+    @Override
+    protected void setUp() throws Exception {
+        Platform platform = new Platform(new MasterClock());
+        platform.setCpuState(new TxCPUState());
+        memory = new DebuggableMemory(false);
+        memory.map(BASE_ADDRESS, 2 * PAGE_SIZE, true, true, true);
+        platform.setMemory(memory);
+        TxClockGenerator clockGenerator = new TxClockGenerator();
+        clockGenerator.setPlatform(platform);
+        platform.setClockGenerator(clockGenerator);
+        interruptController = new TestInterruptController(platform);
+        platform.setInterruptController(interruptController);
+        dmaController = new TxDmaController(platform, new Prefs());
+    }
+
+    /**
+     * A transfer to the next address must replicate the first byte, as units are copied one after the other
+     */
+    public void testOverlappingRanges() throws Exception {
+        for (int i = 0; i <= LENGTH; i++) {
+            memory.store8(BASE_ADDRESS + i, 0x10 + i);
+        }
+        TxDmaChannel channel = dmaController.getChannel(1);
+        channel.setSar(BASE_ADDRESS);
+        channel.setDar(BASE_ADDRESS + 1);
+        channel.setBcr(LENGTH);
+        channel.setCcr(CCR_START_BYTES);
+
+        for (int i = 0; i <= LENGTH; i++) {
+            assertEquals("Byte #" + i, 0x10, memory.loadUnsigned8(BASE_ADDRESS + i));
+        }
+        assertTrue(channel.isCsrNormalCompletion());
+        assertEquals(0, channel.getBcr());
+        assertEquals(BASE_ADDRESS + LENGTH, channel.getSar());
+        assertEquals(BASE_ADDRESS + 1 + LENGTH, channel.getDar());
+    }
+
+    /**
+     * A transfer started by an external request must clear that request after each unit
+     */
+    public void testExternalRequest() throws Exception {
+        for (int i = 0; i < LENGTH; i++) {
+            memory.store8(BASE_ADDRESS + i, 0x20 + i);
+        }
+        int destination = BASE_ADDRESS + PAGE_SIZE;
+        TxDmaChannel channel = dmaController.getChannel(1);
+        channel.setSar(BASE_ADDRESS);
+        channel.setDar(destination);
+        channel.setBcr(LENGTH);
+        interruptController.pendingChannel = 1;
+        channel.setCcr(CCR_START_BYTES | CCR_EXTERNAL);
+
+        for (int i = 0; i < LENGTH; i++) {
+            assertEquals("Byte #" + i, 0x20 + i, memory.loadUnsigned8(destination + i));
+        }
+        assertEquals(LENGTH, interruptController.clearedRequests);
+        assertEquals(-1, interruptController.pendingChannel);
+        assertTrue(channel.isCsrNormalCompletion());
+        assertEquals(0, channel.getBcr());
+    }
+
+    private static class TestInterruptController extends TxInterruptController {
+        /** Channel with a pending DREQ, or -1 */
+        private int pendingChannel = -1;
+        private int clearedRequests = 0;
+
+        public TestInterruptController(Platform platform) {
+            super(platform);
+        }
+
+        @Override
+        public int getDreqflg() {
+            // DREQFLG bits are 0 when a request is pending
+            return (pendingChannel == -1) ? 0xFF : (0xFF & ~(1 << pendingChannel));
+        }
+
+        @Override
+        public void clearRequest(int channelNumber) {
+            super.clearRequest(channelNumber);
+            if (channelNumber == pendingChannel) {
+                pendingChannel = -1;
+            }
+            clearedRequests++;
+        }
+    }
+}
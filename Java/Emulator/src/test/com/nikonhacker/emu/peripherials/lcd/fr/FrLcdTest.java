@@ -0,0 +1,167 @@
+package com.nikonhacker.emu.peripherials.lcd.fr;
+
+import com.nikonhacker.emu.MasterClock;
+import com.nikonhacker.emu.Platform;
+import com.nikonhacker.emu.memory.DebuggableMemory;
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+
+public class FrLcdTest extends TestCase {
+
+    private static final int Y_ADDRESS  = 0x0040_0000;
+    private static final int CB_ADDRESS = Y_ADDRESS + 0x1_0000;
+    private static final int CR_ADDRESS = Y_ADDRESS + 0x1_8000;
+    // No padding between the rows of the images used here
+    private static final int ALIGN      = 16;
+
+    // Pixel value that the test data never converts to
+    private static final int NOT_DRAWN = 0x12_3456;
+
+    private DebuggableMemory memory;
+    private FrLcd            lcd;
+
+    @Override
+    protected void setUp() throws Exception {
+        Platform platform = new Platform(new MasterClock());
+        memory = new DebuggableMemory(false);
+        memory.map(Y_ADDRESS, 0x2_0000, true, true, true);
+        platform.setMemory(memory);
+        lcd = new FrLcd(platform);
+    }
+
+    /**
+     * The lookup tables must give the same pixels as the float formula, for all (Y, Cb, Cr) values
+     */
+    public void testConversion() throws Exception {
+        // Each row holds 256 pixel pairs, one per Cr value, sharing 2 of the 256 Y values
+        BufferedImage img = FrLcd.getImage(512, 128);
+        for (int row = 0; row < 128; row++) {
+            for (int cr = 0; cr < 256; cr++) {
+                memory.store8(Y_ADDRESS + row * 512 + 2 * cr, 2 * row);
+                memory.store8(Y_ADDRESS + row * 512 + 2 * cr + 1, 2 * row + 1);
+                memory.store8(CR_ADDRESS + row * 256 + cr, cr);
+            }
+        }
+        for (int cb = 0; cb < 256; cb++) {
+            memory.fill(CB_ADDRESS, 256 * 128, (byte) cb);
+            lcd.updateImage(img, Y_ADDRESS, CB_ADDRESS, CR_ADDRESS, ALIGN);
+            for (int row = 0; row < 128; row++) {
+                for (int x = 0; x < 512; x++) {
+                    int y = 2 * row + (x & 1);
+                    int cr = x / 2;
+                    int expected = toRgb(y, cb, cr);
+                    int actual = img.getRGB(x, row) & 0xFF_FFFF;
+                    if (actual != expected) {
+                        fail("Y=" + y + " Cb=" + cb + " Cr=" + cr + ": " + Integer.toHexString(expected) + "!=" + Integer.toHexString(actual));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Only rows whose Y, Cb or Cr bytes changed must be converted again
+     */
+    public void testRowSkipping() throws Exception {
+        BufferedImage img = FrLcd.getImage(32, 4);
+        fillBuffers(Y_ADDRESS, CB_ADDRESS, CR_ADDRESS);
+        lcd.updateImage(img, Y_ADDRESS, CB_ADDRESS, CR_ADDRESS, ALIGN);
+        checkRows(img, Y_ADDRESS, CB_ADDRESS, CR_ADDRESS, 0, 1, 2, 3);
+
+        // Unchanged source: nothing is drawn
+        markNotDrawn(img);
+        lcd.updateImage(img, Y_ADDRESS, CB_ADDRESS, CR_ADDRESS, ALIGN);
+        checkRows(img, Y_ADDRESS, CB_ADDRESS, CR_ADDRESS);
+
+        // Changed Y byte in row 1, Cb byte in row 2 and Cr byte in row 3
+        memory.store8(Y_ADDRESS + 32 + 5, 0x12);
+        memory.store8(CB_ADDRESS + 2 * 16 + 15, 0x34);
+        memory.store8(CR_ADDRESS + 3 * 16, 0x56);
+        markNotDrawn(img);
+        lcd.updateImage(img, Y_ADDRESS, CB_ADDRESS, CR_ADDRESS, ALIGN);
+        checkRows(img, Y_ADDRESS, CB_ADDRESS, CR_ADDRESS, 1, 2, 3);
+    }
+
+    /**
+     * All rows must be converted when the image or any of the buffers is not the one of the previous update
+     */
+    public void testNewImageOrBuffers() throws Exception {
+        BufferedImage img = FrLcd.getImage(32, 4);
+        fillBuffers(Y_ADDRESS, CB_ADDRESS, CR_ADDRESS);
+        // Same content, at other addresses
+        fillBuffers(Y_ADDRESS + 0x1000, CB_ADDRESS + 0x1000, CR_ADDRESS + 0x1000);
+        lcd.updateImage(img, Y_ADDRESS, CB_ADDRESS, CR_ADDRESS, ALIGN);
+
+        BufferedImage otherImg = FrLcd.getImage(32, 4);
+        markNotDrawn(otherImg);
+        lcd.updateImage(otherImg, Y_ADDRESS, CB_ADDRESS, CR_ADDRESS, ALIGN);
+        checkRows(otherImg, Y_ADDRESS, CB_ADDRESS, CR_ADDRESS, 0, 1, 2, 3);
+
+        int[][] buffers = {
+                {Y_ADDRESS + 0x1000, CB_ADDRESS, CR_ADDRESS},
+                {Y_ADDRESS, CB_ADDRESS + 0x1000, CR_ADDRESS},
+                {Y_ADDRESS, CB_ADDRESS, CR_ADDRESS + 0x1000}
+        };
+        for (int[] addresses : buffers) {
+            markNotDrawn(img);
+            lcd.updateImage(img, addresses[0], addresses[1], addresses[2], ALIGN);
+            checkRows(img, addresses[0], addresses[1], addresses[2], 0, 1, 2, 3);
+        }
+    }
+
+    /**
+     * Fill a 32x4 image source with values differing for each pixel
+     */
+    private void fillBuffers(int yAddr, int cbAddr, int crAddr) {
+        for (int i = 0; i < 32 * 4; i++) {
+            memory.store8(yAddr + i, 3 * i);
+        }
+        for (int i = 0; i < 16 * 4; i++) {
+            memory.store8(cbAddr + i, 0x80 + 5 * i);
+            memory.store8(crAddr + i, 0x40 + 7 * i);
+        }
+    }
+
+    private void markNotDrawn(BufferedImage img) {
+        for (int row = 0; row < img.getHeight(); row++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                img.setRGB(x, row, NOT_DRAWN);
+            }
+        }
+    }
+
+    /**
+     * Check that the given rows of a 32x4 image are converted from the given buffers, and that others are not drawn
+     */
+    private void checkRows(BufferedImage img, int yAddr, int cbAddr, int crAddr, int... drawnRows) {
+        boolean[] isDrawn = new boolean[4];
+        for (int row : drawnRows) {
+            isDrawn[row] = true;
+        }
+        for (int row = 0; row < 4; row++) {
+            for (int x = 0; x < 32; x++) {
+                int expected = isDrawn[row]
+                        ? toRgb(memory.loadUnsigned8(yAddr + row * 32 + x),
+                                memory.loadUnsigned8(cbAddr + row * 16 + x / 2),
+                                memory.loadUnsigned8(crAddr + row * 16 + x / 2))
+                        : NOT_DRAWN;
+                assertEquals("Pixel (" + x + ", " + row + ")", expected, img.getRGB(x, row) & 0xFF_FFFF);
+            }
+        }
+    }
+
+    /**
+     * Full range YCbCr to RGB conversion, as computed before lookup tables were introduced
+     */
+    private static int toRgb(int y, int u, int v) {
+        final int factorR = Math.round(1.4f * (v-128) );
+        final int factorG = Math.round(-0.343f * (u-128) - 0.711f * (v-128));
+        final int factorB = Math.round(1.765f * (u-128) );
+        return (clamp(y+factorR) << 16) | (clamp(y+factorG) << 8) | clamp(y+factorB);
+    }
+
+    private static int clamp(int x) {
+        return (x<=255 ? (x>=0 ? x : 0 ) : 255);
+    }
+}
@@ -0,0 +1,127 @@
+package com.nikonhacker.emu.peripherials.mirrorBox;
+
+import com.nikonhacker.Constants;
+import com.nikonhacker.emu.Clockable;
+import com.nikonhacker.emu.MasterClock;
+import com.nikonhacker.emu.Platform;
+import com.nikonhacker.emu.peripherials.ioPort.Pin;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MirrorBoxTest extends TestCase {
+
+    private MasterClock   masterClock;
+    private MirrorBox     mirrorBox;
+    private List<Integer> wipersStates;
+    private List<Long>    wipersTimes;
+
+    @Override
+    protected void setUp() throws Exception {
+        masterClock = new MasterClock();
+        mirrorBox = new MirrorBox(new Platform(masterClock));
+        wipersStates = new ArrayList<>();
+        wipersTimes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Pin.interconnect(mirrorBox.getWiperPin(i), new Pin("TX WIPER" + i + " pin") {
+                @Override
+                public void setInputValue(int value) {
+                    wipersStates.add(getWipers());
+                    wipersTimes.add(masterClock.getTotalElapsedTimePs());
+                }
+            });
+        }
+        // Only record changes, not the initial state propagated by interconnect()
+        wipersStates.clear();
+        wipersTimes.clear();
+    }
+
+    /**
+     * Each wipers state must be reached after the time of its step, counted from the previous state, in both
+     * directions. The mirror must stay in its last state when stopped or at the end of its course
+     */
+    public void testWipersSequence() throws Exception {
+        run(new TestClockable(300) {
+            @Override
+            void onTick(int tickMs) {
+                switch (tickMs) {
+                    case 0:
+                        // Up
+                        move(0);
+                        break;
+                    case 100:
+                        // Down
+                        move(1);
+                        break;
+                    case 170:
+                        mirrorBox.getMovePin().setInputValue(0);
+                        break;
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(0b110, 0b100, 0b000, 0b100, 0b110), wipersStates);
+        assertEquals(Arrays.asList(ms(18), ms(18 + 30), ms(18 + 30 + 33), ms(100 + 33), ms(100 + 33 + 30)), wipersTimes);
+    }
+
+    private static long ms(int ms) {
+        return ms * MasterClock.PS_PER_MS;
+    }
+
+    private void move(int direction) {
+        mirrorBox.getMovePin().setInputValue(1);
+        mirrorBox.getDirPin().setInputValue(direction);
+    }
+
+    private int getWipers() {
+        int wipers = 0;
+        for (int i = 0; i < 3; i++) {
+            wipers = (wipers << 1) | mirrorBox.getWiperPin(i).getOutputValue();
+        }
+        return wipers;
+    }
+
+    private void run(TestClockable clockable) throws InterruptedException {
+        masterClock.add(clockable, -1, true, true);
+        masterClock.start();
+        for (int i = 0; i < 100 && !clockable.finished; i++) {
+            Thread.sleep(20);
+        }
+        assertTrue("Clock did not finish", clockable.finished);
+    }
+
+    private abstract static class TestClockable implements Clockable {
+        private final int maxTicks;
+        private int tick = 0;
+        private volatile boolean finished;
+
+        TestClockable(int maxTicks) {
+            this.maxTicks = maxTicks;
+        }
+
+        abstract void onTick(int tick);
+
+        @Override
+        public int getChip() {
+            return Constants.CHIP_TX;
+        }
+
+        @Override
+        public int getFrequencyHz() {
+            return 1_000;
+        }
+
+        @Override
+        public Object onClockTick() {
+            onTick(tick);
+            tick++;
+            if (tick == maxTicks) {
+                finished = true;
+                return new Object();
+            }
+            return null;
+        }
+    }
+}
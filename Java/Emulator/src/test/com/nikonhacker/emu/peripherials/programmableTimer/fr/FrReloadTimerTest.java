@@ -0,0 +1,109 @@
+package com.nikonhacker.emu.peripherials.programmableTimer.fr;
+
+import com.nikonhacker.Constants;
+import com.nikonhacker.emu.Clockable;
+import com.nikonhacker.emu.MasterClock;
+import com.nikonhacker.emu.Platform;
+import com.nikonhacker.emu.peripherials.clock.fr.FrClockGenerator;
+import com.nikonhacker.emu.peripherials.interruptController.DummyInterruptController;
+import com.nikonhacker.emu.peripherials.interruptController.SharedInterruptCircuit;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FrReloadTimerTest extends TestCase {
+
+    private static final int NUM_SAMPLES = 1000;
+
+    public void testEventDrivenReloadTimer() throws Exception {
+        assertEquals(sample(false, false), sample(false, true));
+    }
+
+    public void testEventDrivenReloadTimer32() throws Exception {
+        assertEquals(sample(true, false), sample(true, true));
+    }
+
+    /**
+     * Runs a reload timer and samples its registers at a frequency unrelated to its own
+     * @return the list of sampled values
+     */
+    private List<String> sample(boolean is32bit, boolean eventDrivenTimers) throws Exception {
+        MasterClock masterClock = new MasterClock();
+        masterClock.setEventQueueScheduling(true);
+        masterClock.setEventDrivenTimers(eventDrivenTimers);
+        Platform platform = new Platform(masterClock);
+        FrClockGenerator clockGenerator = new FrClockGenerator();
+        clockGenerator.setPlatform(platform);
+        platform.setClockGenerator(clockGenerator);
+        platform.setInterruptController(new DummyInterruptController());
+        platform.setSharedInterruptCircuit(new SharedInterruptCircuit() {
+            @Override
+            public boolean request(int interruptNumber, int sourceNumber) {
+                return false;
+            }
+
+            @Override
+            public void removeRequest(int interruptNumber, int sourceNumber) {
+            }
+        });
+
+        final FrReloadTimer timer = is32bit ? new FrReloadTimer32(0, platform) : new FrReloadTimer(0, platform);
+        timer.setActive(true);
+        timer.setTmrlra(1000);
+        // Reload, count, and reload upon underflow
+        timer.setTmcsr(FrReloadTimer.TMCSR_TRG_MASK | FrReloadTimer.TMCSR_CNTE_MASK | FrReloadTimer.TMCSR_RELD_MASK);
+        assertEquals(eventDrivenTimers, timer.isEventDriven());
+
+        Sampler sampler = new Sampler(timer);
+        masterClock.add(sampler, -1, true, true);
+        masterClock.start();
+
+        for (int i = 0; i < 100 && sampler.samples.size() < NUM_SAMPLES; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(NUM_SAMPLES, sampler.samples.size());
+        return sampler.samples;
+    }
+
+    private static class Sampler implements Clockable {
+        private final FrReloadTimer timer;
+        private final List<String> samples = new ArrayList<>();
+
+        Sampler(FrReloadTimer timer) {
+            this.timer = timer;
+        }
+
+        @Override
+        public int getChip() {
+            return Constants.CHIP_FR;
+        }
+
+        @Override
+        public int getFrequencyHz() {
+            return 999_983;
+        }
+
+        @Override
+        public Object onClockTick() throws Exception {
+            int tmcsr = timer.getTmcsr();
+            samples.add(timer.getTmr() + ((tmcsr & FrReloadTimer.TMCSR_UF_MASK) != 0 ? " UF" : ""));
+            switch (samples.size()) {
+                case 300:
+                    // Acknowledge underflow
+                    timer.setTmcsr(tmcsr & ~FrReloadTimer.TMCSR_UF_MASK);
+                    break;
+                case 500:
+                    // Reload with a new value
+                    timer.setTmrlra(123);
+                    timer.setTmcsr(tmcsr | FrReloadTimer.TMCSR_TRG_MASK);
+                    break;
+                case 700:
+                    // Switch to one-shot
+                    timer.setTmcsr(tmcsr & ~FrReloadTimer.TMCSR_RELD_MASK);
+                    break;
+            }
+            return samples.size() < NUM_SAMPLES ? null : this;
+        }
+    }
+}
@@ -21,28 +21,28 @@ public class St950x0TesterDevice extends SerialDevice {
     }
 
     public void doSendRdsr() {
-        write(St950x0.RDSR);
-        write(St950x0.DUMMY_BYTE);
+        send(St950x0.RDSR);
+        send(St950x0.DUMMY_BYTE);
     }
 
     public void doSendWrite() {
-        write(St950x0.WRITE0);
-        write(0x12);
-        write(0x34);
-        write(0x56);
+        send(St950x0.WRITE0);
+        send(0x12);
+        send(0x34);
+        send(0x56);
     }
 
     public void doSendRead() {
-        write(St950x0.READ0);
-        write(0x13);
-        write(St950x0.DUMMY_BYTE);
+        send(St950x0.READ0);
+        send(0x13);
+        send(St950x0.DUMMY_BYTE);
     }
 
     public void doSendWren() {
-        write(St950x0.WREN);
+        send(St950x0.WREN);
     }
 
-    private void write(int value) {
+    private void send(int value) {
         System.err.println(deviceName + " writes 0x" + Format.asHex(value, 2));
         targetDevice.write(value);
     }
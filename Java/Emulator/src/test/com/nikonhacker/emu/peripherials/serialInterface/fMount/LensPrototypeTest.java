@@ -0,0 +1,167 @@
+package com.nikonhacker.emu.peripherials.serialInterface.fMount;
+
+import com.nikonhacker.Constants;
+import com.nikonhacker.emu.Clockable;
+import com.nikonhacker.emu.MasterClock;
+import com.nikonhacker.emu.peripherials.ioPort.Pin;
+import com.nikonhacker.emu.peripherials.serialInterface.SerialDevice;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LensPrototypeTest extends TestCase {
+
+    private static final long PS_PER_US = 1_000_000L;
+
+    // Baud rate of the lens until command 0x40 switches to the fast one
+    private static final int SLOW_BAUD_RATE = 192307 / 2;
+
+    private static final int COMMAND_GET_STATUS = 0x28;
+
+    private MasterClock   masterClock;
+    private FMountCircuit fMountCircuit;
+    private List<Long>    pin2AssertTimes;
+
+    @Override
+    protected void setUp() throws Exception {
+        masterClock = new MasterClock();
+        fMountCircuit = new FMountCircuit("F-Mount");
+        SerialDevice.interConnectSerialDevices(fMountCircuit, new SerialDevice() {
+            @Override
+            public void onBitNumberChange(SerialDevice serialDevice, int numBits) {
+            }
+
+            @Override
+            public void write(Integer value) {
+            }
+        });
+        pin2AssertTimes = new ArrayList<>();
+        Pin.interconnect(fMountCircuit.getToTXPin(), new Pin("TX Pin2 input pin") {
+            private int lastValue = 1;
+
+            @Override
+            public void setInputValue(int value) {
+                if (value == 0 && lastValue != 0) {
+                    pin2AssertTimes.add(masterClock.getTotalElapsedTimePs());
+                }
+                lastValue = value;
+            }
+        });
+        fMountCircuit.setLensPlugin(new LensPrototype(fMountCircuit, masterClock));
+        // Pin2 is released by the mount (output is inverted)
+        fMountCircuit.getFromTXPin().setInputValue(0);
+        pin2AssertTimes.clear();
+    }
+
+    /**
+     * Once a byte is exchanged, the lens must assert Pin2 again after the given number of 4-bit periods
+     */
+    public void testPin2AssertDelay() throws Exception {
+        run(new TestClockable(500) {
+            @Override
+            void onTick(int tickUs) {
+                switch (tickUs) {
+                    case 0:
+                        // Mount asserts Pin2...
+                        fMountCircuit.getFromTXPin().setInputValue(1);
+                        break;
+                    case 10:
+                        // ...then releases it: lens acknowledges by keeping it asserted
+                        fMountCircuit.getFromTXPin().setInputValue(0);
+                        break;
+                    case 20:
+                        fMountCircuit.write((~COMMAND_GET_STATUS) & 0xFF);
+                        break;
+                    case 300:
+                        assertEquals(0x10, fMountCircuit.read().intValue());
+                        break;
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(
+                        // Mount asserting Pin2. Lens keeps it asserted when the mount releases it, until the command byte
+                        0L,
+                        // Lens ready to send the first byte
+                        atNextTick(20 * PS_PER_US + 17 * MasterClock.PS_PER_SEC / SLOW_BAUD_RATE),
+                        // Lens ready to send the second byte
+                        atNextTick(300 * PS_PER_US + 7 * MasterClock.PS_PER_SEC / SLOW_BAUD_RATE)),
+                pin2AssertTimes);
+    }
+
+    /**
+     * A command byte coming 5ms after the start of the command must abort it, so that Pin2 is not asserted anymore
+     */
+    public void testAbortTimeout() throws Exception {
+        run(new TestClockable(6_000) {
+            @Override
+            void onTick(int tickUs) {
+                switch (tickUs) {
+                    case 0:
+                        fMountCircuit.getFromTXPin().setInputValue(1);
+                        break;
+                    case 10:
+                        fMountCircuit.getFromTXPin().setInputValue(0);
+                        break;
+                    case 5_010:
+                        fMountCircuit.write((~COMMAND_GET_STATUS) & 0xFF);
+                        break;
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(0L), pin2AssertTimes);
+        assertEquals(1, fMountCircuit.getToTXPin().getOutputValue().intValue());
+    }
+
+    /**
+     * Time at which an event scheduled at the given time is seen by the test clock, ticking every us
+     */
+    private static long atNextTick(long timePs) {
+        return (timePs + PS_PER_US - 1) / PS_PER_US * PS_PER_US;
+    }
+
+    private void run(TestClockable clockable) throws InterruptedException {
+        masterClock.add(clockable, -1, true, true);
+        masterClock.start();
+        for (int i = 0; i < 100 && !clockable.finished; i++) {
+            Thread.sleep(20);
+        }
+        assertTrue("Clock did not finish", clockable.finished);
+    }
+
+    private abstract static class TestClockable implements Clockable {
+        private final int maxTicks;
+        private int tick = 0;
+        private volatile boolean finished;
+
+        TestClockable(int maxTicks) {
+            this.maxTicks = maxTicks;
+        }
+
+        abstract void onTick(int tick);
+
+        @Override
+        public int getChip() {
+            return Constants.CHIP_TX;
+        }
+
+        @Override
+        public int getFrequencyHz() {
+            return 1_000_000;
+        }
+
+        @Override
+        public Object onClockTick() {
+            onTick(tick);
+            tick++;
+            if (tick == maxTicks) {
+                finished = true;
+                return new Object();
+            }
+            return null;
+        }
+    }
+}
@@ -1,11 +1,57 @@
 package com.nikonhacker.emu.peripherials.serialInterface.fr;
 
+import com.nikonhacker.Constants;
+import com.nikonhacker.emu.Clockable;
 import com.nikonhacker.emu.MasterClock;
 import com.nikonhacker.emu.Platform;
+import com.nikonhacker.emu.peripherials.clock.fr.FrClockGenerator;
 import com.nikonhacker.emu.peripherials.interruptController.DummyInterruptController;
+import com.nikonhacker.emu.peripherials.serialInterface.SerialDevice;
+import com.nikonhacker.emu.peripherials.serialInterface.SerialInterface;
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class FrSerialInterfaceTest extends TestCase {
+
+    private static final long PS_PER_US = 1_000_000L;
+
+    // CSIO mode, master with internal clock
+    private static final int SMR_CSIO = 0b0100_0000;
+    // TXE
+    private static final int SCR_TXE  = 0b0000_0001;
+    // PCLK is 25MHz (default clock configuration), divided by 25: 1MHz
+    private static final int BGR0_1MHZ = 24;
+    // L2-L1-L0 = 9-bit
+    private static final int ESCR_9_BITS = 0b0000_0100;
+
+    // 8 bits at 1MHz
+    private static final long FRAME_PS = 8 * PS_PER_US;
+
+    private MasterClock       masterClock;
+    private Platform          platform;
+    private FrClockGenerator  clockGenerator;
+    private FrSerialInterface serialInterface;
+    private RecordingDevice   device;
+
+    @Override
+    protected void setUp() throws Exception {
+        masterClock = new MasterClock();
+        platform = new Platform(masterClock);
+        platform.setInterruptController(new DummyInterruptController());
+        clockGenerator = new FrClockGenerator();
+        clockGenerator.setPlatform(platform);
+        platform.setClockGenerator(clockGenerator);
+        serialInterface = new FrSerialInterface(5, platform, false);
+        device = new RecordingDevice();
+        SerialDevice.interConnectSerialDevices(serialInterface, device);
+
+        serialInterface.setSmr(SMR_CSIO);
+        serialInterface.setBgr0(BGR0_1MHZ);
+    }
+
     public void testInterface() {
 
         MasterClock masterClock = new MasterClock();
@@ -27,4 +73,191 @@ public class FrSerialInterfaceTest extends TestCase {
         serialInterface.setTdr(3);
 
     }
+
+    /**
+     * A value must reach the target device once all the bits of its frame are transferred
+     */
+    public void testFrameTiming() throws Exception {
+        serialInterface.setScrIbcr(SCR_TXE);
+        run(new TestClockable(100) {
+            @Override
+            void onTick(int tick) {
+                switch (tick) {
+                    case 10:
+                        serialInterface.setTdr(0x5A);
+                        break;
+                    case 50:
+                        serialInterface.setEscrIbsr(ESCR_9_BITS);
+                        serialInterface.setTdr(0x15A);
+                        break;
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(0x5A, 0x15A), device.values);
+        assertEquals(Arrays.asList(10 * PS_PER_US + FRAME_PS, 59 * PS_PER_US), device.valueTimes);
+    }
+
+    /**
+     * A value written as soon as the previous one is sent must be sent in the next frame
+     */
+    public void testContinuousTransmission() throws Exception {
+        serialInterface.setScrIbcr(SCR_TXE);
+        device.valuesToRefill = 2;
+        run(new TestClockable(100) {
+            @Override
+            void onTick(int tick) {
+                if (tick == 0) {
+                    serialInterface.setTdr(0x10);
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(0x10, 0x11, 0x12), device.values);
+        assertEquals(Arrays.asList(FRAME_PS, 2 * FRAME_PS, 3 * FRAME_PS), device.valueTimes);
+    }
+
+    /**
+     * A value written while the baud rate is 0 must be sent once BGR is written with a usable clock, even if the
+     * interface was not notified when the clock started
+     */
+    public void testTransferStartedByBgr() throws Exception {
+        final int cselr = clockGenerator.getCselr();
+        clockGenerator.setCselr(0);
+        serialInterface.setScrIbcr(SCR_TXE);
+        run(new TestClockable(100) {
+            @Override
+            void onTick(int tick) {
+                switch (tick) {
+                    case 0:
+                        serialInterface.setTdr(0x5A);
+                        break;
+                    case 20:
+                        // Serial interfaces are not registered in the platform: this one is not notified
+                        clockGenerator.setCselr(cselr);
+                        break;
+                    case 40:
+                        serialInterface.setBgr0(BGR0_1MHZ);
+                        break;
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(0x5A), device.values);
+        assertEquals(Arrays.asList(40 * PS_PER_US + FRAME_PS), device.valueTimes);
+    }
+
+    /**
+     * A value written while the baud rate is 0 must be sent once the clock generator restarts the clocks
+     */
+    public void testTransferStartedByClockGenerator() throws Exception {
+        platform.setSerialInterfaces(new SerialInterface[]{serialInterface});
+        final int cselr = clockGenerator.getCselr();
+        clockGenerator.setCselr(0);
+        serialInterface.setScrIbcr(SCR_TXE);
+        run(new TestClockable(100) {
+            @Override
+            void onTick(int tick) {
+                switch (tick) {
+                    case 0:
+                        serialInterface.setTdr(0x5A);
+                        break;
+                    case 20:
+                        clockGenerator.setCselr(cselr);
+                        break;
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(0x5A), device.values);
+        assertEquals(Arrays.asList(20 * PS_PER_US + FRAME_PS), device.valueTimes);
+    }
+
+    /**
+     * Register writes during a frame must neither schedule another frame nor delay the current one
+     */
+    public void testRegisterWriteDuringFrame() throws Exception {
+        serialInterface.setScrIbcr(SCR_TXE);
+        run(new TestClockable(100) {
+            @Override
+            void onTick(int tick) {
+                switch (tick) {
+                    case 0:
+                        serialInterface.setTdr(0x5A);
+                        break;
+                    case 4:
+                        serialInterface.setBgr0(BGR0_1MHZ);
+                        serialInterface.setSmr(SMR_CSIO);
+                        serialInterface.setScrIbcr(SCR_TXE);
+                        break;
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(0x5A), device.values);
+        assertEquals(Arrays.asList(FRAME_PS), device.valueTimes);
+    }
+
+    private void run(TestClockable clockable) throws InterruptedException {
+        masterClock.add(clockable, -1, true, true);
+        masterClock.start();
+        for (int i = 0; i < 100 && !clockable.finished; i++) {
+            Thread.sleep(20);
+        }
+        assertTrue("Clock did not finish", clockable.finished);
+    }
+
+    private abstract static class TestClockable implements Clockable {
+        private final int maxTicks;
+        private int tick = 0;
+        private volatile boolean finished;
+
+        TestClockable(int maxTicks) {
+            this.maxTicks = maxTicks;
+        }
+
+        abstract void onTick(int tick);
+
+        @Override
+        public int getChip() {
+            return Constants.CHIP_FR;
+        }
+
+        @Override
+        public int getFrequencyHz() {
+            return 1_000_000;
+        }
+
+        @Override
+        public Object onClockTick() {
+            onTick(tick);
+            tick++;
+            if (tick == maxTicks) {
+                finished = true;
+                return new Object();
+            }
+            return null;
+        }
+    }
+
+    private class RecordingDevice extends SerialDevice {
+        private final List<Integer> values     = new ArrayList<>();
+        private final List<Long>    valueTimes = new ArrayList<>();
+        private int valuesToRefill = 0;
+
+        @Override
+        public void onBitNumberChange(SerialDevice serialDevice, int numBits) {
+        }
+
+        @Override
+        public void write(Integer value) {
+            values.add(value);
+            valueTimes.add(masterClock.getTotalElapsedTimePs());
+            if (valuesToRefill > 0) {
+                // As an interrupt handler would do
+                valuesToRefill--;
+                serialInterface.setTdr(value + 1);
+            }
+        }
+    }
 }
@@ -0,0 +1,269 @@
+package com.nikonhacker.emu.peripherials.serialInterface.tx;
+
+import com.nikonhacker.Constants;
+import com.nikonhacker.disassembly.tx.TxCPUState;
+import com.nikonhacker.emu.Clockable;
+import com.nikonhacker.emu.MasterClock;
+import com.nikonhacker.emu.Platform;
+import com.nikonhacker.emu.peripherials.clock.tx.TxClockGenerator;
+import com.nikonhacker.emu.peripherials.interruptController.DummyInterruptController;
+import com.nikonhacker.emu.peripherials.serialInterface.SerialDevice;
+import com.nikonhacker.emu.peripherials.serialInterface.SerialInterface;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TxSerialInterfaceTest extends TestCase {
+
+    private static final long PS_PER_US = 1_000_000L;
+
+    // T1 = fT0 / 2 = 2.5MHz (default clock configuration), divided by 10: 250kbps, so SCLK is 125kHz in I/O mode
+    private static final int BRCR_250KBPS = 0b00_1010;
+    // TXE, half duplex transmission, SINT = 1 SCLK interval
+    private static final int MOD1_TX      = 0b0101_0010;
+    // Half duplex reception, SINT = 1 SCLK interval
+    private static final int MOD1_RX      = 0b0010_0010;
+    // I/O interface mode, RXE
+    private static final int MOD0_RXE     = 0b0010_0000;
+    // High speed oscillator enabled (reset value), or stopped
+    private static final int OSCCR_XEN     = 0b1_0001_0000;
+    private static final int OSCCR_STOPPED = 0b0_0001_0000;
+
+    // (8 bits + 1 bit interval) at 125kHz
+    private static final long FRAME_PS = 72 * PS_PER_US;
+
+    private MasterClock        masterClock;
+    private Platform           platform;
+    private TxClockGenerator   clockGenerator;
+    private TxSerialInterface  serialInterface;
+    private RecordingDevice    device;
+
+    @Override
+    protected void setUp() throws Exception {
+        masterClock = new MasterClock();
+        platform = new Platform(masterClock);
+        platform.setCpuState(new TxCPUState());
+        clockGenerator = new TxClockGenerator();
+        clockGenerator.setPlatform(platform);
+        platform.setClockGenerator(clockGenerator);
+        platform.setInterruptController(new DummyInterruptController());
+        serialInterface = new TxSerialInterface(0, platform, false);
+        device = new RecordingDevice();
+        SerialDevice.interConnectSerialDevices(serialInterface, device);
+
+        serialInterface.setEn(1);
+        serialInterface.setCr(0);
+        serialInterface.setMod0(0);
+        serialInterface.setBrcr(BRCR_250KBPS);
+    }
+
+    /**
+     * A value must reach the target device once the bits and the interval of its frame are transferred
+     */
+    public void testFrameTiming() throws Exception {
+        serialInterface.setMod1(MOD1_TX);
+        run(new TestClockable(300) {
+            @Override
+            void onTick(int tick) {
+                if (tick == 10) {
+                    serialInterface.setBuf(0x5A);
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(0x5A), device.values);
+        assertEquals(Arrays.asList(10 * PS_PER_US + FRAME_PS), device.valueTimes);
+    }
+
+    /**
+     * A value written as soon as the previous one is sent must be sent in the next frame
+     */
+    public void testContinuousTransmission() throws Exception {
+        serialInterface.setMod1(MOD1_TX);
+        device.valuesToRefill = 2;
+        run(new TestClockable(300) {
+            @Override
+            void onTick(int tick) {
+                if (tick == 0) {
+                    serialInterface.setBuf(0x10);
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(0x10, 0x11, 0x12), device.values);
+        assertEquals(Arrays.asList(FRAME_PS, 2 * FRAME_PS, 3 * FRAME_PS), device.valueTimes);
+    }
+
+    /**
+     * As clock master in half duplex reception, a value must be read from the target device at each frame, until
+     * reception is disabled
+     */
+    public void testContinuousReception() throws Exception {
+        serialInterface.setMod1(MOD1_RX);
+        device.readsBeforeStop = 3;
+        run(new TestClockable(300) {
+            @Override
+            void onTick(int tick) {
+                if (tick == 0) {
+                    serialInterface.setMod0(MOD0_RXE);
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(FRAME_PS, 2 * FRAME_PS, 3 * FRAME_PS), device.readTimes);
+    }
+
+    /**
+     * A value written while the baud rate is 0 must be sent once BRCR is written with a usable clock, even if the
+     * interface was not notified when the clock started
+     */
+    public void testTransferStartedByBrcr() throws Exception {
+        clockGenerator.setOsccr(OSCCR_STOPPED);
+        serialInterface.setMod1(MOD1_TX);
+        run(new TestClockable(300) {
+            @Override
+            void onTick(int tick) {
+                switch (tick) {
+                    case 0:
+                        serialInterface.setBuf(0x5A);
+                        break;
+                    case 50:
+                        // Serial interfaces are not registered in the platform: this one is not notified
+                        clockGenerator.setOsccr(OSCCR_XEN);
+                        break;
+                    case 100:
+                        serialInterface.setBrcr(BRCR_250KBPS);
+                        break;
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(0x5A), device.values);
+        assertEquals(Arrays.asList(100 * PS_PER_US + FRAME_PS), device.valueTimes);
+    }
+
+    /**
+     * A value written while the baud rate is 0 must be sent once the clock generator restarts the clocks
+     */
+    public void testTransferStartedByClockGenerator() throws Exception {
+        platform.setSerialInterfaces(new SerialInterface[]{serialInterface});
+        clockGenerator.setOsccr(OSCCR_STOPPED);
+        serialInterface.setMod1(MOD1_TX);
+        run(new TestClockable(300) {
+            @Override
+            void onTick(int tick) {
+                switch (tick) {
+                    case 0:
+                        serialInterface.setBuf(0x5A);
+                        break;
+                    case 50:
+                        clockGenerator.setOsccr(OSCCR_XEN);
+                        break;
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(0x5A), device.values);
+        assertEquals(Arrays.asList(50 * PS_PER_US + FRAME_PS), device.valueTimes);
+    }
+
+    /**
+     * Register writes during a frame must neither schedule another frame nor delay the current one
+     */
+    public void testRegisterWriteDuringFrame() throws Exception {
+        serialInterface.setMod1(MOD1_TX);
+        run(new TestClockable(300) {
+            @Override
+            void onTick(int tick) {
+                switch (tick) {
+                    case 0:
+                        serialInterface.setBuf(0x5A);
+                        break;
+                    case 30:
+                        serialInterface.setBrcr(BRCR_250KBPS);
+                        serialInterface.setCr(0);
+                        serialInterface.setMod1(MOD1_TX);
+                        break;
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList(0x5A), device.values);
+        assertEquals(Arrays.asList(FRAME_PS), device.valueTimes);
+    }
+
+    private void run(TestClockable clockable) throws InterruptedException {
+        masterClock.add(clockable, -1, true, true);
+        masterClock.start();
+        for (int i = 0; i < 100 && !clockable.finished; i++) {
+            Thread.sleep(20);
+        }
+        assertTrue("Clock did not finish", clockable.finished);
+    }
+
+    private abstract static class TestClockable implements Clockable {
+        private final int maxTicks;
+        private int tick = 0;
+        private volatile boolean finished;
+
+        TestClockable(int maxTicks) {
+            this.maxTicks = maxTicks;
+        }
+
+        abstract void onTick(int tick);
+
+        @Override
+        public int getChip() {
+            return Constants.CHIP_TX;
+        }
+
+        @Override
+        public int getFrequencyHz() {
+            return 1_000_000;
+        }
+
+        @Override
+        public Object onClockTick() {
+            onTick(tick);
+            tick++;
+            if (tick == maxTicks) {
+                finished = true;
+                return new Object();
+            }
+            return null;
+        }
+    }
+
+    private class RecordingDevice extends SerialDevice {
+        private final List<Integer> values     = new ArrayList<>();
+        private final List<Long>    valueTimes = new ArrayList<>();
+        private final List<Long>    readTimes  = new ArrayList<>();
+        private int valuesToRefill  = 0;
+        private int readsBeforeStop = 0;
+
+        @Override
+        public void onBitNumberChange(SerialDevice serialDevice, int numBits) {
+        }
+
+        @Override
+        public void write(Integer value) {
+            values.add(value);
+            valueTimes.add(masterClock.getTotalElapsedTimePs());
+            if (valuesToRefill > 0) {
+                // As an interrupt handler would do
+                valuesToRefill--;
+                serialInterface.setBuf(value + 1);
+            }
+        }
+
+        @Override
+        public void readHalfDuplex() {
+            readTimes.add(masterClock.getTotalElapsedTimePs());
+            if (readTimes.size() == readsBeforeStop) {
+                serialInterface.setMod0(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.nikonhacker.emu.peripherials.serialInterface.util;
+
+import com.nikonhacker.Constants;
+import com.nikonhacker.emu.Clockable;
+import com.nikonhacker.emu.MasterClock;
+import com.nikonhacker.emu.peripherials.serialInterface.SerialDevice;
+import junit.framework.TestCase;
+
+public class ClockSyncSerialWireTest extends TestCase {
+
+    /**
+     * In multi-threaded mode, a value written on one chip must only reach the device of the other chip at the
+     * next synchronization point, whether it is boxed or not
+     */
+    public void testMultiThreadedWrite() throws Exception {
+        MasterClock masterClock = new MasterClock();
+        masterClock.setMultiThreadQuantumPs(10 * 1_000_000L); // 10us
+        RecordingDevice target = new RecordingDevice();
+        ClockSyncSerialWire wire = new ClockSyncSerialWire("FR > TX", target, masterClock);
+        SendingClockable sender = new SendingClockable(wire, masterClock, target);
+        masterClock.add(sender, -1, true, true);
+        masterClock.add(new IdleClockable(), -1, true, true);
+        masterClock.start();
+
+        for (int i = 0; i < 100 && sender.runs < sender.maxRuns; i++) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(20);
+
+        assertTrue(sender.wasMultiThreaded);
+        assertEquals(0x42, target.unboxedValue);
+        assertEquals(0x43, target.boxedValue.intValue());
+        assertFalse("Value was delivered from the thread of the sending chip", target.deliveredWhileWriting);
+    }
+
+    private static class SendingClockable implements Clockable {
+        private final ClockSyncSerialWire wire;
+        private final MasterClock masterClock;
+        private final RecordingDevice target;
+        private volatile int runs = 0;
+        private int maxRuns = 1000;
+        private boolean wasMultiThreaded;
+
+        public SendingClockable(ClockSyncSerialWire wire, MasterClock masterClock, RecordingDevice target) {
+            this.wire = wire;
+            this.masterClock = masterClock;
+            this.target = target;
+        }
+
+        @Override
+        public int getChip() {
+            return Constants.CHIP_FR;
+        }
+
+        @Override
+        public int getFrequencyHz() {
+            return 1000000;
+        }
+
+        @Override
+        public Object onClockTick() {
+            runs++;
+            if (runs == 5) {
+                wasMultiThreaded = masterClock.isRunningMultiThreaded();
+                target.writing = true;
+                wire.write(0x42);
+                wire.write(Integer.valueOf(0x43));
+                target.writing = false;
+            }
+            return (runs < maxRuns) ? null : new Object();
+        }
+    }
+
+    private static class IdleClockable implements Clockable {
+        private int runs = 0;
+
+        @Override
+        public int getChip() {
+            return Constants.CHIP_TX;
+        }
+
+        @Override
+        public int getFrequencyHz() {
+            return 1000000;
+        }
+
+        @Override
+        public Object onClockTick() {
+            runs++;
+            return (runs < 1000) ? null : new Object();
+        }
+    }
+
+    private static class RecordingDevice extends SerialDevice {
+        private volatile boolean writing;
+        private volatile boolean deliveredWhileWriting;
+        private volatile int unboxedValue = -1;
+        private volatile Integer boxedValue;
+
+        @Override
+        public void onBitNumberChange(SerialDevice serialDevice, int numBits) {
+        }
+
+        @Override
+        public void write(Integer value) {
+            deliveredWhileWriting |= writing;
+            boxedValue = value;
+        }
+
+        @Override
+        public void write(int value) {
+            deliveredWhileWriting |= writing;
+            unboxedValue = value;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.nikonhacker.emu.peripherials.serialInterface.util;
+
+import junit.framework.TestCase;
+
+import java.util.NoSuchElementException;
+
+public class IntFifoTest extends TestCase {
+
+    public void testOrderAcrossWrapAround() throws Exception {
+        IntFifo fifo = new IntFifo(4);
+        int nextIn = 0, nextOut = 0;
+        // Keep 3 values in a 4 values buffer, so that head and tail wrap around many times
+        for (int i = 0; i < 3; i++) {
+            fifo.add(nextIn++);
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(nextOut, fifo.peek());
+            assertEquals(nextOut++, fifo.poll());
+            fifo.add(nextIn++);
+            assertEquals(3, fifo.size());
+        }
+        while (!fifo.isEmpty()) {
+            assertEquals(nextOut++, fifo.poll());
+        }
+        assertEquals(nextIn, nextOut);
+    }
+
+    public void testGrowWhileWrapped() throws Exception {
+        IntFifo fifo = new IntFifo(4);
+        fifo.add(0x100);
+        fifo.add(0x101);
+        fifo.add(0x102);
+        fifo.poll();
+        fifo.poll();
+        // Head is now at index 2. Fill and overflow the buffer
+        for (int value = 0x103; value < 0x10A; value++) {
+            fifo.add(value);
+        }
+        assertEquals(8, fifo.size());
+        for (int value = 0x102; value < 0x10A; value++) {
+            assertEquals(value, fifo.poll());
+        }
+        assertTrue(fifo.isEmpty());
+    }
+
+    public void testGetWhileWrapped() throws Exception {
+        IntFifo fifo = new IntFifo(4);
+        for (int value = 0; value < 6; value++) {
+            fifo.add(value);
+            if (value < 2) {
+                fifo.poll();
+            }
+        }
+        // Head is now at index 2, and values 2 to 5 wrap around the end of the buffer
+        for (int i = 0; i < 4; i++) {
+            assertEquals(2 + i, fifo.get(i));
+        }
+        try {
+            fifo.get(4);
+            fail("Getting past the tail should throw");
+        }
+        catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testClear() throws Exception {
+        IntFifo fifo = new IntFifo();
+        fifo.add(1);
+        fifo.add(2);
+        fifo.clear();
+        assertTrue(fifo.isEmpty());
+        assertEquals(0, fifo.size());
+        fifo.add(3);
+        assertEquals(3, fifo.poll());
+    }
+
+    public void testPollEmpty() throws Exception {
+        IntFifo fifo = new IntFifo();
+        try {
+            fifo.poll();
+            fail("Polling an empty fifo should throw");
+        }
+        catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+}
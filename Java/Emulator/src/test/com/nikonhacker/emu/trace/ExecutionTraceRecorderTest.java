@@ -0,0 +1,154 @@
+package com.nikonhacker.emu.trace;
+
+import com.nikonhacker.Constants;
+import com.nikonhacker.disassembly.OutputOption;
+import com.nikonhacker.disassembly.fr.FrCPUState;
+import com.nikonhacker.disassembly.CPUState;
+import com.nikonhacker.disassembly.fr.FrCodeStructure;
+import com.nikonhacker.emu.FrEmulator;
+import com.nikonhacker.emu.MasterClock;
+import com.nikonhacker.emu.Platform;
+import com.nikonhacker.emu.interrupt.fr.FrInterruptRequest;
+import com.nikonhacker.emu.memory.DebuggableMemory;
+import com.nikonhacker.emu.peripherials.interruptController.fr.FrInterruptController;
+import com.nikonhacker.gui.component.disassembly.DisassemblyLogger;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.EnumSet;
+
+public class ExecutionTraceRecorderTest extends TestCase {
+
+    private static final int BASE_ADDRESS    = 0x0004_0000;
+    private static final int HANDLER_ADDRESS = 0x0004_0100;
+    private static final int STACK_ADDRESS   = 0x0004_1000;
+    private static final int TBR             = 0x0004_2000;
+
+    private static final int INTERRUPT_NUMBER = 0x10;
+
+    public void testRecordAndRender() throws Exception {
+        File file = File.createTempFile("execution", ".trace");
+        file.deleteOnExit();
+
+        FrCPUState cpuState = new FrCPUState(0x40000);
+        ExecutionTraceRecorder recorder = new ExecutionTraceRecorder(file, Constants.CHIP_FR, true);
+        // Enough statements to require several buffer flushes
+        for (int i = 0; i < 50_000; i++) {
+            cpuState.pc = 0x40000 + 2 * i;
+            cpuState.setReg(4, i / 2);
+            recorder.recordStatement(1000L * i, cpuState);
+        }
+        recorder.recordInterrupt(50_000_000L, 0x1F);
+        recorder.close();
+
+        assertEquals(Constants.CHIP_FR, ExecutionTraceRenderer.readChip(file));
+
+        ExecutionTraceRenderer renderer = new ExecutionTraceRenderer(new FrCodeStructure(0x40000), EnumSet.noneOf(OutputOption.class));
+        renderer.setIncludeRegisters(true);
+        renderer.setTimeWindow(49_997_000L, Long.MAX_VALUE);
+        StringWriter writer = new StringWriter();
+        renderer.render(file, writer);
+
+        String[] lines = writer.toString().split(System.lineSeparator());
+        assertEquals(4, lines.length);
+        assertEquals("0000.049997000ms 0x0005869A ; not in code structure", lines[0]);
+        assertTrue(lines[1], lines[1].startsWith("0000.049998000ms 0x0005869C ; not in code structure ;"));
+        assertTrue(lines[1], lines[1].endsWith("=0x000061A7"));
+        assertEquals("0000.049999000ms 0x0005869E ; not in code structure", lines[2]);
+        assertEquals("0000.050000000ms ------------------------- Accepting interrupt 0x1F", lines[3]);
+    }
+
+    /**
+     * A trace that cannot be written to must be closed, so that the error is reported once, without stopping
+     * emulation
+     */
+    public void testWriteError() throws Exception {
+        for (boolean failOnInterrupt : new boolean[]{false, true}) {
+            Platform platform = new Platform(new MasterClock());
+            FrCPUState cpuState = new FrCPUState(BASE_ADDRESS);
+            platform.setCpuState(cpuState);
+            DebuggableMemory memory = new DebuggableMemory(false);
+            platform.setMemory(memory);
+            FrInterruptController interruptController = new FrInterruptController(platform);
+            platform.setInterruptController(interruptController);
+            FrEmulator emulator = new FrEmulator(platform);
+            emulator.setContext(memory, cpuState, interruptController);
+            emulator.clearBreakConditions();
+
+            // ADD #1,R3 then BRA to it, at BASE_ADDRESS and in the interrupt handler
+            for (int address : new int[]{BASE_ADDRESS, HANDLER_ADDRESS}) {
+                memory.store16(address, 0xA413);
+                memory.store16(address + 2, 0xE0FE);
+            }
+            memory.store32(TBR + 0x3FC - INTERRUPT_NUMBER * 4, HANDLER_ADDRESS);
+            cpuState.setReg(FrCPUState.TBR, TBR);
+            cpuState.setReg(FrCPUState.SSP, STACK_ADDRESS);
+            cpuState.setILM(0x1F, false);
+            cpuState.setCCR(0x10); // I flag
+
+            File file = File.createTempFile("execution", ".trace");
+            file.deleteOnExit();
+            FailingRecorder recorder = new FailingRecorder(file, failOnInterrupt);
+            DisassemblyLogger logger = new DisassemblyLogger();
+            logger.setTraceRecorder(recorder);
+            logger.setLogging(true);
+            emulator.setDisassemblyLogger(logger);
+
+            interruptController.request(new FrInterruptRequest(INTERRUPT_NUMBER, false, INTERRUPT_NUMBER));
+            for (int i = 0; i < 10; i++) {
+                emulator.onClockTick();
+            }
+
+            String failingRecord = failOnInterrupt ? "interrupt" : "statement";
+            assertEquals("Failing " + failingRecord, 1, recorder.numErrors);
+            assertEquals("Failing " + failingRecord, 1, recorder.numCloses);
+            // Emulation went on: the interrupt was taken, and the handler loop was run
+            assertTrue("Failing " + failingRecord, cpuState.pc == HANDLER_ADDRESS || cpuState.pc == HANDLER_ADDRESS + 2);
+            assertTrue("Failing " + failingRecord, cpuState.getReg(3) > 1);
+        }
+    }
+
+    private static class FailingRecorder extends ExecutionTraceRecorder {
+        private final boolean failOnInterrupt;
+        private boolean closed;
+        private int numErrors;
+        private int numCloses;
+
+        FailingRecorder(File file, boolean failOnInterrupt) throws IOException {
+            super(file, Constants.CHIP_FR, true);
+            this.failOnInterrupt = failOnInterrupt;
+        }
+
+        @Override
+        public synchronized void recordStatement(long timestampPs, CPUState cpuState) throws IOException {
+            if (!failOnInterrupt) {
+                throwIfOpen();
+            }
+            super.recordStatement(timestampPs, cpuState);
+        }
+
+        @Override
+        public synchronized void recordInterrupt(long timestampPs, int interruptNumber) throws IOException {
+            if (failOnInterrupt) {
+                throwIfOpen();
+            }
+            super.recordInterrupt(timestampPs, interruptNumber);
+        }
+
+        private void throwIfOpen() throws IOException {
+            if (!closed) {
+                numErrors++;
+                throw new IOException("Disk full");
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            closed = true;
+            numCloses++;
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.nikonhacker.gui.component.disassembly;
+
+import junit.framework.TestCase;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BackgroundLogWriterTest extends TestCase {
+
+    public void testBlockKeepsAllLinesInOrder() {
+        checkAllLinesInOrder(BackgroundLogWriter.OverflowPolicy.BLOCK);
+    }
+
+    public void testSpillKeepsAllLinesInOrder() {
+        checkAllLinesInOrder(BackgroundLogWriter.OverflowPolicy.SPILL);
+    }
+
+    private void checkAllLinesInOrder(BackgroundLogWriter.OverflowPolicy overflowPolicy) {
+        StringWriter stringWriter = new StringWriter();
+        List<Writer> writers = new ArrayList<>();
+        writers.add(stringWriter);
+        // Tiny capacity, so that overflow happens
+        BackgroundLogWriter backgroundWriter = new BackgroundLogWriter(writers, 16, overflowPolicy);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            backgroundWriter.write(i + "\n");
+            expected.append(i).append("\n");
+        }
+        backgroundWriter.close();
+        assertEquals(expected.toString(), stringWriter.toString());
+    }
+
+    /**
+     * A line written while the background thread waits for lines must be written without any flush
+     */
+    public void testIdleThreadIsWokenUp() throws Exception {
+        StringWriter stringWriter = new StringWriter();
+        List<Writer> writers = new ArrayList<>();
+        writers.add(stringWriter);
+        BackgroundLogWriter backgroundWriter = new BackgroundLogWriter(writers, 16, BackgroundLogWriter.OverflowPolicy.BLOCK);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            // Leave time for the background thread to wait
+            Thread.sleep(50);
+            backgroundWriter.write(i + "\n");
+            expected.append(i).append("\n");
+            for (int j = 0; j < 100 && !expected.toString().equals(stringWriter.toString()); j++) {
+                Thread.sleep(10);
+            }
+            assertEquals(expected.toString(), stringWriter.toString());
+        }
+        backgroundWriter.close();
+    }
+
+    public void testDropReportsDroppedLines() {
+        StringWriter stringWriter = new StringWriter();
+        List<Writer> writers = new ArrayList<>();
+        writers.add(stringWriter);
+        BackgroundLogWriter backgroundWriter = new BackgroundLogWriter(writers, 16, BackgroundLogWriter.OverflowPolicy.DROP);
+        for (int i = 0; i < 100_000; i++) {
+            backgroundWriter.write("line\n");
+        }
+        backgroundWriter.flush();
+        backgroundWriter.write("last\n");
+        backgroundWriter.close();
+
+        String[] lines = stringWriter.toString().split("\n");
+        int numDroppedLines = 0;
+        int numLines = 0;
+        for (String line : lines) {
+            if (line.startsWith("<< ")) {
+                numDroppedLines += Integer.parseInt(line.substring(3, line.indexOf(' ', 3)));
+            }
+            else {
+                numLines++;
+            }
+        }
+        assertEquals(100_001, numLines + numDroppedLines);
+        assertEquals("last", lines[lines.length - 1]);
+    }
+}